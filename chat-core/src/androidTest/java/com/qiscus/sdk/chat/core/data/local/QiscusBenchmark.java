@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import android.util.Log;
+
+/**
+ * Minimal timing loop for the micro-benchmarks, results are printed to logcat with tag QiscusBenchmark
+ */
+final class QiscusBenchmark {
+    private static final String TAG = "QiscusBenchmark";
+
+    interface Operation {
+        void run(int iteration);
+    }
+
+    private QiscusBenchmark() {
+    }
+
+    /**
+     * Run the operation warmUp times untimed, then iterations times timed
+     *
+     * @return average cost of one run in nanoseconds
+     */
+    static long measure(String name, int warmUp, int iterations, Operation operation) {
+        for (int i = 0; i < warmUp; i++) {
+            operation.run(i);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run(warmUp + i);
+        }
+        long cost = (System.nanoTime() - start) / iterations;
+        Log.i(TAG, name + ": " + cost + " ns/op over " + iterations + " runs");
+        return cost;
+    }
+
+    static void report(String name, long before, long after) {
+        Log.i(TAG, name + ": before " + before + " ns/op, after " + after + " ns/op, "
+                + String.format("%.2f", (double) before / Math.max(after, 1)) + "x");
+    }
+}
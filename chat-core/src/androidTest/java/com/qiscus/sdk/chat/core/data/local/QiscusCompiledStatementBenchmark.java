@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Per call cost of the hot writes before and after they were moved to compiled statements. Before, every call
+ * built its SQL with the values inlined so SQLite parsed and planned it again, the "before" runs here do the same
+ * in the same transaction the helper uses.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QiscusCompiledStatementBenchmark {
+    private static final int WARM_UP = 200;
+    private static final int ITERATIONS = 2000;
+    private static final int ROOMS = 10;
+
+    private QiscusDataBaseHelper dataBaseHelper;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        dataBaseHelper = QiscusTestDatabase.open();
+        db = dataBaseHelper.sqLiteDatabase;
+    }
+
+    @After
+    public void tearDown() {
+        QiscusTestDatabase.delete(dataBaseHelper);
+    }
+
+    @Test
+    public void updateLastDeliveredComment() {
+        long before = QiscusBenchmark.measure("updateLastDeliveredComment literal", WARM_UP, ITERATIONS, i ->
+                updateWatermarkWithLiterals(QiscusDb.WatermarkTable.COLUMN_LAST_DELIVERED, i % ROOMS + 1, i));
+        long after = QiscusBenchmark.measure("updateLastDeliveredComment compiled", WARM_UP, ITERATIONS, i ->
+                dataBaseHelper.updateLastDeliveredComment(i % ROOMS + 1, WARM_UP + ITERATIONS + i));
+        QiscusBenchmark.report("updateLastDeliveredComment", before, after);
+
+        assertEquals(2 * (WARM_UP + ITERATIONS) - 1, getWatermark(QiscusDb.WatermarkTable.COLUMN_LAST_DELIVERED,
+                (WARM_UP + ITERATIONS - 1) % ROOMS + 1));
+    }
+
+    @Test
+    public void updateLastReadComment() {
+        long before = QiscusBenchmark.measure("updateLastReadComment literal", WARM_UP, ITERATIONS, i ->
+                updateWatermarkWithLiterals(QiscusDb.WatermarkTable.COLUMN_LAST_READ, i % ROOMS + 1, i));
+        long after = QiscusBenchmark.measure("updateLastReadComment compiled", WARM_UP, ITERATIONS, i ->
+                dataBaseHelper.updateLastReadComment(i % ROOMS + 1, WARM_UP + ITERATIONS + i));
+        QiscusBenchmark.report("updateLastReadComment", before, after);
+
+        assertEquals(2 * (WARM_UP + ITERATIONS) - 1, getWatermark(QiscusDb.WatermarkTable.COLUMN_LAST_READ,
+                (WARM_UP + ITERATIONS - 1) % ROOMS + 1));
+    }
+
+    @Test
+    public void saveLocalPath() {
+        long before = QiscusBenchmark.measure("saveLocalPath literal", WARM_UP, ITERATIONS, i ->
+                saveLocalPathWithLiterals(i % ROOMS + 1, i, "/sdcard/Qiscus/image-" + i + ".png"));
+        long after = QiscusBenchmark.measure("saveLocalPath compiled", WARM_UP, ITERATIONS, i -> {
+            long commentId = WARM_UP + ITERATIONS + i;
+            dataBaseHelper.saveLocalPath(i % ROOMS + 1, commentId, "/sdcard/Qiscus/image-" + commentId + ".png");
+        });
+        QiscusBenchmark.report("saveLocalPath", before, after);
+
+        assertEquals(2 * (WARM_UP + ITERATIONS), DatabaseUtils.queryNumEntries(db, QiscusDb.FilesTable.TABLE_NAME));
+    }
+
+    private void updateWatermarkWithLiterals(String column, long roomId, long commentId) {
+        db.beginTransactionNonExclusive();
+        try {
+            db.execSQL("INSERT OR IGNORE INTO " + QiscusDb.WatermarkTable.TABLE_NAME
+                    + " (" + QiscusDb.WatermarkTable.COLUMN_ROOM_ID + ") VALUES (" + roomId + ")");
+            db.execSQL("UPDATE " + QiscusDb.WatermarkTable.TABLE_NAME
+                    + " SET " + column + " = MAX(" + column + ", " + commentId + ")"
+                    + " WHERE " + QiscusDb.WatermarkTable.COLUMN_ROOM_ID + " = " + roomId);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void saveLocalPathWithLiterals(long roomId, long commentId, String localPath) {
+        db.beginTransactionNonExclusive();
+        try {
+            db.execSQL("INSERT OR IGNORE INTO " + QiscusDb.FilesTable.TABLE_NAME
+                    + " (" + QiscusDb.FilesTable.COLUMN_ROOM_ID + ", " + QiscusDb.FilesTable.COLUMN_COMMENT_ID + ", "
+                    + QiscusDb.FilesTable.COLUMN_LOCAL_PATH + ") VALUES (" + roomId + ", " + commentId + ", "
+                    + DatabaseUtils.sqlEscapeString(localPath) + ")");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private long getWatermark(String column, long roomId) {
+        return DatabaseUtils.longForQuery(db, "SELECT " + column + " FROM " + QiscusDb.WatermarkTable.TABLE_NAME
+                        + " WHERE " + QiscusDb.WatermarkTable.COLUMN_ROOM_ID + " = ?",
+                new String[]{String.valueOf(roomId)});
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class QiscusDataBaseHelperContractTest extends QiscusDataStoreContractTest {
+    @Override
+    protected QiscusDataStore createDataStore() {
+        return QiscusTestDatabase.open();
+    }
+
+    @Override
+    protected void destroyDataStore(QiscusDataStore dataStore) {
+        QiscusTestDatabase.delete((QiscusDataBaseHelper) dataStore);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.qiscus.sdk.chat.core.data.model.QiscusChatRoom;
+import com.qiscus.sdk.chat.core.data.model.QiscusComment;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the reads of {@link QiscusDataBaseHelper} on the schema created by {@link QiscusDbOpenHelper}, which has
+ * the indexes added since v18, records every query it sends through the cursor factory and checks that
+ * EXPLAIN QUERY PLAN of each of them never reads a whole table. Walking an index in order is allowed.
+ * Aggregates over every room, like the total unread count, are full scans by nature and are not run here.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QiscusDataBaseHelperQueryPlanTest {
+    private static final String QUERY_PREFIX = "SQLiteQuery: ";
+    // "SCAN TABLE comments AS c" before SQLite 3.36, "SCAN c" after, without "USING ... INDEX" both read every row
+    private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (TABLE )?\\S+( AS \\S+)?$");
+
+    private final Set<String> queries = Collections.synchronizedSet(new LinkedHashSet<>());
+    private QiscusDataBaseHelper dataBaseHelper;
+
+    @Before
+    public void setUp() {
+        dataBaseHelper = QiscusTestDatabase.open((db, driver, editTable, query) -> {
+            String sql = query.toString();
+            queries.add(sql.startsWith(QUERY_PREFIX) ? sql.substring(QUERY_PREFIX.length()) : sql);
+            return new SQLiteCursor(driver, editTable, query);
+        });
+
+        List<QiscusChatRoom> qiscusChatRooms = new ArrayList<>();
+        for (long roomId = 1; roomId <= 5; roomId++) {
+            QiscusChatRoom qiscusChatRoom = QiscusTestData.createRoom(roomId);
+            qiscusChatRoom.setMember(new ArrayList<>(Arrays.asList(
+                    QiscusTestData.createMember("sender1@example.com"),
+                    QiscusTestData.createMember("sender2@example.com"))));
+            qiscusChatRooms.add(qiscusChatRoom);
+        }
+        dataBaseHelper.addOrUpdateChatRooms(qiscusChatRooms);
+
+        List<QiscusComment> qiscusComments = new ArrayList<>();
+        for (long commentId = 1; commentId <= 200; commentId++) {
+            qiscusComments.add(QiscusTestData.createComment(commentId % 5 + 1, commentId,
+                    Math.max(commentId - 5, 0), 1000000L + commentId));
+        }
+        dataBaseHelper.addOrUpdateComments(qiscusComments);
+        dataBaseHelper.saveLocalPath(1, 5, "/sdcard/Qiscus/image.png");
+        dataBaseHelper.updateLastDeliveredComment(1, 100);
+        dataBaseHelper.updateLastReadComment(1, 50);
+    }
+
+    @After
+    public void tearDown() {
+        QiscusTestDatabase.delete(dataBaseHelper);
+    }
+
+    @Test
+    public void readsNeverScanWholeTable() {
+        QiscusComment lastComment = dataBaseHelper.getComment("comment-1-100");
+        QiscusChatRoom lastRoom = dataBaseHelper.getChatRoom(3);
+
+        dataBaseHelper.isContains(lastRoom);
+        dataBaseHelper.getLightChatRoom(2);
+        dataBaseHelper.getChatRoom("sender1@example.com", "distinct-1");
+        dataBaseHelper.getChatRoomWithUniqueId("room-4");
+        dataBaseHelper.getChatRooms(20);
+        dataBaseHelper.getChatRooms(lastRoom, 20);
+        dataBaseHelper.getChatRoomListItems(20);
+        dataBaseHelper.getChatRooms(Arrays.asList(1L, 2L), Collections.singletonList("room-5"));
+        dataBaseHelper.isContainsRoomMember(1, "sender1@example.com");
+        dataBaseHelper.getRoomMembers(1);
+        dataBaseHelper.getMember("sender1@example.com");
+
+        dataBaseHelper.isContains(lastComment);
+        dataBaseHelper.getCommentByBeforeId(95);
+        dataBaseHelper.getComments(1);
+        dataBaseHelper.getComments(1, 20);
+        dataBaseHelper.getComments(1, 1000100L);
+        dataBaseHelper.getOlderCommentsThan(lastComment, 1, 20);
+        dataBaseHelper.getCommentsAfter(lastComment, 1);
+        dataBaseHelper.getContiguousCommentsStart(1, 100);
+        dataBaseHelper.getLatestComment();
+        dataBaseHelper.getLatestComment(1);
+        dataBaseHelper.getLatestDeliveredComment(1);
+        dataBaseHelper.getLatestReadComment(1);
+        dataBaseHelper.getPendingComments();
+        dataBaseHelper.searchComments("message", 1, 20, 0);
+        dataBaseHelper.searchComments("message", 20, 0);
+        dataBaseHelper.searchComments("message", 1, null, 20);
+        dataBaseHelper.searchComments("message", null, 20);
+        dataBaseHelper.isContainsFileOfComment(5);
+        dataBaseHelper.getLocalPath(5);
+        dataBaseHelper.getMediaComments(1, QiscusComment.Type.IMAGE, null, 20);
+        dataBaseHelper.getMediaComments(1, QiscusComment.Type.IMAGE, lastComment, 20);
+
+        List<String> recordedQueries;
+        synchronized (queries) {
+            recordedQueries = new ArrayList<>(queries);
+        }
+        assertFalse("No query recorded", recordedQueries.isEmpty());
+        for (String query : recordedQueries) {
+            assertNoFullScan(query);
+        }
+    }
+
+    @Test
+    public void compiledStatementsNeverScanWholeTable() {
+        assertNoFullScan(QiscusDb.WatermarkTable.UPDATE_LAST_DELIVERED);
+        assertNoFullScan(QiscusDb.WatermarkTable.UPDATE_LAST_READ);
+        assertNoFullScan(QiscusDb.CommentRangeTable.SELECT_MERGED_START);
+        assertNoFullScan(QiscusDb.CommentRangeTable.SELECT_MERGED_END);
+        assertNoFullScan(QiscusDb.CommentRangeTable.DELETE_TOUCHING);
+        assertNoFullScan(QiscusDb.CommentRangeTable.SELECT_CONTAINING);
+        assertNoFullScan(QiscusDb.RoomTable.UPDATE_LAST_COMMENT);
+        assertNoFullScan(QiscusDb.CommentTable.UPDATE);
+    }
+
+    private void assertNoFullScan(String query) {
+        SQLiteDatabase db = dataBaseHelper.sqLiteDatabase;
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, null);
+        StringBuilder plan = new StringBuilder();
+        boolean fullScan = false;
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                String detail = cursor.getString(detailIndex);
+                plan.append('\n').append(detail);
+                fullScan |= FULL_SCAN.matcher(detail).matches();
+            }
+        } finally {
+            cursor.close();
+        }
+        assertTrue("Empty plan of " + query, plan.length() > 0);
+        assertFalse("Full table scan in " + query + plan, fullScan);
+    }
+}
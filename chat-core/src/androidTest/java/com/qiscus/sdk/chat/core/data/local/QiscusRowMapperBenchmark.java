@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import android.database.Cursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.qiscus.sdk.chat.core.data.model.QiscusChatRoom;
+import com.qiscus.sdk.chat.core.data.model.QiscusComment;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cost of reading 10k rows before and after the row mappers and the room list projection. Before, every row looked
+ * up each column by name and room lists read every column of the room, its last comment and its members.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QiscusRowMapperBenchmark {
+    private static final int ROWS = 10000;
+    private static final int WARM_UP = 2;
+    private static final int ITERATIONS = 10;
+    // Extras of a custom comment are often a few hundred bytes, the list item projection leaves them out
+    private static final String EXTRAS = "{\"description\":\"" + new String(new char[512]).replace('\0', 'x') + "\"}";
+
+    private QiscusDataBaseHelper dataBaseHelper;
+
+    @Before
+    public void setUp() {
+        dataBaseHelper = QiscusTestDatabase.open();
+    }
+
+    @After
+    public void tearDown() {
+        QiscusTestDatabase.delete(dataBaseHelper);
+    }
+
+    @Test
+    public void mapComments() {
+        List<QiscusComment> qiscusComments = new ArrayList<>(ROWS);
+        for (long commentId = 1; commentId <= ROWS; commentId++) {
+            QiscusComment qiscusComment = QiscusTestData.createComment(1, commentId, commentId - 1, commentId * 1000);
+            qiscusComment.setRawExtras(EXTRAS);
+            qiscusComments.add(qiscusComment);
+        }
+        dataBaseHelper.addOrUpdateComments(qiscusComments);
+
+        String query = "SELECT * FROM " + QiscusDb.CommentTable.TABLE_NAME
+                + " WHERE " + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = 1"
+                + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC";
+        long before = QiscusBenchmark.measure("map comments column lookup", WARM_UP, ITERATIONS, i ->
+                assertEquals(ROWS, mapComments(query, false)));
+        long after = QiscusBenchmark.measure("map comments row mapper", WARM_UP, ITERATIONS, i ->
+                assertEquals(ROWS, mapComments(query, true)));
+        QiscusBenchmark.report("map " + ROWS + " comments", before, after);
+    }
+
+    @Test
+    public void roomListItems() {
+        List<QiscusChatRoom> qiscusChatRooms = new ArrayList<>(ROWS);
+        for (long roomId = 1; roomId <= ROWS; roomId++) {
+            QiscusChatRoom qiscusChatRoom = QiscusTestData.createRoom(roomId);
+            qiscusChatRoom.setMember(new ArrayList<>(Arrays.asList(
+                    QiscusTestData.createMember("sender" + roomId % 10 + "@example.com"),
+                    QiscusTestData.createMember("user" + roomId + "@example.com"))));
+            QiscusComment lastComment = QiscusTestData.createComment(roomId, roomId, 0, roomId * 1000);
+            lastComment.setRawExtras(EXTRAS);
+            qiscusChatRoom.setLastComment(lastComment);
+            qiscusChatRooms.add(qiscusChatRoom);
+        }
+        dataBaseHelper.addOrUpdateChatRooms(qiscusChatRooms);
+
+        long before = QiscusBenchmark.measure("room list full rooms", WARM_UP, ITERATIONS, i ->
+                assertEquals(ROWS, dataBaseHelper.getChatRooms(-1).size()));
+        long after = QiscusBenchmark.measure("room list items", WARM_UP, ITERATIONS, i ->
+                assertEquals(ROWS, dataBaseHelper.getChatRoomListItems(-1).size()));
+        QiscusBenchmark.report("list " + ROWS + " rooms", before, after);
+
+        QiscusChatRoom listItem = dataBaseHelper.getChatRoomListItems(1).get(0);
+        assertEquals(ROWS, listItem.getId());
+        assertTrue(listItem.getMember().isEmpty());
+        assertEquals("comment-" + ROWS + "-" + ROWS, listItem.getLastComment().getUniqueId());
+        assertNull(listItem.getLastComment().getRawExtras());
+    }
+
+    private int mapComments(String query, boolean rowMapper) {
+        Cursor cursor = dataBaseHelper.sqLiteDatabase.rawQuery(query, null);
+        int count = 0;
+        try {
+            QiscusDb.CommentTable.RowMapper commentMapper = rowMapper ? new QiscusDb.CommentTable.RowMapper(cursor) : null;
+            while (cursor.moveToNext()) {
+                QiscusComment qiscusComment = rowMapper ? commentMapper.map(cursor) : mapWithColumnLookup(cursor);
+                if (qiscusComment.getId() > 0) {
+                    count++;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return count;
+    }
+
+    // Same as QiscusDb.CommentTable.parseCursor before the row mappers
+    private static QiscusComment mapWithColumnLookup(Cursor cursor) {
+        QiscusComment qiscusComment = new QiscusComment();
+        qiscusComment.setId(cursor.getLong(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_ID)));
+        qiscusComment.setRoomId(cursor.getLong(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_ROOM_ID)));
+        qiscusComment.setUniqueId(cursor.getString(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_UNIQUE_ID)));
+        qiscusComment.setCommentBeforeId(cursor.getLong(
+                cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_COMMENT_BEFORE_ID)));
+        qiscusComment.setMessage(cursor.getString(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_MESSAGE)));
+        qiscusComment.setSender(cursor.getString(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_SENDER)));
+        qiscusComment.setSenderEmail(cursor.getString(
+                cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_SENDER_EMAIL)));
+        qiscusComment.setSenderAvatar(cursor.getString(
+                cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_SENDER_AVATAR)));
+        qiscusComment.setTime(new Date(cursor.getLong(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_TIME))));
+        qiscusComment.setState(cursor.getInt(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_STATE)));
+        qiscusComment.setDeleted(cursor.getInt(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_DELETED)) == 1);
+        qiscusComment.setHardDeleted(cursor.getInt(
+                cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_HARD_DELETED)) == 1);
+        qiscusComment.setRawType(cursor.getString(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_TYPE)));
+        qiscusComment.setExtraPayload(cursor.getString(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_PAYLOAD)));
+        qiscusComment.setRawExtras(cursor.getString(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_EXTRAS)));
+        return qiscusComment;
+    }
+}
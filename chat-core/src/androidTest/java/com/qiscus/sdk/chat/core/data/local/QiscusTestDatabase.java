@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import android.app.Application;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+
+import com.qiscus.sdk.chat.core.QiscusCore;
+import com.qiscus.sdk.chat.core.data.model.QiscusDatabaseConfig;
+
+/**
+ * Opens a {@link QiscusDataBaseHelper} on a separate database file, so the tests never touch qiscus.db
+ */
+final class QiscusTestDatabase {
+    static final String DATABASE_NAME = "qiscus_test.db";
+
+    private QiscusTestDatabase() {
+    }
+
+    static QiscusDataBaseHelper open() {
+        return open(null);
+    }
+
+    static QiscusDataBaseHelper open(SQLiteDatabase.CursorFactory cursorFactory) {
+        Context context = InstrumentationRegistry.getTargetContext();
+        initCore(context);
+        context.deleteDatabase(DATABASE_NAME);
+        return new QiscusDataBaseHelper(new QiscusDbOpenHelper(context, DATABASE_NAME, cursorFactory,
+                new QiscusDatabaseConfig()));
+    }
+
+    static void delete(QiscusDataBaseHelper dataBaseHelper) {
+        dataBaseHelper.sqLiteDatabase.close();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(DATABASE_NAME);
+    }
+
+    // The writes notify the live queries through QiscusCore task executor
+    private static void initCore(Context context) {
+        try {
+            QiscusCore.checkAppIdSetup();
+        } catch (RuntimeException e) {
+            QiscusCore.init((Application) context.getApplicationContext(), "qiscus-test");
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.qiscus.sdk.chat.core.data.model.QiscusChatRoom;
+import com.qiscus.sdk.chat.core.data.model.QiscusComment;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+import rx.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Queued writes are copied with a Parcel, so it runs as instrumentation test
+ */
+@RunWith(AndroidJUnit4.class)
+public class QiscusWriteBehindDataStoreTest {
+    private FailingDataStore delegate;
+    private QiscusWriteBehindDataStore dataStore;
+
+    @Before
+    public void setUp() {
+        delegate = new FailingDataStore();
+        dataStore = new QiscusWriteBehindDataStore(delegate);
+        dataStore.setEnabled(true);
+    }
+
+    @Test
+    public void failedBatchOnlyDropsFailingWrite() {
+        delegate.failingUniqueId = "comment-1-2";
+        dataStore.addOrUpdateComments(Arrays.asList(
+                QiscusTestData.createComment(1, 1, 0, 1000),
+                QiscusTestData.createComment(1, 2, 1, 2000),
+                QiscusTestData.createComment(1, 3, 2, 3000)));
+        dataStore.flush();
+
+        assertEquals(1, dataStore.getFailedWriteCount());
+        assertNotNull(delegate.getComment("comment-1-1"));
+        assertNull(delegate.getComment("comment-1-2"));
+        assertNotNull(delegate.getComment("comment-1-3"));
+    }
+
+    @Test
+    public void failedSingleWriteIsCounted() {
+        delegate.failingUniqueId = "comment-1-1";
+        dataStore.addOrUpdate(QiscusTestData.createComment(1, 1, 0, 1000));
+        dataStore.flush();
+
+        assertEquals(1, dataStore.getFailedWriteCount());
+        assertNull(delegate.getComment("comment-1-1"));
+    }
+
+    @Test
+    public void requeuedRoomKeepsNewerComment() {
+        QiscusChatRoom qiscusChatRoom = QiscusTestData.createRoom(1);
+        qiscusChatRoom.setLastComment(QiscusTestData.createComment(1, 1, 0, 1000));
+        dataStore.addOrUpdate(qiscusChatRoom);
+        QiscusComment editedComment = QiscusTestData.createComment(1, 1, 0, 1000);
+        editedComment.setMessage("Edited");
+        dataStore.addOrUpdate(editedComment);
+        // Moved after the comment write, with the old copy of the comment
+        dataStore.addOrUpdate(qiscusChatRoom);
+        dataStore.flush();
+
+        assertEquals("Edited", delegate.getComment("comment-1-1").getMessage());
+        assertEquals("Edited", delegate.getChatRoom(1).getLastComment().getMessage());
+        assertEquals(0, dataStore.getFailedWriteCount());
+    }
+
+    @Test
+    public void queuedCopyIgnoresLaterChanges() {
+        QiscusComment qiscusComment = QiscusTestData.createComment(1, 1, 0, 1000);
+        dataStore.addOrUpdate(qiscusComment);
+        qiscusComment.setMessage("Changed after queued");
+        dataStore.flush();
+
+        assertEquals("Message number 1 of room 1", delegate.getComment("comment-1-1").getMessage());
+    }
+
+    private static class FailingDataStore extends QiscusMemoryDataStore {
+        private volatile String failingUniqueId;
+
+        private FailingDataStore() {
+            super(new QiscusDbInvalidationTracker(Schedulers.computation()));
+        }
+
+        @Override
+        public boolean addOrUpdateComments(List<QiscusComment> qiscusComments) {
+            for (QiscusComment qiscusComment : qiscusComments) {
+                if (qiscusComment.getUniqueId().equals(failingUniqueId)) {
+                    return false;
+                }
+            }
+            return super.addOrUpdateComments(qiscusComments);
+        }
+    }
+}
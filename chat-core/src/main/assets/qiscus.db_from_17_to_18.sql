@@ -0,0 +1,15 @@
+/**
+ * migration db v17 to v18
+ */
+
+DROP INDEX IF EXISTS comments_message_index;
+DROP INDEX IF EXISTS comments_room_id_index;
+DROP INDEX IF EXISTS room_members_distinct_id_index;
+CREATE INDEX IF NOT EXISTS comments_room_id_hard_deleted_time_index ON comments (room_id, hard_deleted, time);
+CREATE INDEX IF NOT EXISTS comments_id_index ON comments (id);
+CREATE INDEX IF NOT EXISTS comments_comment_before_id_index ON comments (comment_before_id);
+CREATE INDEX IF NOT EXISTS comments_state_time_index ON comments (state, time);
+CREATE INDEX IF NOT EXISTS comments_time_index ON comments (time);
+CREATE INDEX IF NOT EXISTS room_members_distinct_id_user_email_index ON room_members (distinct_id, user_email);
+CREATE INDEX IF NOT EXISTS rooms_unique_id_index ON rooms (unique_id);
+CREATE INDEX IF NOT EXISTS files_room_id_index ON files (room_id);
@@ -0,0 +1,12 @@
+/**
+ * migration db v18 to v19
+ * every statement must be written in one line, including the triggers
+ */
+
+ALTER TABLE comments ADD COLUMN caption TEXT;
+CREATE VIRTUAL TABLE comments_fts USING fts4(message, caption);
+INSERT INTO comments_fts (docid, message, caption) SELECT rowid, message, caption FROM comments;
+CREATE TRIGGER IF NOT EXISTS comments_fts_before_insert BEFORE INSERT ON comments BEGIN DELETE FROM comments_fts WHERE docid IN (SELECT rowid FROM comments WHERE unique_id = NEW.unique_id); END;
+CREATE TRIGGER IF NOT EXISTS comments_fts_after_insert AFTER INSERT ON comments BEGIN INSERT INTO comments_fts (docid, message, caption) VALUES (NEW.rowid, NEW.message, NEW.caption); END;
+CREATE TRIGGER IF NOT EXISTS comments_fts_after_update AFTER UPDATE OF message, caption ON comments BEGIN UPDATE comments_fts SET message = NEW.message, caption = NEW.caption WHERE docid = NEW.rowid; END;
+CREATE TRIGGER IF NOT EXISTS comments_fts_after_delete AFTER DELETE ON comments BEGIN DELETE FROM comments_fts WHERE docid = OLD.rowid; END;
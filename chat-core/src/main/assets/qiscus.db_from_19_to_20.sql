@@ -0,0 +1,7 @@
+/**
+ * migration db v19 to v20
+ * every statement must be written in one line
+ */
+
+CREATE TABLE room_watermarks (room_id LONG PRIMARY KEY, last_delivered_comment_id LONG DEFAULT 0, last_read_comment_id LONG DEFAULT 0);
+INSERT INTO room_watermarks (room_id, last_delivered_comment_id, last_read_comment_id) SELECT room_id, MAX(CASE WHEN state >= 3 THEN id ELSE 0 END), MAX(CASE WHEN state = 4 THEN id ELSE 0 END) FROM comments WHERE id != -1 GROUP BY room_id;
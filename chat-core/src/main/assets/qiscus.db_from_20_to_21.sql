@@ -0,0 +1,7 @@
+/**
+ * migration db v20 to v21
+ * media_type of downloaded attachments is filled by QiscusDbOpenHelper after this script
+ */
+
+ALTER TABLE comments ADD COLUMN media_type TEXT;
+CREATE INDEX IF NOT EXISTS comments_room_id_media_type_time_index ON comments (room_id, media_type, time);
@@ -0,0 +1,6 @@
+/**
+ * migration db v21 to v22
+ * comment_ranges of stored comments is filled by QiscusDbOpenHelper after this script
+ */
+
+CREATE TABLE comment_ranges (room_id LONG NOT NULL, start_comment_id LONG NOT NULL, end_comment_id LONG NOT NULL, PRIMARY KEY (room_id, end_comment_id));
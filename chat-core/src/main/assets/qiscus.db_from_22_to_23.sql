@@ -0,0 +1,9 @@
+/**
+ * migration db v22 to v23
+ */
+
+ALTER TABLE rooms ADD COLUMN last_comment_time LONG DEFAULT 0;
+ALTER TABLE rooms ADD COLUMN last_comment_unique_id TEXT;
+UPDATE rooms SET last_comment_unique_id = (SELECT unique_id FROM comments WHERE room_id = rooms.id AND hard_deleted = 0 ORDER BY time DESC LIMIT 1);
+UPDATE rooms SET last_comment_time = IFNULL((SELECT time FROM comments WHERE unique_id = rooms.last_comment_unique_id), 0);
+CREATE INDEX IF NOT EXISTS rooms_last_comment_time_id_index ON rooms (last_comment_time, id);
@@ -26,8 +26,10 @@ import android.support.annotation.RestrictTo;
 import com.google.firebase.iid.FirebaseInstanceId;
 import com.google.gson.Gson;
 import com.qiscus.sdk.chat.core.data.local.QiscusCacheManager;
+import com.qiscus.sdk.chat.core.data.local.QiscusCommentCacheDataStore;
 import com.qiscus.sdk.chat.core.data.local.QiscusDataBaseHelper;
 import com.qiscus.sdk.chat.core.data.local.QiscusDataStore;
+import com.qiscus.sdk.chat.core.data.local.QiscusWriteBehindDataStore;
 import com.qiscus.sdk.chat.core.data.model.QiscusAccount;
 import com.qiscus.sdk.chat.core.data.model.QiscusCoreChatConfig;
 import com.qiscus.sdk.chat.core.data.remote.QiscusApi;
@@ -135,7 +137,7 @@ public class QiscusCore {
         appHandler = new Handler(QiscusCore.getApps().getApplicationContext().getMainLooper());
         taskExecutor = new ScheduledThreadPoolExecutor(5);
         localDataManager = new LocalDataManager();
-        dataStore = new QiscusDataBaseHelper();
+        dataStore = new QiscusCommentCacheDataStore(new QiscusWriteBehindDataStore(new QiscusDataBaseHelper()));
         heartBeat = 60000;
 
         QiscusCore.enableMqttLB = enableMqttLB;
@@ -32,7 +32,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created on : May 25, 2016
@@ -129,10 +132,42 @@ public enum QiscusCacheManager {
     }
 
     public void setLastChatActivity(boolean active, long roomId) {
-        sharedPreferences.edit()
+        SharedPreferences.Editor editor = sharedPreferences.edit()
                 .putBoolean("last_chat_status", active)
-                .putLong("last_active_chat", roomId)
-                .apply();
+                .putLong("last_active_chat", roomId);
+        if (active) {
+            editor.putLong("room_opened_at_" + roomId, System.currentTimeMillis());
+        }
+        editor.apply();
+    }
+
+    /**
+     * @return rooms opened at or after the time, they are exempt from the compaction
+     */
+    public Set<Long> getRoomIdsOpenedSince(long time) {
+        Set<Long> roomIds = new HashSet<>();
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+            if (entry.getKey().startsWith("room_opened_at_") && entry.getValue() instanceof Long
+                    && (Long) entry.getValue() >= time) {
+                roomIds.add(Long.parseLong(entry.getKey().substring("room_opened_at_".length())));
+            }
+        }
+        return roomIds;
+    }
+
+    /**
+     * Forget the rooms opened before the time, the compaction calls it so a key of every room ever opened
+     * doesn't pile up
+     */
+    public void removeRoomsOpenedBefore(long time) {
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+            if (entry.getKey().startsWith("room_opened_at_") && entry.getValue() instanceof Long
+                    && (Long) entry.getValue() < time) {
+                editor.remove(entry.getKey());
+            }
+        }
+        editor.apply();
     }
 
     public Pair<Boolean, Long> getLastChatActivity() {
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import android.os.Parcel;
+
+import com.qiscus.sdk.chat.core.data.model.QiscusChatRoom;
+import com.qiscus.sdk.chat.core.data.model.QiscusRoomMember;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Least recently used rooms loaded from the database, keyed by id and unique id.
+ * Rooms are mutable, so a copy is stored and every get return a new copy.
+ * The store must remove the room after writing anything shown in it, after the transaction is committed.
+ */
+final class QiscusChatRoomCache {
+    private final int maxSize;
+    private final LinkedHashMap<Long, QiscusChatRoom> rooms = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> roomIds = new HashMap<>();
+
+    // Increased by every removal, a room loaded before it may already be outdated
+    private long version;
+    private long hitCount;
+    private long missCount;
+
+    QiscusChatRoomCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    synchronized QiscusChatRoom get(long roomId) {
+        QiscusChatRoom qiscusChatRoom = rooms.get(roomId);
+        if (qiscusChatRoom == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return copy(qiscusChatRoom);
+    }
+
+    synchronized QiscusChatRoom get(String uniqueId) {
+        Long roomId = roomIds.get(uniqueId);
+        if (roomId == null) {
+            missCount++;
+            return null;
+        }
+        return get(roomId);
+    }
+
+    /**
+     * Call it before loading the room, then pass it to {@link #put(QiscusChatRoom, long)}
+     */
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param version the version taken before the room was loaded, the room is not cached if it's outdated
+     */
+    synchronized void put(QiscusChatRoom qiscusChatRoom, long version) {
+        if (this.version != version || maxSize <= 0) {
+            return;
+        }
+
+        removeRoom(qiscusChatRoom.getId());
+        rooms.put(qiscusChatRoom.getId(), copy(qiscusChatRoom));
+        if (qiscusChatRoom.getUniqueId() != null) {
+            roomIds.put(qiscusChatRoom.getUniqueId(), qiscusChatRoom.getId());
+        }
+
+        Iterator<QiscusChatRoom> eldest = rooms.values().iterator();
+        while (rooms.size() > maxSize) {
+            QiscusChatRoom evicted = eldest.next();
+            eldest.remove();
+            if (evicted.getUniqueId() != null) {
+                roomIds.remove(evicted.getUniqueId());
+            }
+        }
+    }
+
+    synchronized void remove(long roomId) {
+        version++;
+        removeRoom(roomId);
+    }
+
+    synchronized void remove(Collection<Long> roomIds) {
+        version++;
+        for (Long roomId : roomIds) {
+            removeRoom(roomId);
+        }
+    }
+
+    /**
+     * Member profile is shown in every room joined by the member, so remove all of them
+     */
+    synchronized void removeRoomsOf(Collection<QiscusRoomMember> qiscusRoomMembers) {
+        version++;
+        if (rooms.isEmpty()) {
+            return;
+        }
+
+        Set<String> emails = new HashSet<>(qiscusRoomMembers.size());
+        for (QiscusRoomMember qiscusRoomMember : qiscusRoomMembers) {
+            emails.add(qiscusRoomMember.getEmail());
+        }
+
+        Iterator<QiscusChatRoom> iterator = rooms.values().iterator();
+        while (iterator.hasNext()) {
+            QiscusChatRoom qiscusChatRoom = iterator.next();
+            for (QiscusRoomMember member : qiscusChatRoom.getMember()) {
+                if (emails.contains(member.getEmail())) {
+                    iterator.remove();
+                    if (qiscusChatRoom.getUniqueId() != null) {
+                        roomIds.remove(qiscusChatRoom.getUniqueId());
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        version++;
+        rooms.clear();
+        roomIds.clear();
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private void removeRoom(long roomId) {
+        QiscusChatRoom removed = rooms.remove(roomId);
+        if (removed != null && removed.getUniqueId() != null) {
+            roomIds.remove(removed.getUniqueId());
+        }
+    }
+
+    // Deep copy, including the members and the last comment
+    private static QiscusChatRoom copy(QiscusChatRoom qiscusChatRoom) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            qiscusChatRoom.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return QiscusChatRoom.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -38,8 +38,20 @@ public interface QiscusChatRoomStore {
 
     void addOrUpdate(QiscusChatRoom qiscusChatRoom);
 
+    /**
+     * Save them all in one transaction
+     *
+     * @return false if the write failed and nothing was saved
+     */
+    boolean addOrUpdateChatRooms(List<QiscusChatRoom> qiscusChatRooms);
+
     QiscusChatRoom getChatRoom(long roomId);
 
+    /**
+     * Load only the room itself without members and last comment, for checking the room flags like channel or group
+     */
+    QiscusChatRoom getLightChatRoom(long roomId);
+
     QiscusChatRoom getChatRoom(String email);
 
     QiscusChatRoom getChatRoom(String email, String distinctId);
@@ -48,12 +60,47 @@ public interface QiscusChatRoomStore {
 
     List<QiscusChatRoom> getChatRooms(int limit);
 
+    /**
+     * Next page of {@link #getChatRooms(int)}, a page costs the same however many rooms are stored.
+     *
+     * @param lastRoom last room of the previous page, null for the first page
+     */
+    List<QiscusChatRoom> getChatRooms(QiscusChatRoom lastRoom, int limit);
+
     Observable<List<QiscusChatRoom>> getObservableChatRooms(int limit);
 
+    /**
+     * Same as {@link #getObservableChatRooms(int)} but never complete, emit again every time the stored rooms changed
+     */
+    Observable<List<QiscusChatRoom>> getLiveChatRooms(int limit);
+
+    /**
+     * Same as {@link #getChatRooms(int)} but only with what a room list shows, the rooms have no members and options,
+     * the last comment has no extras. Load the full room with {@link #getChatRoom(long)} before opening it.
+     */
+    List<QiscusChatRoom> getChatRoomListItems(int limit);
+
+    /**
+     * Same as {@link #getChatRoomListItems(int)} but never complete, emit again every time the stored rooms changed
+     */
+    Observable<List<QiscusChatRoom>> getLiveChatRoomListItems(int limit);
+
     List<QiscusChatRoom> getChatRooms(List<Long> roomIds, List<String> uniqueIds);
 
     void deleteChatRoom(long roomId);
 
+    /**
+     * Add one to the unread count of the stored room, do nothing if the room is not stored
+     */
+    void incrementUnreadCount(long roomId);
+
+    void resetUnreadCount(long roomId);
+
+    /**
+     * @return sum of unread count of all stored rooms, without any network call
+     */
+    int getTotalUnreadCount();
+
     void addRoomMember(long roomId, QiscusRoomMember qiscusRoomMember, String distinctId);
 
     boolean isContainsRoomMember(long roomId, String email);
@@ -62,6 +109,13 @@ public interface QiscusChatRoomStore {
 
     void addOrUpdateRoomMember(long roomId, QiscusRoomMember qiscusRoomMember, String distinctId);
 
+    /**
+     * Save them all in one transaction
+     *
+     * @return false if the write failed and nothing was saved
+     */
+    boolean addOrUpdateRoomMembers(long roomId, List<QiscusRoomMember> qiscusRoomMembers, String distinctId);
+
     List<QiscusRoomMember> getRoomMembers(long roomId);
 
     void deleteRoomMember(long roomId, String email);
@@ -0,0 +1,1093 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import android.support.v4.util.Pair;
+
+import com.qiscus.sdk.chat.core.data.model.QiscusChatRoom;
+import com.qiscus.sdk.chat.core.data.model.QiscusComment;
+import com.qiscus.sdk.chat.core.data.model.QiscusCommentSearchResult;
+import com.qiscus.sdk.chat.core.data.model.QiscusCompactionResult;
+import com.qiscus.sdk.chat.core.data.model.QiscusDatabaseConfig;
+import com.qiscus.sdk.chat.core.data.model.QiscusRetentionPolicy;
+import com.qiscus.sdk.chat.core.data.model.QiscusRoomMember;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import rx.Emitter;
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Data store keeping the newest comments of the most recently used rooms in memory, in front of the delegate.
+ * Pages of comments covered by the window of the room are answered without querying the delegate,
+ * every write goes through to the delegate and is applied to the windows in the same order.
+ * Pages are still answered from the windows while a write is running on the delegate, the windows are updated
+ * after it.
+ * <p>
+ * Sender profile and delivered or read state of a comment are resolved by the delegate, so a comment written
+ * through the cache is loaded once from the delegate the first time it's read, and the cached state follows
+ * the room watermarks written through the cache. Writes made directly to the delegate are not seen,
+ * always write through this store.
+ * <p>
+ * Windows are evicted by least recently used room when there are too many of them or when the estimated
+ * size of the cached comments is over the memory budget.
+ */
+public class QiscusCommentCacheDataStore implements QiscusDataStore {
+    private static final int DEFAULT_MAX_ROOMS = 10;
+    private static final int DEFAULT_WINDOW_SIZE = 100;
+    private static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+    // Same order as ORDER BY time DESC, unique_id DESC. Null unique id is only used by the probes,
+    // it is placed before every comment of the same time
+    private static final Comparator<CachedComment> NEWEST_FIRST = (lhs, rhs) -> {
+        if (lhs.time != rhs.time) {
+            return lhs.time > rhs.time ? -1 : 1;
+        }
+        if (lhs.uniqueId == null || rhs.uniqueId == null) {
+            return lhs.uniqueId == null ? (rhs.uniqueId == null ? 0 : -1) : 1;
+        }
+        return rhs.uniqueId.compareTo(lhs.uniqueId);
+    };
+
+    private final QiscusDataStore delegate;
+    private final int maxRooms;
+    private final int windowSize;
+    private long maxBytes;
+
+    private final Object lock = new Object();
+    // Held by a write from the delegate call until it's applied to the windows, so the windows are updated
+    // in the same order as the delegate. Always taken before the lock, readers only take the lock
+    private final Object writeLock = new Object();
+    private final LinkedHashMap<Long, RoomWindow> windows = new LinkedHashMap<>(16, 0.75f, true);
+    // Increased by every write, a window loaded before it may already be outdated
+    private long version;
+    private long residentBytes;
+    private long hitCount;
+    private long missCount;
+
+    public QiscusCommentCacheDataStore(QiscusDataStore delegate) {
+        this(delegate, DEFAULT_MAX_ROOMS, DEFAULT_WINDOW_SIZE, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxRooms   max rooms with cached comments
+     * @param windowSize max cached comments of a room, bigger pages are always loaded from the delegate
+     * @param maxBytes   memory budget of all cached comments, the size of a comment is estimated from its strings
+     */
+    public QiscusCommentCacheDataStore(QiscusDataStore delegate, int maxRooms, int windowSize, long maxBytes) {
+        this.delegate = delegate;
+        this.maxRooms = maxRooms;
+        this.windowSize = windowSize;
+        this.maxBytes = maxBytes;
+    }
+
+    public QiscusDataStore getDelegate() {
+        return delegate;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        synchronized (lock) {
+            this.maxBytes = maxBytes;
+            trimToSize(null);
+        }
+    }
+
+    /**
+     * @return number of comment pages answered from memory
+     */
+    public long getHitCount() {
+        synchronized (lock) {
+            return hitCount;
+        }
+    }
+
+    /**
+     * @return number of comment pages loaded from the delegate
+     */
+    public long getMissCount() {
+        synchronized (lock) {
+            return missCount;
+        }
+    }
+
+    public float getHitRatio() {
+        synchronized (lock) {
+            long total = hitCount + missCount;
+            return total == 0 ? 0 : (float) hitCount / total;
+        }
+    }
+
+    /**
+     * @return estimated size in bytes of all cached comments
+     */
+    public long getResidentSize() {
+        synchronized (lock) {
+            return residentBytes;
+        }
+    }
+
+    @Override
+    public void add(QiscusChatRoom qiscusChatRoom) {
+        synchronized (writeLock) {
+            delegate.add(qiscusChatRoom);
+            synchronized (lock) {
+                onRoomWritten(qiscusChatRoom, true);
+            }
+        }
+    }
+
+    @Override
+    public boolean isContains(QiscusChatRoom qiscusChatRoom) {
+        return delegate.isContains(qiscusChatRoom);
+    }
+
+    @Override
+    public void update(QiscusChatRoom qiscusChatRoom) {
+        synchronized (writeLock) {
+            delegate.update(qiscusChatRoom);
+            synchronized (lock) {
+                onRoomWritten(qiscusChatRoom, true);
+            }
+        }
+    }
+
+    @Override
+    public void addOrUpdate(QiscusChatRoom qiscusChatRoom) {
+        synchronized (writeLock) {
+            delegate.addOrUpdate(qiscusChatRoom);
+            synchronized (lock) {
+                onRoomWritten(qiscusChatRoom, false);
+            }
+        }
+    }
+
+    @Override
+    public boolean addOrUpdateChatRooms(List<QiscusChatRoom> qiscusChatRooms) {
+        synchronized (writeLock) {
+            if (!delegate.addOrUpdateChatRooms(qiscusChatRooms)) {
+                return false;
+            }
+            synchronized (lock) {
+                for (QiscusChatRoom qiscusChatRoom : qiscusChatRooms) {
+                    onRoomWritten(qiscusChatRoom, false);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The room members and the last comment are written together with the room, see QiscusDataBaseHelper
+     *
+     * @param channelMembersSynced add and update sync the members of channel too, addOrUpdate skip them
+     */
+    private void onRoomWritten(QiscusChatRoom qiscusChatRoom, boolean channelMembersSynced) {
+        version++;
+        List<QiscusRoomMember> qiscusRoomMembers = qiscusChatRoom.getMember();
+        if (qiscusRoomMembers != null && !qiscusRoomMembers.isEmpty()
+                && (channelMembersSynced || !qiscusChatRoom.isChannel())) {
+            onMembersWritten(qiscusRoomMembers);
+        }
+
+        QiscusComment comment = qiscusChatRoom.getLastComment();
+        if (comment != null && comment.getId() > 0) {
+            putComment(comment);
+        }
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoom(long roomId) {
+        return delegate.getChatRoom(roomId);
+    }
+
+    @Override
+    public QiscusChatRoom getLightChatRoom(long roomId) {
+        return delegate.getLightChatRoom(roomId);
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoom(String email) {
+        return delegate.getChatRoom(email);
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoom(String email, String distinctId) {
+        return delegate.getChatRoom(email, distinctId);
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoomWithUniqueId(String uniqueId) {
+        return delegate.getChatRoomWithUniqueId(uniqueId);
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRooms(int limit) {
+        return delegate.getChatRooms(limit);
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRooms(QiscusChatRoom lastRoom, int limit) {
+        return delegate.getChatRooms(lastRoom, limit);
+    }
+
+    @Override
+    public Observable<List<QiscusChatRoom>> getObservableChatRooms(int limit) {
+        return delegate.getObservableChatRooms(limit);
+    }
+
+    @Override
+    public Observable<List<QiscusChatRoom>> getLiveChatRooms(int limit) {
+        return delegate.getLiveChatRooms(limit);
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRoomListItems(int limit) {
+        return delegate.getChatRoomListItems(limit);
+    }
+
+    @Override
+    public Observable<List<QiscusChatRoom>> getLiveChatRoomListItems(int limit) {
+        return delegate.getLiveChatRoomListItems(limit);
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRooms(List<Long> roomIds, List<String> uniqueIds) {
+        return delegate.getChatRooms(roomIds, uniqueIds);
+    }
+
+    @Override
+    public void deleteChatRoom(long roomId) {
+        delegate.deleteChatRoom(roomId);
+    }
+
+    @Override
+    public void incrementUnreadCount(long roomId) {
+        delegate.incrementUnreadCount(roomId);
+    }
+
+    @Override
+    public void resetUnreadCount(long roomId) {
+        delegate.resetUnreadCount(roomId);
+    }
+
+    @Override
+    public int getTotalUnreadCount() {
+        return delegate.getTotalUnreadCount();
+    }
+
+    @Override
+    public void addRoomMember(long roomId, QiscusRoomMember qiscusRoomMember, String distinctId) {
+        synchronized (writeLock) {
+            delegate.addRoomMember(roomId, qiscusRoomMember, distinctId);
+            synchronized (lock) {
+                onMembersWritten(Collections.singletonList(qiscusRoomMember));
+            }
+        }
+    }
+
+    @Override
+    public boolean isContainsRoomMember(long roomId, String email) {
+        return delegate.isContainsRoomMember(roomId, email);
+    }
+
+    @Override
+    public void updateRoomMember(long roomId, QiscusRoomMember qiscusRoomMember, String distinctId) {
+        synchronized (writeLock) {
+            delegate.updateRoomMember(roomId, qiscusRoomMember, distinctId);
+            synchronized (lock) {
+                onMembersWritten(Collections.singletonList(qiscusRoomMember));
+            }
+        }
+    }
+
+    @Override
+    public void addOrUpdateRoomMember(long roomId, QiscusRoomMember qiscusRoomMember, String distinctId) {
+        synchronized (writeLock) {
+            delegate.addOrUpdateRoomMember(roomId, qiscusRoomMember, distinctId);
+            synchronized (lock) {
+                onMembersWritten(Collections.singletonList(qiscusRoomMember));
+            }
+        }
+    }
+
+    @Override
+    public boolean addOrUpdateRoomMembers(long roomId, List<QiscusRoomMember> qiscusRoomMembers, String distinctId) {
+        synchronized (writeLock) {
+            if (!delegate.addOrUpdateRoomMembers(roomId, qiscusRoomMembers, distinctId)) {
+                return false;
+            }
+            synchronized (lock) {
+                onMembersWritten(qiscusRoomMembers);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public List<QiscusRoomMember> getRoomMembers(long roomId) {
+        return delegate.getRoomMembers(roomId);
+    }
+
+    @Override
+    public void deleteRoomMember(long roomId, String email) {
+        delegate.deleteRoomMember(roomId, email);
+    }
+
+    @Override
+    public void deleteRoomMembers(long roomId) {
+        delegate.deleteRoomMembers(roomId);
+    }
+
+    @Override
+    public void add(QiscusRoomMember qiscusRoomMember) {
+        synchronized (writeLock) {
+            delegate.add(qiscusRoomMember);
+            synchronized (lock) {
+                onMembersWritten(Collections.singletonList(qiscusRoomMember));
+            }
+        }
+    }
+
+    @Override
+    public boolean isContains(QiscusRoomMember qiscusRoomMember) {
+        return delegate.isContains(qiscusRoomMember);
+    }
+
+    @Override
+    public void update(QiscusRoomMember qiscusRoomMember) {
+        synchronized (writeLock) {
+            delegate.update(qiscusRoomMember);
+            synchronized (lock) {
+                onMembersWritten(Collections.singletonList(qiscusRoomMember));
+            }
+        }
+    }
+
+    @Override
+    public void addOrUpdate(QiscusRoomMember qiscusRoomMember) {
+        synchronized (writeLock) {
+            delegate.addOrUpdate(qiscusRoomMember);
+            synchronized (lock) {
+                onMembersWritten(Collections.singletonList(qiscusRoomMember));
+            }
+        }
+    }
+
+    /**
+     * Sender name and avatar of the comments are taken from the member profile, load them again when read
+     */
+    private void onMembersWritten(List<QiscusRoomMember> qiscusRoomMembers) {
+        version++;
+        if (windows.isEmpty()) {
+            return;
+        }
+
+        Set<String> emails = new HashSet<>(qiscusRoomMembers.size());
+        for (QiscusRoomMember qiscusRoomMember : qiscusRoomMembers) {
+            emails.add(qiscusRoomMember.getEmail());
+        }
+        for (RoomWindow window : windows.values()) {
+            for (CachedComment cachedComment : window.comments) {
+                if (emails.contains(cachedComment.comment.getSenderEmail())) {
+                    cachedComment.resolved = false;
+                }
+            }
+        }
+    }
+
+    @Override
+    public QiscusRoomMember getMember(String email) {
+        return delegate.getMember(email);
+    }
+
+    @Override
+    public void add(QiscusComment qiscusComment) {
+        synchronized (writeLock) {
+            delegate.add(qiscusComment);
+            synchronized (lock) {
+                version++;
+                // Not added if the unique id is already stored, maybe as hard deleted comment
+                RoomWindow window = windows.get(qiscusComment.getRoomId());
+                if (window != null && !window.byUniqueId.containsKey(qiscusComment.getUniqueId())
+                        && window.covers(CachedComment.probe(qiscusComment))) {
+                    removeWindow(qiscusComment.getRoomId());
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isContains(QiscusComment qiscusComment) {
+        return delegate.isContains(qiscusComment);
+    }
+
+    @Override
+    public void update(QiscusComment qiscusComment) {
+        synchronized (writeLock) {
+            delegate.update(qiscusComment);
+            synchronized (lock) {
+                version++;
+                // Only updated if the unique id is already stored, maybe as hard deleted comment
+                RoomWindow window = windows.get(qiscusComment.getRoomId());
+                if (window != null && window.byUniqueId.containsKey(qiscusComment.getUniqueId())) {
+                    putComment(qiscusComment);
+                } else {
+                    removeComment(qiscusComment.getUniqueId());
+                    if (window != null && window.covers(CachedComment.probe(qiscusComment))) {
+                        removeWindow(qiscusComment.getRoomId());
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addOrUpdate(QiscusComment qiscusComment) {
+        synchronized (writeLock) {
+            delegate.addOrUpdate(qiscusComment);
+            synchronized (lock) {
+                version++;
+                putComment(qiscusComment);
+            }
+        }
+    }
+
+    @Override
+    public boolean addOrUpdateComments(List<QiscusComment> qiscusComments) {
+        synchronized (writeLock) {
+            if (!delegate.addOrUpdateComments(qiscusComments)) {
+                return false;
+            }
+            synchronized (lock) {
+                version++;
+                for (QiscusComment qiscusComment : qiscusComments) {
+                    putComment(qiscusComment);
+                }
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void delete(QiscusComment qiscusComment) {
+        synchronized (writeLock) {
+            delegate.delete(qiscusComment);
+            synchronized (lock) {
+                version++;
+                removeComment(qiscusComment.getUniqueId());
+            }
+        }
+    }
+
+    @Override
+    public int deleteCommentsByRoomId(long roomId) {
+        return deleteCommentsByRoomId(roomId, Long.MAX_VALUE);
+    }
+
+    @Override
+    public int deleteCommentsByRoomId(long roomId, long timestampOffset) {
+        synchronized (writeLock) {
+            int deleted = timestampOffset == Long.MAX_VALUE ? delegate.deleteCommentsByRoomId(roomId)
+                    : delegate.deleteCommentsByRoomId(roomId, timestampOffset);
+            synchronized (lock) {
+                version++;
+
+                RoomWindow window = windows.get(roomId);
+                if (window == null || !window.covers(CachedComment.probe(timestampOffset, null))) {
+                    return deleted;
+                }
+                // Every comment older than the window is deleted too, so the window now reach the first comment
+                List<CachedComment> removed = new ArrayList<>(
+                        window.comments.tailSet(CachedComment.probe(timestampOffset, null), true));
+                for (CachedComment cachedComment : removed) {
+                    removeFromWindow(window, cachedComment);
+                }
+                window.reachedEnd = true;
+                return deleted;
+            }
+        }
+    }
+
+    @Override
+    public void updateLastDeliveredComment(long roomId, long commentId) {
+        if (commentId == Long.MAX_VALUE) {
+            return;
+        }
+        synchronized (writeLock) {
+            delegate.updateLastDeliveredComment(roomId, commentId);
+            synchronized (lock) {
+                version++;
+                RoomWindow window = windows.get(roomId);
+                if (window == null) {
+                    return;
+                }
+                // Same as QiscusDb.CommentTable.state(), the cached state is already derived from the older watermark
+                for (CachedComment cachedComment : window.comments) {
+                    QiscusComment comment = cachedComment.comment;
+                    if (cachedComment.resolved && comment.getState() == QiscusComment.STATE_ON_QISCUS
+                            && comment.getId() <= commentId) {
+                        comment.setState(QiscusComment.STATE_DELIVERED);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void updateLastReadComment(long roomId, long commentId) {
+        if (commentId == Long.MAX_VALUE) {
+            return;
+        }
+        synchronized (writeLock) {
+            delegate.updateLastReadComment(roomId, commentId);
+            synchronized (lock) {
+                version++;
+                RoomWindow window = windows.get(roomId);
+                if (window == null) {
+                    return;
+                }
+                for (CachedComment cachedComment : window.comments) {
+                    QiscusComment comment = cachedComment.comment;
+                    if (cachedComment.resolved && comment.getState() >= QiscusComment.STATE_ON_QISCUS
+                            && comment.getId() <= commentId) {
+                        comment.setState(QiscusComment.STATE_READ);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public QiscusComment getComment(String uniqueId) {
+        return delegate.getComment(uniqueId);
+    }
+
+    @Override
+    public QiscusComment getCommentByBeforeId(long beforeId) {
+        return delegate.getCommentByBeforeId(beforeId);
+    }
+
+    @Override
+    public List<QiscusComment> getComments(long roomId) {
+        List<QiscusComment> qiscusComments = queryWindow(roomId, false,
+                window -> window.reachedEnd ? new ArrayList<>(window.comments) : null);
+        return qiscusComments != null ? qiscusComments : delegate.getComments(roomId);
+    }
+
+    @Override
+    public List<QiscusComment> getComments(long roomId, int limit) {
+        List<QiscusComment> qiscusComments = limit > windowSize ? null : queryWindow(roomId, true,
+                window -> window.comments.size() >= limit || window.reachedEnd ? first(window.comments, limit) : null);
+        return qiscusComments != null ? qiscusComments : delegate.getComments(roomId, limit);
+    }
+
+    @Override
+    public List<QiscusComment> getComments(long roomId, long timestampOffset) {
+        List<QiscusComment> qiscusComments = queryWindow(roomId, false, window -> window.reachedEnd ?
+                new ArrayList<>(window.comments.tailSet(CachedComment.probe(timestampOffset, null), true)) : null);
+        return qiscusComments != null ? qiscusComments : delegate.getComments(roomId, timestampOffset);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableComments(long roomId) {
+        return Observable.create(subscriber -> {
+            subscriber.onNext(getComments(roomId));
+            subscriber.onCompleted();
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableComments(long roomId, int limit) {
+        return Observable.create(subscriber -> {
+            subscriber.onNext(getComments(roomId, limit));
+            subscriber.onCompleted();
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getLiveComments(long roomId, int limit) {
+        return delegate.getLiveComments(roomId, limit);
+    }
+
+    @Override
+    public Observable<QiscusComment> getCommentStream(long roomId) {
+        return delegate.getCommentStream(roomId);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getCommentWindows(long roomId, int windowSize) {
+        return delegate.getCommentWindows(roomId, windowSize);
+    }
+
+    @Override
+    public long getContiguousCommentsStart(long roomId, long commentId) {
+        return delegate.getContiguousCommentsStart(roomId, commentId);
+    }
+
+    @Override
+    public List<QiscusComment> getOlderCommentsThan(QiscusComment qiscusComment, long roomId, int limit) {
+        CachedComment from = CachedComment.probe(qiscusComment.getTime().getTime(), null);
+        List<QiscusComment> qiscusComments = queryWindow(roomId, false, window -> {
+            List<CachedComment> olderComments = first(window.comments.tailSet(from, true), limit);
+            return olderComments.size() >= limit || window.reachedEnd ? olderComments : null;
+        });
+        return qiscusComments != null ? qiscusComments : delegate.getOlderCommentsThan(qiscusComment, roomId, limit);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableOlderCommentsThan(QiscusComment qiscusComment, long roomId, int limit) {
+        return Observable.create(subscriber -> {
+            subscriber.onNext(getOlderCommentsThan(qiscusComment, roomId, limit));
+            subscriber.onCompleted();
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    @Override
+    public List<QiscusComment> getCommentsAfter(QiscusComment qiscusComment, long roomId) {
+        return delegate.getCommentsAfter(qiscusComment, roomId);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableCommentsAfter(QiscusComment qiscusComment, long roomId) {
+        return delegate.getObservableCommentsAfter(qiscusComment, roomId);
+    }
+
+    @Override
+    public QiscusComment getLatestComment() {
+        return delegate.getLatestComment();
+    }
+
+    @Override
+    public QiscusComment getLatestComment(long roomId) {
+        List<QiscusComment> qiscusComments = queryWindow(roomId, false,
+                window -> !window.comments.isEmpty() || window.reachedEnd ? first(window.comments, 1) : null);
+        if (qiscusComments == null) {
+            return delegate.getLatestComment(roomId);
+        }
+        return qiscusComments.isEmpty() ? null : qiscusComments.get(0);
+    }
+
+    @Override
+    public QiscusComment getLatestDeliveredComment(long roomId) {
+        return delegate.getLatestDeliveredComment(roomId);
+    }
+
+    @Override
+    public QiscusComment getLatestReadComment(long roomId) {
+        return delegate.getLatestReadComment(roomId);
+    }
+
+    @Override
+    public List<QiscusComment> getPendingComments() {
+        return delegate.getPendingComments();
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservablePendingComments() {
+        return delegate.getObservablePendingComments();
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getLivePendingComments() {
+        return delegate.getLivePendingComments();
+    }
+
+    @Override
+    public List<QiscusComment> searchComments(String query, long roomId, int limit, int offset) {
+        return delegate.searchComments(query, roomId, limit, offset);
+    }
+
+    @Override
+    public List<QiscusComment> searchComments(String query, int limit, int offset) {
+        return delegate.searchComments(query, limit, offset);
+    }
+
+    @Override
+    public List<QiscusCommentSearchResult> searchComments(String query, long roomId,
+                                                          QiscusCommentSearchResult lastResult, int limit) {
+        return delegate.searchComments(query, roomId, lastResult, limit);
+    }
+
+    @Override
+    public List<QiscusCommentSearchResult> searchComments(String query, QiscusCommentSearchResult lastResult, int limit) {
+        return delegate.searchComments(query, lastResult, limit);
+    }
+
+    @Override
+    public void saveLocalPath(long roomId, long commentId, String localPath) {
+        delegate.saveLocalPath(roomId, commentId, localPath);
+    }
+
+    @Override
+    public boolean isContainsFileOfComment(long commentId) {
+        return delegate.isContainsFileOfComment(commentId);
+    }
+
+    @Override
+    public void updateLocalPath(long roomId, long commentId, String localPath) {
+        delegate.updateLocalPath(roomId, commentId, localPath);
+    }
+
+    @Override
+    public void addOrUpdateLocalPath(long roomId, long commentId, String localPath) {
+        delegate.addOrUpdateLocalPath(roomId, commentId, localPath);
+    }
+
+    @Override
+    public File getLocalPath(long commentId) {
+        return delegate.getLocalPath(commentId);
+    }
+
+    @Override
+    public List<Pair<QiscusComment, File>> getMediaComments(long roomId, QiscusComment.Type mediaType,
+                                                            QiscusComment lastComment, int limit) {
+        return delegate.getMediaComments(roomId, mediaType, lastComment, limit);
+    }
+
+    @Override
+    public void deleteLocalPath(long commentId) {
+        delegate.deleteLocalPath(commentId);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (writeLock) {
+            delegate.clear();
+            synchronized (lock) {
+                version++;
+                windows.clear();
+                residentBytes = 0;
+            }
+        }
+    }
+
+    @Override
+    public void configure(QiscusDatabaseConfig databaseConfig) {
+        if (databaseConfig.getCommentCacheSizeInKb() > 0) {
+            setMaxBytes(databaseConfig.getCommentCacheSizeInKb() * 1024L);
+        }
+        delegate.configure(databaseConfig);
+    }
+
+    /**
+     * Runs without holding the lock so the cached rooms are still served meanwhile, the windows of the compacted
+     * rooms are dropped after it. Exempt rooms are kept whole, so the windows of opened rooms stay.
+     */
+    @Override
+    public QiscusCompactionResult compact(QiscusRetentionPolicy retentionPolicy, Set<Long> exemptRoomIds) {
+        QiscusCompactionResult result = delegate.compact(retentionPolicy, exemptRoomIds);
+        synchronized (lock) {
+            version++;
+            for (Long roomId : result.getCompactedRoomIds()) {
+                removeWindow(roomId);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Answer the query from the window of the room, comments written through the cache are loaded from the delegate
+     * first so their sender and state are the same as stored.
+     *
+     * @param loadWindow load the window of the room from the delegate if it's not cached yet
+     * @param query      the cached comments answering the query newest first, or null if the window doesn't cover it
+     * @return copy of the comments, or null if the query must be sent to the delegate
+     */
+    private List<QiscusComment> queryWindow(long roomId, boolean loadWindow,
+                                            Func1<RoomWindow, List<CachedComment>> query) {
+        long loadVersion;
+        synchronized (lock) {
+            RoomWindow window = windows.get(roomId);
+            if (window != null) {
+                List<QiscusComment> qiscusComments = queryResolvedWindow(window, query);
+                if (qiscusComments != null) {
+                    hitCount++;
+                    return qiscusComments;
+                }
+            }
+            missCount++;
+            if (window != null || !loadWindow) {
+                return null;
+            }
+            loadVersion = version;
+        }
+
+        List<QiscusComment> qiscusComments = delegate.getComments(roomId, windowSize);
+        synchronized (lock) {
+            if (loadVersion != version) {
+                return null;
+            }
+            removeWindow(roomId);
+            RoomWindow window = new RoomWindow(qiscusComments.size() < windowSize);
+            windows.put(roomId, window);
+            for (QiscusComment qiscusComment : qiscusComments) {
+                addToWindow(window, new CachedComment(qiscusComment, true));
+            }
+            trimToSize(window);
+            return windows.get(roomId) == window ? queryResolvedWindow(window, query) : null;
+        }
+    }
+
+    /**
+     * Must be called while holding the lock
+     *
+     * @return null if the window doesn't cover the query or it doesn't match the delegate anymore
+     */
+    private List<QiscusComment> queryResolvedWindow(RoomWindow window, Func1<RoomWindow, List<CachedComment>> query) {
+        List<CachedComment> cachedComments = query.call(window);
+        if (cachedComments == null) {
+            return null;
+        }
+
+        boolean resolved = true;
+        for (CachedComment cachedComment : cachedComments) {
+            if (!cachedComment.resolved) {
+                if (!resolve(window, cachedComment)) {
+                    return null;
+                }
+                resolved = false;
+            }
+        }
+        if (!resolved) {
+            // Resolving replace the cached comments at the same position
+            cachedComments = query.call(window);
+        }
+
+        List<QiscusComment> qiscusComments = new ArrayList<>(cachedComments.size());
+        for (CachedComment cachedComment : cachedComments) {
+            qiscusComments.add(cachedComment.copy());
+        }
+        return qiscusComments;
+    }
+
+    /**
+     * Must be called while holding the lock, so no write is applied to the windows between loading and caching
+     * the comment. A write still running on the delegate is applied after it. The window is removed if the stored
+     * comment is not the one written through the cache.
+     */
+    private boolean resolve(RoomWindow window, CachedComment cachedComment) {
+        QiscusComment qiscusComment = delegate.getComment(cachedComment.uniqueId);
+        if (qiscusComment == null || qiscusComment.isHardDeleted()
+                || qiscusComment.getRoomId() != cachedComment.comment.getRoomId()
+                || qiscusComment.getTime().getTime() != cachedComment.time) {
+            removeWindow(cachedComment.comment.getRoomId());
+            return false;
+        }
+
+        removeFromWindow(window, cachedComment);
+        addToWindow(window, new CachedComment(qiscusComment, true));
+        return true;
+    }
+
+    // Must be called while holding the lock
+    private void putComment(QiscusComment qiscusComment) {
+        removeComment(qiscusComment.getUniqueId());
+        RoomWindow window = windows.get(qiscusComment.getRoomId());
+        if (window == null || qiscusComment.isHardDeleted() || qiscusComment.getUniqueId() == null) {
+            return;
+        }
+
+        CachedComment cachedComment = new CachedComment(qiscusComment, false);
+        if (window.covers(cachedComment)) {
+            addToWindow(window, cachedComment);
+            trimToSize(window);
+        }
+    }
+
+    // Must be called while holding the lock, the comment may be moved from another room
+    private void removeComment(String uniqueId) {
+        for (RoomWindow window : windows.values()) {
+            CachedComment cachedComment = window.byUniqueId.get(uniqueId);
+            if (cachedComment != null) {
+                removeFromWindow(window, cachedComment);
+                return;
+            }
+        }
+    }
+
+    private void addToWindow(RoomWindow window, CachedComment cachedComment) {
+        window.comments.add(cachedComment);
+        window.byUniqueId.put(cachedComment.uniqueId, cachedComment);
+        residentBytes += cachedComment.size;
+    }
+
+    private void removeFromWindow(RoomWindow window, CachedComment cachedComment) {
+        window.comments.remove(cachedComment);
+        window.byUniqueId.remove(cachedComment.uniqueId);
+        residentBytes -= cachedComment.size;
+    }
+
+    private void removeWindow(long roomId) {
+        RoomWindow window = windows.remove(roomId);
+        if (window != null) {
+            for (CachedComment cachedComment : window.comments) {
+                residentBytes -= cachedComment.size;
+            }
+        }
+    }
+
+    /**
+     * Drop the oldest comments of the window over the window size, then evict the least recently used windows
+     * until it's within the room count and the memory budget. The last window left is trimmed instead.
+     *
+     * @param touched the window just changed, null if nothing changed
+     */
+    private void trimToSize(RoomWindow touched) {
+        if (touched != null) {
+            while (touched.comments.size() > windowSize) {
+                removeFromWindow(touched, touched.comments.last());
+                touched.reachedEnd = false;
+            }
+        }
+
+        Iterator<RoomWindow> eldest = windows.values().iterator();
+        while (windows.size() > 1 && (windows.size() > maxRooms || residentBytes > maxBytes)) {
+            RoomWindow window = eldest.next();
+            eldest.remove();
+            for (CachedComment cachedComment : window.comments) {
+                residentBytes -= cachedComment.size;
+            }
+        }
+
+        if (residentBytes > maxBytes && !windows.isEmpty()) {
+            RoomWindow window = windows.values().iterator().next();
+            while (residentBytes > maxBytes && !window.comments.isEmpty()) {
+                removeFromWindow(window, window.comments.last());
+                window.reachedEnd = false;
+            }
+        }
+    }
+
+    private static List<CachedComment> first(Collection<CachedComment> cachedComments, int limit) {
+        List<CachedComment> first = new ArrayList<>(Math.min(limit, cachedComments.size()));
+        for (CachedComment cachedComment : cachedComments) {
+            if (first.size() >= limit) {
+                break;
+            }
+            first.add(cachedComment);
+        }
+        return first;
+    }
+
+    /**
+     * Newest non hard deleted comments of a room, there is no other stored comment of the room newer than
+     * the oldest one in the window. If reachedEnd is true, the window contains every comment of the room.
+     */
+    private static final class RoomWindow {
+        private final TreeSet<CachedComment> comments = new TreeSet<>(NEWEST_FIRST);
+        private final Map<String, CachedComment> byUniqueId = new HashMap<>();
+        private boolean reachedEnd;
+
+        private RoomWindow(boolean reachedEnd) {
+            this.reachedEnd = reachedEnd;
+        }
+
+        private boolean covers(CachedComment cachedComment) {
+            return reachedEnd || (!comments.isEmpty() && NEWEST_FIRST.compare(cachedComment, comments.last()) < 0);
+        }
+    }
+
+    /**
+     * Private copy of a comment with the stored columns only. The comment loaded from the delegate is resolved,
+     * the one written through the cache still need its sender profile and state from the delegate.
+     */
+    private static final class CachedComment {
+        private final QiscusComment comment;
+        private final String uniqueId;
+        private final long time;
+        private final String extras;
+        private final long size;
+        private boolean resolved;
+
+        private CachedComment(QiscusComment qiscusComment, boolean resolved) {
+            extras = qiscusComment.getRawExtras();
+            comment = copy(qiscusComment, null);
+            uniqueId = comment.getUniqueId();
+            time = comment.getTime().getTime();
+            size = estimateSize(comment, extras);
+            this.resolved = resolved;
+        }
+
+        private CachedComment(long time, String uniqueId) {
+            comment = null;
+            this.uniqueId = uniqueId;
+            this.time = time;
+            extras = null;
+            size = 0;
+        }
+
+        // Position in the sorted comments, null unique id is placed before the comments of the time
+        private static CachedComment probe(long time, String uniqueId) {
+            return new CachedComment(time, uniqueId);
+        }
+
+        private static CachedComment probe(QiscusComment qiscusComment) {
+            return new CachedComment(qiscusComment.getTime().getTime(), qiscusComment.getUniqueId());
+        }
+
+        private QiscusComment copy() {
+            return copy(comment, extras);
+        }
+
+        // Same columns as QiscusDb.CommentTable.parseCursor()
+        private static QiscusComment copy(QiscusComment source, String extras) {
+            QiscusComment qiscusComment = new QiscusComment();
+            qiscusComment.setId(source.getId());
+            qiscusComment.setRoomId(source.getRoomId());
+            qiscusComment.setUniqueId(source.getUniqueId());
+            qiscusComment.setCommentBeforeId(source.getCommentBeforeId());
+            qiscusComment.setMessage(source.getMessage());
+            qiscusComment.setSender(source.getSender());
+            qiscusComment.setSenderEmail(source.getSenderEmail());
+            qiscusComment.setSenderAvatar(source.getSenderAvatar());
+            qiscusComment.setTime(new Date(source.getTime().getTime()));
+            qiscusComment.setState(source.getState());
+            qiscusComment.setDeleted(source.isDeleted());
+            qiscusComment.setHardDeleted(source.isHardDeleted());
+            qiscusComment.setRawType(source.getRawType());
+            qiscusComment.setExtraPayload(source.getExtraPayload());
+            qiscusComment.setRawExtras(extras);
+            return qiscusComment;
+        }
+
+        // Rough heap size, the strings dominate it
+        private static long estimateSize(QiscusComment qiscusComment, String extras) {
+            return 256 + 2L * (length(qiscusComment.getUniqueId()) + length(qiscusComment.getMessage())
+                    + length(qiscusComment.getSender()) + length(qiscusComment.getSenderEmail())
+                    + length(qiscusComment.getSenderAvatar()) + length(qiscusComment.getRawType())
+                    + length(qiscusComment.getExtraPayload()) + length(extras));
+        }
+
+        private static int length(String value) {
+            return value == null ? 0 : value.length();
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package com.qiscus.sdk.chat.core.data.local;
 
 import com.qiscus.sdk.chat.core.data.model.QiscusComment;
+import com.qiscus.sdk.chat.core.data.model.QiscusCommentSearchResult;
 
 import java.util.List;
 
@@ -37,14 +38,30 @@ public interface QiscusCommentStore {
 
     void addOrUpdate(QiscusComment qiscusComment);
 
+    /**
+     * Save them all in one transaction
+     *
+     * @return false if the write failed and nothing was saved
+     */
+    boolean addOrUpdateComments(List<QiscusComment> qiscusComments);
+
     void delete(QiscusComment qiscusComment);
 
-    boolean deleteCommentsByRoomId(long roomId);
+    /**
+     * @return number of deleted comments
+     */
+    int deleteCommentsByRoomId(long roomId);
 
-    boolean deleteCommentsByRoomId(long roomId, long timestampOffset);
+    int deleteCommentsByRoomId(long roomId, long timestampOffset);
 
+    /**
+     * Watermarks only move forward, Long.MAX_VALUE is not a comment id and is ignored
+     */
     void updateLastDeliveredComment(long roomId, long commentId);
 
+    /**
+     * Watermarks only move forward, Long.MAX_VALUE is not a comment id and is ignored
+     */
     void updateLastReadComment(long roomId, long commentId);
 
     QiscusComment getComment(String uniqueId);
@@ -61,6 +78,31 @@ public interface QiscusCommentStore {
 
     Observable<List<QiscusComment>> getObservableComments(long roomId, int limit);
 
+    /**
+     * Same as {@link #getObservableComments(long, int)} but never complete,
+     * emit again every time the stored comments of the room changed
+     */
+    Observable<List<QiscusComment>> getLiveComments(long roomId, int limit);
+
+    /**
+     * Comments of the room newest first, loaded from database in windows only as fast as they are requested,
+     * use it instead of {@link #getObservableComments(long)} for rooms with long history
+     */
+    Observable<QiscusComment> getCommentStream(long roomId);
+
+    /**
+     * Same as {@link #getCommentStream(long)} but emit a window of comments at a time, for jobs iterating the whole room
+     */
+    Observable<List<QiscusComment>> getCommentWindows(long roomId, int windowSize);
+
+    /**
+     * Every comment of the room with id bigger than the returned id and up to commentId is stored locally,
+     * so older comments can be shown without checking their comment before id chain.
+     *
+     * @return 0 if all comments since the first one are stored, commentId itself if nothing is known
+     */
+    long getContiguousCommentsStart(long roomId, long commentId);
+
     List<QiscusComment> getOlderCommentsThan(QiscusComment qiscusComment, long roomId, int limit);
 
     Observable<List<QiscusComment>> getObservableOlderCommentsThan(QiscusComment qiscusComment, long roomId, int limit);
@@ -81,8 +123,17 @@ public interface QiscusCommentStore {
 
     Observable<List<QiscusComment>> getObservablePendingComments();
 
+    /**
+     * Same as {@link #getObservablePendingComments()} but never complete, emit again every time the pending comments changed
+     */
+    Observable<List<QiscusComment>> getLivePendingComments();
+
     List<QiscusComment> searchComments(String query, long roomId, int limit, int offset);
 
     List<QiscusComment> searchComments(String query, int limit, int offset);
 
+    List<QiscusCommentSearchResult> searchComments(String query, long roomId, QiscusCommentSearchResult lastResult, int limit);
+
+    List<QiscusCommentSearchResult> searchComments(String query, QiscusCommentSearchResult lastResult, int limit);
+
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import android.support.v4.util.Pair;
+
+import com.qiscus.sdk.chat.core.QiscusCore;
+import com.qiscus.sdk.chat.core.data.model.QiscusCompactionResult;
+import com.qiscus.sdk.chat.core.data.model.QiscusRetentionPolicy;
+import com.qiscus.sdk.chat.core.event.QiscusCompactionEvent;
+import com.qiscus.sdk.chat.core.util.QiscusErrorLogger;
+import com.qiscus.sdk.chat.core.util.QiscusLogger;
+
+import org.greenrobot.eventbus.EventBus;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforce the retention policy on the task executor while the app is running, the first run is shortly after
+ * it's scheduled. Pinned rooms, the opened room and the rooms opened recently are exempt.
+ * A {@link QiscusCompactionEvent} is posted when a run deleted something.
+ */
+public final class QiscusCompactionJob {
+    private static final long FIRST_RUN_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Object lock = new Object();
+    private static ScheduledFuture<?> scheduledRun;
+
+    private QiscusCompactionJob() {
+
+    }
+
+    /**
+     * Replace the scheduled compaction, nothing is scheduled if the policy has no limit
+     */
+    public static void schedule(QiscusRetentionPolicy retentionPolicy) {
+        synchronized (lock) {
+            if (scheduledRun != null) {
+                scheduledRun.cancel(false);
+                scheduledRun = null;
+            }
+            if (retentionPolicy.isEnabled()) {
+                scheduledRun = QiscusCore.getTaskExecutor().scheduleWithFixedDelay(() -> {
+                    // An exception would stop the next runs
+                    try {
+                        run(retentionPolicy);
+                    } catch (Exception e) {
+                        QiscusErrorLogger.print(e);
+                    }
+                }, FIRST_RUN_DELAY, Math.max(FIRST_RUN_DELAY, retentionPolicy.getCompactionIntervalInMillis()),
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Compact now on the calling thread, must not be called on main thread
+     */
+    public static QiscusCompactionResult run(QiscusRetentionPolicy retentionPolicy) {
+        Set<Long> exemptRoomIds = new HashSet<>(retentionPolicy.getPinnedRoomIds());
+        long openedSince = System.currentTimeMillis() - retentionPolicy.getRecentRoomExemptionInMillis();
+        QiscusCacheManager.getInstance().removeRoomsOpenedBefore(openedSince);
+        if (retentionPolicy.getRecentRoomExemptionInMillis() > 0) {
+            exemptRoomIds.addAll(QiscusCacheManager.getInstance().getRoomIdsOpenedSince(openedSince));
+        }
+        Pair<Boolean, Long> lastChatActivity = QiscusCacheManager.getInstance().getLastChatActivity();
+        if (lastChatActivity.first) {
+            exemptRoomIds.add(lastChatActivity.second);
+        }
+
+        QiscusCompactionResult result = QiscusCore.getDataStore().compact(retentionPolicy, exemptRoomIds);
+        QiscusLogger.print("Compaction done : " + result);
+        if (result.getDeletedComments() > 0 || result.getDeletedFiles() > 0 || result.getReclaimedBytes() > 0) {
+            EventBus.getDefault().post(new QiscusCompactionEvent(result));
+        }
+        return result;
+    }
+}
@@ -16,66 +16,177 @@
 
 package com.qiscus.sdk.chat.core.data.local;
 
+import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.v4.util.Pair;
 
 import com.qiscus.sdk.chat.core.QiscusCore;
 import com.qiscus.sdk.chat.core.data.model.QiscusAccount;
 import com.qiscus.sdk.chat.core.data.model.QiscusChatRoom;
 import com.qiscus.sdk.chat.core.data.model.QiscusComment;
+import com.qiscus.sdk.chat.core.data.model.QiscusCommentSearchResult;
+import com.qiscus.sdk.chat.core.data.model.QiscusCompactionResult;
+import com.qiscus.sdk.chat.core.data.model.QiscusDatabaseConfig;
+import com.qiscus.sdk.chat.core.data.model.QiscusRetentionPolicy;
 import com.qiscus.sdk.chat.core.data.model.QiscusRoomMember;
+import com.qiscus.sdk.chat.core.util.QiscusAndroidUtil;
 import com.qiscus.sdk.chat.core.util.QiscusErrorLogger;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import rx.Emitter;
 import rx.Observable;
+import rx.observables.SyncOnSubscribe;
 
 public class QiscusDataBaseHelper implements QiscusDataStore {
+    private static final String LAST_COMMENT_PREFIX = "last_comment_";
+    private static final int ROOM_CACHE_SIZE = 64;
+    // Comments loaded per query when the whole room history is iterated
+    private static final int COMMENT_WINDOW_SIZE = 100;
+    // Keep it below SQLITE_MAX_VARIABLE_NUMBER (999)
+    private static final int MAX_QUERY_ARGS = 500;
+    // Batches of oldest comments deleted per compaction when the database is over its max size
+    private static final int MAX_TRIM_BATCHES = 50;
+    // Value of PRAGMA auto_vacuum, see QiscusDbOpenHelper.configure
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    // Comments with sender name and avatar taken from members table, use it as "SELECT_COMMENTS WHERE ..."
+    private static final String SELECT_COMMENTS = "SELECT " + QiscusDb.CommentTable.projection("c", "m", "")
+            + " FROM " + QiscusDb.CommentTable.TABLE_NAME + " c"
+            + " LEFT JOIN " + QiscusDb.MemberTable.TABLE_NAME + " m ON m." + QiscusDb.MemberTable.COLUMN_USER_EMAIL
+            + " = c." + QiscusDb.CommentTable.COLUMN_SENDER_EMAIL;
+    // Same as SELECT_COMMENTS but only for comments with downloaded file, plus the local path
+    private static final String SELECT_MEDIA_COMMENTS = "SELECT " + QiscusDb.CommentTable.projection("c", "m", "")
+            + ", f." + QiscusDb.FilesTable.COLUMN_LOCAL_PATH + " AS " + QiscusDb.FilesTable.COLUMN_LOCAL_PATH
+            + " FROM " + QiscusDb.CommentTable.TABLE_NAME + " c"
+            + " INNER JOIN " + QiscusDb.FilesTable.TABLE_NAME + " f ON f." + QiscusDb.FilesTable.COLUMN_COMMENT_ID
+            + " = c." + QiscusDb.CommentTable.COLUMN_ID
+            + " LEFT JOIN " + QiscusDb.MemberTable.TABLE_NAME + " m ON m." + QiscusDb.MemberTable.COLUMN_USER_EMAIL
+            + " = c." + QiscusDb.CommentTable.COLUMN_SENDER_EMAIL;
+    // Keyset paging of comments newest first, the args are time, time and unique id of the last loaded comment
+    private static final String OLDER_THAN_COMMENT = "(c." + QiscusDb.CommentTable.COLUMN_TIME + " < ?"
+            + " OR (c." + QiscusDb.CommentTable.COLUMN_TIME + " = ?"
+            + " AND c." + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " < ?))";
+    private static final String ORDER_BY_NEWEST = " ORDER BY c." + QiscusDb.CommentTable.COLUMN_TIME + " DESC,"
+            + " c." + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " DESC";
+    // Keyset paging of rooms by latest comment, the args are time, time and id of the last loaded room
+    private static final String OLDER_THAN_ROOM = "(r." + QiscusDb.RoomTable.COLUMN_LAST_COMMENT_TIME + " < ?"
+            + " OR (r." + QiscusDb.RoomTable.COLUMN_LAST_COMMENT_TIME + " = ?"
+            + " AND r." + QiscusDb.RoomTable.COLUMN_ID + " < ?))";
+    // Same as SELECT_COMMENTS but only for comments matched with comments_fts, plus the snippet and rank
+    private static final String SEARCH_COMMENTS = "SELECT " + QiscusDb.CommentTable.projection("c", "m", "") + ", "
+            + QiscusDb.CommentSearchTable.SNIPPET + " AS " + QiscusDb.CommentSearchTable.COLUMN_SNIPPET + ", "
+            + QiscusDb.CommentSearchTable.RANK + " AS " + QiscusDb.CommentSearchTable.COLUMN_RANK
+            + " FROM " + QiscusDb.CommentSearchTable.TABLE_NAME
+            + " INNER JOIN " + QiscusDb.CommentTable.TABLE_NAME + " c ON c.rowid = "
+            + QiscusDb.CommentSearchTable.TABLE_NAME + "." + QiscusDb.CommentSearchTable.COLUMN_DOC_ID
+            + " LEFT JOIN " + QiscusDb.MemberTable.TABLE_NAME + " m ON m." + QiscusDb.MemberTable.COLUMN_USER_EMAIL
+            + " = c." + QiscusDb.CommentTable.COLUMN_SENDER_EMAIL;
+
+    private static final String DELETE_ROOM_MEMBER = "DELETE FROM " + QiscusDb.RoomMemberTable.TABLE_NAME
+            + " WHERE " + QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = ?"
+            + " AND " + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL + " = ?";
+    // Stored room members with their profile, to be compared with the new member list
+    private static final String SELECT_STORED_ROOM_MEMBERS = "SELECT rm." + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL
+            + ", rm." + QiscusDb.RoomMemberTable.COLUMN_DISTINCT_ID
+            + ", rm." + QiscusDb.RoomMemberTable.COLUMN_LAST_DELIVERED
+            + ", rm." + QiscusDb.RoomMemberTable.COLUMN_LAST_READ
+            + ", m." + QiscusDb.MemberTable.COLUMN_USER_EMAIL + " IS NOT NULL"
+            + ", m." + QiscusDb.MemberTable.COLUMN_USER_NAME
+            + ", m." + QiscusDb.MemberTable.COLUMN_USER_AVATAR
+            + ", m." + QiscusDb.MemberTable.COLUMN_USER_EXTRAS
+            + " FROM " + QiscusDb.RoomMemberTable.TABLE_NAME + " rm"
+            + " LEFT JOIN " + QiscusDb.MemberTable.TABLE_NAME + " m ON m." + QiscusDb.MemberTable.COLUMN_USER_EMAIL
+            + " = rm." + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL
+            + " WHERE rm." + QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = ?";
+    private static final String INCREMENT_UNREAD_COUNT = "UPDATE " + QiscusDb.RoomTable.TABLE_NAME
+            + " SET " + QiscusDb.RoomTable.COLUMN_UNREAD_COUNT + " = " + QiscusDb.RoomTable.COLUMN_UNREAD_COUNT + " + 1"
+            + " WHERE " + QiscusDb.RoomTable.COLUMN_ID + " = ?";
+    private static final String INSERT_LOCAL_PATH = "INSERT OR IGNORE INTO " + QiscusDb.FilesTable.TABLE_NAME
+            + " (" + QiscusDb.FilesTable.COLUMN_ROOM_ID + ", " + QiscusDb.FilesTable.COLUMN_COMMENT_ID + ", "
+            + QiscusDb.FilesTable.COLUMN_LOCAL_PATH + ") VALUES (?, ?, ?)";
 
     protected final SQLiteDatabase sqLiteDatabase;
 
+    // Compiled once and reused for the writes called on every incoming comment and download,
+    // a statement hold its bindings so every use must be synchronized on it
+    private final SQLiteStatement insertWatermarkStatement;
+    private final SQLiteStatement updateLastDeliveredStatement;
+    private final SQLiteStatement updateLastReadStatement;
+    private final SQLiteStatement insertLocalPathStatement;
+    private final SQLiteStatement incrementUnreadCountStatement;
+    private final SQLiteStatement selectMergedRangeStartStatement;
+    private final SQLiteStatement selectMergedRangeEndStatement;
+    private final SQLiteStatement deleteTouchingRangesStatement;
+    private final SQLiteStatement insertRangeStatement;
+    private final SQLiteStatement updateLastCommentStatement;
+
+    // Re-run the live queries after the tables they read are written
+    private final QiscusDbInvalidationTracker invalidationTracker = new QiscusDbInvalidationTracker();
+    // Rooms are loaded for every incoming comment and receipt, loading one cost three queries
+    private final QiscusChatRoomCache roomCache = new QiscusChatRoomCache(ROOM_CACHE_SIZE);
+
+    // Sum of unread count of all rooms, -1 means it must be loaded from database.
+    // Version is increased by every change, a total loaded before it may already be outdated
+    private final Object totalUnreadCountLock = new Object();
+    private int totalUnreadCount = -1;
+    private long totalUnreadCountVersion;
+
     public QiscusDataBaseHelper() {
-        QiscusDbOpenHelper qiscusDbOpenHelper = new QiscusDbOpenHelper(QiscusCore.getApps());
-        sqLiteDatabase = qiscusDbOpenHelper.getReadableDatabase();
+        this(new QiscusDbOpenHelper(QiscusCore.getApps()));
+    }
+
+    QiscusDataBaseHelper(QiscusDbOpenHelper qiscusDbOpenHelper) {
+        // With write-ahead logging this is the writer connection, reads outside a transaction
+        // are served by the pool of reader connections so they are not blocked by the writes
+        sqLiteDatabase = qiscusDbOpenHelper.getWritableDatabase();
+        insertWatermarkStatement = sqLiteDatabase.compileStatement(QiscusDb.WatermarkTable.INSERT_OR_IGNORE);
+        updateLastDeliveredStatement = sqLiteDatabase.compileStatement(QiscusDb.WatermarkTable.UPDATE_LAST_DELIVERED);
+        updateLastReadStatement = sqLiteDatabase.compileStatement(QiscusDb.WatermarkTable.UPDATE_LAST_READ);
+        insertLocalPathStatement = sqLiteDatabase.compileStatement(INSERT_LOCAL_PATH);
+        incrementUnreadCountStatement = sqLiteDatabase.compileStatement(INCREMENT_UNREAD_COUNT);
+        selectMergedRangeStartStatement = sqLiteDatabase.compileStatement(QiscusDb.CommentRangeTable.SELECT_MERGED_START);
+        selectMergedRangeEndStatement = sqLiteDatabase.compileStatement(QiscusDb.CommentRangeTable.SELECT_MERGED_END);
+        deleteTouchingRangesStatement = sqLiteDatabase.compileStatement(QiscusDb.CommentRangeTable.DELETE_TOUCHING);
+        insertRangeStatement = sqLiteDatabase.compileStatement(QiscusDb.CommentRangeTable.INSERT);
+        updateLastCommentStatement = sqLiteDatabase.compileStatement(QiscusDb.RoomTable.UPDATE_LAST_COMMENT);
     }
 
+    /**
+     * Apply new storage tuning to the opened database, see {@link QiscusDatabaseConfig}
+     */
     @Override
-    public void add(QiscusChatRoom qiscusChatRoom) {
-        sqLiteDatabase.beginTransaction();
+    public void configure(QiscusDatabaseConfig databaseConfig) {
         try {
-            sqLiteDatabase.insertWithOnConflict(QiscusDb.RoomTable.TABLE_NAME, null,
-                    QiscusDb.RoomTable.toContentValues(qiscusChatRoom), SQLiteDatabase.CONFLICT_ABORT);
-            sqLiteDatabase.setTransactionSuccessful();
+            QiscusDbOpenHelper.configure(sqLiteDatabase, databaseConfig);
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
-        } finally {
-            sqLiteDatabase.endTransaction();
-        }
-
-        if (qiscusChatRoom.getMember() != null) {
-            for (QiscusRoomMember member : qiscusChatRoom.getMember()) {
-                addRoomMember(qiscusChatRoom.getId(), member, qiscusChatRoom.getDistinctId());
-            }
         }
+    }
 
-        QiscusComment comment = qiscusChatRoom.getLastComment();
-        if (comment != null && comment.getId() > 0) {
-            addOrUpdate(comment);
-        }
+    @Override
+    public void add(QiscusChatRoom qiscusChatRoom) {
+        saveChatRooms(Collections.singletonList(qiscusChatRoom), null, QiscusDb.RoomTable.INSERT_OR_IGNORE);
     }
 
     @Override
     public boolean isContains(QiscusChatRoom qiscusChatRoom) {
-        String query = "SELECT * FROM "
+        String query = "SELECT 1 FROM "
                 + QiscusDb.RoomTable.TABLE_NAME + " WHERE "
-                + QiscusDb.RoomTable.COLUMN_ID + " = " + qiscusChatRoom.getId();
+                + QiscusDb.RoomTable.COLUMN_ID + " = ? LIMIT 1";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
+        Cursor cursor = sqLiteDatabase.rawQuery(query, new String[]{String.valueOf(qiscusChatRoom.getId())});
         boolean contains = cursor.getCount() > 0;
         cursor.close();
         return contains;
@@ -83,61 +194,214 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
 
     @Override
     public void update(QiscusChatRoom qiscusChatRoom) {
-        String where = QiscusDb.RoomTable.COLUMN_ID + " = " + qiscusChatRoom.getId();
+        saveChatRooms(Collections.singletonList(qiscusChatRoom), QiscusDb.RoomTable.UPDATE, null);
+    }
+
+    @Override
+    public void addOrUpdate(QiscusChatRoom qiscusChatRoom) {
+        addOrUpdateChatRooms(Collections.singletonList(qiscusChatRoom));
+    }
+
+    @Override
+    public boolean addOrUpdateChatRooms(List<QiscusChatRoom> qiscusChatRooms) {
+        return saveChatRooms(qiscusChatRooms, QiscusDb.RoomTable.UPDATE, QiscusDb.RoomTable.INSERT_OR_REPLACE);
+    }
 
-        sqLiteDatabase.beginTransaction();
+    /**
+     * Save the rooms with their members and last comment in one transaction
+     *
+     * @param updateSql statement to update a stored room, null to keep the stored rooms as they are
+     * @param insertSql statement to insert a room which is not updated, null to not insert new rooms
+     */
+    private boolean saveChatRooms(List<QiscusChatRoom> qiscusChatRooms, String updateSql, String insertSql) {
+        if (qiscusChatRooms.isEmpty()) {
+            return true;
+        }
+
+        SQLiteStatement updateRoomStatement = null;
+        SQLiteStatement insertRoomStatement = null;
+        SQLiteStatement deleteRoomMemberStatement = null;
+        UpsertStatement roomMemberStatement = null;
+        UpsertStatement memberStatement = null;
+        UpsertStatement commentStatement = null;
+        boolean saved = false;
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
-            sqLiteDatabase.update(QiscusDb.RoomTable.TABLE_NAME, QiscusDb.RoomTable.toContentValues(qiscusChatRoom), where, null);
+            updateRoomStatement = updateSql == null ? null : sqLiteDatabase.compileStatement(updateSql);
+            insertRoomStatement = insertSql == null ? null : sqLiteDatabase.compileStatement(insertSql);
+            deleteRoomMemberStatement = sqLiteDatabase.compileStatement(DELETE_ROOM_MEMBER);
+            roomMemberStatement = new UpsertStatement(sqLiteDatabase, QiscusDb.RoomMemberTable.UPDATE,
+                    QiscusDb.RoomMemberTable.INSERT_OR_REPLACE);
+            memberStatement = new UpsertStatement(sqLiteDatabase, QiscusDb.MemberTable.UPDATE,
+                    QiscusDb.MemberTable.INSERT_OR_REPLACE);
+            commentStatement = new UpsertStatement(sqLiteDatabase, QiscusDb.CommentTable.UPDATE,
+                    QiscusDb.CommentTable.INSERT_OR_REPLACE);
+
+            List<QiscusComment> lastComments = new ArrayList<>();
+            Set<Long> roomIds = new HashSet<>();
+            for (QiscusChatRoom qiscusChatRoom : qiscusChatRooms) {
+                saveChatRoom(updateRoomStatement, insertRoomStatement, qiscusChatRoom);
+                roomIds.add(qiscusChatRoom.getId());
+
+                if (!qiscusChatRoom.isChannel() && qiscusChatRoom.getMember() != null
+                        && !qiscusChatRoom.getMember().isEmpty()) {
+                    syncRoomMembers(roomMemberStatement, memberStatement, deleteRoomMemberStatement,
+                            qiscusChatRoom.getId(), qiscusChatRoom.getMember(), qiscusChatRoom.getDistinctId());
+                }
+
+                QiscusComment comment = qiscusChatRoom.getLastComment();
+                if (comment != null && comment.getId() > 0) {
+                    upsert(commentStatement, comment);
+                    lastComments.add(comment);
+                }
+            }
+            addCommentRanges(lastComments);
+            // Inserted rooms start without last comment, the updated ones may have a newer one
+            updateLastComments(roomIds);
             sqLiteDatabase.setTransactionSuccessful();
+            saved = true;
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.RoomTable.TABLE_NAME, QiscusDb.RoomMemberTable.TABLE_NAME,
+                    QiscusDb.MemberTable.TABLE_NAME, QiscusDb.CommentTable.TABLE_NAME);
+            removeFromRoomCache(qiscusChatRooms);
+            invalidateTotalUnreadCount();
+            closeStatements(updateRoomStatement, insertRoomStatement, deleteRoomMemberStatement);
+            closeStatements(roomMemberStatement, memberStatement, commentStatement);
+        }
+        return saved;
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoom(long id) {
+        QiscusChatRoom qiscusChatRoom = roomCache.get(id);
+        if (qiscusChatRoom != null) {
+            return qiscusChatRoom;
+        }
+
+        long cacheVersion = roomCache.getVersion();
+        List<QiscusChatRoom> qiscusChatRooms = queryChatRooms("r." + QiscusDb.RoomTable.COLUMN_ID + " = ?",
+                new String[]{String.valueOf(id)}, 1);
+        if (qiscusChatRooms.isEmpty()) {
+            return null;
         }
+        roomCache.put(qiscusChatRooms.get(0), cacheVersion);
+        return qiscusChatRooms.get(0);
+    }
 
-        if (qiscusChatRoom.getMember() != null && !qiscusChatRoom.getMember().isEmpty()) {
-            deleteRoomMembers(qiscusChatRoom.getId());
-            for (QiscusRoomMember member : qiscusChatRoom.getMember()) {
-                addRoomMember(qiscusChatRoom.getId(), member, qiscusChatRoom.getDistinctId());
+    @Override
+    public void incrementUnreadCount(long roomId) {
+        boolean updated = false;
+        sqLiteDatabase.beginTransactionNonExclusive();
+        try {
+            synchronized (incrementUnreadCountStatement) {
+                incrementUnreadCountStatement.bindLong(1, roomId);
+                updated = incrementUnreadCountStatement.executeUpdateDelete() > 0;
             }
+            sqLiteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            updated = false;
+            QiscusErrorLogger.print(e);
+        } finally {
+            sqLiteDatabase.endTransaction();
         }
 
-        QiscusComment comment = qiscusChatRoom.getLastComment();
-        if (comment != null && comment.getId() > 0) {
-            addOrUpdate(comment);
+        if (updated) {
+            invalidationTracker.markDirty(QiscusDb.RoomTable.TABLE_NAME);
+            roomCache.remove(roomId);
+            updateTotalUnreadCount(1);
         }
     }
 
     @Override
-    public void addOrUpdate(QiscusChatRoom qiscusChatRoom) {
-        if (!isContains(qiscusChatRoom)) {
-            add(qiscusChatRoom);
-        } else {
-            update(qiscusChatRoom);
+    public void resetUnreadCount(long roomId) {
+        String query = "SELECT " + QiscusDb.RoomTable.COLUMN_UNREAD_COUNT + " FROM " + QiscusDb.RoomTable.TABLE_NAME
+                + " WHERE " + QiscusDb.RoomTable.COLUMN_ID + " = ?";
+        String where = QiscusDb.RoomTable.COLUMN_ID + " = ?";
+        ContentValues values = new ContentValues();
+        values.put(QiscusDb.RoomTable.COLUMN_UNREAD_COUNT, 0);
+
+        int unreadCount = 0;
+        sqLiteDatabase.beginTransactionNonExclusive();
+        try {
+            String[] args = {String.valueOf(roomId)};
+            Cursor cursor = sqLiteDatabase.rawQuery(query, args);
+            unreadCount = cursor.moveToNext() ? cursor.getInt(0) : 0;
+            cursor.close();
+            if (unreadCount != 0) {
+                sqLiteDatabase.update(QiscusDb.RoomTable.TABLE_NAME, values, where, args);
+            }
+            sqLiteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            unreadCount = 0;
+            QiscusErrorLogger.print(e);
+        } finally {
+            sqLiteDatabase.endTransaction();
+        }
+
+        if (unreadCount != 0) {
+            invalidationTracker.markDirty(QiscusDb.RoomTable.TABLE_NAME);
+            roomCache.remove(roomId);
+            updateTotalUnreadCount(-unreadCount);
         }
     }
 
     @Override
-    public QiscusChatRoom getChatRoom(long id) {
-        String query = "SELECT * FROM "
-                + QiscusDb.RoomTable.TABLE_NAME + " WHERE "
-                + QiscusDb.RoomTable.COLUMN_ID + " = " + id;
+    public int getTotalUnreadCount() {
+        long version;
+        synchronized (totalUnreadCountLock) {
+            if (totalUnreadCount >= 0) {
+                return totalUnreadCount;
+            }
+            version = totalUnreadCountVersion;
+        }
 
+        String query = "SELECT SUM(" + QiscusDb.RoomTable.COLUMN_UNREAD_COUNT + ") FROM " + QiscusDb.RoomTable.TABLE_NAME;
         Cursor cursor = sqLiteDatabase.rawQuery(query, null);
+        int total = cursor.moveToNext() ? cursor.getInt(0) : 0;
+        cursor.close();
 
-        if (cursor.moveToNext()) {
-            QiscusChatRoom qiscusChatRoom = QiscusDb.RoomTable.parseCursor(cursor);
-            qiscusChatRoom.setMember(getRoomMembers(id));
-            QiscusComment latestComment = getLatestComment(id);
-            if (latestComment != null) {
-                qiscusChatRoom.setLastComment(latestComment);
+        synchronized (totalUnreadCountLock) {
+            if (version == totalUnreadCountVersion) {
+                totalUnreadCount = total;
             }
-            cursor.close();
-            return qiscusChatRoom;
-        } else {
-            cursor.close();
-            return null;
         }
+        return total;
+    }
+
+    private void updateTotalUnreadCount(int delta) {
+        synchronized (totalUnreadCountLock) {
+            totalUnreadCountVersion++;
+            if (totalUnreadCount >= 0) {
+                totalUnreadCount += delta;
+            }
+        }
+    }
+
+    // Rooms saved from the server carry their own unread count, so load the total again
+    private void invalidateTotalUnreadCount() {
+        synchronized (totalUnreadCountLock) {
+            totalUnreadCountVersion++;
+            totalUnreadCount = -1;
+        }
+    }
+
+    @Override
+    public QiscusChatRoom getLightChatRoom(long id) {
+        String query = "SELECT " + QiscusDb.RoomTable.projection("r", QiscusDb.RoomTable.COLUMNS)
+                + " FROM " + QiscusDb.RoomTable.TABLE_NAME + " r"
+                + " WHERE r." + QiscusDb.RoomTable.COLUMN_ID + " = ?";
+
+        Cursor cursor = sqLiteDatabase.rawQuery(query, new String[]{String.valueOf(id)});
+        QiscusChatRoom qiscusChatRoom = null;
+        if (cursor.moveToNext()) {
+            qiscusChatRoom = QiscusDb.RoomTable.parseCursor(cursor);
+            qiscusChatRoom.setMember(new ArrayList<>());
+        }
+        cursor.close();
+        return qiscusChatRoom;
     }
 
     @Override
@@ -152,13 +416,12 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
 
     @Override
     public QiscusChatRoom getChatRoom(String email, String distinctId) {
-        String query = "SELECT * FROM "
+        String query = "SELECT " + QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " FROM "
                 + QiscusDb.RoomMemberTable.TABLE_NAME + " WHERE "
-                + QiscusDb.RoomMemberTable.COLUMN_DISTINCT_ID + " = " + DatabaseUtils.sqlEscapeString(distinctId)
-                + " AND " + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL
-                + " = " + DatabaseUtils.sqlEscapeString(email);
+                + QiscusDb.RoomMemberTable.COLUMN_DISTINCT_ID + " = ?"
+                + " AND " + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL + " = ?";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
+        Cursor cursor = sqLiteDatabase.rawQuery(query, new String[]{distinctId, email});
 
         while (cursor.moveToNext()) {
             QiscusChatRoom qiscusChatRoom = getChatRoom(QiscusDb.RoomMemberTable.getRoomId(cursor));
@@ -178,47 +441,38 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
 
     @Override
     public QiscusChatRoom getChatRoomWithUniqueId(String uniqueId) {
-        String query = "SELECT * FROM "
-                + QiscusDb.RoomTable.TABLE_NAME + " WHERE "
-                + QiscusDb.RoomTable.COLUMN_UNIQUE_ID + " = " + DatabaseUtils.sqlEscapeString(uniqueId);
-
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-
-        if (cursor.moveToNext()) {
-            QiscusChatRoom qiscusChatRoom = QiscusDb.RoomTable.parseCursor(cursor);
-            qiscusChatRoom.setMember(getRoomMembers(qiscusChatRoom.getId()));
-            QiscusComment latestComment = getLatestComment(qiscusChatRoom.getId());
-            if (latestComment != null) {
-                qiscusChatRoom.setLastComment(latestComment);
-            }
-            cursor.close();
+        QiscusChatRoom qiscusChatRoom = roomCache.get(uniqueId);
+        if (qiscusChatRoom != null) {
             return qiscusChatRoom;
-        } else {
-            cursor.close();
+        }
+
+        long cacheVersion = roomCache.getVersion();
+        List<QiscusChatRoom> qiscusChatRooms = queryChatRooms("r." + QiscusDb.RoomTable.COLUMN_UNIQUE_ID + " = ?",
+                new String[]{uniqueId}, 1);
+        if (qiscusChatRooms.isEmpty()) {
             return null;
         }
+        roomCache.put(qiscusChatRooms.get(0), cacheVersion);
+        return qiscusChatRooms.get(0);
+    }
+
+    /**
+     * @return number of {@link #getChatRoom(long)} and {@link #getChatRoomWithUniqueId(String)} served from memory
+     */
+    public long getRoomCacheHitCount() {
+        return roomCache.getHitCount();
+    }
+
+    /**
+     * @return number of {@link #getChatRoom(long)} and {@link #getChatRoomWithUniqueId(String)} loaded from database
+     */
+    public long getRoomCacheMissCount() {
+        return roomCache.getMissCount();
     }
 
     @Override
     public List<QiscusChatRoom> getChatRooms(int limit) {
-        String query = "SELECT * FROM "
-                + QiscusDb.RoomTable.TABLE_NAME
-                + " LIMIT " + limit;
-
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        List<QiscusChatRoom> qiscusChatRooms = new ArrayList<>();
-        while (cursor.moveToNext()) {
-            QiscusChatRoom qiscusChatRoom = QiscusDb.RoomTable.parseCursor(cursor);
-            qiscusChatRoom.setMember(getRoomMembers(qiscusChatRoom.getId()));
-            QiscusComment latestComment = getLatestComment(qiscusChatRoom.getId());
-            if (latestComment != null) {
-                qiscusChatRoom.setLastComment(latestComment);
-            }
-            qiscusChatRooms.add(qiscusChatRoom);
-        }
-        cursor.close();
-        sortRooms(qiscusChatRooms);
-        return qiscusChatRooms;
+        return queryChatRooms(null, null, limit);
     }
 
     @Override
@@ -229,6 +483,56 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
         }, Emitter.BackpressureMode.BUFFER);
     }
 
+    @Override
+    public Observable<List<QiscusChatRoom>> getLiveChatRooms(int limit) {
+        return invalidationTracker.createLiveQuery(() -> getChatRooms(limit), QiscusDataBaseHelper::isSameChatRooms,
+                QiscusDb.RoomTable.TABLE_NAME, QiscusDb.RoomMemberTable.TABLE_NAME,
+                QiscusDb.MemberTable.TABLE_NAME, QiscusDb.CommentTable.TABLE_NAME, QiscusDb.WatermarkTable.TABLE_NAME);
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRoomListItems(int limit) {
+        return queryChatRooms(null, null, limit, true);
+    }
+
+    @Override
+    public Observable<List<QiscusChatRoom>> getLiveChatRoomListItems(int limit) {
+        return invalidationTracker.createLiveQuery(() -> getChatRoomListItems(limit), QiscusDataBaseHelper::isSameChatRooms,
+                QiscusDb.RoomTable.TABLE_NAME, QiscusDb.MemberTable.TABLE_NAME, QiscusDb.CommentTable.TABLE_NAME,
+                QiscusDb.WatermarkTable.TABLE_NAME);
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRooms(QiscusChatRoom lastRoom, int limit) {
+        if (lastRoom == null) {
+            return getChatRooms(limit);
+        }
+        String lastCommentTime = String.valueOf(getStoredLastCommentTime(lastRoom));
+        return queryChatRooms(OLDER_THAN_ROOM,
+                new String[]{lastCommentTime, lastCommentTime, String.valueOf(lastRoom.getId())}, limit);
+    }
+
+    /**
+     * The room object may carry another last comment than the one stored, the page key must be the stored one
+     * or the next page skips or repeats rooms
+     */
+    private long getStoredLastCommentTime(QiscusChatRoom lastRoom) {
+        Cursor cursor = sqLiteDatabase.rawQuery("SELECT " + QiscusDb.RoomTable.COLUMN_LAST_COMMENT_TIME + " FROM "
+                        + QiscusDb.RoomTable.TABLE_NAME + " WHERE " + QiscusDb.RoomTable.COLUMN_ID + " = ?",
+                new String[]{String.valueOf(lastRoom.getId())});
+        long lastCommentTime = cursor.moveToNext() ? cursor.getLong(0) : getLastCommentTime(lastRoom);
+        cursor.close();
+        return lastCommentTime;
+    }
+
+    /**
+     * @return key of the room in the room list, the same as its stored last comment time
+     */
+    static long getLastCommentTime(QiscusChatRoom qiscusChatRoom) {
+        QiscusComment lastComment = qiscusChatRoom.getLastComment();
+        return lastComment == null || lastComment.getTime() == null ? 0 : lastComment.getTime().getTime();
+    }
+
     @Override
     public List<QiscusChatRoom> getChatRooms(List<Long> roomIds, List<String> uniqueIds) {
         List<QiscusChatRoom> qiscusChatRooms = new ArrayList<>();
@@ -236,80 +540,142 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
             return qiscusChatRooms;
         }
 
-        StringBuilder query = new StringBuilder("SELECT * FROM ").append(QiscusDb.RoomTable.TABLE_NAME).append(" WHERE ");
-        for (int i = 0; i < roomIds.size(); i++) {
-            query.append(QiscusDb.RoomTable.COLUMN_ID).append(" = ").append(roomIds.get(i));
-            if (i < roomIds.size() - 1) {
-                query.append(" OR ");
+        StringBuilder selection = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<>();
+        if (!roomIds.isEmpty()) {
+            selection.append("r.").append(QiscusDb.RoomTable.COLUMN_ID)
+                    .append(" IN (").append(makePlaceholders(roomIds.size())).append(")");
+            for (Long roomId : roomIds) {
+                selectionArgs.add(String.valueOf(roomId));
             }
         }
 
         if (!roomIds.isEmpty() && !uniqueIds.isEmpty()) {
-            query.append(" OR ");
+            selection.append(" OR ");
         }
 
-        for (int i = 0; i < uniqueIds.size(); i++) {
-            query.append(QiscusDb.RoomTable.COLUMN_UNIQUE_ID).append(" = ").append(DatabaseUtils.sqlEscapeString(uniqueIds.get(i)));
-            if (i < uniqueIds.size() - 1) {
-                query.append(" OR ");
-            }
+        if (!uniqueIds.isEmpty()) {
+            selection.append("r.").append(QiscusDb.RoomTable.COLUMN_UNIQUE_ID)
+                    .append(" IN (").append(makePlaceholders(uniqueIds.size())).append(")");
+            selectionArgs.addAll(uniqueIds);
+        }
+
+        return queryChatRooms(selection.toString(), selectionArgs.toArray(new String[selectionArgs.size()]), -1);
+    }
+
+    private List<QiscusChatRoom> queryChatRooms(String selection, String[] selectionArgs, int limit) {
+        return queryChatRooms(selection, selectionArgs, limit, false);
+    }
+
+    /**
+     * Load rooms together with their latest comment (and its sender profile) in one query walking
+     * rooms_last_comment_time_id_index, then load members of all loaded rooms in one more query.
+     *
+     * @param selection     where clause against rooms table aliased as r, null means all rooms
+     * @param selectionArgs arguments of the selection
+     * @param limit         max rooms to load, negative means no limit
+     * @param listItems     only load the list item columns and skip the members, see {@link #getChatRoomListItems(int)}
+     * @return rooms sorted by latest comment time then id, rooms without comment placed at the end
+     */
+    private List<QiscusChatRoom> queryChatRooms(String selection, String[] selectionArgs, int limit, boolean listItems) {
+        String query = "SELECT "
+                + QiscusDb.RoomTable.projection("r",
+                listItems ? QiscusDb.RoomTable.LIST_ITEM_COLUMNS : QiscusDb.RoomTable.COLUMNS) + ", "
+                + QiscusDb.CommentTable.projection("c", "m", LAST_COMMENT_PREFIX,
+                listItems ? QiscusDb.CommentTable.LIST_ITEM_COLUMNS : QiscusDb.CommentTable.COLUMNS)
+                + " FROM " + QiscusDb.RoomTable.TABLE_NAME + " r"
+                + " LEFT JOIN " + QiscusDb.CommentTable.TABLE_NAME + " c ON c." + QiscusDb.CommentTable.COLUMN_UNIQUE_ID
+                + " = r." + QiscusDb.RoomTable.COLUMN_LAST_COMMENT_UNIQUE_ID
+                + " LEFT JOIN " + QiscusDb.MemberTable.TABLE_NAME + " m ON m." + QiscusDb.MemberTable.COLUMN_USER_EMAIL
+                + " = c." + QiscusDb.CommentTable.COLUMN_SENDER_EMAIL
+                + (selection == null ? "" : " WHERE " + selection)
+                + " ORDER BY r." + QiscusDb.RoomTable.COLUMN_LAST_COMMENT_TIME + " DESC, r." + QiscusDb.RoomTable.COLUMN_ID + " DESC"
+                + (limit < 0 ? "" : " LIMIT ?");
+
+        if (limit >= 0) {
+            String[] args = selectionArgs == null ? new String[1] : Arrays.copyOf(selectionArgs, selectionArgs.length + 1);
+            args[args.length - 1] = String.valueOf(limit);
+            selectionArgs = args;
         }
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query.toString(), null);
+        Cursor cursor = sqLiteDatabase.rawQuery(query, selectionArgs);
+        List<QiscusChatRoom> qiscusChatRooms = new ArrayList<>(cursor.getCount());
+        QiscusDb.RoomTable.RowMapper roomMapper = new QiscusDb.RoomTable.RowMapper(cursor);
+        QiscusDb.CommentTable.RowMapper lastCommentMapper = new QiscusDb.CommentTable.RowMapper(cursor, LAST_COMMENT_PREFIX);
+        int lastCommentIndex = cursor.getColumnIndexOrThrow(LAST_COMMENT_PREFIX + QiscusDb.CommentTable.COLUMN_UNIQUE_ID);
         while (cursor.moveToNext()) {
-            QiscusChatRoom qiscusChatRoom = QiscusDb.RoomTable.parseCursor(cursor);
-            qiscusChatRoom.setMember(getRoomMembers(qiscusChatRoom.getId()));
-            QiscusComment latestComment = getLatestComment(qiscusChatRoom.getId());
-            if (latestComment != null) {
-                qiscusChatRoom.setLastComment(latestComment);
+            QiscusChatRoom qiscusChatRoom = roomMapper.map(cursor);
+            if (!cursor.isNull(lastCommentIndex)) {
+                qiscusChatRoom.setLastComment(lastCommentMapper.map(cursor));
             }
             qiscusChatRooms.add(qiscusChatRoom);
         }
         cursor.close();
-        sortRooms(qiscusChatRooms);
+
+        if (listItems) {
+            for (QiscusChatRoom qiscusChatRoom : qiscusChatRooms) {
+                qiscusChatRoom.setMember(new ArrayList<>());
+            }
+        } else if (!qiscusChatRooms.isEmpty()) {
+            List<Long> roomIds = new ArrayList<>(qiscusChatRooms.size());
+            for (QiscusChatRoom qiscusChatRoom : qiscusChatRooms) {
+                roomIds.add(qiscusChatRoom.getId());
+            }
+            Map<Long, List<QiscusRoomMember>> members = getRoomMembers(roomIds);
+            for (QiscusChatRoom qiscusChatRoom : qiscusChatRooms) {
+                List<QiscusRoomMember> roomMembers = members.get(qiscusChatRoom.getId());
+                qiscusChatRoom.setMember(roomMembers == null ? new ArrayList<>() : roomMembers);
+            }
+        }
+
         return qiscusChatRooms;
     }
 
     @Override
     public void deleteChatRoom(long roomId) {
-        String where = QiscusDb.RoomTable.COLUMN_ID + " = " + roomId;
+        String where = QiscusDb.RoomTable.COLUMN_ID + " = ?";
 
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
-            sqLiteDatabase.delete(QiscusDb.RoomTable.TABLE_NAME, where, null);
+            sqLiteDatabase.delete(QiscusDb.RoomTable.TABLE_NAME, where, new String[]{String.valueOf(roomId)});
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.RoomTable.TABLE_NAME);
+            roomCache.remove(roomId);
+            invalidateTotalUnreadCount();
         }
     }
 
     @Override
     public void addRoomMember(long roomId, QiscusRoomMember qiscusRoomMember, String distinctId) {
         distinctId = distinctId == null ? "default" : distinctId;
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
             sqLiteDatabase.insertWithOnConflict(QiscusDb.RoomMemberTable.TABLE_NAME, null,
                     QiscusDb.RoomMemberTable.toContentValues(roomId, distinctId, qiscusRoomMember), SQLiteDatabase.CONFLICT_ABORT);
+            addOrUpdate(qiscusRoomMember);
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.RoomMemberTable.TABLE_NAME);
+            roomCache.remove(roomId);
+            roomCache.removeRoomsOf(Collections.singletonList(qiscusRoomMember));
         }
-        addOrUpdate(qiscusRoomMember);
     }
 
     @Override
     public boolean isContainsRoomMember(long roomId, String email) {
-        String query = "SELECT * FROM "
+        String query = "SELECT 1 FROM "
                 + QiscusDb.RoomMemberTable.TABLE_NAME + " WHERE "
-                + QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = " + roomId
-                + " AND " + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL
-                + " = " + DatabaseUtils.sqlEscapeString(email);
+                + QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = ?"
+                + " AND " + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL + " = ? LIMIT 1";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
+        Cursor cursor = sqLiteDatabase.rawQuery(query, new String[]{String.valueOf(roomId), email});
         boolean contains = cursor.getCount() > 0;
         cursor.close();
         return contains;
@@ -318,18 +684,21 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
     @Override
     public void updateRoomMember(long roomId, QiscusRoomMember qiscusRoomMember, String distinctId) {
         distinctId = distinctId == null ? "default" : distinctId;
-        String where = QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = " + roomId + " AND "
-                + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL + " = " + DatabaseUtils.sqlEscapeString(qiscusRoomMember.getEmail());
+        String where = QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = ? AND "
+                + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL + " = ?";
 
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
             sqLiteDatabase.update(QiscusDb.RoomMemberTable.TABLE_NAME,
-                    QiscusDb.RoomMemberTable.toContentValues(roomId, distinctId, qiscusRoomMember), where, null);
+                    QiscusDb.RoomMemberTable.toContentValues(roomId, distinctId, qiscusRoomMember), where,
+                    new String[]{String.valueOf(roomId), qiscusRoomMember.getEmail()});
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.RoomMemberTable.TABLE_NAME);
+            roomCache.remove(roomId);
         }
 
         addOrUpdate(qiscusRoomMember);
@@ -337,74 +706,179 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
 
     @Override
     public void addOrUpdateRoomMember(long roomId, QiscusRoomMember qiscusRoomMember, String distinctId) {
-        sqLiteDatabase.beginTransaction();
+        addOrUpdateRoomMembers(roomId, Collections.singletonList(qiscusRoomMember), distinctId);
+    }
+
+    @Override
+    public boolean addOrUpdateRoomMembers(long roomId, List<QiscusRoomMember> qiscusRoomMembers, String distinctId) {
+        if (qiscusRoomMembers.isEmpty()) {
+            return true;
+        }
+
+        UpsertStatement roomMemberStatement = null;
+        UpsertStatement memberStatement = null;
+        boolean saved = false;
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
-            sqLiteDatabase.insertWithOnConflict(QiscusDb.RoomMemberTable.TABLE_NAME, null,
-                    QiscusDb.RoomMemberTable.toContentValues(roomId, distinctId, qiscusRoomMember), SQLiteDatabase.CONFLICT_REPLACE);
+            roomMemberStatement = new UpsertStatement(sqLiteDatabase, QiscusDb.RoomMemberTable.UPDATE,
+                    QiscusDb.RoomMemberTable.INSERT_OR_REPLACE);
+            memberStatement = new UpsertStatement(sqLiteDatabase, QiscusDb.MemberTable.UPDATE,
+                    QiscusDb.MemberTable.INSERT_OR_REPLACE);
+            upsertRoomMembers(roomMemberStatement, memberStatement, roomId, qiscusRoomMembers, distinctId);
             sqLiteDatabase.setTransactionSuccessful();
+            saved = true;
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.RoomMemberTable.TABLE_NAME, QiscusDb.MemberTable.TABLE_NAME);
+            roomCache.remove(roomId);
+            roomCache.removeRoomsOf(qiscusRoomMembers);
+            closeStatements(roomMemberStatement, memberStatement);
         }
+        return saved;
+    }
 
-        addOrUpdate(qiscusRoomMember);
+    /**
+     * Compare the new member list with the stored one and only write the difference, members no longer
+     * in the list are removed. Must be called inside a transaction.
+     */
+    private void syncRoomMembers(UpsertStatement roomMemberStatement, UpsertStatement memberStatement,
+                                 SQLiteStatement deleteRoomMemberStatement, long roomId,
+                                 List<QiscusRoomMember> qiscusRoomMembers, String distinctId) {
+        distinctId = distinctId == null ? "default" : distinctId;
+
+        Map<String, StoredRoomMember> storedMembers = new HashMap<>();
+        Cursor cursor = sqLiteDatabase.rawQuery(SELECT_STORED_ROOM_MEMBERS, new String[]{String.valueOf(roomId)});
+        while (cursor.moveToNext()) {
+            storedMembers.put(cursor.getString(0), new StoredRoomMember(cursor));
+        }
+        cursor.close();
+
+        for (QiscusRoomMember qiscusRoomMember : qiscusRoomMembers) {
+            StoredRoomMember storedMember = storedMembers.remove(qiscusRoomMember.getEmail());
+            if (storedMember == null) {
+                QiscusDb.RoomMemberTable.bind(roomMemberStatement.insert, roomId, distinctId, qiscusRoomMember);
+                roomMemberStatement.insert.executeInsert();
+                upsert(memberStatement, qiscusRoomMember);
+                continue;
+            }
+
+            if (!storedMember.isSameRoomMember(distinctId, qiscusRoomMember)) {
+                QiscusDb.RoomMemberTable.bind(roomMemberStatement.update, roomId, distinctId, qiscusRoomMember);
+                roomMemberStatement.update.executeUpdateDelete();
+            }
+            if (!storedMember.isSameProfile(qiscusRoomMember)) {
+                upsert(memberStatement, qiscusRoomMember);
+            }
+        }
+
+        for (String email : storedMembers.keySet()) {
+            deleteRoomMemberStatement.bindLong(1, roomId);
+            deleteRoomMemberStatement.bindString(2, email);
+            deleteRoomMemberStatement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Must be called inside a transaction, the statements are compiled by the caller so it can be reused
+     */
+    private void upsertRoomMembers(UpsertStatement roomMemberStatement, UpsertStatement memberStatement,
+                                   long roomId, List<QiscusRoomMember> qiscusRoomMembers, String distinctId) {
+        distinctId = distinctId == null ? "default" : distinctId;
+        for (QiscusRoomMember qiscusRoomMember : qiscusRoomMembers) {
+            QiscusDb.RoomMemberTable.bind(roomMemberStatement.update, roomId, distinctId, qiscusRoomMember);
+            if (roomMemberStatement.update.executeUpdateDelete() == 0) {
+                QiscusDb.RoomMemberTable.bind(roomMemberStatement.insert, roomId, distinctId, qiscusRoomMember);
+                roomMemberStatement.insert.executeInsert();
+            }
+            upsert(memberStatement, qiscusRoomMember);
+        }
     }
 
     @Override
     public List<QiscusRoomMember> getRoomMembers(long roomId) {
-        String query = "SELECT * FROM "
-                + QiscusDb.RoomMemberTable.TABLE_NAME + " WHERE "
-                + QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = " + roomId;
+        List<QiscusRoomMember> members = getRoomMembers(Collections.singletonList(roomId)).get(roomId);
+        return members == null ? new ArrayList<>() : members;
+    }
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        List<QiscusRoomMember> members = new ArrayList<>();
-        while (cursor.moveToNext()) {
-            QiscusRoomMember member = getMember(QiscusDb.RoomMemberTable.getUserEmail(cursor));
-            if (member != null) {
-                member.setLastDeliveredCommentId(QiscusDb.RoomMemberTable.getLastDeliveredCommentId(cursor));
-                member.setLastReadCommentId(QiscusDb.RoomMemberTable.getLastReadCommentId(cursor));
-                members.add(member);
+    private Map<Long, List<QiscusRoomMember>> getRoomMembers(List<Long> roomIds) {
+        Map<Long, List<QiscusRoomMember>> members = new HashMap<>();
+        for (int start = 0; start < roomIds.size(); start += MAX_QUERY_ARGS) {
+            List<Long> chunk = roomIds.subList(start, Math.min(start + MAX_QUERY_ARGS, roomIds.size()));
+            String[] args = new String[chunk.size()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = String.valueOf(chunk.get(i));
+            }
+
+            String query = "SELECT rm." + QiscusDb.RoomMemberTable.COLUMN_ROOM_ID
+                    + ", rm." + QiscusDb.RoomMemberTable.COLUMN_LAST_DELIVERED
+                    + ", rm." + QiscusDb.RoomMemberTable.COLUMN_LAST_READ + ", m.*"
+                    + " FROM " + QiscusDb.RoomMemberTable.TABLE_NAME + " rm"
+                    + " INNER JOIN " + QiscusDb.MemberTable.TABLE_NAME + " m ON m." + QiscusDb.MemberTable.COLUMN_USER_EMAIL
+                    + " = rm." + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL
+                    + " WHERE rm." + QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " IN (" + makePlaceholders(args.length) + ")";
+
+            Cursor cursor = sqLiteDatabase.rawQuery(query, args);
+            QiscusDb.MemberTable.RowMapper memberMapper = new QiscusDb.MemberTable.RowMapper(cursor);
+            int roomIdIndex = cursor.getColumnIndexOrThrow(QiscusDb.RoomMemberTable.COLUMN_ROOM_ID);
+            int lastDeliveredIndex = cursor.getColumnIndexOrThrow(QiscusDb.RoomMemberTable.COLUMN_LAST_DELIVERED);
+            int lastReadIndex = cursor.getColumnIndexOrThrow(QiscusDb.RoomMemberTable.COLUMN_LAST_READ);
+            while (cursor.moveToNext()) {
+                long roomId = cursor.getLong(roomIdIndex);
+                List<QiscusRoomMember> roomMembers = members.get(roomId);
+                if (roomMembers == null) {
+                    roomMembers = new ArrayList<>();
+                    members.put(roomId, roomMembers);
+                }
+                QiscusRoomMember member = memberMapper.map(cursor);
+                member.setLastDeliveredCommentId(cursor.getLong(lastDeliveredIndex));
+                member.setLastReadCommentId(cursor.getLong(lastReadIndex));
+                roomMembers.add(member);
             }
+            cursor.close();
         }
-        cursor.close();
         return members;
     }
 
     @Override
     public void deleteRoomMember(long roomId, String email) {
-        String where = QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = " + roomId
-                + " AND " + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL + " = " + DatabaseUtils.sqlEscapeString(email);
+        String where = QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = ?"
+                + " AND " + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL + " = ?";
 
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
-            sqLiteDatabase.delete(QiscusDb.RoomMemberTable.TABLE_NAME, where, null);
+            sqLiteDatabase.delete(QiscusDb.RoomMemberTable.TABLE_NAME, where, new String[]{String.valueOf(roomId), email});
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.RoomMemberTable.TABLE_NAME);
+            roomCache.remove(roomId);
         }
     }
 
     @Override
     public void deleteRoomMembers(long roomId) {
-        String where = QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = " + roomId;
+        String where = QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = ?";
 
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
-            sqLiteDatabase.delete(QiscusDb.RoomMemberTable.TABLE_NAME, where, null);
+            sqLiteDatabase.delete(QiscusDb.RoomMemberTable.TABLE_NAME, where, new String[]{String.valueOf(roomId)});
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.RoomMemberTable.TABLE_NAME);
+            roomCache.remove(roomId);
         }
     }
 
     @Override
     public void add(QiscusRoomMember qiscusRoomMember) {
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
             sqLiteDatabase.insertWithOnConflict(QiscusDb.MemberTable.TABLE_NAME, null,
                     QiscusDb.MemberTable.toContentValues(qiscusRoomMember), SQLiteDatabase.CONFLICT_ABORT);
@@ -413,16 +887,18 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.MemberTable.TABLE_NAME);
+            roomCache.removeRoomsOf(Collections.singletonList(qiscusRoomMember));
         }
     }
 
     @Override
     public boolean isContains(QiscusRoomMember qiscusRoomMember) {
-        String query = "SELECT * FROM "
+        String query = "SELECT 1 FROM "
                 + QiscusDb.MemberTable.TABLE_NAME + " WHERE "
-                + QiscusDb.MemberTable.COLUMN_USER_EMAIL + " = " + DatabaseUtils.sqlEscapeString(qiscusRoomMember.getEmail());
+                + QiscusDb.MemberTable.COLUMN_USER_EMAIL + " = ? LIMIT 1";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
+        Cursor cursor = sqLiteDatabase.rawQuery(query, new String[]{qiscusRoomMember.getEmail()});
         boolean contains = cursor.getCount() > 0;
         cursor.close();
         return contains;
@@ -430,30 +906,38 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
 
     @Override
     public void update(QiscusRoomMember qiscusRoomMember) {
-        String where = QiscusDb.MemberTable.COLUMN_USER_EMAIL + " = " + DatabaseUtils.sqlEscapeString(qiscusRoomMember.getEmail());
+        String where = QiscusDb.MemberTable.COLUMN_USER_EMAIL + " = ?";
 
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
-            sqLiteDatabase.update(QiscusDb.MemberTable.TABLE_NAME, QiscusDb.MemberTable.toContentValues(qiscusRoomMember), where, null);
+            sqLiteDatabase.update(QiscusDb.MemberTable.TABLE_NAME, QiscusDb.MemberTable.toContentValues(qiscusRoomMember), where,
+                    new String[]{qiscusRoomMember.getEmail()});
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.MemberTable.TABLE_NAME);
+            roomCache.removeRoomsOf(Collections.singletonList(qiscusRoomMember));
         }
     }
 
     @Override
     public void addOrUpdate(QiscusRoomMember qiscusRoomMember) {
-        sqLiteDatabase.beginTransaction();
+        UpsertStatement statement = null;
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
-            sqLiteDatabase.insertWithOnConflict(QiscusDb.MemberTable.TABLE_NAME, null,
-                    QiscusDb.MemberTable.toContentValues(qiscusRoomMember), SQLiteDatabase.CONFLICT_REPLACE);
+            statement = new UpsertStatement(sqLiteDatabase, QiscusDb.MemberTable.UPDATE,
+                    QiscusDb.MemberTable.INSERT_OR_REPLACE);
+            upsert(statement, qiscusRoomMember);
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.MemberTable.TABLE_NAME);
+            roomCache.removeRoomsOf(Collections.singletonList(qiscusRoomMember));
+            closeStatements(statement);
         }
     }
 
@@ -461,9 +945,9 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
     public QiscusRoomMember getMember(String email) {
         String query = "SELECT * FROM "
                 + QiscusDb.MemberTable.TABLE_NAME + " WHERE "
-                + QiscusDb.MemberTable.COLUMN_USER_EMAIL + " = " + DatabaseUtils.sqlEscapeString(email);
+                + QiscusDb.MemberTable.COLUMN_USER_EMAIL + " = ?";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
+        Cursor cursor = sqLiteDatabase.rawQuery(query, new String[]{email});
 
         if (cursor.moveToNext()) {
             QiscusRoomMember qiscusRoomMember = QiscusDb.MemberTable.getMember(cursor);
@@ -477,39 +961,48 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
 
     @Override
     public void add(QiscusComment qiscusComment) {
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
             sqLiteDatabase.insertWithOnConflict(QiscusDb.CommentTable.TABLE_NAME, null,
                     QiscusDb.CommentTable.toContentValues(qiscusComment), SQLiteDatabase.CONFLICT_ABORT);
+            addCommentRanges(Collections.singletonList(qiscusComment));
+            updateLastComments(Collections.singleton(qiscusComment.getRoomId()));
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.CommentTable.TABLE_NAME);
+            roomCache.remove(qiscusComment.getRoomId());
         }
     }
 
     @Override
     public void saveLocalPath(long roomId, long commentId, String localPath) {
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
-            sqLiteDatabase.insertWithOnConflict(QiscusDb.FilesTable.TABLE_NAME, null,
-                    QiscusDb.FilesTable.toContentValues(roomId, commentId, localPath), SQLiteDatabase.CONFLICT_ABORT);
+            synchronized (insertLocalPathStatement) {
+                insertLocalPathStatement.bindLong(1, roomId);
+                insertLocalPathStatement.bindLong(2, commentId);
+                QiscusDb.bindString(insertLocalPathStatement, 3, localPath);
+                insertLocalPathStatement.executeInsert();
+            }
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.FilesTable.TABLE_NAME);
         }
     }
 
     @Override
     public boolean isContains(QiscusComment qiscusComment) {
-        String query = "SELECT * FROM "
+        String query = "SELECT 1 FROM "
                 + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = " + DatabaseUtils.sqlEscapeString(qiscusComment.getUniqueId());
+                + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = ? LIMIT 1";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
+        Cursor cursor = sqLiteDatabase.rawQuery(query, new String[]{qiscusComment.getUniqueId()});
         boolean contains = cursor.getCount() > 0;
         cursor.close();
         return contains;
@@ -517,11 +1010,11 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
 
     @Override
     public boolean isContainsFileOfComment(long commentId) {
-        String query = "SELECT * FROM "
+        String query = "SELECT 1 FROM "
                 + QiscusDb.FilesTable.TABLE_NAME + " WHERE "
-                + QiscusDb.FilesTable.COLUMN_COMMENT_ID + " = " + commentId;
+                + QiscusDb.FilesTable.COLUMN_COMMENT_ID + " = ? LIMIT 1";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
+        Cursor cursor = sqLiteDatabase.rawQuery(query, new String[]{String.valueOf(commentId)});
         boolean contains = cursor.getCount() > 0;
         cursor.close();
         return contains;
@@ -529,52 +1022,81 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
 
     @Override
     public void update(QiscusComment qiscusComment) {
-        String where = QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = " + DatabaseUtils.sqlEscapeString(qiscusComment.getUniqueId());
+        String where = QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = ?";
 
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
-            sqLiteDatabase.update(QiscusDb.CommentTable.TABLE_NAME, QiscusDb.CommentTable.toContentValues(qiscusComment), where, null);
+            if (sqLiteDatabase.update(QiscusDb.CommentTable.TABLE_NAME, QiscusDb.CommentTable.toContentValues(qiscusComment),
+                    where, new String[]{qiscusComment.getUniqueId()}) > 0) {
+                addCommentRanges(Collections.singletonList(qiscusComment));
+                updateLastComments(Collections.singleton(qiscusComment.getRoomId()));
+            }
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.CommentTable.TABLE_NAME);
+            roomCache.remove(qiscusComment.getRoomId());
         }
     }
 
     @Override
     public void updateLocalPath(long roomId, long commentId, String localPath) {
-        String where = QiscusDb.FilesTable.COLUMN_COMMENT_ID + " = " + commentId;
+        String where = QiscusDb.FilesTable.COLUMN_COMMENT_ID + " = ?";
 
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
             sqLiteDatabase.update(QiscusDb.FilesTable.TABLE_NAME,
-                    QiscusDb.FilesTable.toContentValues(roomId, commentId, localPath), where, null);
+                    QiscusDb.FilesTable.toContentValues(roomId, commentId, localPath), where,
+                    new String[]{String.valueOf(commentId)});
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.FilesTable.TABLE_NAME);
         }
     }
 
     @Override
     public void addOrUpdate(QiscusComment qiscusComment) {
-        sqLiteDatabase.beginTransaction();
+        addOrUpdateComments(Collections.singletonList(qiscusComment));
+    }
+
+    @Override
+    public boolean addOrUpdateComments(List<QiscusComment> qiscusComments) {
+        if (qiscusComments.isEmpty()) {
+            return true;
+        }
+
+        UpsertStatement statement = null;
+        boolean saved = false;
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
-            sqLiteDatabase.insertWithOnConflict(QiscusDb.CommentTable.TABLE_NAME, null,
-                    QiscusDb.CommentTable.toContentValues(qiscusComment), SQLiteDatabase.CONFLICT_REPLACE);
+            statement = new UpsertStatement(sqLiteDatabase, QiscusDb.CommentTable.UPDATE,
+                    QiscusDb.CommentTable.INSERT_OR_REPLACE);
+            for (QiscusComment qiscusComment : qiscusComments) {
+                upsert(statement, qiscusComment);
+            }
+            addCommentRanges(qiscusComments);
+            updateLastComments(getRoomIds(qiscusComments));
             sqLiteDatabase.setTransactionSuccessful();
+            saved = true;
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.CommentTable.TABLE_NAME);
+            roomCache.remove(getRoomIds(qiscusComments));
+            closeStatements(statement);
         }
+        return saved;
     }
 
     @Override
     public void addOrUpdateLocalPath(long roomId, long commentId, String localPath) {
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
             sqLiteDatabase.insertWithOnConflict(QiscusDb.FilesTable.TABLE_NAME, null,
                     QiscusDb.FilesTable.toContentValues(roomId, commentId, localPath), SQLiteDatabase.CONFLICT_REPLACE);
@@ -583,292 +1105,400 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.FilesTable.TABLE_NAME);
         }
     }
 
     @Override
     public void delete(QiscusComment qiscusComment) {
-        String where = QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = " + DatabaseUtils.sqlEscapeString(qiscusComment.getUniqueId());
+        String where = QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = ?";
 
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
-            sqLiteDatabase.delete(QiscusDb.CommentTable.TABLE_NAME, where, null);
+            if (sqLiteDatabase.delete(QiscusDb.CommentTable.TABLE_NAME, where, new String[]{qiscusComment.getUniqueId()}) > 0) {
+                if (qiscusComment.getId() > 0) {
+                    removeCommentFromRanges(qiscusComment.getRoomId(), qiscusComment.getId());
+                }
+                updateLastComments(Collections.singleton(qiscusComment.getRoomId()));
+            }
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.CommentTable.TABLE_NAME);
+            roomCache.remove(qiscusComment.getRoomId());
         }
         deleteLocalPath(qiscusComment.getId());
     }
 
     @Override
-    public boolean deleteCommentsByRoomId(long roomId) {
-        List<QiscusComment> comments = getComments(roomId);
-
-        if (comments.isEmpty()) {
-            return false;
-        }
-
-        for (QiscusComment comment : comments) {
-            deleteLocalPath(comment.getId());
-        }
-
-        String where = QiscusDb.CommentTable.COLUMN_ROOM_ID + " = " + roomId;
-        sqLiteDatabase.beginTransaction();
-        try {
-            sqLiteDatabase.delete(QiscusDb.CommentTable.TABLE_NAME, where, null);
-            sqLiteDatabase.setTransactionSuccessful();
-        } catch (Exception e) {
-            QiscusErrorLogger.print(e);
-        } finally {
-            sqLiteDatabase.endTransaction();
-        }
-
-        return true;
+    public int deleteCommentsByRoomId(long roomId) {
+        String where = QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ?";
+        return deleteComments(roomId, where, new String[]{String.valueOf(roomId)});
     }
 
     @Override
-    public boolean deleteCommentsByRoomId(long roomId, long timestampOffset) {
-        List<QiscusComment> comments = getComments(roomId, timestampOffset);
-
-        if (comments.isEmpty()) {
-            return false;
-        }
+    public int deleteCommentsByRoomId(long roomId, long timestampOffset) {
+        String where = QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ? AND "
+                + QiscusDb.CommentTable.COLUMN_TIME + " <= ?";
+        return deleteComments(roomId, where, new String[]{String.valueOf(roomId), String.valueOf(timestampOffset)});
+    }
 
-        for (QiscusComment comment : comments) {
-            deleteLocalPath(comment.getId());
+    /**
+     * Delete the comments and their files rows in one transaction without loading the comments,
+     * the downloaded files are deleted later on background thread.
+     *
+     * @param where comments selection, must only select comments of the room
+     * @return number of deleted comments
+     */
+    private int deleteComments(long roomId, String where, String[] whereArgs) {
+        List<String> localPaths = new ArrayList<>();
+        int deleted = deleteComments(roomId, where, whereArgs, localPaths);
+        if (!localPaths.isEmpty()) {
+            QiscusAndroidUtil.runOnBackgroundThread(() -> {
+                for (String localPath : localPaths) {
+                    new File(localPath).delete();
+                }
+            });
         }
+        return deleted;
+    }
 
-        String where = QiscusDb.CommentTable.COLUMN_ROOM_ID + " = " + roomId + " AND "
-                + QiscusDb.CommentTable.COLUMN_TIME + " <= " + timestampOffset;
-
-        sqLiteDatabase.beginTransaction();
+    /**
+     * @param where      comments selection, must only select comments of the room, and only the oldest comments
+     *                   of it when some comments are not selected
+     * @param localPaths filled with the downloaded files of the deleted comments, the caller deletes them
+     */
+    private int deleteComments(long roomId, String where, String[] whereArgs, List<String> localPaths) {
+        String filesWhere = QiscusDb.FilesTable.COLUMN_ROOM_ID + " = ? AND "
+                + QiscusDb.FilesTable.COLUMN_COMMENT_ID + " IN ("
+                + "SELECT " + QiscusDb.CommentTable.COLUMN_ID + " FROM " + QiscusDb.CommentTable.TABLE_NAME
+                + " WHERE " + where + ")";
+        String[] filesWhereArgs = new String[whereArgs.length + 1];
+        filesWhereArgs[0] = String.valueOf(roomId);
+        System.arraycopy(whereArgs, 0, filesWhereArgs, 1, whereArgs.length);
+
+        int localPathCount = localPaths.size();
+        int deleted = 0;
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
-            sqLiteDatabase.delete(QiscusDb.CommentTable.TABLE_NAME, where, null);
+            Cursor cursor = sqLiteDatabase.query(QiscusDb.FilesTable.TABLE_NAME,
+                    new String[]{QiscusDb.FilesTable.COLUMN_LOCAL_PATH}, filesWhere, filesWhereArgs, null, null, null);
+            while (cursor.moveToNext()) {
+                localPaths.add(cursor.getString(0));
+            }
+            cursor.close();
+
+            sqLiteDatabase.delete(QiscusDb.FilesTable.TABLE_NAME, filesWhere, filesWhereArgs);
+            removeCommentsFromRanges(roomId, where, whereArgs);
+            deleted = sqLiteDatabase.delete(QiscusDb.CommentTable.TABLE_NAME, where, whereArgs);
+            if (deleted > 0) {
+                updateLastComments(Collections.singleton(roomId));
+            }
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
+            localPaths.subList(localPathCount, localPaths.size()).clear();
+            deleted = 0;
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.CommentTable.TABLE_NAME, QiscusDb.FilesTable.TABLE_NAME);
+            roomCache.remove(roomId);
         }
-
-        return true;
+        return deleted;
     }
 
     @Override
     public void updateLastDeliveredComment(long roomId, long commentId) {
-        String sql = "UPDATE " + QiscusDb.CommentTable.TABLE_NAME
-                + " SET " + QiscusDb.CommentTable.COLUMN_STATE + " = " + QiscusComment.STATE_DELIVERED
-                + " WHERE " + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = " + roomId
-                + " AND " + QiscusDb.CommentTable.COLUMN_ID + " <= " + commentId
-                + " AND " + QiscusDb.CommentTable.COLUMN_ID + " != -1"
-                + " AND " + QiscusDb.CommentTable.COLUMN_STATE + " < " + QiscusComment.STATE_DELIVERED;
-
-        sqLiteDatabase.beginTransaction();
-        try {
-            sqLiteDatabase.execSQL(sql);
-            sqLiteDatabase.setTransactionSuccessful();
-        } catch (Exception e) {
-            QiscusErrorLogger.print(e);
-        } finally {
-            sqLiteDatabase.endTransaction();
-        }
+        updateWatermark(updateLastDeliveredStatement, roomId, commentId);
     }
 
     @Override
     public void updateLastReadComment(long roomId, long commentId) {
-        String sql = "UPDATE " + QiscusDb.CommentTable.TABLE_NAME
-                + " SET " + QiscusDb.CommentTable.COLUMN_STATE + " = " + QiscusComment.STATE_READ
-                + " WHERE " + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = " + roomId
-                + " AND " + QiscusDb.CommentTable.COLUMN_ID + " <= " + commentId
-                + " AND " + QiscusDb.CommentTable.COLUMN_ID + " != -1"
-                + " AND " + QiscusDb.CommentTable.COLUMN_STATE + " < " + QiscusComment.STATE_READ;
-
-        sqLiteDatabase.beginTransaction();
+        updateWatermark(updateLastReadStatement, roomId, commentId);
+    }
+
+    /**
+     * Only move the room watermark, state of the comments below it is derived when they are queried
+     */
+    private void updateWatermark(SQLiteStatement updateStatement, long roomId, long commentId) {
+        // No member sentinel, it would mark every later comment of the room as read forever
+        if (commentId == Long.MAX_VALUE) {
+            return;
+        }
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
-            sqLiteDatabase.execSQL(sql);
+            synchronized (insertWatermarkStatement) {
+                insertWatermarkStatement.bindLong(1, roomId);
+                insertWatermarkStatement.executeInsert();
+                updateStatement.bindLong(1, roomId);
+                updateStatement.bindLong(2, commentId);
+                updateStatement.executeUpdateDelete();
+            }
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.WatermarkTable.TABLE_NAME);
+            roomCache.remove(roomId);
         }
     }
 
     @Override
-    public File getLocalPath(long commentId) {
-        String query = "SELECT * FROM "
-                + QiscusDb.FilesTable.TABLE_NAME + " WHERE "
-                + QiscusDb.FilesTable.COLUMN_COMMENT_ID + " = " + commentId;
+    public long getContiguousCommentsStart(long roomId, long commentId) {
+        Cursor cursor = sqLiteDatabase.rawQuery(QiscusDb.CommentRangeTable.SELECT_CONTAINING,
+                new String[]{String.valueOf(roomId), String.valueOf(commentId)});
+        long start = cursor.moveToNext() ? cursor.getLong(0) : commentId;
+        cursor.close();
+        return start;
+    }
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        if (cursor.moveToNext()) {
-            File file = new File(QiscusDb.FilesTable.parseCursor(cursor));
-            cursor.close();
-            if (file.exists()) {
-                return file;
+    /**
+     * Set the last comment columns of the rooms again from their stored comments, two index lookups per room.
+     * Must be called inside the transaction writing the comments or the rooms.
+     */
+    private void updateLastComments(Collection<Long> roomIds) {
+        synchronized (updateLastCommentStatement) {
+            for (Long roomId : roomIds) {
+                updateLastCommentStatement.bindLong(1, roomId);
+                updateLastCommentStatement.executeUpdateDelete();
             }
-            return null;
-        } else {
-            cursor.close();
-            return null;
         }
     }
 
-    @Override
-    public void deleteLocalPath(long commentId) {
-        File file = getLocalPath(commentId);
-        if (file != null) {
-            file.delete();
+    /**
+     * Every stored comment proves there is no other comment between its comment before id and its id,
+     * the ranges are merged in memory first so a page of comments cost one merge per room.
+     * Must be called inside the transaction writing the comments.
+     */
+    private void addCommentRanges(List<QiscusComment> qiscusComments) {
+        Map<Long, List<long[]>> roomRanges = new HashMap<>();
+        for (QiscusComment qiscusComment : qiscusComments) {
+            if (qiscusComment.getId() <= 0 || qiscusComment.getCommentBeforeId() < 0
+                    || qiscusComment.getCommentBeforeId() >= qiscusComment.getId()) {
+                continue;
+            }
+            List<long[]> ranges = roomRanges.get(qiscusComment.getRoomId());
+            if (ranges == null) {
+                ranges = new ArrayList<>();
+                roomRanges.put(qiscusComment.getRoomId(), ranges);
+            }
+            ranges.add(new long[]{qiscusComment.getCommentBeforeId(), qiscusComment.getId()});
+        }
+
+        for (Map.Entry<Long, List<long[]>> entry : roomRanges.entrySet()) {
+            List<long[]> ranges = entry.getValue();
+            Collections.sort(ranges, (lhs, rhs) -> lhs[0] < rhs[0] ? -1 : (lhs[0] == rhs[0] ? 0 : 1));
+            long[] merged = ranges.get(0);
+            for (int i = 1; i < ranges.size(); i++) {
+                long[] range = ranges.get(i);
+                if (range[0] <= merged[1]) {
+                    merged[1] = Math.max(merged[1], range[1]);
+                } else {
+                    addCommentRange(entry.getKey(), merged[0], merged[1]);
+                    merged = range;
+                }
+            }
+            addCommentRange(entry.getKey(), merged[0], merged[1]);
+        }
+    }
+
+    private void addCommentRange(long roomId, long start, long end) {
+        synchronized (insertRangeStatement) {
+            bindRange(selectMergedRangeStartStatement, roomId, start, end);
+            long mergedStart = selectMergedRangeStartStatement.simpleQueryForLong();
+            bindRange(selectMergedRangeEndStatement, roomId, start, end);
+            long mergedEnd = selectMergedRangeEndStatement.simpleQueryForLong();
+            bindRange(deleteTouchingRangesStatement, roomId, start, end);
+            deleteTouchingRangesStatement.executeUpdateDelete();
+            bindRange(insertRangeStatement, roomId, mergedStart, mergedEnd);
+            insertRangeStatement.executeInsert();
+        }
+    }
+
+    private static void bindRange(SQLiteStatement statement, long roomId, long start, long end) {
+        statement.bindLong(1, roomId);
+        statement.bindLong(2, start);
+        statement.bindLong(3, end);
+    }
+
+    /**
+     * Split the range containing the locally deleted comment, the comment is still on qiscus
+     */
+    private void removeCommentFromRanges(long roomId, long commentId) {
+        Cursor cursor = sqLiteDatabase.rawQuery(QiscusDb.CommentRangeTable.SELECT_CONTAINING,
+                new String[]{String.valueOf(roomId), String.valueOf(commentId)});
+        if (!cursor.moveToNext()) {
+            cursor.close();
+            return;
+        }
+        long start = cursor.getLong(0);
+        long end = cursor.getLong(1);
+        cursor.close();
+
+        String where = QiscusDb.CommentRangeTable.COLUMN_ROOM_ID + " = ? AND "
+                + QiscusDb.CommentRangeTable.COLUMN_END + " = ?";
+        sqLiteDatabase.delete(QiscusDb.CommentRangeTable.TABLE_NAME, where,
+                new String[]{String.valueOf(roomId), String.valueOf(end)});
+        if (commentId - 1 > start) {
+            sqLiteDatabase.insert(QiscusDb.CommentRangeTable.TABLE_NAME, null,
+                    QiscusDb.CommentRangeTable.toContentValues(roomId, start, commentId - 1));
+        }
+        if (end > commentId) {
+            sqLiteDatabase.insert(QiscusDb.CommentRangeTable.TABLE_NAME, null,
+                    QiscusDb.CommentRangeTable.toContentValues(roomId, commentId, end));
+        }
+    }
+
+    /**
+     * Cut the ranges below the newest of the comments about to be deleted, older comments are deleted with it
+     */
+    private void removeCommentsFromRanges(long roomId, String where, String[] whereArgs) {
+        Cursor cursor = sqLiteDatabase.rawQuery("SELECT MAX(" + QiscusDb.CommentTable.COLUMN_ID + ") FROM "
+                + QiscusDb.CommentTable.TABLE_NAME + " WHERE " + where, whereArgs);
+        long maxCommentId = cursor.moveToNext() ? cursor.getLong(0) : 0;
+        cursor.close();
+        if (maxCommentId <= 0) {
+            return;
+        }
+
+        String[] args = new String[]{String.valueOf(roomId), String.valueOf(maxCommentId)};
+        sqLiteDatabase.delete(QiscusDb.CommentRangeTable.TABLE_NAME,
+                QiscusDb.CommentRangeTable.COLUMN_ROOM_ID + " = ? AND "
+                        + QiscusDb.CommentRangeTable.COLUMN_END + " <= ?", args);
+        ContentValues values = new ContentValues();
+        values.put(QiscusDb.CommentRangeTable.COLUMN_START, maxCommentId);
+        sqLiteDatabase.update(QiscusDb.CommentRangeTable.TABLE_NAME, values,
+                QiscusDb.CommentRangeTable.COLUMN_ROOM_ID + " = ? AND "
+                        + QiscusDb.CommentRangeTable.COLUMN_START + " < ?", args);
+    }
+
+    @Override
+    public File getLocalPath(long commentId) {
+        String query = "SELECT " + QiscusDb.FilesTable.COLUMN_LOCAL_PATH + " FROM "
+                + QiscusDb.FilesTable.TABLE_NAME + " WHERE "
+                + QiscusDb.FilesTable.COLUMN_COMMENT_ID + " = ?";
+
+        Cursor cursor = sqLiteDatabase.rawQuery(query, new String[]{String.valueOf(commentId)});
+        if (cursor.moveToNext()) {
+            File file = new File(QiscusDb.FilesTable.parseCursor(cursor));
+            cursor.close();
+            if (file.exists()) {
+                return file;
+            }
+            return null;
+        } else {
+            cursor.close();
+            return null;
+        }
+    }
+
+    @Override
+    public List<Pair<QiscusComment, File>> getMediaComments(long roomId, QiscusComment.Type mediaType,
+                                                            QiscusComment lastComment, int limit) {
+        String query = SELECT_MEDIA_COMMENTS + " WHERE "
+                + "c." + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ? AND "
+                + "c." + QiscusDb.CommentTable.COLUMN_MEDIA_TYPE + " = ? AND "
+                + "c." + QiscusDb.CommentTable.COLUMN_HARD_DELETED + " = 0"
+                + (lastComment == null ? "" : " AND " + OLDER_THAN_COMMENT)
+                + ORDER_BY_NEWEST
+                + " LIMIT ?";
+
+        String[] args;
+        if (lastComment == null) {
+            args = new String[]{String.valueOf(roomId), mediaType.name(), String.valueOf(limit)};
+        } else {
+            String lastTime = String.valueOf(lastComment.getTime().getTime());
+            args = new String[]{String.valueOf(roomId), mediaType.name(), lastTime, lastTime,
+                    lastComment.getUniqueId(), String.valueOf(limit)};
+        }
+
+        Cursor cursor = sqLiteDatabase.rawQuery(query, args);
+        List<Pair<QiscusComment, File>> mediaComments = new ArrayList<>(cursor.getCount());
+        QiscusDb.CommentTable.RowMapper commentMapper = new QiscusDb.CommentTable.RowMapper(cursor);
+        int localPathIndex = cursor.getColumnIndexOrThrow(QiscusDb.FilesTable.COLUMN_LOCAL_PATH);
+        while (cursor.moveToNext()) {
+            mediaComments.add(Pair.create(commentMapper.map(cursor), new File(cursor.getString(localPathIndex))));
+        }
+        cursor.close();
+        return mediaComments;
+    }
+
+    @Override
+    public void deleteLocalPath(long commentId) {
+        File file = getLocalPath(commentId);
+        if (file != null) {
+            file.delete();
         }
 
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
-            String where = QiscusDb.FilesTable.COLUMN_COMMENT_ID + " = " + commentId;
-            sqLiteDatabase.delete(QiscusDb.FilesTable.TABLE_NAME, where, null);
+            String where = QiscusDb.FilesTable.COLUMN_COMMENT_ID + " = ?";
+            sqLiteDatabase.delete(QiscusDb.FilesTable.TABLE_NAME, where, new String[]{String.valueOf(commentId)});
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.FilesTable.TABLE_NAME);
         }
     }
 
     @Override
     public QiscusComment getComment(String uniqueId) {
-        String query = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = " + DatabaseUtils.sqlEscapeString(uniqueId);
+        String query = SELECT_COMMENTS + " WHERE "
+                + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = ?";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        if (cursor.moveToNext()) {
-            QiscusComment qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            cursor.close();
-            return qiscusComment;
-        } else {
-            cursor.close();
-            return null;
-        }
+        return queryComment(query, new String[]{uniqueId});
     }
 
     private QiscusComment getComment(long id) {
-        String query = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                + QiscusDb.CommentTable.COLUMN_ID + " = " + id;
+        String query = SELECT_COMMENTS + " WHERE "
+                + QiscusDb.CommentTable.COLUMN_ID + " = ?";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        if (cursor.moveToNext()) {
-            QiscusComment qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            cursor.close();
-            return qiscusComment;
-        } else {
-            cursor.close();
-            return null;
-        }
+        return queryComment(query, new String[]{String.valueOf(id)});
     }
 
     @Override
     public QiscusComment getCommentByBeforeId(long beforeId) {
-        String query = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                + QiscusDb.CommentTable.COLUMN_COMMENT_BEFORE_ID + " = " + beforeId;
+        String query = SELECT_COMMENTS + " WHERE "
+                + QiscusDb.CommentTable.COLUMN_COMMENT_BEFORE_ID + " = ?";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        if (cursor.moveToNext()) {
-            QiscusComment qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            cursor.close();
-            return qiscusComment;
-        } else {
-            cursor.close();
-            return null;
-        }
+        return queryComment(query, new String[]{String.valueOf(beforeId)});
     }
 
     @Override
     public List<QiscusComment> getComments(long roomId) {
-        String query = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = " + roomId + " AND "
+        String query = SELECT_COMMENTS + " WHERE "
+                + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ? AND "
                 + QiscusDb.CommentTable.COLUMN_HARD_DELETED + " = " + 0
                 + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        List<QiscusComment> qiscusComments = new ArrayList<>();
-        while (cursor.moveToNext()) {
-            QiscusComment qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            qiscusComments.add(qiscusComment);
-        }
-        cursor.close();
-        return qiscusComments;
+        return queryComments(query, new String[]{String.valueOf(roomId)});
     }
 
     @Override
     public List<QiscusComment> getComments(long roomId, int limit) {
-        String query = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = " + roomId + " AND "
+        String query = SELECT_COMMENTS + " WHERE "
+                + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ? AND "
                 + QiscusDb.CommentTable.COLUMN_HARD_DELETED + " = " + 0
                 + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC"
-                + " LIMIT " + limit;
+                + " LIMIT ?";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        List<QiscusComment> qiscusComments = new ArrayList<>();
-        while (cursor.moveToNext()) {
-            QiscusComment qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            qiscusComments.add(qiscusComment);
-        }
-        cursor.close();
-        return qiscusComments;
+        return queryComments(query, new String[]{String.valueOf(roomId), String.valueOf(limit)});
     }
 
     @Override
     public List<QiscusComment> getComments(long roomId, long timestampOffset) {
-        String query = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = " + roomId + " AND "
-                + QiscusDb.CommentTable.COLUMN_TIME + " <= " + timestampOffset + " AND "
+        String query = SELECT_COMMENTS + " WHERE "
+                + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ? AND "
+                + QiscusDb.CommentTable.COLUMN_TIME + " <= ? AND "
                 + QiscusDb.CommentTable.COLUMN_HARD_DELETED + " = " + 0
                 + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        List<QiscusComment> qiscusComments = new ArrayList<>();
-        while (cursor.moveToNext()) {
-            QiscusComment qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            qiscusComments.add(qiscusComment);
-        }
-        cursor.close();
-        return qiscusComments;
+        return queryComments(query, new String[]{String.valueOf(roomId), String.valueOf(timestampOffset)});
     }
 
     @Override
@@ -887,29 +1517,72 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
         }, Emitter.BackpressureMode.BUFFER);
     }
 
+    @Override
+    public Observable<List<QiscusComment>> getLiveComments(long roomId, int limit) {
+        return invalidationTracker.createLiveQuery(() -> getComments(roomId, limit),
+                QiscusDataBaseHelper::isSameComments,
+                QiscusDb.CommentTable.TABLE_NAME, QiscusDb.MemberTable.TABLE_NAME, QiscusDb.WatermarkTable.TABLE_NAME);
+    }
+
+    @Override
+    public Observable<QiscusComment> getCommentStream(long roomId) {
+        return getCommentWindows(roomId, COMMENT_WINDOW_SIZE).concatMap(Observable::from);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getCommentWindows(long roomId, int windowSize) {
+        // The state is the last emitted comment, the next window is loaded only when it's requested
+        return Observable.create(SyncOnSubscribe.<QiscusComment, List<QiscusComment>>createStateful(
+                () -> null,
+                (lastComment, observer) -> {
+                    List<QiscusComment> comments = getCommentsWindow(roomId, lastComment, windowSize);
+                    if (!comments.isEmpty()) {
+                        observer.onNext(comments);
+                    }
+                    if (comments.size() < windowSize) {
+                        observer.onCompleted();
+                        return null;
+                    }
+                    return comments.get(comments.size() - 1);
+                }));
+    }
+
+    /**
+     * Load the comments older than lastComment, newest first. Paging by the last comment instead of offset
+     * so every window cost the same however deep it is.
+     *
+     * @param lastComment last comment of the previous window, null for the first window
+     */
+    private List<QiscusComment> getCommentsWindow(long roomId, QiscusComment lastComment, int limit) {
+        String query = SELECT_COMMENTS + " WHERE "
+                + "c." + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ? AND "
+                + "c." + QiscusDb.CommentTable.COLUMN_HARD_DELETED + " = 0"
+                + (lastComment == null ? "" : " AND " + OLDER_THAN_COMMENT)
+                + ORDER_BY_NEWEST
+                + " LIMIT ?";
+
+        String[] args;
+        if (lastComment == null) {
+            args = new String[]{String.valueOf(roomId), String.valueOf(limit)};
+        } else {
+            String lastTime = String.valueOf(lastComment.getTime().getTime());
+            args = new String[]{String.valueOf(roomId), lastTime, lastTime, lastComment.getUniqueId(),
+                    String.valueOf(limit)};
+        }
+        return queryComments(query, args);
+    }
+
     @Override
     public List<QiscusComment> getOlderCommentsThan(QiscusComment qiscusComment, long roomId, int limit) {
-        String query = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = " + roomId + " AND "
-                + QiscusDb.CommentTable.COLUMN_TIME + " <= " + qiscusComment.getTime().getTime() + " AND "
+        String query = SELECT_COMMENTS + " WHERE "
+                + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ? AND "
+                + QiscusDb.CommentTable.COLUMN_TIME + " <= ? AND "
                 + QiscusDb.CommentTable.COLUMN_HARD_DELETED + " = " + 0
                 + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC"
-                + " LIMIT " + limit;
+                + " LIMIT ?";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        List<QiscusComment> qiscusComments = new ArrayList<>();
-        while (cursor.moveToNext()) {
-            QiscusComment comment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(comment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                comment.setSender(qiscusRoomMember.getUsername());
-                comment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            qiscusComments.add(comment);
-        }
-        cursor.close();
-        return qiscusComments;
+        return queryComments(query, new String[]{String.valueOf(roomId),
+                String.valueOf(qiscusComment.getTime().getTime()), String.valueOf(limit)});
     }
 
     @Override
@@ -927,27 +1600,14 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
             return new ArrayList<>();
         }
 
-        String query = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = " + roomId + " AND ("
-                + QiscusDb.CommentTable.COLUMN_TIME + " >= " + savedComment.getTime().getTime() + " OR "
+        String query = SELECT_COMMENTS + " WHERE "
+                + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ? AND ("
+                + QiscusDb.CommentTable.COLUMN_TIME + " >= ? OR "
                 + QiscusDb.CommentTable.COLUMN_ID + " = -1) " + " AND "
                 + QiscusDb.CommentTable.COLUMN_HARD_DELETED + " = " + 0
                 + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        List<QiscusComment> qiscusComments = new ArrayList<>();
-        while (cursor.moveToNext()) {
-            QiscusComment comment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(comment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                comment.setSender(qiscusRoomMember.getUsername());
-                comment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            qiscusComments.add(comment);
-        }
-        cursor.close();
-        return qiscusComments;
+        return queryComments(query, new String[]{String.valueOf(roomId), String.valueOf(savedComment.getTime().getTime())});
     }
 
     @Override
@@ -960,118 +1620,57 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
 
     @Override
     public QiscusComment getLatestComment() {
-        String query = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
+        String query = SELECT_COMMENTS + " WHERE "
                 + QiscusDb.CommentTable.COLUMN_ID + " != -1 " + " AND "
                 + QiscusDb.CommentTable.COLUMN_HARD_DELETED + " = " + 0
                 + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC "
                 + " LIMIT " + 1;
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        QiscusComment qiscusComment = null;
-        while (cursor.moveToNext()) {
-            qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-        }
-        cursor.close();
-        return qiscusComment;
+        return queryComment(query, null);
     }
 
     @Override
     public QiscusComment getLatestComment(long roomId) {
-        String query = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME
-                + " WHERE " + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = " + roomId + " AND "
+        String query = SELECT_COMMENTS
+                + " WHERE " + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ? AND "
                 + QiscusDb.CommentTable.COLUMN_HARD_DELETED + " = " + 0
                 + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC"
                 + " LIMIT " + 1;
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        QiscusComment qiscusComment = null;
-        while (cursor.moveToNext()) {
-            qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-        }
-        cursor.close();
-        return qiscusComment;
+        return queryComment(query, new String[]{String.valueOf(roomId)});
     }
 
     @Override
     public QiscusComment getLatestDeliveredComment(long roomId) {
-        String query = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
+        String query = SELECT_COMMENTS + " WHERE "
                 + QiscusDb.CommentTable.COLUMN_ID + " != -1 "
-                + " AND " + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = " + roomId
-                + " AND " + QiscusDb.CommentTable.COLUMN_STATE + " = " + QiscusComment.STATE_DELIVERED
+                + " AND " + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ?"
+                + " AND " + QiscusDb.CommentTable.state("c") + " = " + QiscusComment.STATE_DELIVERED
                 + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC"
                 + " LIMIT " + 1;
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        QiscusComment qiscusComment = null;
-        while (cursor.moveToNext()) {
-            qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-        }
-        cursor.close();
-        return qiscusComment;
+        return queryComment(query, new String[]{String.valueOf(roomId)});
     }
 
     @Override
     public QiscusComment getLatestReadComment(long roomId) {
-        String query = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
+        String query = SELECT_COMMENTS + " WHERE "
                 + QiscusDb.CommentTable.COLUMN_ID + " != -1 "
-                + " AND " + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = " + roomId
-                + " AND " + QiscusDb.CommentTable.COLUMN_STATE + " = " + QiscusComment.STATE_READ
+                + " AND " + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ?"
+                + " AND " + QiscusDb.CommentTable.state("c") + " = " + QiscusComment.STATE_READ
                 + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC"
                 + " LIMIT " + 1;
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        QiscusComment qiscusComment = null;
-        while (cursor.moveToNext()) {
-            qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-        }
-        cursor.close();
-        return qiscusComment;
+        return queryComment(query, new String[]{String.valueOf(roomId)});
     }
 
     @Override
     public List<QiscusComment> getPendingComments() {
-        String query = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
+        String query = SELECT_COMMENTS + " WHERE "
                 + QiscusDb.CommentTable.COLUMN_STATE + " = " + QiscusComment.STATE_PENDING
                 + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " ASC";
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        List<QiscusComment> qiscusComments = new ArrayList<>();
-        while (cursor.moveToNext()) {
-            QiscusComment qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            qiscusComments.add(qiscusComment);
-        }
-        cursor.close();
-        return qiscusComments;
+        return queryComments(query, null);
     }
 
     @Override
@@ -1083,81 +1682,604 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
     }
 
     @Override
-    public List<QiscusComment> searchComments(String query, long roomId, int limit, int offset) {
-        String sql = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = " + roomId + " AND "
-                + QiscusDb.CommentTable.COLUMN_MESSAGE + " LIKE '%" + query + "%' " + " AND "
-                + QiscusDb.CommentTable.COLUMN_HARD_DELETED + " = " + 0
-                + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC "
-                + " LIMIT " + limit + " OFFSET " + offset;
+    public Observable<List<QiscusComment>> getLivePendingComments() {
+        return invalidationTracker.createLiveQuery(this::getPendingComments, QiscusDataBaseHelper::isSameComments,
+                QiscusDb.CommentTable.TABLE_NAME);
+    }
 
-        Cursor cursor = sqLiteDatabase.rawQuery(sql, null);
-        List<QiscusComment> qiscusComments = new ArrayList<>();
-        while (cursor.moveToNext()) {
-            QiscusComment qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            qiscusComments.add(qiscusComment);
+    @Override
+    public List<QiscusComment> searchComments(String query, long roomId, int limit, int offset) {
+        String matchQuery = QiscusDb.CommentSearchTable.toMatchQuery(query);
+        if (matchQuery == null) {
+            return new ArrayList<>();
         }
-        cursor.close();
-        return qiscusComments;
+
+        String sql = SEARCH_COMMENTS + " WHERE "
+                + QiscusDb.CommentSearchTable.TABLE_NAME + " MATCH ? AND "
+                + "c." + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ? AND "
+                + "c." + QiscusDb.CommentTable.COLUMN_HARD_DELETED + " = 0"
+                + " ORDER BY c." + QiscusDb.CommentTable.COLUMN_TIME + " DESC"
+                + " LIMIT ? OFFSET ?";
+
+        return queryComments(sql, new String[]{matchQuery, String.valueOf(roomId), String.valueOf(limit),
+                String.valueOf(offset)});
     }
 
     @Override
     public List<QiscusComment> searchComments(String query, int limit, int offset) {
-        String sql = "SELECT * FROM "
-                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                + QiscusDb.CommentTable.COLUMN_MESSAGE + " LIKE '%" + query + "%' " + " AND "
-                + QiscusDb.CommentTable.COLUMN_HARD_DELETED + " = " + 0
-                + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC "
-                + " LIMIT " + limit + " OFFSET " + offset;
+        String matchQuery = QiscusDb.CommentSearchTable.toMatchQuery(query);
+        if (matchQuery == null) {
+            return new ArrayList<>();
+        }
+
+        String sql = SEARCH_COMMENTS + " WHERE "
+                + QiscusDb.CommentSearchTable.TABLE_NAME + " MATCH ? AND "
+                + "c." + QiscusDb.CommentTable.COLUMN_HARD_DELETED + " = 0"
+                + " ORDER BY c." + QiscusDb.CommentTable.COLUMN_TIME + " DESC"
+                + " LIMIT ? OFFSET ?";
+
+        return queryComments(sql, new String[]{matchQuery, String.valueOf(limit), String.valueOf(offset)});
+    }
+
+    @Override
+    public List<QiscusCommentSearchResult> searchComments(String query, long roomId,
+                                                          QiscusCommentSearchResult lastResult, int limit) {
+        return searchComments(query, "c." + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ?",
+                new String[]{String.valueOf(roomId)}, lastResult, limit);
+    }
+
+    @Override
+    public List<QiscusCommentSearchResult> searchComments(String query, QiscusCommentSearchResult lastResult, int limit) {
+        return searchComments(query, null, null, lastResult, limit);
+    }
 
-        Cursor cursor = sqLiteDatabase.rawQuery(sql, null);
-        List<QiscusComment> qiscusComments = new ArrayList<>();
+    /**
+     * Search comments ordered by rank then by newest, paged by the (rank, time, id) of the last result
+     * so every page costs the same whatever the page number is.
+     */
+    private List<QiscusCommentSearchResult> searchComments(String query, String selection, String[] selectionArgs,
+                                                           QiscusCommentSearchResult lastResult, int limit) {
+        List<QiscusCommentSearchResult> results = new ArrayList<>();
+        String matchQuery = QiscusDb.CommentSearchTable.toMatchQuery(query);
+        if (matchQuery == null) {
+            return results;
+        }
+
+        List<String> args = new ArrayList<>();
+        args.add(matchQuery);
+        StringBuilder sql = new StringBuilder(SEARCH_COMMENTS).append(" WHERE ")
+                .append(QiscusDb.CommentSearchTable.TABLE_NAME).append(" MATCH ? AND c.")
+                .append(QiscusDb.CommentTable.COLUMN_HARD_DELETED).append(" = 0");
+
+        if (selection != null) {
+            sql.append(" AND ").append(selection);
+            Collections.addAll(args, selectionArgs);
+        }
+
+        if (lastResult != null) {
+            String rank = String.valueOf(lastResult.getRank());
+            String time = String.valueOf(lastResult.getComment().getTime().getTime());
+            sql.append(" AND (").append(QiscusDb.CommentSearchTable.RANK).append(" < ? OR (")
+                    .append(QiscusDb.CommentSearchTable.RANK).append(" = ? AND (c.")
+                    .append(QiscusDb.CommentTable.COLUMN_TIME).append(" < ? OR (c.")
+                    .append(QiscusDb.CommentTable.COLUMN_TIME).append(" = ? AND c.")
+                    .append(QiscusDb.CommentTable.COLUMN_ID).append(" < ?))))");
+            Collections.addAll(args, rank, rank, time, time, String.valueOf(lastResult.getComment().getId()));
+        }
+
+        sql.append(" ORDER BY ").append(QiscusDb.CommentSearchTable.COLUMN_RANK).append(" DESC, c.")
+                .append(QiscusDb.CommentTable.COLUMN_TIME).append(" DESC, c.")
+                .append(QiscusDb.CommentTable.COLUMN_ID).append(" DESC")
+                .append(" LIMIT ?");
+        args.add(String.valueOf(limit));
+
+        Cursor cursor = sqLiteDatabase.rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+        QiscusDb.CommentTable.RowMapper commentMapper = new QiscusDb.CommentTable.RowMapper(cursor);
+        int snippetIndex = cursor.getColumnIndexOrThrow(QiscusDb.CommentSearchTable.COLUMN_SNIPPET);
+        int rankIndex = cursor.getColumnIndexOrThrow(QiscusDb.CommentSearchTable.COLUMN_RANK);
         while (cursor.moveToNext()) {
-            QiscusComment qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            qiscusComments.add(qiscusComment);
+            results.add(new QiscusCommentSearchResult(commentMapper.map(cursor),
+                    cursor.getString(snippetIndex), cursor.getInt(rankIndex)));
         }
         cursor.close();
-        return qiscusComments;
+        return results;
     }
 
     @Override
     public void clear() {
-        sqLiteDatabase.beginTransaction();
+        sqLiteDatabase.beginTransactionNonExclusive();
         try {
             sqLiteDatabase.delete(QiscusDb.RoomTable.TABLE_NAME, null, null);
             sqLiteDatabase.delete(QiscusDb.MemberTable.TABLE_NAME, null, null);
             sqLiteDatabase.delete(QiscusDb.RoomMemberTable.TABLE_NAME, null, null);
             sqLiteDatabase.delete(QiscusDb.FilesTable.TABLE_NAME, null, null);
             sqLiteDatabase.delete(QiscusDb.CommentTable.TABLE_NAME, null, null);
+            sqLiteDatabase.delete(QiscusDb.WatermarkTable.TABLE_NAME, null, null);
+            sqLiteDatabase.delete(QiscusDb.CommentRangeTable.TABLE_NAME, null, null);
             sqLiteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             QiscusErrorLogger.print(e);
         } finally {
             sqLiteDatabase.endTransaction();
+            invalidationTracker.markDirty(QiscusDb.RoomTable.TABLE_NAME, QiscusDb.MemberTable.TABLE_NAME,
+                    QiscusDb.RoomMemberTable.TABLE_NAME, QiscusDb.FilesTable.TABLE_NAME, QiscusDb.CommentTable.TABLE_NAME,
+                    QiscusDb.WatermarkTable.TABLE_NAME);
+            roomCache.clear();
+            invalidateTotalUnreadCount();
+        }
+    }
+
+    @Override
+    public QiscusCompactionResult compact(QiscusRetentionPolicy retentionPolicy, Set<Long> exemptRoomIds) {
+        QiscusCompactionResult result = new QiscusCompactionResult();
+        int batchSize = Math.max(1, Math.min(retentionPolicy.getBatchSize(), MAX_QUERY_ARGS));
+        long usedBytesBefore = getDatabaseSize(true);
+        List<String> localPaths = new ArrayList<>();
+        try {
+            if (retentionPolicy.getMaxCommentsPerRoom() > 0 || retentionPolicy.getMaxCommentAgeInMillis() > 0) {
+                trimRooms(retentionPolicy, batchSize, exemptRoomIds, localPaths, result);
+            }
+            if (retentionPolicy.getMaxDatabaseSizeInKb() > 0) {
+                trimOldestComments(retentionPolicy.getMaxDatabaseSizeInKb() * 1024, batchSize, exemptRoomIds,
+                        localPaths, result);
+            }
+            for (String localPath : localPaths) {
+                deleteFile(localPath, result);
+            }
+            if (retentionPolicy.getMaxFileCacheSizeInKb() > 0) {
+                trimFiles(retentionPolicy.getMaxFileCacheSizeInKb() * 1024, batchSize, exemptRoomIds, result);
+            }
+            vacuum(batchSize);
+        } catch (Exception e) {
+            QiscusErrorLogger.print(e);
+        }
+        result.setReclaimedDatabaseBytes(Math.max(0, usedBytesBefore - getDatabaseSize(true)));
+        return result;
+    }
+
+    /**
+     * Delete the comments of every room older than its newest max comments or older than the max age
+     */
+    private void trimRooms(QiscusRetentionPolicy retentionPolicy, int batchSize, Set<Long> exemptRoomIds,
+                           List<String> localPaths, QiscusCompactionResult result) {
+        String query = "SELECT " + QiscusDb.CommentTable.COLUMN_TIME + " FROM " + QiscusDb.CommentTable.TABLE_NAME
+                + " WHERE " + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ?"
+                + " AND " + QiscusDb.CommentTable.COLUMN_HARD_DELETED + " = 0"
+                + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC LIMIT 1 OFFSET ?";
+
+        List<Long> roomIds = new ArrayList<>();
+        Cursor cursor = sqLiteDatabase.rawQuery("SELECT DISTINCT " + QiscusDb.CommentTable.COLUMN_ROOM_ID
+                + " FROM " + QiscusDb.CommentTable.TABLE_NAME, null);
+        while (cursor.moveToNext()) {
+            if (!exemptRoomIds.contains(cursor.getLong(0))) {
+                roomIds.add(cursor.getLong(0));
+            }
+        }
+        cursor.close();
+
+        long minTime = retentionPolicy.getMaxCommentAgeInMillis() > 0
+                ? System.currentTimeMillis() - retentionPolicy.getMaxCommentAgeInMillis() : 0;
+        for (Long roomId : roomIds) {
+            long roomMinTime = minTime;
+            if (retentionPolicy.getMaxCommentsPerRoom() > 0) {
+                cursor = sqLiteDatabase.rawQuery(query, new String[]{String.valueOf(roomId),
+                        String.valueOf(retentionPolicy.getMaxCommentsPerRoom() - 1)});
+                if (cursor.moveToNext()) {
+                    roomMinTime = Math.max(roomMinTime, cursor.getLong(0));
+                }
+                cursor.close();
+            }
+            if (roomMinTime > 0) {
+                deleteCommentsBefore(roomId, roomMinTime, batchSize, localPaths, result);
+            }
+        }
+    }
+
+    /**
+     * Delete the oldest comments of all rooms until the used pages fit in max bytes, freed space inside
+     * a partly used page is not counted so it may delete a bit more than needed. Stops after
+     * MAX_TRIM_BATCHES batches or once a batch frees no page, the next compaction goes on from there.
+     */
+    private void trimOldestComments(long maxBytes, int batchSize, Set<Long> exemptRoomIds, List<String> localPaths,
+                                    QiscusCompactionResult result) {
+        // Exempt rooms past the max args are skipped below instead
+        List<String> args = new ArrayList<>();
+        for (Long roomId : exemptRoomIds) {
+            if (args.size() >= MAX_QUERY_ARGS) {
+                break;
+            }
+            args.add(String.valueOf(roomId));
+        }
+        // Newest time of every room within the oldest batch of comments
+        String query = "SELECT " + QiscusDb.CommentTable.COLUMN_ROOM_ID + ", MAX(" + QiscusDb.CommentTable.COLUMN_TIME
+                + ") FROM (SELECT " + QiscusDb.CommentTable.COLUMN_ROOM_ID + ", " + QiscusDb.CommentTable.COLUMN_TIME
+                + " FROM " + QiscusDb.CommentTable.TABLE_NAME + " WHERE " + QiscusDb.CommentTable.COLUMN_ID + " > 0"
+                + (args.isEmpty() ? "" : " AND " + QiscusDb.CommentTable.COLUMN_ROOM_ID
+                + " NOT IN (" + makePlaceholders(args.size()) + ")")
+                + " ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " LIMIT ?)"
+                + " GROUP BY " + QiscusDb.CommentTable.COLUMN_ROOM_ID;
+        args.add(String.valueOf(batchSize));
+        String[] queryArgs = args.toArray(new String[args.size()]);
+
+        long usedBytes = getDatabaseSize(true);
+        for (int batch = 0; batch < MAX_TRIM_BATCHES && usedBytes > maxBytes; batch++) {
+            List<long[]> roomTimes = new ArrayList<>();
+            Cursor cursor = sqLiteDatabase.rawQuery(query, queryArgs);
+            while (cursor.moveToNext()) {
+                if (!exemptRoomIds.contains(cursor.getLong(0))) {
+                    roomTimes.add(new long[]{cursor.getLong(0), cursor.getLong(1)});
+                }
+            }
+            cursor.close();
+
+            for (long[] roomTime : roomTimes) {
+                deleteCommentsBefore(roomTime[0], roomTime[1] + 1, batchSize, localPaths, result);
+            }
+
+            long remainingBytes = getDatabaseSize(true);
+            if (remainingBytes >= usedBytes) {
+                return;
+            }
+            usedBytes = remainingBytes;
+        }
+    }
+
+    /**
+     * Delete the sent comments of the room older than the time, one transaction per batch
+     *
+     * @return number of deleted comments
+     */
+    private int deleteCommentsBefore(long roomId, long time, int batchSize, List<String> localPaths,
+                                     QiscusCompactionResult result) {
+        // Any batch of them can go first, the ranges are cut below the newest deleted one
+        String where = "rowid IN (SELECT rowid FROM " + QiscusDb.CommentTable.TABLE_NAME
+                + " WHERE " + QiscusDb.CommentTable.COLUMN_ROOM_ID + " = ?"
+                + " AND " + QiscusDb.CommentTable.COLUMN_ID + " > 0"
+                + " AND " + QiscusDb.CommentTable.COLUMN_TIME + " < ? LIMIT ?)";
+        String[] whereArgs = {String.valueOf(roomId), String.valueOf(time), String.valueOf(batchSize)};
+
+        int total = 0;
+        int deleted;
+        do {
+            deleted = deleteComments(roomId, where, whereArgs, localPaths);
+            result.addDeletedComments(roomId, deleted);
+            total += deleted;
+        } while (deleted >= batchSize);
+        return total;
+    }
+
+    /**
+     * Keep the downloaded files of the newest comments within max bytes, files of exempt rooms are kept and
+     * not counted. The rows of files deleted outside of the SDK are removed too.
+     */
+    private void trimFiles(long maxBytes, int batchSize, Set<Long> exemptRoomIds, QiscusCompactionResult result) {
+        String query = "SELECT f." + QiscusDb.FilesTable.COLUMN_COMMENT_ID + ", f." + QiscusDb.FilesTable.COLUMN_ROOM_ID
+                + ", f." + QiscusDb.FilesTable.COLUMN_LOCAL_PATH + " FROM " + QiscusDb.FilesTable.TABLE_NAME + " f"
+                + " LEFT JOIN " + QiscusDb.CommentTable.TABLE_NAME + " c ON c." + QiscusDb.CommentTable.COLUMN_ID
+                + " = f." + QiscusDb.FilesTable.COLUMN_COMMENT_ID
+                + " ORDER BY c." + QiscusDb.CommentTable.COLUMN_TIME + " DESC";
+
+        List<Long> commentIds = new ArrayList<>();
+        List<String> localPaths = new ArrayList<>();
+        long totalBytes = 0;
+        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
+        while (cursor.moveToNext()) {
+            File file = new File(cursor.getString(2));
+            long length = file.length();
+            // Files of exempt rooms are kept without taking the budget of the other rooms
+            if (file.exists() && exemptRoomIds.contains(cursor.getLong(1))) {
+                continue;
+            }
+            if (file.exists() && totalBytes + length <= maxBytes) {
+                totalBytes += length;
+                continue;
+            }
+            commentIds.add(cursor.getLong(0));
+            if (file.exists()) {
+                localPaths.add(file.getPath());
+            }
+        }
+        cursor.close();
+
+        for (int i = 0; i < commentIds.size(); i += batchSize) {
+            List<Long> batch = commentIds.subList(i, Math.min(i + batchSize, commentIds.size()));
+            String[] args = new String[batch.size()];
+            for (int j = 0; j < batch.size(); j++) {
+                args[j] = String.valueOf(batch.get(j));
+            }
+
+            sqLiteDatabase.beginTransactionNonExclusive();
+            try {
+                sqLiteDatabase.delete(QiscusDb.FilesTable.TABLE_NAME, QiscusDb.FilesTable.COLUMN_COMMENT_ID
+                        + " IN (" + makePlaceholders(args.length) + ")", args);
+                sqLiteDatabase.setTransactionSuccessful();
+            } finally {
+                sqLiteDatabase.endTransaction();
+                invalidationTracker.markDirty(QiscusDb.FilesTable.TABLE_NAME);
+            }
+        }
+
+        for (String localPath : localPaths) {
+            deleteFile(localPath, result);
         }
     }
 
-    private void sortRooms(List<QiscusChatRoom> qiscusChatRooms) {
-        Collections.sort(qiscusChatRooms, (room1, room2) -> {
-            if (room1.getLastComment() != null && room2.getLastComment() != null) {
-                return room2.getLastComment().getTime().compareTo(room1.getLastComment().getTime());
-            } else if (room1.getLastComment() == null && room2.getLastComment() != null) {
-                return 1;
-            } else if (room1.getLastComment() != null && room2.getLastComment() == null) {
-                return -1;
+    private static void deleteFile(String localPath, QiscusCompactionResult result) {
+        File file = new File(localPath);
+        long length = file.length();
+        if (file.delete()) {
+            result.addDeletedFile(length);
+        }
+    }
+
+    /**
+     * Give the free pages back to the file system, a few pages per transaction
+     */
+    private void vacuum(int pages) {
+        if (DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            // Full VACUUM leaves no free page
+            convertToIncrementalVacuum();
+            return;
+        }
+
+        long freePages = DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA freelist_count", null);
+        while (freePages > 0) {
+            Cursor cursor = sqLiteDatabase.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+            // Every step frees one page, counting the rows runs it to the end
+            cursor.getCount();
+            cursor.close();
+
+            long remainingPages = DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA freelist_count", null);
+            if (remainingPages >= freePages) {
+                return;
             }
-            return 0;
-        });
+            freePages = remainingPages;
+        }
+    }
+
+    /**
+     * Auto vacuum of a database created before it was enabled can only be switched by a full VACUUM, it runs
+     * once on the first compaction. VACUUM may renumber the rowid of comments and comments_fts is keyed by it,
+     * so the index is rebuilt right after, the search may miss until then.
+     */
+    private void convertToIncrementalVacuum() {
+        sqLiteDatabase.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        sqLiteDatabase.execSQL("VACUUM");
+
+        sqLiteDatabase.beginTransactionNonExclusive();
+        try {
+            sqLiteDatabase.execSQL("DELETE FROM " + QiscusDb.CommentSearchTable.TABLE_NAME);
+            sqLiteDatabase.execSQL("INSERT INTO " + QiscusDb.CommentSearchTable.TABLE_NAME + " ("
+                    + QiscusDb.CommentSearchTable.COLUMN_DOC_ID + ", " + QiscusDb.CommentSearchTable.COLUMN_MESSAGE
+                    + ", " + QiscusDb.CommentSearchTable.COLUMN_CAPTION + ") SELECT rowid, "
+                    + QiscusDb.CommentTable.COLUMN_MESSAGE + ", " + QiscusDb.CommentTable.COLUMN_CAPTION
+                    + " FROM " + QiscusDb.CommentTable.TABLE_NAME);
+            sqLiteDatabase.setTransactionSuccessful();
+        } finally {
+            sqLiteDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * @param usedOnly leave out the free pages
+     * @return database size in bytes
+     */
+    private long getDatabaseSize(boolean usedOnly) {
+        long pages = DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA page_count", null);
+        if (usedOnly) {
+            pages -= DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA freelist_count", null);
+        }
+        return pages * DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA page_size", null);
+    }
+
+    private List<QiscusComment> queryComments(String query, String[] args) {
+        Cursor cursor = sqLiteDatabase.rawQuery(query, args);
+        List<QiscusComment> qiscusComments = new ArrayList<>(cursor.getCount());
+        QiscusDb.CommentTable.RowMapper commentMapper = new QiscusDb.CommentTable.RowMapper(cursor);
+        while (cursor.moveToNext()) {
+            qiscusComments.add(commentMapper.map(cursor));
+        }
+        cursor.close();
+        return qiscusComments;
+    }
+
+    private QiscusComment queryComment(String query, String[] args) {
+        Cursor cursor = sqLiteDatabase.rawQuery(query, args);
+        QiscusComment qiscusComment = cursor.moveToNext() ? QiscusDb.CommentTable.parseCursor(cursor) : null;
+        cursor.close();
+        return qiscusComment;
+    }
+
+    private static void saveChatRoom(SQLiteStatement updateStatement, SQLiteStatement insertStatement,
+                                     QiscusChatRoom qiscusChatRoom) {
+        if (updateStatement != null) {
+            QiscusDb.RoomTable.bind(updateStatement, qiscusChatRoom);
+            if (updateStatement.executeUpdateDelete() > 0) {
+                return;
+            }
+        }
+        if (insertStatement != null) {
+            QiscusDb.RoomTable.bind(insertStatement, qiscusChatRoom);
+            insertStatement.executeInsert();
+        }
+    }
+
+    private static void upsert(UpsertStatement statement, QiscusRoomMember qiscusRoomMember) {
+        QiscusDb.MemberTable.bind(statement.update, qiscusRoomMember);
+        if (statement.update.executeUpdateDelete() == 0) {
+            QiscusDb.MemberTable.bind(statement.insert, qiscusRoomMember);
+            statement.insert.executeInsert();
+        }
+    }
+
+    private static void upsert(UpsertStatement statement, QiscusComment qiscusComment) {
+        QiscusDb.CommentTable.bind(statement.update, qiscusComment);
+        if (statement.update.executeUpdateDelete() == 0) {
+            QiscusDb.CommentTable.bind(statement.insert, qiscusComment);
+            statement.insert.executeInsert();
+        }
+    }
+
+    private void removeFromRoomCache(List<QiscusChatRoom> qiscusChatRooms) {
+        List<Long> roomIds = new ArrayList<>(qiscusChatRooms.size());
+        List<QiscusRoomMember> qiscusRoomMembers = new ArrayList<>();
+        for (QiscusChatRoom qiscusChatRoom : qiscusChatRooms) {
+            roomIds.add(qiscusChatRoom.getId());
+            if (!qiscusChatRoom.isChannel() && qiscusChatRoom.getMember() != null) {
+                qiscusRoomMembers.addAll(qiscusChatRoom.getMember());
+            }
+        }
+        roomCache.remove(roomIds);
+        if (!qiscusRoomMembers.isEmpty()) {
+            roomCache.removeRoomsOf(qiscusRoomMembers);
+        }
+    }
+
+    private static Set<Long> getRoomIds(List<QiscusComment> qiscusComments) {
+        Set<Long> roomIds = new HashSet<>();
+        for (QiscusComment qiscusComment : qiscusComments) {
+            roomIds.add(qiscusComment.getRoomId());
+        }
+        return roomIds;
+    }
+
+    private static void closeStatements(UpsertStatement... statements) {
+        for (UpsertStatement statement : statements) {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    private static void closeStatements(SQLiteStatement... statements) {
+        for (SQLiteStatement statement : statements) {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Live queries only emit a new result when a stored column of it changed, the rooms are compared with
+     * their last comment and members
+     */
+    static boolean isSameChatRooms(List<QiscusChatRoom> oldChatRooms, List<QiscusChatRoom> newChatRooms) {
+        if (oldChatRooms.size() != newChatRooms.size()) {
+            return false;
+        }
+        for (int i = 0; i < oldChatRooms.size(); i++) {
+            QiscusChatRoom oldChatRoom = oldChatRooms.get(i);
+            QiscusChatRoom newChatRoom = newChatRooms.get(i);
+            if (!QiscusDb.RoomTable.isSameRow(oldChatRoom, newChatRoom)
+                    || !isSameComment(oldChatRoom.getLastComment(), newChatRoom.getLastComment())
+                    || !isSameRoomMembers(oldChatRoom.getMember(), newChatRoom.getMember())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isSameComments(List<QiscusComment> oldComments, List<QiscusComment> newComments) {
+        if (oldComments.size() != newComments.size()) {
+            return false;
+        }
+        for (int i = 0; i < oldComments.size(); i++) {
+            if (!isSameComment(oldComments.get(i), newComments.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSameComment(QiscusComment oldComment, QiscusComment newComment) {
+        if (oldComment == null || newComment == null) {
+            return oldComment == newComment;
+        }
+        return QiscusDb.CommentTable.isSameRow(oldComment, newComment);
+    }
+
+    private static boolean isSameRoomMembers(List<QiscusRoomMember> oldMembers, List<QiscusRoomMember> newMembers) {
+        if (oldMembers == null || newMembers == null) {
+            return oldMembers == newMembers;
+        }
+        if (oldMembers.size() != newMembers.size()) {
+            return false;
+        }
+        for (int i = 0; i < oldMembers.size(); i++) {
+            if (!QiscusDb.MemberTable.isSameRow(oldMembers.get(i), newMembers.get(i))
+                    || !QiscusDb.RoomMemberTable.isSameRow(oldMembers.get(i), newMembers.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String makePlaceholders(int count) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+        return placeholders.toString();
+    }
+
+    /**
+     * A row of SELECT_STORED_ROOM_MEMBERS, extras kept as the stored string so it's not parsed
+     */
+    private static final class StoredRoomMember {
+        private final String distinctId;
+        private final long lastDelivered;
+        private final long lastRead;
+        private final boolean hasProfile;
+        private final String username;
+        private final String avatar;
+        private final String extras;
+
+        private StoredRoomMember(Cursor cursor) {
+            distinctId = cursor.getString(1);
+            lastDelivered = cursor.getLong(2);
+            lastRead = cursor.getLong(3);
+            hasProfile = cursor.getInt(4) == 1;
+            username = cursor.getString(5);
+            avatar = cursor.getString(6);
+            extras = cursor.getString(7);
+        }
+
+        private boolean isSameRoomMember(String distinctId, QiscusRoomMember qiscusRoomMember) {
+            return distinctId.equals(this.distinctId)
+                    && lastDelivered == qiscusRoomMember.getLastDeliveredCommentId()
+                    && lastRead == qiscusRoomMember.getLastReadCommentId();
+        }
+
+        // Null values of the new profile never overwrite the stored one, see QiscusDb.MemberTable.UPDATE
+        private boolean isSameProfile(QiscusRoomMember qiscusRoomMember) {
+            String newExtras = qiscusRoomMember.getRawExtras();
+            return hasProfile
+                    && isSameOrNull(qiscusRoomMember.getUsername(), username)
+                    && isSameOrNull(qiscusRoomMember.getAvatar(), avatar)
+                    && isSameOrNull(newExtras, extras);
+        }
+
+        private static boolean isSameOrNull(String newValue, String storedValue) {
+            return newValue == null || newValue.equals(storedValue);
+        }
+    }
+
+    /**
+     * UPSERT for SQLite older than 3.24, run the UPDATE first and only INSERT when no row was updated.
+     * Unlike INSERT OR REPLACE it keep the rowid and every column not written by the UPDATE.
+     */
+    private static final class UpsertStatement {
+        private final SQLiteStatement update;
+        private final SQLiteStatement insert;
+
+        private UpsertStatement(SQLiteDatabase sqLiteDatabase, String updateSql, String insertSql) {
+            update = sqLiteDatabase.compileStatement(updateSql);
+            insert = sqLiteDatabase.compileStatement(insertSql);
+        }
+
+        private void close() {
+            update.close();
+            insert.close();
+        }
     }
 }
@@ -16,6 +16,12 @@
 
 package com.qiscus.sdk.chat.core.data.local;
 
+import com.qiscus.sdk.chat.core.data.model.QiscusCompactionResult;
+import com.qiscus.sdk.chat.core.data.model.QiscusDatabaseConfig;
+import com.qiscus.sdk.chat.core.data.model.QiscusRetentionPolicy;
+
+import java.util.Set;
+
 /**
  * Created on : October 11, 2016
  * Author     : zetbaitsu
@@ -24,4 +30,18 @@ package com.qiscus.sdk.chat.core.data.local;
  */
 public interface QiscusDataStore extends QiscusChatRoomStore, QiscusRoomMemberStore, QiscusCommentStore, QiscusFileStore {
     void clear();
+
+    /**
+     * Apply new storage tuning to the opened store, a store wrapping another one applies its own part
+     * then passes the config to the wrapped store
+     */
+    void configure(QiscusDatabaseConfig databaseConfig);
+
+    /**
+     * Delete the comments and the downloaded files the retention policy doesn't keep, in small batches.
+     * Must not be called on main thread.
+     *
+     * @param exemptRoomIds rooms kept whole, pinned or opened recently
+     */
+    QiscusCompactionResult compact(QiscusRetentionPolicy retentionPolicy, Set<Long> exemptRoomIds);
 }
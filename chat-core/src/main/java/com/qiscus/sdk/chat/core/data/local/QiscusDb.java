@@ -18,19 +18,67 @@ package com.qiscus.sdk.chat.core.data.local;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
 
 import com.qiscus.sdk.chat.core.data.model.QiscusChatRoom;
 import com.qiscus.sdk.chat.core.data.model.QiscusComment;
 import com.qiscus.sdk.chat.core.data.model.QiscusRoomMember;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 final class QiscusDb {
     static final String DATABASE_NAME = "qiscus.db";
-    static final int DATABASE_VERSION = 17;
+    static final int DATABASE_VERSION = 23;
+
+    static String insertOrReplace(String tableName, String... columns) {
+        return insert("INSERT OR REPLACE INTO ", tableName, columns);
+    }
+
+    static String insertOrIgnore(String tableName, String... columns) {
+        return insert("INSERT OR IGNORE INTO ", tableName, columns);
+    }
+
+    private static String insert(String insert, String tableName, String... columns) {
+        StringBuilder sql = new StringBuilder(insert).append(tableName).append(" (");
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(columns[i]);
+            values.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(") VALUES (").append(values).append(")").toString();
+    }
+
+    /**
+     * Build UPDATE statement with numbered parameters (?1, ?2, ...) following the columns order, so it can be bound
+     * with the same bind method as the INSERT statement. Only columns other than the key columns are updated.
+     */
+    static String update(String tableName, String[] columns, String... keyColumns) {
+        List<String> keys = Arrays.asList(keyColumns);
+        StringBuilder set = new StringBuilder();
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (keys.contains(columns[i])) {
+                where.append(where.length() == 0 ? "" : " AND ").append(columns[i]).append(" = ?").append(i + 1);
+            } else {
+                set.append(set.length() == 0 ? "" : ", ").append(columns[i]).append(" = ?").append(i + 1);
+            }
+        }
+        return "UPDATE " + tableName + " SET " + set + " WHERE " + where;
+    }
+
+    static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    static boolean isSameValue(String value, String otherValue) {
+        return value == null ? otherValue == null : value.equals(otherValue);
+    }
 
     abstract static class RoomTable {
         static final String TABLE_NAME = "rooms";
@@ -44,6 +92,9 @@ final class QiscusDb {
         static final String COLUMN_UNREAD_COUNT = "unread_count";
         static final String COLUMN_IS_CHANNEL = "is_channel";
         static final String COLUMN_MEMBER_COUNT = "member_count";
+        // Maintained from comments table on every comment write, 0 when the room has no comment
+        static final String COLUMN_LAST_COMMENT_TIME = "last_comment_time";
+        static final String COLUMN_LAST_COMMENT_UNIQUE_ID = "last_comment_unique_id";
 
         static final String CREATE =
                 "CREATE TABLE " + TABLE_NAME + " (" +
@@ -56,9 +107,30 @@ final class QiscusDb {
                         COLUMN_AVATAR_URL + " TEXT," +
                         COLUMN_UNREAD_COUNT + " INTEGER DEFAULT 0," +
                         COLUMN_IS_CHANNEL + " INTEGER DEFAULT 0," +
-                        COLUMN_MEMBER_COUNT + " INTEGER DEFAULT 0" +
+                        COLUMN_MEMBER_COUNT + " INTEGER DEFAULT 0," +
+                        COLUMN_LAST_COMMENT_TIME + " LONG DEFAULT 0," +
+                        COLUMN_LAST_COMMENT_UNIQUE_ID + " TEXT" +
                         " ); ";
 
+        static final String[] CREATE_INDEXES = {
+                "CREATE INDEX IF NOT EXISTS rooms_unique_id_index ON " + TABLE_NAME + " (" + COLUMN_UNIQUE_ID + ");",
+                "CREATE INDEX IF NOT EXISTS rooms_last_comment_time_id_index ON " + TABLE_NAME
+                        + " (" + COLUMN_LAST_COMMENT_TIME + ", " + COLUMN_ID + ");"
+        };
+
+        // Latest not hard deleted comment of the room being updated, served by comments_room_id_hard_deleted_time_index
+        private static final String SELECT_LAST_COMMENT_UNIQUE_ID = "SELECT " + CommentTable.COLUMN_UNIQUE_ID
+                + " FROM " + CommentTable.TABLE_NAME + " WHERE " + CommentTable.COLUMN_ROOM_ID + " = "
+                + TABLE_NAME + "." + COLUMN_ID + " AND " + CommentTable.COLUMN_HARD_DELETED + " = 0"
+                + " ORDER BY " + CommentTable.COLUMN_TIME + " DESC LIMIT 1";
+        // Bind the room id as ?1, the last comment columns are set again from its stored comments
+        static final String UPDATE_LAST_COMMENT = "UPDATE " + TABLE_NAME + " SET "
+                + COLUMN_LAST_COMMENT_UNIQUE_ID + " = (" + SELECT_LAST_COMMENT_UNIQUE_ID + "), "
+                + COLUMN_LAST_COMMENT_TIME + " = IFNULL((SELECT " + CommentTable.COLUMN_TIME
+                + " FROM " + CommentTable.TABLE_NAME + " WHERE " + CommentTable.COLUMN_UNIQUE_ID
+                + " = (" + SELECT_LAST_COMMENT_UNIQUE_ID + ")), 0)"
+                + " WHERE " + COLUMN_ID + " = ?1";
+
         static ContentValues toContentValues(QiscusChatRoom qiscusChatRoom) {
             ContentValues values = new ContentValues();
             values.put(COLUMN_ID, qiscusChatRoom.getId());
@@ -66,7 +138,7 @@ final class QiscusDb {
             values.put(COLUMN_UNIQUE_ID, qiscusChatRoom.getUniqueId());
             values.put(COLUMN_NAME, qiscusChatRoom.getName());
             values.put(COLUMN_IS_GROUP, qiscusChatRoom.isGroup() ? 1 : 0);
-            values.put(COLUMN_OPTIONS, qiscusChatRoom.getOptions() == null ? null : qiscusChatRoom.getOptions().toString());
+            values.put(COLUMN_OPTIONS, qiscusChatRoom.getRawOptions());
             values.put(COLUMN_AVATAR_URL, qiscusChatRoom.getAvatarUrl());
             values.put(COLUMN_UNREAD_COUNT, qiscusChatRoom.getUnreadCount());
             values.put(COLUMN_IS_CHANNEL, qiscusChatRoom.isChannel());
@@ -74,24 +146,118 @@ final class QiscusDb {
             return values;
         }
 
+        // Order of the columns bound by bind(SQLiteStatement, QiscusChatRoom), the last comment columns are
+        // left out so an update keeps them, UPDATE_LAST_COMMENT must run after an insert
+        static final String[] UPSERT_COLUMNS = {COLUMN_ID, COLUMN_DISTINCT_ID, COLUMN_UNIQUE_ID, COLUMN_NAME,
+                COLUMN_IS_GROUP, COLUMN_OPTIONS, COLUMN_AVATAR_URL, COLUMN_UNREAD_COUNT, COLUMN_IS_CHANNEL,
+                COLUMN_MEMBER_COUNT};
+
+        static final String INSERT_OR_REPLACE = insertOrReplace(TABLE_NAME, UPSERT_COLUMNS);
+
+        // Insert only, a stored room is kept as it is
+        static final String INSERT_OR_IGNORE = insertOrIgnore(TABLE_NAME, UPSERT_COLUMNS);
+
+        static final String UPDATE = update(TABLE_NAME, UPSERT_COLUMNS, COLUMN_ID);
+
+        static void bind(SQLiteStatement statement, QiscusChatRoom qiscusChatRoom) {
+            statement.clearBindings();
+            statement.bindLong(1, qiscusChatRoom.getId());
+            bindString(statement, 2, qiscusChatRoom.getDistinctId());
+            bindString(statement, 3, qiscusChatRoom.getUniqueId());
+            bindString(statement, 4, qiscusChatRoom.getName());
+            statement.bindLong(5, qiscusChatRoom.isGroup() ? 1 : 0);
+            bindString(statement, 6, qiscusChatRoom.getRawOptions());
+            bindString(statement, 7, qiscusChatRoom.getAvatarUrl());
+            statement.bindLong(8, qiscusChatRoom.getUnreadCount());
+            statement.bindLong(9, qiscusChatRoom.isChannel() ? 1 : 0);
+            statement.bindLong(10, qiscusChatRoom.getMemberCount());
+        }
+
+        // Same columns as bind(SQLiteStatement, QiscusChatRoom), the last comment and the members are not compared
+        static boolean isSameRow(QiscusChatRoom qiscusChatRoom, QiscusChatRoom otherChatRoom) {
+            return qiscusChatRoom.getId() == otherChatRoom.getId()
+                    && isSameValue(qiscusChatRoom.getDistinctId(), otherChatRoom.getDistinctId())
+                    && isSameValue(qiscusChatRoom.getUniqueId(), otherChatRoom.getUniqueId())
+                    && isSameValue(qiscusChatRoom.getName(), otherChatRoom.getName())
+                    && qiscusChatRoom.isGroup() == otherChatRoom.isGroup()
+                    && isSameValue(qiscusChatRoom.getRawOptions(), otherChatRoom.getRawOptions())
+                    && isSameValue(qiscusChatRoom.getAvatarUrl(), otherChatRoom.getAvatarUrl())
+                    && qiscusChatRoom.getUnreadCount() == otherChatRoom.getUnreadCount()
+                    && qiscusChatRoom.isChannel() == otherChatRoom.isChannel()
+                    && qiscusChatRoom.getMemberCount() == otherChatRoom.getMemberCount();
+        }
+
+        static final String[] COLUMNS = UPSERT_COLUMNS;
+
+        // Columns shown in room list, options can be big and it's only needed inside the room
+        static final String[] LIST_ITEM_COLUMNS = {COLUMN_ID, COLUMN_DISTINCT_ID, COLUMN_UNIQUE_ID, COLUMN_NAME,
+                COLUMN_IS_GROUP, COLUMN_AVATAR_URL, COLUMN_UNREAD_COUNT, COLUMN_IS_CHANNEL, COLUMN_MEMBER_COUNT};
+
+        /**
+         * @param roomAlias alias of rooms table in the query
+         * @param columns   COLUMNS or LIST_ITEM_COLUMNS
+         * @return comma separated projection
+         */
+        static String projection(String roomAlias, String[] columns) {
+            StringBuilder projection = new StringBuilder();
+            for (String column : columns) {
+                if (projection.length() > 0) {
+                    projection.append(", ");
+                }
+                projection.append(roomAlias).append('.').append(column).append(" AS ").append(column);
+            }
+            return projection.toString();
+        }
+
         static QiscusChatRoom parseCursor(Cursor cursor) {
-            QiscusChatRoom qiscusChatRoom = new QiscusChatRoom();
-            qiscusChatRoom.setId(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID)));
-            qiscusChatRoom.setDistinctId(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DISTINCT_ID)));
-            qiscusChatRoom.setUniqueId(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_UNIQUE_ID)));
-            qiscusChatRoom.setName(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME)));
-            qiscusChatRoom.setGroup(cursor.getShort(cursor.getColumnIndexOrThrow(COLUMN_IS_GROUP)) == 1);
-            try {
-                String options = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_OPTIONS));
-                qiscusChatRoom.setOptions(options == null ? null : new JSONObject(options));
-            } catch (JSONException ignored) {
-                //Do nothing
+            return new RowMapper(cursor).map(cursor);
+        }
+
+        /**
+         * Column indexes resolved once per cursor, use it to map many rows. Options is left null when it's not
+         * in the projection.
+         */
+        static final class RowMapper {
+            private final int idIndex;
+            private final int distinctIdIndex;
+            private final int uniqueIdIndex;
+            private final int nameIndex;
+            private final int isGroupIndex;
+            private final int optionsIndex;
+            private final int avatarUrlIndex;
+            private final int unreadCountIndex;
+            private final int isChannelIndex;
+            private final int memberCountIndex;
+
+            RowMapper(Cursor cursor) {
+                idIndex = cursor.getColumnIndexOrThrow(COLUMN_ID);
+                distinctIdIndex = cursor.getColumnIndexOrThrow(COLUMN_DISTINCT_ID);
+                uniqueIdIndex = cursor.getColumnIndexOrThrow(COLUMN_UNIQUE_ID);
+                nameIndex = cursor.getColumnIndexOrThrow(COLUMN_NAME);
+                isGroupIndex = cursor.getColumnIndexOrThrow(COLUMN_IS_GROUP);
+                optionsIndex = cursor.getColumnIndex(COLUMN_OPTIONS);
+                avatarUrlIndex = cursor.getColumnIndexOrThrow(COLUMN_AVATAR_URL);
+                unreadCountIndex = cursor.getColumnIndexOrThrow(COLUMN_UNREAD_COUNT);
+                isChannelIndex = cursor.getColumnIndexOrThrow(COLUMN_IS_CHANNEL);
+                memberCountIndex = cursor.getColumnIndexOrThrow(COLUMN_MEMBER_COUNT);
+            }
+
+            QiscusChatRoom map(Cursor cursor) {
+                QiscusChatRoom qiscusChatRoom = new QiscusChatRoom();
+                qiscusChatRoom.setId(cursor.getLong(idIndex));
+                qiscusChatRoom.setDistinctId(cursor.getString(distinctIdIndex));
+                qiscusChatRoom.setUniqueId(cursor.getString(uniqueIdIndex));
+                qiscusChatRoom.setName(cursor.getString(nameIndex));
+                qiscusChatRoom.setGroup(cursor.getShort(isGroupIndex) == 1);
+                if (optionsIndex >= 0) {
+                    qiscusChatRoom.setRawOptions(cursor.getString(optionsIndex));
+                }
+                qiscusChatRoom.setAvatarUrl(cursor.getString(avatarUrlIndex));
+                qiscusChatRoom.setUnreadCount(cursor.getInt(unreadCountIndex));
+                qiscusChatRoom.setChannel(cursor.getShort(isChannelIndex) == 1);
+                qiscusChatRoom.setMemberCount(cursor.getInt(memberCountIndex));
+                return qiscusChatRoom;
             }
-            qiscusChatRoom.setAvatarUrl(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_AVATAR_URL)));
-            qiscusChatRoom.setUnreadCount(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_UNREAD_COUNT)));
-            qiscusChatRoom.setChannel(cursor.getShort(cursor.getColumnIndexOrThrow(COLUMN_IS_CHANNEL)) == 1);
-            qiscusChatRoom.setMemberCount(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_MEMBER_COUNT)));
-            return qiscusChatRoom;
         }
     }
 
@@ -115,23 +281,61 @@ final class QiscusDb {
             values.put(COLUMN_USER_EMAIL, qiscusRoomMember.getEmail());
             values.put(COLUMN_USER_NAME, qiscusRoomMember.getUsername());
             values.put(COLUMN_USER_AVATAR, qiscusRoomMember.getAvatar());
-            values.put(COLUMN_USER_EXTRAS, qiscusRoomMember.getExtras() == null ? null :
-                    qiscusRoomMember.getExtras().toString());
+            values.put(COLUMN_USER_EXTRAS, qiscusRoomMember.getRawExtras());
             return values;
         }
 
+        static final String INSERT_OR_REPLACE = insertOrReplace(TABLE_NAME, COLUMN_USER_EMAIL, COLUMN_USER_NAME,
+                COLUMN_USER_AVATAR, COLUMN_USER_EXTRAS);
+
+        // Member from system event only have email and username, so keep the other stored values if it's null
+        static final String UPDATE = "UPDATE " + TABLE_NAME + " SET "
+                + COLUMN_USER_NAME + " = COALESCE(?2, " + COLUMN_USER_NAME + "), "
+                + COLUMN_USER_AVATAR + " = COALESCE(?3, " + COLUMN_USER_AVATAR + "), "
+                + COLUMN_USER_EXTRAS + " = COALESCE(?4, " + COLUMN_USER_EXTRAS + ")"
+                + " WHERE " + COLUMN_USER_EMAIL + " = ?1";
+
+        static void bind(SQLiteStatement statement, QiscusRoomMember qiscusRoomMember) {
+            statement.clearBindings();
+            bindString(statement, 1, qiscusRoomMember.getEmail());
+            bindString(statement, 2, qiscusRoomMember.getUsername());
+            bindString(statement, 3, qiscusRoomMember.getAvatar());
+            bindString(statement, 4, qiscusRoomMember.getRawExtras());
+        }
+
+        static boolean isSameRow(QiscusRoomMember qiscusRoomMember, QiscusRoomMember otherRoomMember) {
+            return isSameValue(qiscusRoomMember.getEmail(), otherRoomMember.getEmail())
+                    && isSameValue(qiscusRoomMember.getUsername(), otherRoomMember.getUsername())
+                    && isSameValue(qiscusRoomMember.getAvatar(), otherRoomMember.getAvatar())
+                    && isSameValue(qiscusRoomMember.getRawExtras(), otherRoomMember.getRawExtras());
+        }
+
         static QiscusRoomMember getMember(Cursor cursor) {
-            QiscusRoomMember qiscusRoomMember = new QiscusRoomMember();
-            qiscusRoomMember.setEmail(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_USER_EMAIL)));
-            qiscusRoomMember.setUsername(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_USER_NAME)));
-            qiscusRoomMember.setAvatar(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_USER_AVATAR)));
-            try {
-                String extras = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_USER_EXTRAS));
-                qiscusRoomMember.setExtras(extras == null ? null : new JSONObject(extras));
-            } catch (JSONException ignored) {
-                //Do nothing
+            return new RowMapper(cursor).map(cursor);
+        }
+
+        // Column indexes resolved once per cursor, use it to map many rows
+        static final class RowMapper {
+            private final int emailIndex;
+            private final int nameIndex;
+            private final int avatarIndex;
+            private final int extrasIndex;
+
+            RowMapper(Cursor cursor) {
+                emailIndex = cursor.getColumnIndexOrThrow(COLUMN_USER_EMAIL);
+                nameIndex = cursor.getColumnIndexOrThrow(COLUMN_USER_NAME);
+                avatarIndex = cursor.getColumnIndexOrThrow(COLUMN_USER_AVATAR);
+                extrasIndex = cursor.getColumnIndexOrThrow(COLUMN_USER_EXTRAS);
+            }
+
+            QiscusRoomMember map(Cursor cursor) {
+                QiscusRoomMember qiscusRoomMember = new QiscusRoomMember();
+                qiscusRoomMember.setEmail(cursor.getString(emailIndex));
+                qiscusRoomMember.setUsername(cursor.getString(nameIndex));
+                qiscusRoomMember.setAvatar(cursor.getString(avatarIndex));
+                qiscusRoomMember.setRawExtras(cursor.getString(extrasIndex));
+                return qiscusRoomMember;
             }
-            return qiscusRoomMember;
         }
     }
 
@@ -153,6 +357,11 @@ final class QiscusDb {
                         "PRIMARY KEY (" + COLUMN_ROOM_ID + ", " + COLUMN_USER_EMAIL + ")" +
                         " ); ";
 
+        static final String[] CREATE_INDEXES = {
+                "CREATE INDEX IF NOT EXISTS room_members_distinct_id_user_email_index ON " + TABLE_NAME
+                        + " (" + COLUMN_DISTINCT_ID + ", " + COLUMN_USER_EMAIL + ");"
+        };
+
         static ContentValues toContentValues(long roomId, QiscusRoomMember roomMember) {
             return toContentValues(roomId, "default", roomMember);
         }
@@ -167,20 +376,36 @@ final class QiscusDb {
             return values;
         }
 
-        static long getRoomId(Cursor cursor) {
-            return cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ROOM_ID));
+        // Order of the columns bound by bind(SQLiteStatement, long, String, QiscusRoomMember)
+        static final String[] UPSERT_COLUMNS = {COLUMN_ROOM_ID, COLUMN_DISTINCT_ID, COLUMN_USER_EMAIL,
+                COLUMN_LAST_DELIVERED, COLUMN_LAST_READ};
+
+        static final String INSERT_OR_REPLACE = insertOrReplace(TABLE_NAME, UPSERT_COLUMNS);
+
+        static final String UPDATE = update(TABLE_NAME, UPSERT_COLUMNS, COLUMN_ROOM_ID, COLUMN_USER_EMAIL);
+
+        static void bind(SQLiteStatement statement, long roomId, String distinctId, QiscusRoomMember roomMember) {
+            statement.clearBindings();
+            statement.bindLong(1, roomId);
+            bindString(statement, 2, distinctId);
+            bindString(statement, 3, roomMember.getEmail());
+            statement.bindLong(4, roomMember.getLastDeliveredCommentId());
+            statement.bindLong(5, roomMember.getLastReadCommentId());
         }
 
-        static String getUserEmail(Cursor cursor) {
-            return cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_USER_EMAIL));
+        // Room and distinct id are the same for every member of a room, they are not compared
+        static boolean isSameRow(QiscusRoomMember roomMember, QiscusRoomMember otherRoomMember) {
+            return isSameValue(roomMember.getEmail(), otherRoomMember.getEmail())
+                    && roomMember.getLastDeliveredCommentId() == otherRoomMember.getLastDeliveredCommentId()
+                    && roomMember.getLastReadCommentId() == otherRoomMember.getLastReadCommentId();
         }
 
-        static long getLastDeliveredCommentId(Cursor cursor) {
-            return cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_LAST_DELIVERED));
+        static long getRoomId(Cursor cursor) {
+            return cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ROOM_ID));
         }
 
-        static long getLastReadCommentId(Cursor cursor) {
-            return cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_LAST_READ));
+        static String getUserEmail(Cursor cursor) {
+            return cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_USER_EMAIL));
         }
     }
 
@@ -201,6 +426,8 @@ final class QiscusDb {
         static final String COLUMN_TYPE = "type";
         static final String COLUMN_PAYLOAD = "payload";
         static final String COLUMN_EXTRAS = "extras";
+        static final String COLUMN_CAPTION = "caption";
+        static final String COLUMN_MEDIA_TYPE = "media_type";
 
         static final String CREATE =
                 "CREATE TABLE " + TABLE_NAME + " (" +
@@ -218,9 +445,24 @@ final class QiscusDb {
                         COLUMN_HARD_DELETED + " INTEGER DEFAULT 0," +
                         COLUMN_TYPE + " TEXT," +
                         COLUMN_PAYLOAD + " TEXT, " +
-                        COLUMN_EXTRAS + " TEXT " +
+                        COLUMN_EXTRAS + " TEXT, " +
+                        COLUMN_CAPTION + " TEXT, " +
+                        COLUMN_MEDIA_TYPE + " TEXT " +
                         " ); ";
 
+        static final String[] CREATE_INDEXES = {
+                "CREATE INDEX IF NOT EXISTS comments_room_id_hard_deleted_time_index ON " + TABLE_NAME
+                        + " (" + COLUMN_ROOM_ID + ", " + COLUMN_HARD_DELETED + ", " + COLUMN_TIME + ");",
+                "CREATE INDEX IF NOT EXISTS comments_id_index ON " + TABLE_NAME + " (" + COLUMN_ID + ");",
+                "CREATE INDEX IF NOT EXISTS comments_comment_before_id_index ON " + TABLE_NAME
+                        + " (" + COLUMN_COMMENT_BEFORE_ID + ");",
+                "CREATE INDEX IF NOT EXISTS comments_state_time_index ON " + TABLE_NAME
+                        + " (" + COLUMN_STATE + ", " + COLUMN_TIME + ");",
+                "CREATE INDEX IF NOT EXISTS comments_time_index ON " + TABLE_NAME + " (" + COLUMN_TIME + ");",
+                "CREATE INDEX IF NOT EXISTS comments_room_id_media_type_time_index ON " + TABLE_NAME
+                        + " (" + COLUMN_ROOM_ID + ", " + COLUMN_MEDIA_TYPE + ", " + COLUMN_TIME + ");"
+        };
+
         static ContentValues toContentValues(QiscusComment qiscusComment) {
             ContentValues values = new ContentValues();
             values.put(COLUMN_ID, qiscusComment.getId());
@@ -237,34 +479,391 @@ final class QiscusDb {
             values.put(COLUMN_HARD_DELETED, qiscusComment.isHardDeleted() ? 1 : 0);
             values.put(COLUMN_TYPE, qiscusComment.getRawType());
             values.put(COLUMN_PAYLOAD, qiscusComment.getExtraPayload());
-            values.put(COLUMN_EXTRAS, qiscusComment.getExtras() == null ? null :
-                    qiscusComment.getExtras().toString());
+            values.put(COLUMN_EXTRAS, qiscusComment.getRawExtras());
+            values.put(COLUMN_CAPTION, getCaption(qiscusComment));
+            values.put(COLUMN_MEDIA_TYPE, getMediaType(qiscusComment));
             return values;
         }
 
-        static QiscusComment parseCursor(Cursor cursor) {
-            QiscusComment qiscusComment = new QiscusComment();
-            qiscusComment.setId(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID)));
-            qiscusComment.setRoomId(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ROOM_ID)));
-            qiscusComment.setUniqueId(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_UNIQUE_ID)));
-            qiscusComment.setCommentBeforeId(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_COMMENT_BEFORE_ID)));
-            qiscusComment.setMessage(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE)));
-            qiscusComment.setSender(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SENDER)));
-            qiscusComment.setSenderEmail(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SENDER_EMAIL)));
-            qiscusComment.setSenderAvatar(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SENDER_AVATAR)));
-            qiscusComment.setTime(new Date(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TIME))));
-            qiscusComment.setState(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_STATE)));
-            qiscusComment.setDeleted(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_DELETED)) == 1);
-            qiscusComment.setHardDeleted(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_HARD_DELETED)) == 1);
-            qiscusComment.setRawType(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TYPE)));
-            qiscusComment.setExtraPayload(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PAYLOAD)));
+        // Order of the columns bound by bind(SQLiteStatement, QiscusComment)
+        static final String[] UPSERT_COLUMNS = {COLUMN_ID, COLUMN_ROOM_ID, COLUMN_UNIQUE_ID, COLUMN_COMMENT_BEFORE_ID,
+                COLUMN_MESSAGE, COLUMN_SENDER, COLUMN_SENDER_EMAIL, COLUMN_SENDER_AVATAR, COLUMN_TIME, COLUMN_STATE,
+                COLUMN_DELETED, COLUMN_HARD_DELETED, COLUMN_TYPE, COLUMN_PAYLOAD, COLUMN_EXTRAS, COLUMN_CAPTION,
+                COLUMN_MEDIA_TYPE};
+
+        static final String INSERT_OR_REPLACE = insertOrReplace(TABLE_NAME, UPSERT_COLUMNS);
+
+        // Update in place keep the rowid, so comments_fts docid stay valid
+        static final String UPDATE = update(TABLE_NAME, UPSERT_COLUMNS, COLUMN_UNIQUE_ID);
+
+        static void bind(SQLiteStatement statement, QiscusComment qiscusComment) {
+            statement.clearBindings();
+            statement.bindLong(1, qiscusComment.getId());
+            statement.bindLong(2, qiscusComment.getRoomId());
+            bindString(statement, 3, qiscusComment.getUniqueId());
+            statement.bindLong(4, qiscusComment.getCommentBeforeId());
+            bindString(statement, 5, qiscusComment.getMessage());
+            bindString(statement, 6, qiscusComment.getSender());
+            bindString(statement, 7, qiscusComment.getSenderEmail());
+            bindString(statement, 8, qiscusComment.getSenderAvatar());
+            statement.bindLong(9, qiscusComment.getTime().getTime());
+            statement.bindLong(10, qiscusComment.getState());
+            statement.bindLong(11, qiscusComment.isDeleted() ? 1 : 0);
+            statement.bindLong(12, qiscusComment.isHardDeleted() ? 1 : 0);
+            bindString(statement, 13, qiscusComment.getRawType());
+            bindString(statement, 14, qiscusComment.getExtraPayload());
+            bindString(statement, 15, qiscusComment.getRawExtras());
+            bindString(statement, 16, getCaption(qiscusComment));
+            bindString(statement, 17, getMediaType(qiscusComment));
+        }
+
+        // Same columns as bind(SQLiteStatement, QiscusComment), caption and media type are derived from the payload
+        static boolean isSameRow(QiscusComment qiscusComment, QiscusComment otherComment) {
+            return qiscusComment.getId() == otherComment.getId()
+                    && qiscusComment.getRoomId() == otherComment.getRoomId()
+                    && isSameValue(qiscusComment.getUniqueId(), otherComment.getUniqueId())
+                    && qiscusComment.getCommentBeforeId() == otherComment.getCommentBeforeId()
+                    && isSameValue(qiscusComment.getMessage(), otherComment.getMessage())
+                    && isSameValue(qiscusComment.getSender(), otherComment.getSender())
+                    && isSameValue(qiscusComment.getSenderEmail(), otherComment.getSenderEmail())
+                    && isSameValue(qiscusComment.getSenderAvatar(), otherComment.getSenderAvatar())
+                    && (qiscusComment.getTime() == null ? otherComment.getTime() == null
+                    : qiscusComment.getTime().equals(otherComment.getTime()))
+                    && qiscusComment.getState() == otherComment.getState()
+                    && qiscusComment.isDeleted() == otherComment.isDeleted()
+                    && qiscusComment.isHardDeleted() == otherComment.isHardDeleted()
+                    && isSameValue(qiscusComment.getRawType(), otherComment.getRawType())
+                    && isSameValue(qiscusComment.getExtraPayload(), otherComment.getExtraPayload())
+                    && isSameValue(qiscusComment.getRawExtras(), otherComment.getRawExtras());
+        }
+
+        // Only stored to make attachment caption searchable
+        static String getCaption(QiscusComment qiscusComment) {
+            try {
+                return qiscusComment.isAttachment() ? qiscusComment.getCaption() : null;
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        /**
+         * Only stored to query the attachments by type without parsing every message,
+         * the value is the name of IMAGE, VIDEO, AUDIO or FILE of {@link QiscusComment.Type}, null if not an attachment
+         */
+        static String getMediaType(QiscusComment qiscusComment) {
             try {
-                String extras = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_EXTRAS));
-                qiscusComment.setExtras(extras == null ? null : new JSONObject(extras));
-            } catch (JSONException e) {
-                e.printStackTrace();
+                if (!qiscusComment.isAttachment()) {
+                    return null;
+                } else if (qiscusComment.isImage()) {
+                    return QiscusComment.Type.IMAGE.name();
+                } else if (qiscusComment.isVideo()) {
+                    return QiscusComment.Type.VIDEO.name();
+                } else if (qiscusComment.isAudio()) {
+                    return QiscusComment.Type.AUDIO.name();
+                }
+                return QiscusComment.Type.FILE.name();
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        static final String[] COLUMNS = {
+                COLUMN_ID, COLUMN_ROOM_ID, COLUMN_UNIQUE_ID, COLUMN_COMMENT_BEFORE_ID, COLUMN_MESSAGE,
+                COLUMN_SENDER, COLUMN_SENDER_EMAIL, COLUMN_SENDER_AVATAR, COLUMN_TIME, COLUMN_STATE,
+                COLUMN_DELETED, COLUMN_HARD_DELETED, COLUMN_TYPE, COLUMN_PAYLOAD, COLUMN_EXTRAS
+        };
+
+        // Columns of last message preview, payload is kept since the preview of reply, attachment and custom
+        // comments is built from it
+        static final String[] LIST_ITEM_COLUMNS = {
+                COLUMN_ID, COLUMN_ROOM_ID, COLUMN_UNIQUE_ID, COLUMN_COMMENT_BEFORE_ID, COLUMN_MESSAGE,
+                COLUMN_SENDER, COLUMN_SENDER_EMAIL, COLUMN_SENDER_AVATAR, COLUMN_TIME, COLUMN_STATE,
+                COLUMN_DELETED, COLUMN_HARD_DELETED, COLUMN_TYPE, COLUMN_PAYLOAD
+        };
+
+        /**
+         * Build comment projection where sender name and avatar are taken from joined members table if any,
+         * so we don't need to query the member for every comment row.
+         *
+         * @param commentAlias alias of comments table in the query
+         * @param memberAlias  alias of members table joined on sender_email
+         * @param prefix       prefix for every result column name, use it to avoid clash with other tables
+         * @return comma separated projection
+         */
+        static String projection(String commentAlias, String memberAlias, String prefix) {
+            return projection(commentAlias, memberAlias, prefix, COLUMNS);
+        }
+
+        /**
+         * @param columns COLUMNS or LIST_ITEM_COLUMNS
+         * @see #projection(String, String, String)
+         */
+        static String projection(String commentAlias, String memberAlias, String prefix, String[] columns) {
+            StringBuilder projection = new StringBuilder();
+            for (String column : columns) {
+                if (projection.length() > 0) {
+                    projection.append(", ");
+                }
+                if (COLUMN_SENDER.equals(column)) {
+                    projection.append(memberColumnOrDefault(commentAlias, memberAlias,
+                            MemberTable.COLUMN_USER_NAME, COLUMN_SENDER));
+                } else if (COLUMN_SENDER_AVATAR.equals(column)) {
+                    projection.append(memberColumnOrDefault(commentAlias, memberAlias,
+                            MemberTable.COLUMN_USER_AVATAR, COLUMN_SENDER_AVATAR));
+                } else if (COLUMN_STATE.equals(column)) {
+                    projection.append(state(commentAlias));
+                } else {
+                    projection.append(commentAlias).append('.').append(column);
+                }
+                projection.append(" AS ").append(prefix).append(column);
+            }
+            return projection.toString();
+        }
+
+        /**
+         * Delivered and read state are not stored per comment, they are derived from the room watermarks.
+         * Comments not yet on qiscus (failed, pending, sending) keep their stored state.
+         *
+         * @param commentAlias alias of comments table in the query
+         * @return expression of the comment state, can be used in projection or where clause
+         */
+        static String state(String commentAlias) {
+            String id = commentAlias + "." + COLUMN_ID;
+            String state = commentAlias + "." + COLUMN_STATE;
+            return "CASE WHEN " + state + " >= " + QiscusComment.STATE_ON_QISCUS + " AND " + id + " <= "
+                    + WatermarkTable.select(WatermarkTable.COLUMN_LAST_READ, commentAlias)
+                    + " THEN " + QiscusComment.STATE_READ
+                    + " WHEN " + state + " = " + QiscusComment.STATE_ON_QISCUS + " AND " + id + " <= "
+                    + WatermarkTable.select(WatermarkTable.COLUMN_LAST_DELIVERED, commentAlias)
+                    + " THEN " + QiscusComment.STATE_DELIVERED
+                    + " ELSE " + state + " END";
+        }
+
+        private static String memberColumnOrDefault(String commentAlias, String memberAlias,
+                                                    String memberColumn, String commentColumn) {
+            return "CASE WHEN " + memberAlias + "." + MemberTable.COLUMN_USER_EMAIL + " IS NULL THEN "
+                    + commentAlias + "." + commentColumn + " ELSE " + memberAlias + "." + memberColumn + " END";
+        }
+
+        static QiscusComment parseCursor(Cursor cursor) {
+            return parseCursor(cursor, "");
+        }
+
+        static QiscusComment parseCursor(Cursor cursor, String prefix) {
+            return new RowMapper(cursor, prefix).map(cursor);
+        }
+
+        /**
+         * Column indexes resolved once per cursor, use it to map many rows. Payload and extras are left null
+         * when they are not in the projection.
+         */
+        static final class RowMapper {
+            private final int idIndex;
+            private final int roomIdIndex;
+            private final int uniqueIdIndex;
+            private final int commentBeforeIdIndex;
+            private final int messageIndex;
+            private final int senderIndex;
+            private final int senderEmailIndex;
+            private final int senderAvatarIndex;
+            private final int timeIndex;
+            private final int stateIndex;
+            private final int deletedIndex;
+            private final int hardDeletedIndex;
+            private final int typeIndex;
+            private final int payloadIndex;
+            private final int extrasIndex;
+
+            RowMapper(Cursor cursor) {
+                this(cursor, "");
+            }
+
+            /**
+             * @param prefix the prefix passed to {@link #projection(String, String, String)}
+             */
+            RowMapper(Cursor cursor, String prefix) {
+                idIndex = cursor.getColumnIndexOrThrow(prefix + COLUMN_ID);
+                roomIdIndex = cursor.getColumnIndexOrThrow(prefix + COLUMN_ROOM_ID);
+                uniqueIdIndex = cursor.getColumnIndexOrThrow(prefix + COLUMN_UNIQUE_ID);
+                commentBeforeIdIndex = cursor.getColumnIndexOrThrow(prefix + COLUMN_COMMENT_BEFORE_ID);
+                messageIndex = cursor.getColumnIndexOrThrow(prefix + COLUMN_MESSAGE);
+                senderIndex = cursor.getColumnIndexOrThrow(prefix + COLUMN_SENDER);
+                senderEmailIndex = cursor.getColumnIndexOrThrow(prefix + COLUMN_SENDER_EMAIL);
+                senderAvatarIndex = cursor.getColumnIndexOrThrow(prefix + COLUMN_SENDER_AVATAR);
+                timeIndex = cursor.getColumnIndexOrThrow(prefix + COLUMN_TIME);
+                stateIndex = cursor.getColumnIndexOrThrow(prefix + COLUMN_STATE);
+                deletedIndex = cursor.getColumnIndexOrThrow(prefix + COLUMN_DELETED);
+                hardDeletedIndex = cursor.getColumnIndexOrThrow(prefix + COLUMN_HARD_DELETED);
+                typeIndex = cursor.getColumnIndexOrThrow(prefix + COLUMN_TYPE);
+                payloadIndex = cursor.getColumnIndex(prefix + COLUMN_PAYLOAD);
+                extrasIndex = cursor.getColumnIndex(prefix + COLUMN_EXTRAS);
+            }
+
+            QiscusComment map(Cursor cursor) {
+                QiscusComment qiscusComment = new QiscusComment();
+                qiscusComment.setId(cursor.getLong(idIndex));
+                qiscusComment.setRoomId(cursor.getLong(roomIdIndex));
+                qiscusComment.setUniqueId(cursor.getString(uniqueIdIndex));
+                qiscusComment.setCommentBeforeId(cursor.getLong(commentBeforeIdIndex));
+                qiscusComment.setMessage(cursor.getString(messageIndex));
+                qiscusComment.setSender(cursor.getString(senderIndex));
+                qiscusComment.setSenderEmail(cursor.getString(senderEmailIndex));
+                qiscusComment.setSenderAvatar(cursor.getString(senderAvatarIndex));
+                qiscusComment.setTime(new Date(cursor.getLong(timeIndex)));
+                qiscusComment.setState(cursor.getInt(stateIndex));
+                qiscusComment.setDeleted(cursor.getInt(deletedIndex) == 1);
+                qiscusComment.setHardDeleted(cursor.getInt(hardDeletedIndex) == 1);
+                qiscusComment.setRawType(cursor.getString(typeIndex));
+                if (payloadIndex >= 0) {
+                    qiscusComment.setExtraPayload(cursor.getString(payloadIndex));
+                }
+                if (extrasIndex >= 0) {
+                    qiscusComment.setRawExtras(cursor.getString(extrasIndex));
+                }
+                return qiscusComment;
+            }
+        }
+    }
+
+    abstract static class CommentSearchTable {
+        static final String TABLE_NAME = "comments_fts";
+        static final String COLUMN_DOC_ID = "docid";
+        static final String COLUMN_MESSAGE = "message";
+        static final String COLUMN_CAPTION = "caption";
+        static final String COLUMN_SNIPPET = "search_snippet";
+        static final String COLUMN_RANK = "search_rank";
+
+        // docid of every row is the rowid of the indexed comment
+        static final String CREATE =
+                "CREATE VIRTUAL TABLE " + TABLE_NAME + " USING fts4(" +
+                        COLUMN_MESSAGE + ", " +
+                        COLUMN_CAPTION +
+                        "); ";
+
+        static final String[] CREATE_TRIGGERS = {
+                "CREATE TRIGGER IF NOT EXISTS comments_fts_before_insert BEFORE INSERT ON " + CommentTable.TABLE_NAME
+                        + " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_DOC_ID + " IN (SELECT rowid FROM "
+                        + CommentTable.TABLE_NAME + " WHERE " + CommentTable.COLUMN_UNIQUE_ID + " = NEW."
+                        + CommentTable.COLUMN_UNIQUE_ID + "); END;",
+                "CREATE TRIGGER IF NOT EXISTS comments_fts_after_insert AFTER INSERT ON " + CommentTable.TABLE_NAME
+                        + " BEGIN INSERT INTO " + TABLE_NAME + " (" + COLUMN_DOC_ID + ", " + COLUMN_MESSAGE + ", "
+                        + COLUMN_CAPTION + ") VALUES (NEW.rowid, NEW." + CommentTable.COLUMN_MESSAGE + ", NEW."
+                        + CommentTable.COLUMN_CAPTION + "); END;",
+                "CREATE TRIGGER IF NOT EXISTS comments_fts_after_update AFTER UPDATE OF " + CommentTable.COLUMN_MESSAGE
+                        + ", " + CommentTable.COLUMN_CAPTION + " ON " + CommentTable.TABLE_NAME
+                        + " BEGIN UPDATE " + TABLE_NAME + " SET " + COLUMN_MESSAGE + " = NEW." + CommentTable.COLUMN_MESSAGE
+                        + ", " + COLUMN_CAPTION + " = NEW." + CommentTable.COLUMN_CAPTION + " WHERE " + COLUMN_DOC_ID
+                        + " = NEW.rowid; END;",
+                "CREATE TRIGGER IF NOT EXISTS comments_fts_after_delete AFTER DELETE ON " + CommentTable.TABLE_NAME
+                        + " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_DOC_ID + " = OLD.rowid; END;"
+        };
+
+        static final String SNIPPET = "snippet(" + TABLE_NAME + ", '<b>', '</b>', '...', -1, 15)";
+
+        // Number of matched phrases, offsets() returns 4 space separated numbers for every match
+        static final String RANK = "((length(offsets(" + TABLE_NAME + ")) - length(replace(offsets("
+                + TABLE_NAME + "), ' ', '')) + 1) / 4)";
+
+        /**
+         * Convert user typed query into FTS MATCH expression, every word is quoted so FTS operators typed by user
+         * are treated as plain text, and matched by its prefix.
+         *
+         * @param query user typed query
+         * @return MATCH expression or null if query doesn't contain any word
+         */
+        static String toMatchQuery(String query) {
+            if (query == null) {
+                return null;
             }
-            return qiscusComment;
+
+            StringBuilder matchQuery = new StringBuilder();
+            for (String word : query.replace("\"", " ").trim().split("\\s+")) {
+                if (!word.isEmpty()) {
+                    if (matchQuery.length() > 0) {
+                        matchQuery.append(' ');
+                    }
+                    matchQuery.append('"').append(word).append("*\"");
+                }
+            }
+            return matchQuery.length() == 0 ? null : matchQuery.toString();
+        }
+    }
+
+    /**
+     * Per room comment id delivered to and read by all the other members,
+     * written once per receipt instead of updating the state of every comment.
+     */
+    abstract static class WatermarkTable {
+        static final String TABLE_NAME = "room_watermarks";
+        static final String COLUMN_ROOM_ID = "room_id";
+        static final String COLUMN_LAST_DELIVERED = "last_delivered_comment_id";
+        static final String COLUMN_LAST_READ = "last_read_comment_id";
+
+        static final String CREATE =
+                "CREATE TABLE " + TABLE_NAME + " (" +
+                        COLUMN_ROOM_ID + " LONG PRIMARY KEY," +
+                        COLUMN_LAST_DELIVERED + " LONG DEFAULT 0," +
+                        COLUMN_LAST_READ + " LONG DEFAULT 0" +
+                        " ); ";
+
+        static final String INSERT_OR_IGNORE = "INSERT OR IGNORE INTO " + TABLE_NAME
+                + " (" + COLUMN_ROOM_ID + ") VALUES (?1)";
+
+        // Watermarks only move forward, bind the room id as ?1 and the comment id as ?2
+        static final String UPDATE_LAST_DELIVERED = "UPDATE " + TABLE_NAME
+                + " SET " + COLUMN_LAST_DELIVERED + " = MAX(" + COLUMN_LAST_DELIVERED + ", ?2)"
+                + " WHERE " + COLUMN_ROOM_ID + " = ?1";
+        static final String UPDATE_LAST_READ = "UPDATE " + TABLE_NAME
+                + " SET " + COLUMN_LAST_READ + " = MAX(" + COLUMN_LAST_READ + ", ?2)"
+                + " WHERE " + COLUMN_ROOM_ID + " = ?1";
+
+        // Scalar subquery so the comments queries don't need another join with an ambiguous room_id column
+        private static String select(String column, String commentAlias) {
+            return "(SELECT " + column + " FROM " + TABLE_NAME
+                    + " WHERE " + COLUMN_ROOM_ID + " = " + commentAlias + "." + CommentTable.COLUMN_ROOM_ID + ")";
+        }
+    }
+
+    /**
+     * Comment id ranges stored without gap, every comment of the room with id bigger than start_comment_id
+     * and up to end_comment_id is stored locally, start 0 means since the first comment of the room.
+     * A stored comment proves its own range from its comment before id, so ranges of a room never overlap,
+     * touching ranges are merged, and hard deleted comments don't split them.
+     */
+    abstract static class CommentRangeTable {
+        static final String TABLE_NAME = "comment_ranges";
+        static final String COLUMN_ROOM_ID = "room_id";
+        static final String COLUMN_START = "start_comment_id";
+        static final String COLUMN_END = "end_comment_id";
+
+        static final String CREATE =
+                "CREATE TABLE " + TABLE_NAME + " (" +
+                        COLUMN_ROOM_ID + " LONG NOT NULL," +
+                        COLUMN_START + " LONG NOT NULL," +
+                        COLUMN_END + " LONG NOT NULL," +
+                        " PRIMARY KEY (" + COLUMN_ROOM_ID + ", " + COLUMN_END + ")" +
+                        " ); ";
+
+        // Bind the room id as ?1, start as ?2 and end as ?3, the ranges touching it are merged into it
+        private static final String TOUCHING = " FROM " + TABLE_NAME + " WHERE " + COLUMN_ROOM_ID + " = ?1"
+                + " AND " + COLUMN_START + " <= ?3 AND " + COLUMN_END + " >= ?2";
+        static final String SELECT_MERGED_START = "SELECT IFNULL(MIN(" + COLUMN_START + "), ?2)" + TOUCHING;
+        static final String SELECT_MERGED_END = "SELECT IFNULL(MAX(" + COLUMN_END + "), ?3)" + TOUCHING;
+        static final String DELETE_TOUCHING = "DELETE" + TOUCHING;
+        static final String INSERT = "INSERT OR REPLACE INTO " + TABLE_NAME
+                + " (" + COLUMN_ROOM_ID + ", " + COLUMN_START + ", " + COLUMN_END + ") VALUES (?1, ?2, ?3)";
+
+        // The range containing comment id ?2 of room ?1
+        static final String SELECT_CONTAINING = "SELECT " + COLUMN_START + ", " + COLUMN_END + " FROM " + TABLE_NAME
+                + " WHERE " + COLUMN_ROOM_ID + " = ?1 AND " + COLUMN_END + " >= ?2 AND " + COLUMN_START + " < ?2"
+                + " ORDER BY " + COLUMN_END + " LIMIT 1";
+
+        static ContentValues toContentValues(long roomId, long start, long end) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_ROOM_ID, roomId);
+            values.put(COLUMN_START, start);
+            values.put(COLUMN_END, end);
+            return values;
         }
     }
 
@@ -281,6 +880,10 @@ final class QiscusDb {
                         COLUMN_LOCAL_PATH + " TEXT NOT NULL" +
                         " ); ";
 
+        static final String[] CREATE_INDEXES = {
+                "CREATE INDEX IF NOT EXISTS files_room_id_index ON " + TABLE_NAME + " (" + COLUMN_ROOM_ID + ");"
+        };
+
         static ContentValues toContentValues(long roomId, long commentId, String localPath) {
             ContentValues values = new ContentValues();
             values.put(COLUMN_ROOM_ID, roomId);
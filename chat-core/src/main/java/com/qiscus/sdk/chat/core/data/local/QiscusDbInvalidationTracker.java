@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import com.qiscus.sdk.chat.core.util.QiscusAndroidUtil;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Func0;
+import rx.functions.Func2;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
+
+/**
+ * Table level invalidation of the local database. Writes mark the tables they touched as dirty, the dirty tables
+ * are dispatched together after a short delay so a burst of writes only re-run every live query once.
+ */
+final class QiscusDbInvalidationTracker {
+    private static final long DISPATCH_DELAY = 30;
+
+    private final Subject<Set<String>, Set<String>> invalidations = PublishSubject.<Set<String>>create().toSerialized();
+    private final Set<String> dirtyTables = new HashSet<>();
+    private boolean dispatchScheduled;
+    private final Scheduler.Worker dispatchWorker;
+
+    QiscusDbInvalidationTracker() {
+        this(null);
+    }
+
+    /**
+     * @param dispatchScheduler where the dirty tables are dispatched, null means QiscusCore task executor
+     */
+    QiscusDbInvalidationTracker(Scheduler dispatchScheduler) {
+        dispatchWorker = dispatchScheduler == null ? null : dispatchScheduler.createWorker();
+    }
+
+    void markDirty(String... tables) {
+        synchronized (dirtyTables) {
+            Collections.addAll(dirtyTables, tables);
+            if (dispatchScheduled) {
+                return;
+            }
+            dispatchScheduled = true;
+        }
+        if (dispatchWorker == null) {
+            QiscusAndroidUtil.runOnBackgroundThread(this::dispatch, DISPATCH_DELAY);
+        } else {
+            dispatchWorker.schedule(this::dispatch, DISPATCH_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void dispatch() {
+        Set<String> tables;
+        synchronized (dirtyTables) {
+            tables = new HashSet<>(dirtyTables);
+            dirtyTables.clear();
+            dispatchScheduled = false;
+        }
+        invalidations.onNext(tables);
+    }
+
+    /**
+     * Run the query on subscribe and again every time one of the tables is invalidated.
+     * Invalidations arriving while the query is running are collapsed into one re-run,
+     * and a result the same as the previous one is not emitted.
+     *
+     * @param query  the query to run, called on io scheduler
+     * @param same   compare previous result with the new one
+     * @param tables the tables read by the query
+     */
+    <T> Observable<T> createLiveQuery(Func0<T> query, Func2<T, T, Boolean> same, String... tables) {
+        Set<String> observedTables = new HashSet<>(Arrays.asList(tables));
+        return invalidations
+                .filter(changedTables -> !Collections.disjoint(changedTables, observedTables))
+                .map(changedTables -> Boolean.TRUE)
+                .startWith(Boolean.TRUE)
+                .onBackpressureLatest()
+                .observeOn(Schedulers.io(), 1)
+                .map(invalidated -> query.call())
+                .distinctUntilChanged(same);
+    }
+}
@@ -16,12 +16,17 @@
 
 package com.qiscus.sdk.chat.core.data.local;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.res.AssetManager;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.text.TextUtils;
 
+import com.qiscus.sdk.chat.core.QiscusCore;
+import com.qiscus.sdk.chat.core.data.model.QiscusComment;
+import com.qiscus.sdk.chat.core.data.model.QiscusDatabaseConfig;
 import com.qiscus.sdk.chat.core.util.QiscusLogger;
 
 import java.io.BufferedReader;
@@ -32,10 +37,56 @@ import java.io.InputStreamReader;
 class QiscusDbOpenHelper extends SQLiteOpenHelper {
 
     private Context context;
+    private QiscusDatabaseConfig databaseConfig;
 
     QiscusDbOpenHelper(Context context) {
-        super(context, QiscusDb.DATABASE_NAME, null, QiscusDb.DATABASE_VERSION);
+        this(context, QiscusDb.DATABASE_NAME, null, null);
+    }
+
+    /**
+     * Used by the tests to open a separate database without initializing QiscusCore
+     *
+     * @param databaseConfig the config to be applied on open, null to use the one of QiscusCore chat config
+     */
+    QiscusDbOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory cursorFactory,
+                       QiscusDatabaseConfig databaseConfig) {
+        super(context, name, cursorFactory, QiscusDb.DATABASE_VERSION);
         this.context = context;
+        this.databaseConfig = databaseConfig;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        configure(db, databaseConfig != null ? databaseConfig : QiscusCore.getChatConfig().getDatabaseConfig());
+    }
+
+    /**
+     * Can be called for an opened database too, but not while inside a transaction
+     */
+    static void configure(SQLiteDatabase db, QiscusDatabaseConfig config) {
+        // Only take effect before the first table is created, so the free pages of a new database file can be
+        // given back by the compaction. Older files are switched by the first compaction, see QiscusRetentionPolicy
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        // Page size must be set before switching to WAL journal mode
+        if (config.getPageSize() > 0) {
+            db.execSQL("PRAGMA page_size = " + config.getPageSize());
+        }
+        // Negative value means the size in KiB instead of pages
+        if (config.getCacheSizeInKb() > 0) {
+            db.execSQL("PRAGMA cache_size = -" + config.getCacheSizeInKb());
+        }
+        if (config.getMmapSize() > 0) {
+            // Returns the new size as a row, so it can not run by execSQL
+            Cursor cursor = db.rawQuery("PRAGMA mmap_size = " + config.getMmapSize(), null);
+            cursor.moveToFirst();
+            cursor.close();
+        }
+
+        if (config.isEnableWriteAheadLogging()) {
+            db.enableWriteAheadLogging();
+        } else {
+            db.disableWriteAheadLogging();
+        }
     }
 
     @Override
@@ -47,6 +98,14 @@ class QiscusDbOpenHelper extends SQLiteOpenHelper {
             db.execSQL(QiscusDb.RoomMemberTable.CREATE);
             db.execSQL(QiscusDb.CommentTable.CREATE);
             db.execSQL(QiscusDb.FilesTable.CREATE);
+            db.execSQL(QiscusDb.WatermarkTable.CREATE);
+            db.execSQL(QiscusDb.CommentRangeTable.CREATE);
+            execSQL(db, QiscusDb.RoomTable.CREATE_INDEXES);
+            execSQL(db, QiscusDb.RoomMemberTable.CREATE_INDEXES);
+            execSQL(db, QiscusDb.CommentTable.CREATE_INDEXES);
+            execSQL(db, QiscusDb.FilesTable.CREATE_INDEXES);
+            db.execSQL(QiscusDb.CommentSearchTable.CREATE);
+            execSQL(db, QiscusDb.CommentSearchTable.CREATE_TRIGGERS);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -75,11 +134,24 @@ class QiscusDbOpenHelper extends SQLiteOpenHelper {
                 readAndExecSQL(db, context, migrationName);
             }
 
+            if (oldVersion < 21) {
+                indexDownloadedMedia(db);
+            }
+            if (oldVersion < 22) {
+                indexCommentRanges(db);
+            }
+
         } catch (Exception e) {
             QiscusLogger.print("Exception running upgrade scripts : " + e.getMessage());
         }
     }
 
+    private void execSQL(SQLiteDatabase db, String[] statements) {
+        for (String statement : statements) {
+            db.execSQL(statement);
+        }
+    }
+
     private void readAndExecSQL(SQLiteDatabase db, Context context, String migrationName) {
         if (TextUtils.isEmpty(migrationName)) {
             QiscusLogger.print("SQL Script migration name is empty...");
@@ -127,6 +199,78 @@ class QiscusDbOpenHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Media type can not be derived by SQL script, so fill it here. Media queries join files table,
+     * so only comments with downloaded file are needed, the rest are filled when they are saved again.
+     */
+    private void indexDownloadedMedia(SQLiteDatabase db) {
+        String query = "SELECT * FROM " + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
+                + QiscusDb.CommentTable.COLUMN_ID + " IN (SELECT " + QiscusDb.FilesTable.COLUMN_COMMENT_ID
+                + " FROM " + QiscusDb.FilesTable.TABLE_NAME + ")";
+        String where = QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = ?";
+
+        db.beginTransaction();
+        Cursor cursor = db.rawQuery(query, null);
+        try {
+            while (cursor.moveToNext()) {
+                QiscusComment qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
+                ContentValues values = new ContentValues();
+                values.put(QiscusDb.CommentTable.COLUMN_MEDIA_TYPE, QiscusDb.CommentTable.getMediaType(qiscusComment));
+                db.update(QiscusDb.CommentTable.TABLE_NAME, values, where, new String[]{qiscusComment.getUniqueId()});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            cursor.close();
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Build the ranges of the stored comments. Ordered by id, the comment before of a stored comment is never
+     * older than the previous stored comment, so a comment extends the current range if it's chained to it.
+     */
+    private void indexCommentRanges(SQLiteDatabase db) {
+        String query = "SELECT " + QiscusDb.CommentTable.COLUMN_ROOM_ID + ", " + QiscusDb.CommentTable.COLUMN_ID + ", "
+                + QiscusDb.CommentTable.COLUMN_COMMENT_BEFORE_ID + " FROM " + QiscusDb.CommentTable.TABLE_NAME
+                + " WHERE " + QiscusDb.CommentTable.COLUMN_ID + " > 0 AND "
+                + QiscusDb.CommentTable.COLUMN_COMMENT_BEFORE_ID + " >= 0 AND "
+                + QiscusDb.CommentTable.COLUMN_COMMENT_BEFORE_ID + " < " + QiscusDb.CommentTable.COLUMN_ID
+                + " ORDER BY " + QiscusDb.CommentTable.COLUMN_ROOM_ID + ", " + QiscusDb.CommentTable.COLUMN_ID;
+
+        db.beginTransaction();
+        Cursor cursor = db.rawQuery(query, null);
+        try {
+            long roomId = 0;
+            long start = -1;
+            long end = -1;
+            while (cursor.moveToNext()) {
+                long commentRoomId = cursor.getLong(0);
+                long commentId = cursor.getLong(1);
+                long commentBeforeId = cursor.getLong(2);
+                if (start >= 0 && commentRoomId == roomId && commentBeforeId <= end) {
+                    start = Math.min(start, commentBeforeId);
+                    end = commentId;
+                    continue;
+                }
+                if (start >= 0) {
+                    db.insert(QiscusDb.CommentRangeTable.TABLE_NAME, null,
+                            QiscusDb.CommentRangeTable.toContentValues(roomId, start, end));
+                }
+                roomId = commentRoomId;
+                start = commentBeforeId;
+                end = commentId;
+            }
+            if (start >= 0) {
+                db.insert(QiscusDb.CommentRangeTable.TABLE_NAME, null,
+                        QiscusDb.CommentRangeTable.toContentValues(roomId, start, end));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            cursor.close();
+            db.endTransaction();
+        }
+    }
+
     private void clearOldData(SQLiteDatabase db) {
         db.beginTransaction();
         try {
@@ -135,6 +279,8 @@ class QiscusDbOpenHelper extends SQLiteOpenHelper {
             db.execSQL("DROP TABLE IF EXISTS " + QiscusDb.RoomMemberTable.TABLE_NAME);
             db.execSQL("DROP TABLE IF EXISTS " + QiscusDb.CommentTable.TABLE_NAME);
             db.execSQL("DROP TABLE IF EXISTS " + QiscusDb.FilesTable.TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + QiscusDb.WatermarkTable.TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + QiscusDb.CommentRangeTable.TABLE_NAME);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
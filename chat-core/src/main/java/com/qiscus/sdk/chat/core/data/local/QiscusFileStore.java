@@ -16,7 +16,12 @@
 
 package com.qiscus.sdk.chat.core.data.local;
 
+import android.support.v4.util.Pair;
+
+import com.qiscus.sdk.chat.core.data.model.QiscusComment;
+
 import java.io.File;
+import java.util.List;
 
 /**
  * Created on : November 07, 2016
@@ -35,5 +40,15 @@ public interface QiscusFileStore {
 
     File getLocalPath(long commentId);
 
+    /**
+     * Downloaded attachments of the room newest first, together with their local path.
+     * The file may be deleted outside the app, check it before use.
+     *
+     * @param mediaType   IMAGE, VIDEO, AUDIO or FILE
+     * @param lastComment last comment of the previous page, null for the first page
+     */
+    List<Pair<QiscusComment, File>> getMediaComments(long roomId, QiscusComment.Type mediaType,
+                                                     QiscusComment lastComment, int limit);
+
     void deleteLocalPath(long commentId);
 }
@@ -0,0 +1,2071 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import android.support.v4.util.Pair;
+
+import com.qiscus.sdk.chat.core.QiscusCore;
+import com.qiscus.sdk.chat.core.data.model.QiscusAccount;
+import com.qiscus.sdk.chat.core.data.model.QiscusChatRoom;
+import com.qiscus.sdk.chat.core.data.model.QiscusComment;
+import com.qiscus.sdk.chat.core.data.model.QiscusCommentSearchResult;
+import com.qiscus.sdk.chat.core.data.model.QiscusCompactionResult;
+import com.qiscus.sdk.chat.core.data.model.QiscusDatabaseConfig;
+import com.qiscus.sdk.chat.core.data.model.QiscusRetentionPolicy;
+import com.qiscus.sdk.chat.core.data.model.QiscusRoomMember;
+import com.qiscus.sdk.chat.core.util.QiscusAndroidUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import rx.Emitter;
+import rx.Observable;
+import rx.functions.Func1;
+import rx.observables.SyncOnSubscribe;
+
+/**
+ * Data store kept only in memory, nothing is written to disk and everything is gone with the process.
+ * Use it for ephemeral sessions, or to measure the SDK without the database cost, by passing it to
+ * {@link QiscusCore#setDataStore(QiscusDataStore)}.
+ * <p>
+ * Queries answer the same as {@link QiscusDataBaseHelper}: comments of every room are kept sorted newest first
+ * by time then unique id, delivered and read state are derived from the room watermarks, and the sender name
+ * and avatar are taken from the stored member. Search matches the same words by prefix, but the rank and the
+ * snippet only approximate the ones of the full text index.
+ * <p>
+ * Reads run concurrently, every write holds the write lock so it is applied at once like a transaction.
+ */
+public class QiscusMemoryDataStore implements QiscusDataStore {
+    private static final int COMMENT_WINDOW_SIZE = 100;
+    private static final int SNIPPET_TOKENS = 15;
+    private static final int DELIVERED = 0;
+    private static final int READ = 1;
+
+    // Same order as ORDER BY time DESC, unique_id DESC. Null unique id is only used by the probes,
+    // it is placed before every comment of the same time
+    private static final Comparator<StoredComment> NEWEST_FIRST = (lhs, rhs) -> {
+        if (lhs.time != rhs.time) {
+            return lhs.time > rhs.time ? -1 : 1;
+        }
+        if (lhs.uniqueId == null || rhs.uniqueId == null) {
+            return lhs.uniqueId == null ? (rhs.uniqueId == null ? 0 : -1) : 1;
+        }
+        return rhs.uniqueId.compareTo(lhs.uniqueId);
+    };
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final QiscusDbInvalidationTracker invalidationTracker;
+
+    private final Map<Long, StoredRoom> rooms = new HashMap<>();
+    private final Map<String, Set<Long>> roomIdsByUniqueId = new HashMap<>();
+    private final Map<String, StoredMember> members = new HashMap<>();
+    // Room id -> email -> room member, sorted by email like the primary key of room_members
+    private final Map<Long, TreeMap<String, StoredRoomMember>> roomMembers = new HashMap<>();
+    // Email -> ids of the joined rooms
+    private final Map<String, TreeSet<Long>> roomIdsByMember = new HashMap<>();
+
+    private final Map<String, StoredComment> comments = new HashMap<>();
+    private final Map<Long, TreeSet<StoredComment>> roomComments = new HashMap<>();
+    private final Map<Long, Set<StoredComment>> commentsById = new HashMap<>();
+    private final Map<Long, Set<StoredComment>> commentsByBeforeId = new HashMap<>();
+    private final TreeSet<StoredComment> pendingComments = new TreeSet<>(Collections.reverseOrder(NEWEST_FIRST));
+
+    // Room id -> {last delivered, last read}, see QiscusDb.WatermarkTable
+    private final Map<Long, long[]> watermarks = new HashMap<>();
+    // Room id -> end comment id -> start comment id, see QiscusDb.CommentRangeTable
+    private final Map<Long, TreeMap<Long, Long>> commentRanges = new HashMap<>();
+    // Comment id -> downloaded file
+    private final Map<Long, StoredFile> files = new HashMap<>();
+
+    public QiscusMemoryDataStore() {
+        this(new QiscusDbInvalidationTracker());
+    }
+
+    QiscusMemoryDataStore(QiscusDbInvalidationTracker invalidationTracker) {
+        this.invalidationTracker = invalidationTracker;
+    }
+
+    @Override
+    public void add(QiscusChatRoom qiscusChatRoom) {
+        saveChatRooms(Collections.singletonList(qiscusChatRoom), false, true);
+    }
+
+    @Override
+    public boolean isContains(QiscusChatRoom qiscusChatRoom) {
+        lock.readLock().lock();
+        try {
+            return rooms.containsKey(qiscusChatRoom.getId());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void update(QiscusChatRoom qiscusChatRoom) {
+        saveChatRooms(Collections.singletonList(qiscusChatRoom), true, false);
+    }
+
+    @Override
+    public void addOrUpdate(QiscusChatRoom qiscusChatRoom) {
+        addOrUpdateChatRooms(Collections.singletonList(qiscusChatRoom));
+    }
+
+    @Override
+    public boolean addOrUpdateChatRooms(List<QiscusChatRoom> qiscusChatRooms) {
+        return saveChatRooms(qiscusChatRooms, true, true);
+    }
+
+    /**
+     * Save the rooms with their members and last comment under one write lock, like the database does in one
+     * transaction
+     *
+     * @param update replace the stored rooms, false to keep them as they are
+     * @param insert add the rooms which are not stored yet
+     */
+    private boolean saveChatRooms(List<QiscusChatRoom> qiscusChatRooms, boolean update, boolean insert) {
+        if (qiscusChatRooms.isEmpty()) {
+            return true;
+        }
+
+        lock.writeLock().lock();
+        try {
+            List<QiscusComment> lastComments = new ArrayList<>();
+            for (QiscusChatRoom qiscusChatRoom : qiscusChatRooms) {
+                if (rooms.containsKey(qiscusChatRoom.getId()) ? update : insert) {
+                    putRoom(new StoredRoom(qiscusChatRoom));
+                }
+
+                if (!qiscusChatRoom.isChannel() && qiscusChatRoom.getMember() != null
+                        && !qiscusChatRoom.getMember().isEmpty()) {
+                    replaceRoomMembers(qiscusChatRoom.getId(), qiscusChatRoom.getMember(), qiscusChatRoom.getDistinctId());
+                }
+
+                QiscusComment comment = qiscusChatRoom.getLastComment();
+                if (comment != null && comment.getId() > 0) {
+                    putComment(comment);
+                    lastComments.add(comment);
+                }
+            }
+            addCommentRanges(lastComments);
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.RoomTable.TABLE_NAME, QiscusDb.RoomMemberTable.TABLE_NAME,
+                    QiscusDb.MemberTable.TABLE_NAME, QiscusDb.CommentTable.TABLE_NAME);
+        }
+        return true;
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoom(long roomId) {
+        lock.readLock().lock();
+        try {
+            StoredRoom storedRoom = rooms.get(roomId);
+            if (storedRoom == null) {
+                return null;
+            }
+            return queryChatRooms(Collections.singletonList(storedRoom), 1).get(0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public QiscusChatRoom getLightChatRoom(long roomId) {
+        lock.readLock().lock();
+        try {
+            StoredRoom storedRoom = rooms.get(roomId);
+            if (storedRoom == null) {
+                return null;
+            }
+            QiscusChatRoom qiscusChatRoom = storedRoom.toChatRoom();
+            qiscusChatRoom.setMember(new ArrayList<>());
+            return qiscusChatRoom;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoom(String email) {
+        QiscusAccount account = QiscusCore.getQiscusAccount();
+        QiscusChatRoom room = getChatRoom(email, account.getEmail() + " " + email);
+        if (room == null) {
+            room = getChatRoom(email, email + " " + account.getEmail());
+        }
+        return room;
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoom(String email, String distinctId) {
+        lock.readLock().lock();
+        try {
+            TreeSet<Long> roomIds = roomIdsByMember.get(email);
+            if (roomIds == null) {
+                return null;
+            }
+
+            for (Long roomId : roomIds) {
+                if (!distinctId.equals(roomMembers.get(roomId).get(email).distinctId)) {
+                    continue;
+                }
+                StoredRoom storedRoom = rooms.get(roomId);
+                if (storedRoom == null) {
+                    return null;
+                }
+                if (!storedRoom.group) {
+                    return queryChatRooms(Collections.singletonList(storedRoom), 1).get(0);
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoomWithUniqueId(String uniqueId) {
+        lock.readLock().lock();
+        try {
+            Set<Long> roomIds = roomIdsByUniqueId.get(uniqueId);
+            if (roomIds == null) {
+                return null;
+            }
+            List<QiscusChatRoom> qiscusChatRooms = queryChatRooms(getStoredRooms(roomIds), 1);
+            return qiscusChatRooms.isEmpty() ? null : qiscusChatRooms.get(0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRooms(int limit) {
+        lock.readLock().lock();
+        try {
+            return queryChatRooms(rooms.values(), limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRooms(QiscusChatRoom lastRoom, int limit) {
+        lock.readLock().lock();
+        try {
+            return queryChatRooms(rooms.values(), lastRoom, limit, false);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Observable<List<QiscusChatRoom>> getObservableChatRooms(int limit) {
+        return Observable.create(subscriber -> {
+            subscriber.onNext(getChatRooms(limit));
+            subscriber.onCompleted();
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    @Override
+    public Observable<List<QiscusChatRoom>> getLiveChatRooms(int limit) {
+        return invalidationTracker.createLiveQuery(() -> getChatRooms(limit), QiscusDataBaseHelper::isSameChatRooms,
+                QiscusDb.RoomTable.TABLE_NAME, QiscusDb.RoomMemberTable.TABLE_NAME,
+                QiscusDb.MemberTable.TABLE_NAME, QiscusDb.CommentTable.TABLE_NAME, QiscusDb.WatermarkTable.TABLE_NAME);
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRoomListItems(int limit) {
+        lock.readLock().lock();
+        try {
+            return queryChatRooms(rooms.values(), limit, true);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Observable<List<QiscusChatRoom>> getLiveChatRoomListItems(int limit) {
+        return invalidationTracker.createLiveQuery(() -> getChatRoomListItems(limit),
+                QiscusDataBaseHelper::isSameChatRooms, QiscusDb.RoomTable.TABLE_NAME, QiscusDb.MemberTable.TABLE_NAME,
+                QiscusDb.CommentTable.TABLE_NAME, QiscusDb.WatermarkTable.TABLE_NAME);
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRooms(List<Long> roomIds, List<String> uniqueIds) {
+        lock.readLock().lock();
+        try {
+            Set<Long> matchedRoomIds = new HashSet<>(roomIds);
+            for (String uniqueId : uniqueIds) {
+                Set<Long> ids = roomIdsByUniqueId.get(uniqueId);
+                if (ids != null) {
+                    matchedRoomIds.addAll(ids);
+                }
+            }
+            return queryChatRooms(getStoredRooms(matchedRoomIds), -1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Must be called while holding the lock
+     *
+     * @param limit max rooms to return, negative means no limit
+     * @return rooms sorted by latest comment time, rooms without comment placed at the end
+     */
+    private List<QiscusChatRoom> queryChatRooms(Collection<StoredRoom> storedRooms, int limit) {
+        return queryChatRooms(storedRooms, limit, false);
+    }
+
+    private List<QiscusChatRoom> queryChatRooms(Collection<StoredRoom> storedRooms, int limit, boolean listItems) {
+        return queryChatRooms(storedRooms, null, limit, listItems);
+    }
+
+    /**
+     * Sorted the same as the database, by last comment time then id, rooms without comment at the end
+     *
+     * @param lastRoom  last room of the previous page, null to start from the newest room
+     * @param listItems leave out the members, the options and the last comment extras like the database does,
+     *                  see {@link #getChatRoomListItems(int)}
+     */
+    private List<QiscusChatRoom> queryChatRooms(Collection<StoredRoom> storedRooms, QiscusChatRoom lastRoom,
+                                                int limit, boolean listItems) {
+        List<Pair<StoredRoom, StoredComment>> roomsWithLastComment = new ArrayList<>(storedRooms.size());
+        for (StoredRoom storedRoom : storedRooms) {
+            roomsWithLastComment.add(Pair.create(storedRoom, getLastComment(storedRoom.id)));
+        }
+        Collections.sort(roomsWithLastComment, (lhs, rhs) -> compareRoomKeys(getLastCommentTime(rhs.second),
+                rhs.first.id, getLastCommentTime(lhs.second), lhs.first.id));
+
+        int start = 0;
+        if (lastRoom != null) {
+            // Key of the stored room, the given one may carry another last comment
+            long lastCommentTime = rooms.containsKey(lastRoom.getId())
+                    ? getLastCommentTime(getLastComment(lastRoom.getId()))
+                    : QiscusDataBaseHelper.getLastCommentTime(lastRoom);
+            while (start < roomsWithLastComment.size()) {
+                Pair<StoredRoom, StoredComment> roomWithLastComment = roomsWithLastComment.get(start);
+                if (compareRoomKeys(getLastCommentTime(roomWithLastComment.second), roomWithLastComment.first.id,
+                        lastCommentTime, lastRoom.getId()) < 0) {
+                    break;
+                }
+                start++;
+            }
+        }
+
+        int end = limit < 0 ? roomsWithLastComment.size() : Math.min(start + limit, roomsWithLastComment.size());
+        List<QiscusChatRoom> qiscusChatRooms = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            Pair<StoredRoom, StoredComment> roomWithLastComment = roomsWithLastComment.get(i);
+            QiscusChatRoom qiscusChatRoom = roomWithLastComment.first.toChatRoom();
+            if (roomWithLastComment.second != null) {
+                qiscusChatRoom.setLastComment(toComment(roomWithLastComment.second));
+            }
+            if (listItems) {
+                qiscusChatRoom.setOptions(null);
+                if (qiscusChatRoom.getLastComment() != null) {
+                    qiscusChatRoom.getLastComment().setExtras(null);
+                }
+                qiscusChatRoom.setMember(new ArrayList<>());
+            } else {
+                qiscusChatRoom.setMember(queryRoomMembers(qiscusChatRoom.getId()));
+            }
+            qiscusChatRooms.add(qiscusChatRoom);
+        }
+        return qiscusChatRooms;
+    }
+
+    private static long getLastCommentTime(StoredComment lastComment) {
+        return lastComment == null ? 0 : lastComment.time;
+    }
+
+    private static int compareRoomKeys(long lhsTime, long lhsId, long rhsTime, long rhsId) {
+        if (lhsTime != rhsTime) {
+            return lhsTime < rhsTime ? -1 : 1;
+        }
+        return lhsId == rhsId ? 0 : (lhsId < rhsId ? -1 : 1);
+    }
+
+    private List<StoredRoom> getStoredRooms(Collection<Long> roomIds) {
+        List<StoredRoom> storedRooms = new ArrayList<>(roomIds.size());
+        for (Long roomId : roomIds) {
+            StoredRoom storedRoom = rooms.get(roomId);
+            if (storedRoom != null) {
+                storedRooms.add(storedRoom);
+            }
+        }
+        return storedRooms;
+    }
+
+    @Override
+    public void deleteChatRoom(long roomId) {
+        lock.writeLock().lock();
+        try {
+            StoredRoom removed = rooms.remove(roomId);
+            if (removed != null) {
+                removeFromIndex(roomIdsByUniqueId, removed.uniqueId, roomId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.RoomTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public void incrementUnreadCount(long roomId) {
+        boolean updated;
+        lock.writeLock().lock();
+        try {
+            StoredRoom storedRoom = rooms.get(roomId);
+            updated = storedRoom != null;
+            if (updated) {
+                storedRoom.unreadCount++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (updated) {
+            invalidationTracker.markDirty(QiscusDb.RoomTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public void resetUnreadCount(long roomId) {
+        boolean updated;
+        lock.writeLock().lock();
+        try {
+            StoredRoom storedRoom = rooms.get(roomId);
+            updated = storedRoom != null && storedRoom.unreadCount != 0;
+            if (updated) {
+                storedRoom.unreadCount = 0;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (updated) {
+            invalidationTracker.markDirty(QiscusDb.RoomTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public int getTotalUnreadCount() {
+        lock.readLock().lock();
+        try {
+            int total = 0;
+            for (StoredRoom storedRoom : rooms.values()) {
+                total += storedRoom.unreadCount;
+            }
+            return total;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void addRoomMember(long roomId, QiscusRoomMember qiscusRoomMember, String distinctId) {
+        lock.writeLock().lock();
+        try {
+            if (!isRoomMember(roomId, qiscusRoomMember.getEmail())) {
+                putRoomMember(roomId, distinctId, qiscusRoomMember);
+                putMember(qiscusRoomMember);
+            }
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.RoomMemberTable.TABLE_NAME, QiscusDb.MemberTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public boolean isContainsRoomMember(long roomId, String email) {
+        lock.readLock().lock();
+        try {
+            return isRoomMember(roomId, email);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateRoomMember(long roomId, QiscusRoomMember qiscusRoomMember, String distinctId) {
+        lock.writeLock().lock();
+        try {
+            if (isRoomMember(roomId, qiscusRoomMember.getEmail())) {
+                putRoomMember(roomId, distinctId, qiscusRoomMember);
+            }
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.RoomMemberTable.TABLE_NAME);
+        }
+
+        addOrUpdate(qiscusRoomMember);
+    }
+
+    @Override
+    public void addOrUpdateRoomMember(long roomId, QiscusRoomMember qiscusRoomMember, String distinctId) {
+        addOrUpdateRoomMembers(roomId, Collections.singletonList(qiscusRoomMember), distinctId);
+    }
+
+    @Override
+    public boolean addOrUpdateRoomMembers(long roomId, List<QiscusRoomMember> qiscusRoomMembers, String distinctId) {
+        if (qiscusRoomMembers.isEmpty()) {
+            return true;
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (QiscusRoomMember qiscusRoomMember : qiscusRoomMembers) {
+                putRoomMember(roomId, distinctId, qiscusRoomMember);
+                putMember(qiscusRoomMember);
+            }
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.RoomMemberTable.TABLE_NAME, QiscusDb.MemberTable.TABLE_NAME);
+        }
+        return true;
+    }
+
+    // Must be called while holding the write lock
+    private void replaceRoomMembers(long roomId, List<QiscusRoomMember> qiscusRoomMembers, String distinctId) {
+        TreeMap<String, StoredRoomMember> storedMembers = roomMembers.get(roomId);
+        Set<String> removedEmails = storedMembers == null ? new HashSet<>() : new HashSet<>(storedMembers.keySet());
+        for (QiscusRoomMember qiscusRoomMember : qiscusRoomMembers) {
+            removedEmails.remove(qiscusRoomMember.getEmail());
+            putRoomMember(roomId, distinctId, qiscusRoomMember);
+            putMember(qiscusRoomMember);
+        }
+        for (String email : removedEmails) {
+            removeRoomMember(roomId, email);
+        }
+    }
+
+    @Override
+    public List<QiscusRoomMember> getRoomMembers(long roomId) {
+        lock.readLock().lock();
+        try {
+            return queryRoomMembers(roomId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Only members with stored profile, like the inner join of room_members and members
+    private List<QiscusRoomMember> queryRoomMembers(long roomId) {
+        List<QiscusRoomMember> qiscusRoomMembers = new ArrayList<>();
+        TreeMap<String, StoredRoomMember> storedMembers = roomMembers.get(roomId);
+        if (storedMembers == null) {
+            return qiscusRoomMembers;
+        }
+
+        for (Map.Entry<String, StoredRoomMember> entry : storedMembers.entrySet()) {
+            StoredMember storedMember = members.get(entry.getKey());
+            if (storedMember != null) {
+                QiscusRoomMember qiscusRoomMember = storedMember.toRoomMember();
+                qiscusRoomMember.setLastDeliveredCommentId(entry.getValue().lastDelivered);
+                qiscusRoomMember.setLastReadCommentId(entry.getValue().lastRead);
+                qiscusRoomMembers.add(qiscusRoomMember);
+            }
+        }
+        return qiscusRoomMembers;
+    }
+
+    @Override
+    public void deleteRoomMember(long roomId, String email) {
+        lock.writeLock().lock();
+        try {
+            removeRoomMember(roomId, email);
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.RoomMemberTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public void deleteRoomMembers(long roomId) {
+        lock.writeLock().lock();
+        try {
+            TreeMap<String, StoredRoomMember> storedMembers = roomMembers.remove(roomId);
+            if (storedMembers != null) {
+                for (String email : storedMembers.keySet()) {
+                    removeFromIndex(roomIdsByMember, email, roomId);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.RoomMemberTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public void add(QiscusRoomMember qiscusRoomMember) {
+        lock.writeLock().lock();
+        try {
+            if (!members.containsKey(qiscusRoomMember.getEmail())) {
+                members.put(qiscusRoomMember.getEmail(), new StoredMember(qiscusRoomMember));
+            }
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.MemberTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public boolean isContains(QiscusRoomMember qiscusRoomMember) {
+        lock.readLock().lock();
+        try {
+            return members.containsKey(qiscusRoomMember.getEmail());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void update(QiscusRoomMember qiscusRoomMember) {
+        lock.writeLock().lock();
+        try {
+            if (members.containsKey(qiscusRoomMember.getEmail())) {
+                members.put(qiscusRoomMember.getEmail(), new StoredMember(qiscusRoomMember));
+            }
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.MemberTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public void addOrUpdate(QiscusRoomMember qiscusRoomMember) {
+        lock.writeLock().lock();
+        try {
+            putMember(qiscusRoomMember);
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.MemberTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public QiscusRoomMember getMember(String email) {
+        lock.readLock().lock();
+        try {
+            StoredMember storedMember = members.get(email);
+            return storedMember == null ? null : storedMember.toRoomMember();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(QiscusComment qiscusComment) {
+        lock.writeLock().lock();
+        try {
+            if (!comments.containsKey(qiscusComment.getUniqueId())) {
+                putComment(qiscusComment);
+                addCommentRanges(Collections.singletonList(qiscusComment));
+            }
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.CommentTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public boolean isContains(QiscusComment qiscusComment) {
+        lock.readLock().lock();
+        try {
+            return comments.containsKey(qiscusComment.getUniqueId());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void update(QiscusComment qiscusComment) {
+        lock.writeLock().lock();
+        try {
+            if (comments.containsKey(qiscusComment.getUniqueId())) {
+                putComment(qiscusComment);
+                addCommentRanges(Collections.singletonList(qiscusComment));
+            }
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.CommentTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public void addOrUpdate(QiscusComment qiscusComment) {
+        addOrUpdateComments(Collections.singletonList(qiscusComment));
+    }
+
+    @Override
+    public boolean addOrUpdateComments(List<QiscusComment> qiscusComments) {
+        if (qiscusComments.isEmpty()) {
+            return true;
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (QiscusComment qiscusComment : qiscusComments) {
+                putComment(qiscusComment);
+            }
+            addCommentRanges(qiscusComments);
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.CommentTable.TABLE_NAME);
+        }
+        return true;
+    }
+
+    @Override
+    public void delete(QiscusComment qiscusComment) {
+        lock.writeLock().lock();
+        try {
+            StoredComment removed = comments.get(qiscusComment.getUniqueId());
+            if (removed != null) {
+                removeComment(removed);
+                if (qiscusComment.getId() > 0) {
+                    removeCommentFromRanges(qiscusComment.getRoomId(), qiscusComment.getId());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.CommentTable.TABLE_NAME);
+        }
+        deleteLocalPath(qiscusComment.getId());
+    }
+
+    @Override
+    public int deleteCommentsByRoomId(long roomId) {
+        return deleteComments(roomId, Long.MAX_VALUE);
+    }
+
+    @Override
+    public int deleteCommentsByRoomId(long roomId, long timestampOffset) {
+        return deleteComments(roomId, timestampOffset);
+    }
+
+    /**
+     * Delete the comments of the room up to the time together with their files entries,
+     * the downloaded files are deleted later on background thread.
+     *
+     * @return number of deleted comments
+     */
+    private int deleteComments(long roomId, long maxTime) {
+        List<String> localPaths = new ArrayList<>();
+        int deleted;
+        lock.writeLock().lock();
+        try {
+            TreeSet<StoredComment> storedComments = roomComments.get(roomId);
+            List<StoredComment> removed = storedComments == null ? new ArrayList<>()
+                    : new ArrayList<>(storedComments.tailSet(new StoredComment(maxTime, null), true));
+            removeComments(roomId, removed, localPaths);
+            deleted = removed.size();
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.CommentTable.TABLE_NAME, QiscusDb.FilesTable.TABLE_NAME);
+        }
+
+        if (!localPaths.isEmpty()) {
+            QiscusAndroidUtil.runOnBackgroundThread(() -> {
+                for (String localPath : localPaths) {
+                    new File(localPath).delete();
+                }
+            });
+        }
+        return deleted;
+    }
+
+    /**
+     * Must be called while holding the write lock
+     *
+     * @param removed    comments of the room, only the oldest comments of it when some comments are not removed
+     * @param localPaths filled with the downloaded files of the removed comments, the caller deletes them
+     */
+    private void removeComments(long roomId, List<StoredComment> removed, List<String> localPaths) {
+        long maxCommentId = 0;
+        for (StoredComment storedComment : removed) {
+            StoredFile storedFile = files.get(storedComment.id);
+            if (storedFile != null && storedFile.roomId == roomId) {
+                files.remove(storedComment.id);
+                localPaths.add(storedFile.localPath);
+            }
+            maxCommentId = Math.max(maxCommentId, storedComment.id);
+        }
+
+        if (maxCommentId > 0) {
+            removeCommentsFromRanges(roomId, maxCommentId);
+        }
+        for (StoredComment storedComment : removed) {
+            removeComment(storedComment);
+        }
+    }
+
+    @Override
+    public void updateLastDeliveredComment(long roomId, long commentId) {
+        updateWatermark(roomId, DELIVERED, commentId);
+    }
+
+    @Override
+    public void updateLastReadComment(long roomId, long commentId) {
+        updateWatermark(roomId, READ, commentId);
+    }
+
+    /**
+     * Only move the room watermark, state of the comments below it is derived when they are queried
+     */
+    private void updateWatermark(long roomId, int index, long commentId) {
+        // No member sentinel, it would mark every later comment of the room as read forever
+        if (commentId == Long.MAX_VALUE) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            long[] watermark = watermarks.get(roomId);
+            if (watermark == null) {
+                watermark = new long[2];
+                watermarks.put(roomId, watermark);
+            }
+            watermark[index] = Math.max(watermark[index], commentId);
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.WatermarkTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public long getContiguousCommentsStart(long roomId, long commentId) {
+        lock.readLock().lock();
+        try {
+            Map.Entry<Long, Long> range = getContainingRange(roomId, commentId);
+            return range == null ? commentId : range.getValue();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Same as QiscusDb.CommentRangeTable.SELECT_CONTAINING
+    private Map.Entry<Long, Long> getContainingRange(long roomId, long commentId) {
+        TreeMap<Long, Long> ranges = commentRanges.get(roomId);
+        if (ranges == null) {
+            return null;
+        }
+        Map.Entry<Long, Long> range = ranges.ceilingEntry(commentId);
+        return range != null && range.getValue() < commentId ? range : null;
+    }
+
+    /**
+     * Every stored comment proves there is no other comment between its comment before id and its id,
+     * see QiscusDb.CommentRangeTable. Must be called while holding the write lock.
+     */
+    private void addCommentRanges(List<QiscusComment> qiscusComments) {
+        for (QiscusComment qiscusComment : qiscusComments) {
+            if (qiscusComment.getId() <= 0 || qiscusComment.getCommentBeforeId() < 0
+                    || qiscusComment.getCommentBeforeId() >= qiscusComment.getId()) {
+                continue;
+            }
+            addCommentRange(qiscusComment.getRoomId(), qiscusComment.getCommentBeforeId(), qiscusComment.getId());
+        }
+    }
+
+    private void addCommentRange(long roomId, long start, long end) {
+        TreeMap<Long, Long> ranges = commentRanges.get(roomId);
+        if (ranges == null) {
+            ranges = new TreeMap<>();
+            commentRanges.put(roomId, ranges);
+        }
+
+        // Ranges never overlap, so their starts are sorted like their ends
+        long mergedStart = start;
+        long mergedEnd = end;
+        Iterator<Map.Entry<Long, Long>> touching = ranges.tailMap(start, true).entrySet().iterator();
+        while (touching.hasNext()) {
+            Map.Entry<Long, Long> range = touching.next();
+            if (range.getValue() > end) {
+                break;
+            }
+            mergedStart = Math.min(mergedStart, range.getValue());
+            mergedEnd = Math.max(mergedEnd, range.getKey());
+            touching.remove();
+        }
+        ranges.put(mergedEnd, mergedStart);
+    }
+
+    /**
+     * Split the range containing the locally deleted comment, the comment is still on qiscus
+     */
+    private void removeCommentFromRanges(long roomId, long commentId) {
+        Map.Entry<Long, Long> range = getContainingRange(roomId, commentId);
+        if (range == null) {
+            return;
+        }
+
+        long start = range.getValue();
+        long end = range.getKey();
+        TreeMap<Long, Long> ranges = commentRanges.get(roomId);
+        ranges.remove(end);
+        if (commentId - 1 > start) {
+            ranges.put(commentId - 1, start);
+        }
+        if (end > commentId) {
+            ranges.put(end, commentId);
+        }
+    }
+
+    /**
+     * Cut the ranges below the newest of the comments about to be deleted, older comments are deleted with it
+     */
+    private void removeCommentsFromRanges(long roomId, long maxCommentId) {
+        TreeMap<Long, Long> ranges = commentRanges.get(roomId);
+        if (ranges == null) {
+            return;
+        }
+
+        ranges.headMap(maxCommentId, true).clear();
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            if (range.getValue() < maxCommentId) {
+                range.setValue(maxCommentId);
+            }
+        }
+    }
+
+    @Override
+    public void saveLocalPath(long roomId, long commentId, String localPath) {
+        lock.writeLock().lock();
+        try {
+            if (!files.containsKey(commentId)) {
+                files.put(commentId, new StoredFile(roomId, localPath));
+            }
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.FilesTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public boolean isContainsFileOfComment(long commentId) {
+        lock.readLock().lock();
+        try {
+            return files.containsKey(commentId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateLocalPath(long roomId, long commentId, String localPath) {
+        lock.writeLock().lock();
+        try {
+            if (files.containsKey(commentId)) {
+                files.put(commentId, new StoredFile(roomId, localPath));
+            }
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.FilesTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public void addOrUpdateLocalPath(long roomId, long commentId, String localPath) {
+        lock.writeLock().lock();
+        try {
+            files.put(commentId, new StoredFile(roomId, localPath));
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.FilesTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public File getLocalPath(long commentId) {
+        StoredFile storedFile;
+        lock.readLock().lock();
+        try {
+            storedFile = files.get(commentId);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (storedFile == null) {
+            return null;
+        }
+        File file = new File(storedFile.localPath);
+        return file.exists() ? file : null;
+    }
+
+    @Override
+    public List<Pair<QiscusComment, File>> getMediaComments(long roomId, QiscusComment.Type mediaType,
+                                                            QiscusComment lastComment, int limit) {
+        List<Pair<QiscusComment, File>> mediaComments = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (StoredComment storedComment : getRoomComments(roomId, lastComment)) {
+                if (mediaComments.size() >= limit) {
+                    break;
+                }
+                StoredFile storedFile = files.get(storedComment.id);
+                if (!storedComment.hardDeleted && storedFile != null && mediaType.name().equals(storedComment.mediaType)) {
+                    mediaComments.add(Pair.create(toComment(storedComment), new File(storedFile.localPath)));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return mediaComments;
+    }
+
+    @Override
+    public void deleteLocalPath(long commentId) {
+        File file = getLocalPath(commentId);
+        if (file != null) {
+            file.delete();
+        }
+
+        lock.writeLock().lock();
+        try {
+            files.remove(commentId);
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.FilesTable.TABLE_NAME);
+        }
+    }
+
+    @Override
+    public QiscusComment getComment(String uniqueId) {
+        lock.readLock().lock();
+        try {
+            StoredComment storedComment = comments.get(uniqueId);
+            return storedComment == null ? null : toComment(storedComment);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public QiscusComment getCommentByBeforeId(long beforeId) {
+        lock.readLock().lock();
+        try {
+            Set<StoredComment> storedComments = commentsByBeforeId.get(beforeId);
+            return storedComments == null ? null : toComment(storedComments.iterator().next());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<QiscusComment> getComments(long roomId) {
+        return queryComments(roomId, null, true, -1, storedComment -> !storedComment.hardDeleted);
+    }
+
+    @Override
+    public List<QiscusComment> getComments(long roomId, int limit) {
+        return queryComments(roomId, null, true, limit, storedComment -> !storedComment.hardDeleted);
+    }
+
+    @Override
+    public List<QiscusComment> getComments(long roomId, long timestampOffset) {
+        return queryComments(roomId, new StoredComment(timestampOffset, null), true, -1,
+                storedComment -> !storedComment.hardDeleted);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableComments(final long roomId) {
+        return Observable.create(subscriber -> {
+            subscriber.onNext(getComments(roomId));
+            subscriber.onCompleted();
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableComments(final long roomId, final int limit) {
+        return Observable.create(subscriber -> {
+            subscriber.onNext(getComments(roomId, limit));
+            subscriber.onCompleted();
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getLiveComments(long roomId, int limit) {
+        return invalidationTracker.createLiveQuery(() -> getComments(roomId, limit),
+                QiscusDataBaseHelper::isSameComments,
+                QiscusDb.CommentTable.TABLE_NAME, QiscusDb.MemberTable.TABLE_NAME, QiscusDb.WatermarkTable.TABLE_NAME);
+    }
+
+    @Override
+    public Observable<QiscusComment> getCommentStream(long roomId) {
+        return getCommentWindows(roomId, COMMENT_WINDOW_SIZE).concatMap(Observable::from);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getCommentWindows(long roomId, int windowSize) {
+        // The state is the last emitted comment, the next window is loaded only when it's requested
+        return Observable.create(SyncOnSubscribe.<QiscusComment, List<QiscusComment>>createStateful(
+                () -> null,
+                (lastComment, observer) -> {
+                    List<QiscusComment> comments = queryComments(roomId,
+                            lastComment == null ? null : new StoredComment(lastComment), false, windowSize,
+                            storedComment -> !storedComment.hardDeleted);
+                    if (!comments.isEmpty()) {
+                        observer.onNext(comments);
+                    }
+                    if (comments.size() < windowSize) {
+                        observer.onCompleted();
+                        return null;
+                    }
+                    return comments.get(comments.size() - 1);
+                }));
+    }
+
+    @Override
+    public List<QiscusComment> getOlderCommentsThan(QiscusComment qiscusComment, long roomId, int limit) {
+        return queryComments(roomId, new StoredComment(qiscusComment.getTime().getTime(), null), true, limit,
+                storedComment -> !storedComment.hardDeleted);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableOlderCommentsThan(QiscusComment qiscusComment, long roomId, int limit) {
+        return Observable.create(subscriber -> {
+            subscriber.onNext(getOlderCommentsThan(qiscusComment, roomId, limit));
+            subscriber.onCompleted();
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    @Override
+    public List<QiscusComment> getCommentsAfter(QiscusComment qiscusComment, long roomId) {
+        lock.readLock().lock();
+        try {
+            Set<StoredComment> savedComments = commentsById.get(qiscusComment.getId());
+            if (savedComments == null) {
+                return new ArrayList<>();
+            }
+
+            long savedTime = savedComments.iterator().next().time;
+            return queryComments(roomId, null, true, -1, storedComment -> !storedComment.hardDeleted
+                    && (storedComment.time >= savedTime || storedComment.id == -1));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableCommentsAfter(QiscusComment qiscusComment, long roomId) {
+        return Observable.create(subscriber -> {
+            subscriber.onNext(getCommentsAfter(qiscusComment, roomId));
+            subscriber.onCompleted();
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    @Override
+    public QiscusComment getLatestComment() {
+        lock.readLock().lock();
+        try {
+            StoredComment latestComment = null;
+            for (TreeSet<StoredComment> storedComments : roomComments.values()) {
+                for (StoredComment storedComment : storedComments) {
+                    if (storedComment.id != -1 && !storedComment.hardDeleted) {
+                        if (latestComment == null || storedComment.time > latestComment.time) {
+                            latestComment = storedComment;
+                        }
+                        break;
+                    }
+                }
+            }
+            return latestComment == null ? null : toComment(latestComment);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public QiscusComment getLatestComment(long roomId) {
+        List<QiscusComment> qiscusComments = queryComments(roomId, null, true, 1,
+                storedComment -> !storedComment.hardDeleted);
+        return qiscusComments.isEmpty() ? null : qiscusComments.get(0);
+    }
+
+    @Override
+    public QiscusComment getLatestDeliveredComment(long roomId) {
+        List<QiscusComment> qiscusComments = queryComments(roomId, null, true, 1,
+                storedComment -> storedComment.id != -1 && getState(storedComment) == QiscusComment.STATE_DELIVERED);
+        return qiscusComments.isEmpty() ? null : qiscusComments.get(0);
+    }
+
+    @Override
+    public QiscusComment getLatestReadComment(long roomId) {
+        List<QiscusComment> qiscusComments = queryComments(roomId, null, true, 1,
+                storedComment -> storedComment.id != -1 && getState(storedComment) == QiscusComment.STATE_READ);
+        return qiscusComments.isEmpty() ? null : qiscusComments.get(0);
+    }
+
+    @Override
+    public List<QiscusComment> getPendingComments() {
+        lock.readLock().lock();
+        try {
+            List<QiscusComment> qiscusComments = new ArrayList<>(pendingComments.size());
+            for (StoredComment storedComment : pendingComments) {
+                qiscusComments.add(toComment(storedComment));
+            }
+            return qiscusComments;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservablePendingComments() {
+        return Observable.create(subscriber -> {
+            subscriber.onNext(getPendingComments());
+            subscriber.onCompleted();
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getLivePendingComments() {
+        return invalidationTracker.createLiveQuery(this::getPendingComments, QiscusDataBaseHelper::isSameComments,
+                QiscusDb.CommentTable.TABLE_NAME);
+    }
+
+    @Override
+    public List<QiscusComment> searchComments(String query, long roomId, int limit, int offset) {
+        lock.readLock().lock();
+        try {
+            TreeSet<StoredComment> storedComments = roomComments.get(roomId);
+            return searchComments(query, storedComments == null ? new ArrayList<>() : storedComments, limit, offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<QiscusComment> searchComments(String query, int limit, int offset) {
+        lock.readLock().lock();
+        try {
+            List<StoredComment> storedComments = new ArrayList<>(comments.values());
+            Collections.sort(storedComments, NEWEST_FIRST);
+            return searchComments(query, storedComments, limit, offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Must be called while holding the lock, the comments must be sorted newest first
+    private List<QiscusComment> searchComments(String query, Collection<StoredComment> storedComments,
+                                               int limit, int offset) {
+        List<QiscusComment> qiscusComments = new ArrayList<>();
+        List<String[]> phrases = toSearchPhrases(query);
+        if (phrases == null) {
+            return qiscusComments;
+        }
+
+        int skipped = 0;
+        for (StoredComment storedComment : storedComments) {
+            if (qiscusComments.size() >= limit) {
+                break;
+            }
+            if (storedComment.hardDeleted || new SearchMatch(storedComment, phrases).rank == 0) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            qiscusComments.add(toComment(storedComment));
+        }
+        return qiscusComments;
+    }
+
+    @Override
+    public List<QiscusCommentSearchResult> searchComments(String query, long roomId,
+                                                          QiscusCommentSearchResult lastResult, int limit) {
+        lock.readLock().lock();
+        try {
+            TreeSet<StoredComment> storedComments = roomComments.get(roomId);
+            return searchComments(query, storedComments == null ? new ArrayList<>() : storedComments,
+                    lastResult, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<QiscusCommentSearchResult> searchComments(String query, QiscusCommentSearchResult lastResult, int limit) {
+        lock.readLock().lock();
+        try {
+            return searchComments(query, comments.values(), lastResult, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Search comments ordered by rank then by newest, paged by the (rank, time, id) of the last result.
+     * Must be called while holding the lock.
+     */
+    private List<QiscusCommentSearchResult> searchComments(String query, Collection<StoredComment> storedComments,
+                                                           QiscusCommentSearchResult lastResult, int limit) {
+        List<QiscusCommentSearchResult> results = new ArrayList<>();
+        List<String[]> phrases = toSearchPhrases(query);
+        if (phrases == null) {
+            return results;
+        }
+
+        List<SearchMatch> matches = new ArrayList<>();
+        for (StoredComment storedComment : storedComments) {
+            if (storedComment.hardDeleted) {
+                continue;
+            }
+            SearchMatch match = new SearchMatch(storedComment, phrases);
+            if (match.rank > 0 && (lastResult == null || isAfter(match, lastResult))) {
+                matches.add(match);
+            }
+        }
+        Collections.sort(matches, (lhs, rhs) -> {
+            if (lhs.rank != rhs.rank) {
+                return lhs.rank > rhs.rank ? -1 : 1;
+            }
+            if (lhs.comment.time != rhs.comment.time) {
+                return lhs.comment.time > rhs.comment.time ? -1 : 1;
+            }
+            return lhs.comment.id == rhs.comment.id ? 0 : (lhs.comment.id > rhs.comment.id ? -1 : 1);
+        });
+
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            SearchMatch match = matches.get(i);
+            results.add(new QiscusCommentSearchResult(toComment(match.comment), match.getSnippet(), match.rank));
+        }
+        return results;
+    }
+
+    private static boolean isAfter(SearchMatch match, QiscusCommentSearchResult lastResult) {
+        long lastTime = lastResult.getComment().getTime().getTime();
+        return match.rank < lastResult.getRank()
+                || (match.rank == lastResult.getRank() && (match.comment.time < lastTime
+                || (match.comment.time == lastTime && match.comment.id < lastResult.getComment().getId())));
+    }
+
+    /**
+     * Same words as QiscusDb.CommentSearchTable.toMatchQuery, every word is a phrase of its tokens,
+     * and the last token is matched by its prefix.
+     *
+     * @return null if query doesn't contain any word
+     */
+    private static List<String[]> toSearchPhrases(String query) {
+        if (query == null) {
+            return null;
+        }
+
+        List<String[]> phrases = new ArrayList<>();
+        for (String word : query.replace("\"", " ").trim().split("\\s+")) {
+            List<Token> tokens = tokenize(word);
+            if (!tokens.isEmpty()) {
+                String[] terms = new String[tokens.size()];
+                for (int i = 0; i < terms.length; i++) {
+                    terms[i] = tokens.get(i).term;
+                }
+                phrases.add(terms);
+            }
+        }
+        return phrases.isEmpty() ? null : phrases;
+    }
+
+    /**
+     * Same rule as the simple tokenizer of the full text index, ASCII letters and digits and every non ASCII
+     * character are part of a token, ASCII letters are lower cased.
+     */
+    private static List<Token> tokenize(String text) {
+        List<Token> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean tokenChar = i < text.length() && isTokenChar(text.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                tokens.add(new Token(text, start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isTokenChar(char c) {
+        return c >= 0x80 || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    // Must be called while holding the write lock
+    private void putRoom(StoredRoom storedRoom) {
+        StoredRoom replaced = rooms.put(storedRoom.id, storedRoom);
+        if (replaced != null) {
+            removeFromIndex(roomIdsByUniqueId, replaced.uniqueId, replaced.id);
+        }
+        addToIndex(roomIdsByUniqueId, storedRoom.uniqueId, storedRoom.id);
+    }
+
+    // Must be called while holding the write lock, null values of the new profile never overwrite the stored one
+    private void putMember(QiscusRoomMember qiscusRoomMember) {
+        StoredMember storedMember = new StoredMember(qiscusRoomMember);
+        StoredMember replaced = members.get(storedMember.email);
+        if (replaced != null) {
+            storedMember = new StoredMember(storedMember.email,
+                    storedMember.username == null ? replaced.username : storedMember.username,
+                    storedMember.avatar == null ? replaced.avatar : storedMember.avatar,
+                    storedMember.extras == null ? replaced.extras : storedMember.extras);
+        }
+        members.put(storedMember.email, storedMember);
+    }
+
+    private boolean isRoomMember(long roomId, String email) {
+        TreeMap<String, StoredRoomMember> storedMembers = roomMembers.get(roomId);
+        return storedMembers != null && storedMembers.containsKey(email);
+    }
+
+    // Must be called while holding the write lock
+    private void putRoomMember(long roomId, String distinctId, QiscusRoomMember qiscusRoomMember) {
+        TreeMap<String, StoredRoomMember> storedMembers = roomMembers.get(roomId);
+        if (storedMembers == null) {
+            storedMembers = new TreeMap<>();
+            roomMembers.put(roomId, storedMembers);
+        }
+        storedMembers.put(qiscusRoomMember.getEmail(),
+                new StoredRoomMember(distinctId == null ? "default" : distinctId, qiscusRoomMember));
+
+        TreeSet<Long> roomIds = roomIdsByMember.get(qiscusRoomMember.getEmail());
+        if (roomIds == null) {
+            roomIds = new TreeSet<>();
+            roomIdsByMember.put(qiscusRoomMember.getEmail(), roomIds);
+        }
+        roomIds.add(roomId);
+    }
+
+    // Must be called while holding the write lock
+    private void removeRoomMember(long roomId, String email) {
+        TreeMap<String, StoredRoomMember> storedMembers = roomMembers.get(roomId);
+        if (storedMembers == null || storedMembers.remove(email) == null) {
+            return;
+        }
+        if (storedMembers.isEmpty()) {
+            roomMembers.remove(roomId);
+        }
+        removeFromIndex(roomIdsByMember, email, roomId);
+    }
+
+    // Must be called while holding the write lock, replace the stored comment with the same unique id
+    private void putComment(QiscusComment qiscusComment) {
+        // Unique id is the primary key of the comment
+        if (qiscusComment.getUniqueId() == null) {
+            return;
+        }
+
+        StoredComment replaced = comments.get(qiscusComment.getUniqueId());
+        if (replaced != null) {
+            removeComment(replaced);
+        }
+
+        StoredComment storedComment = new StoredComment(qiscusComment);
+        comments.put(storedComment.uniqueId, storedComment);
+        TreeSet<StoredComment> storedComments = roomComments.get(storedComment.roomId);
+        if (storedComments == null) {
+            storedComments = new TreeSet<>(NEWEST_FIRST);
+            roomComments.put(storedComment.roomId, storedComments);
+        }
+        storedComments.add(storedComment);
+        addToIndex(commentsById, storedComment.id, storedComment);
+        addToIndex(commentsByBeforeId, storedComment.commentBeforeId, storedComment);
+        if (storedComment.state == QiscusComment.STATE_PENDING) {
+            pendingComments.add(storedComment);
+        }
+    }
+
+    // Must be called while holding the write lock
+    private void removeComment(StoredComment storedComment) {
+        comments.remove(storedComment.uniqueId);
+        TreeSet<StoredComment> storedComments = roomComments.get(storedComment.roomId);
+        storedComments.remove(storedComment);
+        if (storedComments.isEmpty()) {
+            roomComments.remove(storedComment.roomId);
+        }
+        removeFromIndex(commentsById, storedComment.id, storedComment);
+        removeFromIndex(commentsByBeforeId, storedComment.commentBeforeId, storedComment);
+        pendingComments.remove(storedComment);
+    }
+
+    // Must be called while holding the lock
+    private StoredComment getLastComment(long roomId) {
+        for (StoredComment storedComment : getRoomComments(roomId, null)) {
+            if (!storedComment.hardDeleted) {
+                return storedComment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Must be called while holding the lock
+     *
+     * @param lastComment last comment of the previous page, null to start from the newest comment
+     * @return comments of the room newest first, older than lastComment
+     */
+    private Collection<StoredComment> getRoomComments(long roomId, QiscusComment lastComment) {
+        TreeSet<StoredComment> storedComments = roomComments.get(roomId);
+        if (storedComments == null) {
+            return Collections.emptyList();
+        }
+        return lastComment == null ? storedComments : storedComments.tailSet(new StoredComment(lastComment), false);
+    }
+
+    /**
+     * @param from      first comment in the order of newest first, null to start from the newest comment
+     * @param inclusive whether the comment equal to from is included
+     * @param limit     max comments to return, negative means no limit
+     * @param filter    only comments accepted by the filter are returned
+     */
+    private List<QiscusComment> queryComments(long roomId, StoredComment from, boolean inclusive, int limit,
+                                              Func1<StoredComment, Boolean> filter) {
+        List<QiscusComment> qiscusComments = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            TreeSet<StoredComment> storedComments = roomComments.get(roomId);
+            if (storedComments == null) {
+                return qiscusComments;
+            }
+
+            for (StoredComment storedComment : from == null ? storedComments : storedComments.tailSet(from, inclusive)) {
+                if (limit >= 0 && qiscusComments.size() >= limit) {
+                    break;
+                }
+                if (filter.call(storedComment)) {
+                    qiscusComments.add(toComment(storedComment));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return qiscusComments;
+    }
+
+    // Must be called while holding the lock, same columns as QiscusDb.CommentTable.projection()
+    private QiscusComment toComment(StoredComment storedComment) {
+        QiscusComment qiscusComment = new QiscusComment();
+        qiscusComment.setId(storedComment.id);
+        qiscusComment.setRoomId(storedComment.roomId);
+        qiscusComment.setUniqueId(storedComment.uniqueId);
+        qiscusComment.setCommentBeforeId(storedComment.commentBeforeId);
+        qiscusComment.setMessage(storedComment.message);
+        StoredMember sender = members.get(storedComment.senderEmail);
+        qiscusComment.setSender(sender == null ? storedComment.sender : sender.username);
+        qiscusComment.setSenderEmail(storedComment.senderEmail);
+        qiscusComment.setSenderAvatar(sender == null ? storedComment.senderAvatar : sender.avatar);
+        qiscusComment.setTime(new Date(storedComment.time));
+        qiscusComment.setState(getState(storedComment));
+        qiscusComment.setDeleted(storedComment.deleted);
+        qiscusComment.setHardDeleted(storedComment.hardDeleted);
+        qiscusComment.setRawType(storedComment.rawType);
+        qiscusComment.setExtraPayload(storedComment.payload);
+        qiscusComment.setRawExtras(storedComment.extras);
+        return qiscusComment;
+    }
+
+    // Same as QiscusDb.CommentTable.state()
+    private int getState(StoredComment storedComment) {
+        long[] watermark = watermarks.get(storedComment.roomId);
+        if (watermark == null) {
+            return storedComment.state;
+        }
+        if (storedComment.state >= QiscusComment.STATE_ON_QISCUS && storedComment.id <= watermark[READ]) {
+            return QiscusComment.STATE_READ;
+        }
+        if (storedComment.state == QiscusComment.STATE_ON_QISCUS && storedComment.id <= watermark[DELIVERED]) {
+            return QiscusComment.STATE_DELIVERED;
+        }
+        return storedComment.state;
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            rooms.clear();
+            roomIdsByUniqueId.clear();
+            members.clear();
+            roomMembers.clear();
+            roomIdsByMember.clear();
+            comments.clear();
+            roomComments.clear();
+            commentsById.clear();
+            commentsByBeforeId.clear();
+            pendingComments.clear();
+            watermarks.clear();
+            commentRanges.clear();
+            files.clear();
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.RoomTable.TABLE_NAME, QiscusDb.MemberTable.TABLE_NAME,
+                    QiscusDb.RoomMemberTable.TABLE_NAME, QiscusDb.FilesTable.TABLE_NAME, QiscusDb.CommentTable.TABLE_NAME,
+                    QiscusDb.WatermarkTable.TABLE_NAME);
+        }
+    }
+
+    /**
+     * Nothing to tune, there is no database file behind this store
+     */
+    @Override
+    public void configure(QiscusDatabaseConfig databaseConfig) {
+    }
+
+    /**
+     * There is no database file here, so the database size limit is ignored. The write lock is held per room,
+     * so the readers are not blocked for the whole compaction.
+     */
+    @Override
+    public QiscusCompactionResult compact(QiscusRetentionPolicy retentionPolicy, Set<Long> exemptRoomIds) {
+        QiscusCompactionResult result = new QiscusCompactionResult();
+        List<String> localPaths = new ArrayList<>();
+        if (retentionPolicy.getMaxCommentsPerRoom() > 0 || retentionPolicy.getMaxCommentAgeInMillis() > 0) {
+            List<Long> roomIds;
+            lock.readLock().lock();
+            try {
+                roomIds = new ArrayList<>(roomComments.keySet());
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            long minTime = retentionPolicy.getMaxCommentAgeInMillis() > 0
+                    ? System.currentTimeMillis() - retentionPolicy.getMaxCommentAgeInMillis() : 0;
+            for (Long roomId : roomIds) {
+                if (!exemptRoomIds.contains(roomId)) {
+                    result.addDeletedComments(roomId,
+                            trimRoom(roomId, retentionPolicy.getMaxCommentsPerRoom(), minTime, localPaths));
+                }
+            }
+        }
+        for (String localPath : localPaths) {
+            deleteFile(localPath, result);
+        }
+
+        if (retentionPolicy.getMaxFileCacheSizeInKb() > 0) {
+            trimFiles(retentionPolicy.getMaxFileCacheSizeInKb() * 1024, exemptRoomIds, result);
+        }
+        return result;
+    }
+
+    /**
+     * Remove the sent comments of the room older than its newest max comments or older than the min time
+     *
+     * @return number of removed comments
+     */
+    private int trimRoom(long roomId, int maxComments, long minTime, List<String> localPaths) {
+        lock.writeLock().lock();
+        try {
+            TreeSet<StoredComment> storedComments = roomComments.get(roomId);
+            if (storedComments == null) {
+                return 0;
+            }
+
+            long roomMinTime = minTime;
+            if (maxComments > 0) {
+                int count = 0;
+                for (StoredComment storedComment : storedComments) {
+                    if (!storedComment.hardDeleted && ++count == maxComments) {
+                        roomMinTime = Math.max(roomMinTime, storedComment.time);
+                        break;
+                    }
+                }
+            }
+            if (roomMinTime <= 0) {
+                return 0;
+            }
+
+            List<StoredComment> removed = new ArrayList<>();
+            for (StoredComment storedComment : storedComments.tailSet(new StoredComment(roomMinTime - 1, null), true)) {
+                if (storedComment.id > 0) {
+                    removed.add(storedComment);
+                }
+            }
+            removeComments(roomId, removed, localPaths);
+            return removed.size();
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.CommentTable.TABLE_NAME, QiscusDb.FilesTable.TABLE_NAME);
+        }
+    }
+
+    /**
+     * Keep the downloaded files of the newest comments within max bytes, like the database does
+     */
+    private void trimFiles(long maxBytes, Set<Long> exemptRoomIds, QiscusCompactionResult result) {
+        List<String> localPaths = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            List<Map.Entry<Long, StoredFile>> storedFiles = new ArrayList<>(files.entrySet());
+            Map<Long, Long> times = new HashMap<>(storedFiles.size());
+            for (Map.Entry<Long, StoredFile> storedFile : storedFiles) {
+                Set<StoredComment> storedComments = commentsById.get(storedFile.getKey());
+                times.put(storedFile.getKey(), storedComments == null || storedComments.isEmpty()
+                        ? 0 : storedComments.iterator().next().time);
+            }
+            Collections.sort(storedFiles, (lhs, rhs) -> {
+                long lhsTime = times.get(lhs.getKey());
+                long rhsTime = times.get(rhs.getKey());
+                return lhsTime == rhsTime ? 0 : (lhsTime > rhsTime ? -1 : 1);
+            });
+
+            long totalBytes = 0;
+            for (Map.Entry<Long, StoredFile> storedFile : storedFiles) {
+                File file = new File(storedFile.getValue().localPath);
+                long length = file.length();
+                if (file.exists() && (exemptRoomIds.contains(storedFile.getValue().roomId)
+                        || totalBytes + length <= maxBytes)) {
+                    totalBytes += length;
+                    continue;
+                }
+                files.remove(storedFile.getKey());
+                if (file.exists()) {
+                    localPaths.add(file.getPath());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+            invalidationTracker.markDirty(QiscusDb.FilesTable.TABLE_NAME);
+        }
+
+        for (String localPath : localPaths) {
+            deleteFile(localPath, result);
+        }
+    }
+
+    private static void deleteFile(String localPath, QiscusCompactionResult result) {
+        File file = new File(localPath);
+        long length = file.length();
+        if (file.delete()) {
+            result.addDeletedFile(length);
+        }
+    }
+
+    private static <K, V> void addToIndex(Map<K, Set<V>> index, K key, V value) {
+        if (key == null) {
+            return;
+        }
+        Set<V> values = index.get(key);
+        if (values == null) {
+            values = new HashSet<>();
+            index.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private static <K, V, S extends Collection<V>> void removeFromIndex(Map<K, S> index, K key, V value) {
+        if (key == null) {
+            return;
+        }
+        S values = index.get(key);
+        if (values != null && values.remove(value) && values.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * A row of rooms table
+     */
+    private static final class StoredRoom {
+        private final long id;
+        private final String distinctId;
+        private final String uniqueId;
+        private final String name;
+        private final boolean group;
+        private final String options;
+        private final String avatarUrl;
+        private final boolean channel;
+        private final int memberCount;
+        private int unreadCount;
+
+        private StoredRoom(QiscusChatRoom qiscusChatRoom) {
+            id = qiscusChatRoom.getId();
+            distinctId = qiscusChatRoom.getDistinctId();
+            uniqueId = qiscusChatRoom.getUniqueId();
+            name = qiscusChatRoom.getName();
+            group = qiscusChatRoom.isGroup();
+            options = qiscusChatRoom.getRawOptions();
+            avatarUrl = qiscusChatRoom.getAvatarUrl();
+            channel = qiscusChatRoom.isChannel();
+            memberCount = qiscusChatRoom.getMemberCount();
+            unreadCount = qiscusChatRoom.getUnreadCount();
+        }
+
+        private QiscusChatRoom toChatRoom() {
+            QiscusChatRoom qiscusChatRoom = new QiscusChatRoom();
+            qiscusChatRoom.setId(id);
+            qiscusChatRoom.setDistinctId(distinctId);
+            qiscusChatRoom.setUniqueId(uniqueId);
+            qiscusChatRoom.setName(name);
+            qiscusChatRoom.setGroup(group);
+            qiscusChatRoom.setRawOptions(options);
+            qiscusChatRoom.setAvatarUrl(avatarUrl);
+            qiscusChatRoom.setUnreadCount(unreadCount);
+            qiscusChatRoom.setChannel(channel);
+            qiscusChatRoom.setMemberCount(memberCount);
+            return qiscusChatRoom;
+        }
+    }
+
+    /**
+     * A row of members table, extras kept as string so the stored member can't be changed from outside
+     */
+    private static final class StoredMember {
+        private final String email;
+        private final String username;
+        private final String avatar;
+        private final String extras;
+
+        private StoredMember(QiscusRoomMember qiscusRoomMember) {
+            this(qiscusRoomMember.getEmail(), qiscusRoomMember.getUsername(), qiscusRoomMember.getAvatar(),
+                    qiscusRoomMember.getRawExtras());
+        }
+
+        private StoredMember(String email, String username, String avatar, String extras) {
+            this.email = email;
+            this.username = username;
+            this.avatar = avatar;
+            this.extras = extras;
+        }
+
+        private QiscusRoomMember toRoomMember() {
+            QiscusRoomMember qiscusRoomMember = new QiscusRoomMember();
+            qiscusRoomMember.setEmail(email);
+            qiscusRoomMember.setUsername(username);
+            qiscusRoomMember.setAvatar(avatar);
+            qiscusRoomMember.setRawExtras(extras);
+            return qiscusRoomMember;
+        }
+    }
+
+    /**
+     * A row of room_members table without the keys
+     */
+    private static final class StoredRoomMember {
+        private final String distinctId;
+        private final long lastDelivered;
+        private final long lastRead;
+
+        private StoredRoomMember(String distinctId, QiscusRoomMember qiscusRoomMember) {
+            this.distinctId = distinctId;
+            lastDelivered = qiscusRoomMember.getLastDeliveredCommentId();
+            lastRead = qiscusRoomMember.getLastReadCommentId();
+        }
+    }
+
+    /**
+     * A row of comments table, never changed once stored so it can be kept in the sorted sets and indexes
+     */
+    private static final class StoredComment {
+        private final long id;
+        private final long roomId;
+        private final String uniqueId;
+        private final long commentBeforeId;
+        private final String message;
+        private final String sender;
+        private final String senderEmail;
+        private final String senderAvatar;
+        private final long time;
+        private final int state;
+        private final boolean deleted;
+        private final boolean hardDeleted;
+        private final String rawType;
+        private final String payload;
+        private final String extras;
+        private final String caption;
+        private final String mediaType;
+
+        private StoredComment(QiscusComment qiscusComment) {
+            id = qiscusComment.getId();
+            roomId = qiscusComment.getRoomId();
+            uniqueId = qiscusComment.getUniqueId();
+            commentBeforeId = qiscusComment.getCommentBeforeId();
+            message = qiscusComment.getMessage();
+            sender = qiscusComment.getSender();
+            senderEmail = qiscusComment.getSenderEmail();
+            senderAvatar = qiscusComment.getSenderAvatar();
+            time = qiscusComment.getTime().getTime();
+            state = qiscusComment.getState();
+            deleted = qiscusComment.isDeleted();
+            hardDeleted = qiscusComment.isHardDeleted();
+            rawType = qiscusComment.getRawType();
+            payload = qiscusComment.getExtraPayload();
+            extras = qiscusComment.getRawExtras();
+            caption = QiscusDb.CommentTable.getCaption(qiscusComment);
+            mediaType = QiscusDb.CommentTable.getMediaType(qiscusComment);
+        }
+
+        // Probe to find a position in the sorted comments, null unique id is placed before the comments of the time
+        private StoredComment(long time, String uniqueId) {
+            this.time = time;
+            this.uniqueId = uniqueId;
+            id = 0;
+            roomId = 0;
+            commentBeforeId = 0;
+            message = null;
+            sender = null;
+            senderEmail = null;
+            senderAvatar = null;
+            state = 0;
+            deleted = false;
+            hardDeleted = false;
+            rawType = null;
+            payload = null;
+            extras = null;
+            caption = null;
+            mediaType = null;
+        }
+    }
+
+    /**
+     * A row of files table
+     */
+    private static final class StoredFile {
+        private final long roomId;
+        private final String localPath;
+
+        private StoredFile(long roomId, String localPath) {
+            this.roomId = roomId;
+            this.localPath = localPath;
+        }
+    }
+
+    private static final class Token {
+        private final int start;
+        private final int end;
+        private final String term;
+
+        private Token(String text, int start, int end) {
+            this.start = start;
+            this.end = end;
+            term = toLowerCaseAscii(text.substring(start, end));
+        }
+
+        private static String toLowerCaseAscii(String text) {
+            char[] chars = text.toCharArray();
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                    chars[i] = (char) (chars[i] + ('a' - 'A'));
+                }
+            }
+            return new String(chars);
+        }
+    }
+
+    /**
+     * Match of the search phrases in message and caption of a comment. Rank is the number of matched tokens
+     * like the offsets() of the full text index, zero if any phrase is not matched.
+     */
+    private static final class SearchMatch {
+        private final StoredComment comment;
+        private final int rank;
+        private final String text;
+        private final List<Token> tokens;
+        private final Set<Integer> matchedTokens;
+
+        private SearchMatch(StoredComment comment, List<String[]> phrases) {
+            this.comment = comment;
+            List<Token> messageTokens = tokenize(comment.message);
+            List<Token> captionTokens = tokenize(comment.caption);
+            Set<Integer> messageMatches = new HashSet<>();
+            Set<Integer> captionMatches = new HashSet<>();
+
+            int matchedCount = 0;
+            boolean allPhrasesMatched = true;
+            for (String[] phrase : phrases) {
+                int phraseMatches = match(messageTokens, phrase, messageMatches) + match(captionTokens, phrase, captionMatches);
+                allPhrasesMatched &= phraseMatches > 0;
+                matchedCount += phraseMatches * phrase.length;
+            }
+            rank = allPhrasesMatched ? matchedCount : 0;
+
+            // Snippet is taken from the column with more matches
+            boolean fromCaption = captionMatches.size() > messageMatches.size();
+            text = fromCaption ? comment.caption : comment.message;
+            tokens = fromCaption ? captionTokens : messageTokens;
+            matchedTokens = fromCaption ? captionMatches : messageMatches;
+        }
+
+        // Add the index of every matched token to matchedTokens, return the number of phrase matches
+        private static int match(List<Token> tokens, String[] phrase, Set<Integer> matchedTokens) {
+            int count = 0;
+            for (int i = 0; i + phrase.length <= tokens.size(); i++) {
+                boolean matched = true;
+                for (int j = 0; j < phrase.length && matched; j++) {
+                    String term = tokens.get(i + j).term;
+                    matched = j == phrase.length - 1 ? term.startsWith(phrase[j]) : term.equals(phrase[j]);
+                }
+                if (matched) {
+                    count++;
+                    for (int j = 0; j < phrase.length; j++) {
+                        matchedTokens.add(i + j);
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Up to SNIPPET_TOKENS tokens starting from the first match, every matched token wrapped with &lt;b&gt;,
+         * and "..." where the text is cut, like snippet() of the full text index
+         */
+        private String getSnippet() {
+            if (tokens.isEmpty()) {
+                return "";
+            }
+
+            int firstMatch = tokens.size();
+            for (Integer index : matchedTokens) {
+                firstMatch = Math.min(firstMatch, index);
+            }
+            int start = Math.max(0, Math.min(firstMatch, tokens.size() - SNIPPET_TOKENS));
+            int end = Math.min(tokens.size(), start + SNIPPET_TOKENS);
+
+            StringBuilder snippet = new StringBuilder();
+            snippet.append(start == 0 ? text.substring(0, tokens.get(0).start) : "...");
+            for (int i = start; i < end; i++) {
+                Token token = tokens.get(i);
+                if (i > start) {
+                    snippet.append(text, tokens.get(i - 1).end, token.start);
+                }
+                if (matchedTokens.contains(i)) {
+                    snippet.append("<b>").append(text, token.start, token.end).append("</b>");
+                } else {
+                    snippet.append(text, token.start, token.end);
+                }
+            }
+            snippet.append(end == tokens.size() ? text.substring(tokens.get(end - 1).end) : "...");
+            return snippet.toString();
+        }
+    }
+}
@@ -0,0 +1,868 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.v4.util.Pair;
+
+import com.qiscus.sdk.chat.core.data.model.QiscusChatRoom;
+import com.qiscus.sdk.chat.core.data.model.QiscusComment;
+import com.qiscus.sdk.chat.core.data.model.QiscusCommentSearchResult;
+import com.qiscus.sdk.chat.core.data.model.QiscusCompactionResult;
+import com.qiscus.sdk.chat.core.data.model.QiscusDatabaseConfig;
+import com.qiscus.sdk.chat.core.data.model.QiscusRetentionPolicy;
+import com.qiscus.sdk.chat.core.data.model.QiscusRoomMember;
+import com.qiscus.sdk.chat.core.util.QiscusErrorLogger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observable;
+import rx.functions.Func0;
+
+/**
+ * Data store that funnels every write of the delegate into one writer thread. Writes are queued and committed
+ * in batch after a short window or when the queue is full, repeated upsert of the same comment, room or member
+ * before it's committed only write the latest one. Every read flush the queue first, so reader always see
+ * their own writes, use {@link #flush()} to wait for the queued writes without reading.
+ * <p>
+ * Queued writes are lost if the process dies before they are committed, so it's disabled by default and every
+ * write goes straight to the delegate, see {@link QiscusDatabaseConfig#setEnableWriteBehind(boolean)}.
+ * The queue holds copies of the written comments, rooms and members, later changes of the caller's objects
+ * are not written.
+ */
+public class QiscusWriteBehindDataStore implements QiscusDataStore {
+    private static final long WRITE_WINDOW_MS = 50;
+    private static final int MAX_PENDING_WRITES = 200;
+
+    private static final int TYPE_OTHER = 0;
+    private static final int TYPE_COMMENT = 1;
+    private static final int TYPE_ROOM = 2;
+    private static final int TYPE_ROOM_MEMBER = 3;
+
+    private final QiscusDataStore delegate;
+    private final ScheduledExecutorService writer;
+    private volatile Thread writerThread;
+    private volatile boolean enabled;
+    // Writes the delegate failed to commit, even when they are retried one by one
+    private final AtomicLong failedWriteCount = new AtomicLong();
+
+    // Ordered by the time it's queued, re-queued upsert moved to the end so it never overwrite a newer write
+    private final LinkedHashMap<String, PendingWrite> pendingWrites = new LinkedHashMap<>();
+    // Upsert before a non upsert write (e.g delete) can not be merged with the one after it
+    private long generation;
+    private long sequence;
+    private int inFlightWrites;
+    private boolean drainScheduled;
+
+    public QiscusWriteBehindDataStore(QiscusDataStore delegate) {
+        this.delegate = delegate;
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            writerThread = new Thread(runnable, "qiscus-db-writer");
+            return writerThread;
+        });
+    }
+
+    public QiscusDataStore getDelegate() {
+        return delegate;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * When disabled the queued writes are committed first, then every write goes straight to the delegate
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            flush();
+        }
+    }
+
+    /**
+     * Upserts are retried one by one when their batch fails. Other writes only count when they throw,
+     * the delegate logs their failures itself.
+     *
+     * @return number of queued writes dropped because the delegate failed to commit them
+     */
+    public long getFailedWriteCount() {
+        return failedWriteCount.get();
+    }
+
+    /**
+     * Block until every queued write committed to the delegate
+     */
+    public void flush() {
+        synchronized (pendingWrites) {
+            if (pendingWrites.isEmpty() && inFlightWrites == 0) {
+                return;
+            }
+        }
+
+        if (Thread.currentThread() == writerThread) {
+            drain();
+            return;
+        }
+
+        Future<?> future = writer.submit(this::drain);
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            QiscusErrorLogger.print(e);
+        }
+    }
+
+    /**
+     * @param action run instead of queueing when disabled, and to commit the queued {@link #TYPE_OTHER} write
+     */
+    private void queueUpsert(int type, String key, Object value, long roomId, String distinctId, Runnable action) {
+        if (!enabled) {
+            flush();
+            action.run();
+            return;
+        }
+        synchronized (pendingWrites) {
+            if (type == TYPE_ROOM) {
+                skipQueuedLastComment((QiscusChatRoom) value);
+            }
+            key = generation + ":" + key;
+            pendingWrites.remove(key);
+            pendingWrites.put(key, new PendingWrite(type, value, roomId, distinctId, action));
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Re-queued room is committed after the comment writes queued before it, a last comment copy of the room
+     * must not overwrite the newer write of the same comment
+     */
+    private void skipQueuedLastComment(QiscusChatRoom qiscusChatRoom) {
+        QiscusComment lastComment = qiscusChatRoom.getLastComment();
+        if (lastComment != null && pendingWrites.containsKey(generation + ":comment:" + lastComment.getUniqueId())) {
+            qiscusChatRoom.setLastComment(null);
+        }
+    }
+
+    private void queueWrite(Runnable action) {
+        if (!enabled) {
+            flush();
+            action.run();
+            return;
+        }
+        synchronized (pendingWrites) {
+            pendingWrites.put("write:" + sequence++, new PendingWrite(TYPE_OTHER, null, 0, null, action));
+            generation++;
+            scheduleDrain();
+        }
+    }
+
+    private void scheduleDrain() {
+        if (pendingWrites.size() >= MAX_PENDING_WRITES) {
+            writer.execute(this::drain);
+        } else if (!drainScheduled) {
+            drainScheduled = true;
+            writer.schedule(this::drain, WRITE_WINDOW_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void drain() {
+        List<PendingWrite> writes;
+        synchronized (pendingWrites) {
+            drainScheduled = false;
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            writes = new ArrayList<>(pendingWrites.values());
+            pendingWrites.clear();
+            inFlightWrites = writes.size();
+        }
+
+        try {
+            int i = 0;
+            while (i < writes.size()) {
+                PendingWrite write = writes.get(i);
+                int end = i + 1;
+                while (end < writes.size() && write.canBatchWith(writes.get(end))) {
+                    end++;
+                }
+                commit(writes.subList(i, end));
+                i = end;
+            }
+        } finally {
+            synchronized (pendingWrites) {
+                inFlightWrites = 0;
+            }
+        }
+    }
+
+    private void commit(List<PendingWrite> writes) {
+        boolean saved;
+        try {
+            saved = save(writes);
+        } catch (Exception e) {
+            QiscusErrorLogger.print(e);
+            saved = false;
+        }
+        if (saved) {
+            return;
+        }
+
+        if (writes.size() > 1) {
+            // The whole batch is rolled back, commit them one by one so only the failing ones are lost
+            for (PendingWrite write : writes) {
+                commit(Collections.singletonList(write));
+            }
+            return;
+        }
+        failedWriteCount.incrementAndGet();
+        QiscusErrorLogger.print("QiscusWriteBehindDataStore", "Failed to commit a queued write, "
+                + failedWriteCount.get() + " dropped so far");
+    }
+
+    /**
+     * The delegate logs its own errors, only the bulk upserts tell whether the write is saved
+     *
+     * @return false if the delegate rolled the writes back
+     */
+    @SuppressWarnings("unchecked")
+    private boolean save(List<PendingWrite> writes) {
+        PendingWrite first = writes.get(0);
+        switch (first.type) {
+            case TYPE_COMMENT:
+                return delegate.addOrUpdateComments((List<QiscusComment>) values(writes));
+            case TYPE_ROOM:
+                return delegate.addOrUpdateChatRooms((List<QiscusChatRoom>) values(writes));
+            case TYPE_ROOM_MEMBER:
+                return delegate.addOrUpdateRoomMembers(first.roomId, (List<QiscusRoomMember>) values(writes),
+                        first.distinctId);
+            default:
+                first.action.run();
+                return true;
+        }
+    }
+
+    /**
+     * Run the call on the writer thread after the queued writes, so it's ordered with them
+     * and the writes queued while it runs are committed after it
+     */
+    private <T> T callOnWriter(Func0<T> call) {
+        if (!enabled || Thread.currentThread() == writerThread) {
+            flush();
+            return call.call();
+        }
+
+        Future<T> future = writer.submit(() -> {
+            drain();
+            return call.call();
+        });
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the writer thread", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Parcel round trip is a deep copy, the same as QiscusChatRoomCache does
+    private <T extends Parcelable> T copy(T value, Parcelable.Creator<T> creator) {
+        if (!enabled || value == null) {
+            return value;
+        }
+        Parcel parcel = Parcel.obtain();
+        try {
+            value.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return creator.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static List<?> values(List<PendingWrite> writes) {
+        List<Object> values = new ArrayList<>(writes.size());
+        for (PendingWrite write : writes) {
+            values.add(write.value);
+        }
+        return values;
+    }
+
+    @Override
+    public void add(QiscusChatRoom qiscusChatRoom) {
+        QiscusChatRoom copy = copy(qiscusChatRoom, QiscusChatRoom.CREATOR);
+        queueWrite(() -> delegate.add(copy));
+    }
+
+    @Override
+    public boolean isContains(QiscusChatRoom qiscusChatRoom) {
+        flush();
+        return delegate.isContains(qiscusChatRoom);
+    }
+
+    @Override
+    public void update(QiscusChatRoom qiscusChatRoom) {
+        QiscusChatRoom copy = copy(qiscusChatRoom, QiscusChatRoom.CREATOR);
+        queueWrite(() -> delegate.update(copy));
+    }
+
+    @Override
+    public void addOrUpdate(QiscusChatRoom qiscusChatRoom) {
+        QiscusChatRoom copy = copy(qiscusChatRoom, QiscusChatRoom.CREATOR);
+        queueUpsert(TYPE_ROOM, "room:" + copy.getId(), copy, 0, null, () -> delegate.addOrUpdate(copy));
+    }
+
+    @Override
+    public boolean addOrUpdateChatRooms(List<QiscusChatRoom> qiscusChatRooms) {
+        if (!enabled) {
+            flush();
+            return delegate.addOrUpdateChatRooms(qiscusChatRooms);
+        }
+        for (QiscusChatRoom qiscusChatRoom : qiscusChatRooms) {
+            addOrUpdate(qiscusChatRoom);
+        }
+        // Failed commit of queued writes is counted by getFailedWriteCount()
+        return true;
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoom(long roomId) {
+        flush();
+        return delegate.getChatRoom(roomId);
+    }
+
+    @Override
+    public QiscusChatRoom getLightChatRoom(long roomId) {
+        flush();
+        return delegate.getLightChatRoom(roomId);
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoom(String email) {
+        flush();
+        return delegate.getChatRoom(email);
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoom(String email, String distinctId) {
+        flush();
+        return delegate.getChatRoom(email, distinctId);
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoomWithUniqueId(String uniqueId) {
+        flush();
+        return delegate.getChatRoomWithUniqueId(uniqueId);
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRooms(int limit) {
+        flush();
+        return delegate.getChatRooms(limit);
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRooms(QiscusChatRoom lastRoom, int limit) {
+        flush();
+        return delegate.getChatRooms(lastRoom, limit);
+    }
+
+    @Override
+    public Observable<List<QiscusChatRoom>> getObservableChatRooms(int limit) {
+        return Observable.defer(() -> {
+            flush();
+            return delegate.getObservableChatRooms(limit);
+        });
+    }
+
+    @Override
+    public Observable<List<QiscusChatRoom>> getLiveChatRooms(int limit) {
+        return Observable.defer(() -> {
+            flush();
+            return delegate.getLiveChatRooms(limit);
+        });
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRoomListItems(int limit) {
+        flush();
+        return delegate.getChatRoomListItems(limit);
+    }
+
+    @Override
+    public Observable<List<QiscusChatRoom>> getLiveChatRoomListItems(int limit) {
+        return Observable.defer(() -> {
+            flush();
+            return delegate.getLiveChatRoomListItems(limit);
+        });
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRooms(List<Long> roomIds, List<String> uniqueIds) {
+        flush();
+        return delegate.getChatRooms(roomIds, uniqueIds);
+    }
+
+    @Override
+    public void deleteChatRoom(long roomId) {
+        queueWrite(() -> delegate.deleteChatRoom(roomId));
+    }
+
+    @Override
+    public void incrementUnreadCount(long roomId) {
+        queueWrite(() -> delegate.incrementUnreadCount(roomId));
+    }
+
+    @Override
+    public void resetUnreadCount(long roomId) {
+        queueWrite(() -> delegate.resetUnreadCount(roomId));
+    }
+
+    @Override
+    public int getTotalUnreadCount() {
+        flush();
+        return delegate.getTotalUnreadCount();
+    }
+
+    @Override
+    public void addRoomMember(long roomId, QiscusRoomMember qiscusRoomMember, String distinctId) {
+        QiscusRoomMember copy = copy(qiscusRoomMember, QiscusRoomMember.CREATOR);
+        queueWrite(() -> delegate.addRoomMember(roomId, copy, distinctId));
+    }
+
+    @Override
+    public boolean isContainsRoomMember(long roomId, String email) {
+        flush();
+        return delegate.isContainsRoomMember(roomId, email);
+    }
+
+    @Override
+    public void updateRoomMember(long roomId, QiscusRoomMember qiscusRoomMember, String distinctId) {
+        QiscusRoomMember copy = copy(qiscusRoomMember, QiscusRoomMember.CREATOR);
+        queueWrite(() -> delegate.updateRoomMember(roomId, copy, distinctId));
+    }
+
+    @Override
+    public void addOrUpdateRoomMember(long roomId, QiscusRoomMember qiscusRoomMember, String distinctId) {
+        QiscusRoomMember copy = copy(qiscusRoomMember, QiscusRoomMember.CREATOR);
+        queueUpsert(TYPE_ROOM_MEMBER, "room_member:" + roomId + ":" + copy.getEmail(), copy,
+                roomId, distinctId, () -> delegate.addOrUpdateRoomMember(roomId, copy, distinctId));
+    }
+
+    @Override
+    public boolean addOrUpdateRoomMembers(long roomId, List<QiscusRoomMember> qiscusRoomMembers, String distinctId) {
+        if (!enabled) {
+            flush();
+            return delegate.addOrUpdateRoomMembers(roomId, qiscusRoomMembers, distinctId);
+        }
+        for (QiscusRoomMember qiscusRoomMember : qiscusRoomMembers) {
+            addOrUpdateRoomMember(roomId, qiscusRoomMember, distinctId);
+        }
+        return true;
+    }
+
+    @Override
+    public List<QiscusRoomMember> getRoomMembers(long roomId) {
+        flush();
+        return delegate.getRoomMembers(roomId);
+    }
+
+    @Override
+    public void deleteRoomMember(long roomId, String email) {
+        queueWrite(() -> delegate.deleteRoomMember(roomId, email));
+    }
+
+    @Override
+    public void deleteRoomMembers(long roomId) {
+        queueWrite(() -> delegate.deleteRoomMembers(roomId));
+    }
+
+    @Override
+    public void add(QiscusRoomMember qiscusRoomMember) {
+        QiscusRoomMember copy = copy(qiscusRoomMember, QiscusRoomMember.CREATOR);
+        queueWrite(() -> delegate.add(copy));
+    }
+
+    @Override
+    public boolean isContains(QiscusRoomMember qiscusRoomMember) {
+        flush();
+        return delegate.isContains(qiscusRoomMember);
+    }
+
+    @Override
+    public void update(QiscusRoomMember qiscusRoomMember) {
+        QiscusRoomMember copy = copy(qiscusRoomMember, QiscusRoomMember.CREATOR);
+        queueWrite(() -> delegate.update(copy));
+    }
+
+    @Override
+    public void addOrUpdate(QiscusRoomMember qiscusRoomMember) {
+        QiscusRoomMember copy = copy(qiscusRoomMember, QiscusRoomMember.CREATOR);
+        queueUpsert(TYPE_OTHER, "member:" + copy.getEmail(), copy, 0, null, () -> delegate.addOrUpdate(copy));
+    }
+
+    @Override
+    public QiscusRoomMember getMember(String email) {
+        flush();
+        return delegate.getMember(email);
+    }
+
+    @Override
+    public void add(QiscusComment qiscusComment) {
+        QiscusComment copy = copy(qiscusComment, QiscusComment.CREATOR);
+        queueWrite(() -> delegate.add(copy));
+    }
+
+    @Override
+    public boolean isContains(QiscusComment qiscusComment) {
+        flush();
+        return delegate.isContains(qiscusComment);
+    }
+
+    @Override
+    public void update(QiscusComment qiscusComment) {
+        QiscusComment copy = copy(qiscusComment, QiscusComment.CREATOR);
+        queueWrite(() -> delegate.update(copy));
+    }
+
+    @Override
+    public void addOrUpdate(QiscusComment qiscusComment) {
+        QiscusComment copy = copy(qiscusComment, QiscusComment.CREATOR);
+        queueUpsert(TYPE_COMMENT, "comment:" + copy.getUniqueId(), copy, 0, null, () -> delegate.addOrUpdate(copy));
+    }
+
+    @Override
+    public boolean addOrUpdateComments(List<QiscusComment> qiscusComments) {
+        if (!enabled) {
+            flush();
+            return delegate.addOrUpdateComments(qiscusComments);
+        }
+        for (QiscusComment qiscusComment : qiscusComments) {
+            addOrUpdate(qiscusComment);
+        }
+        return true;
+    }
+
+    @Override
+    public void delete(QiscusComment qiscusComment) {
+        QiscusComment copy = copy(qiscusComment, QiscusComment.CREATOR);
+        queueWrite(() -> delegate.delete(copy));
+    }
+
+    @Override
+    public int deleteCommentsByRoomId(long roomId) {
+        return callOnWriter(() -> delegate.deleteCommentsByRoomId(roomId));
+    }
+
+    @Override
+    public int deleteCommentsByRoomId(long roomId, long timestampOffset) {
+        return callOnWriter(() -> delegate.deleteCommentsByRoomId(roomId, timestampOffset));
+    }
+
+    @Override
+    public void updateLastDeliveredComment(long roomId, long commentId) {
+        queueWrite(() -> delegate.updateLastDeliveredComment(roomId, commentId));
+    }
+
+    @Override
+    public void updateLastReadComment(long roomId, long commentId) {
+        queueWrite(() -> delegate.updateLastReadComment(roomId, commentId));
+    }
+
+    @Override
+    public QiscusComment getComment(String uniqueId) {
+        flush();
+        return delegate.getComment(uniqueId);
+    }
+
+    @Override
+    public QiscusComment getCommentByBeforeId(long beforeId) {
+        flush();
+        return delegate.getCommentByBeforeId(beforeId);
+    }
+
+    @Override
+    public List<QiscusComment> getComments(long roomId) {
+        flush();
+        return delegate.getComments(roomId);
+    }
+
+    @Override
+    public List<QiscusComment> getComments(long roomId, int limit) {
+        flush();
+        return delegate.getComments(roomId, limit);
+    }
+
+    @Override
+    public List<QiscusComment> getComments(long roomId, long timestampOffset) {
+        flush();
+        return delegate.getComments(roomId, timestampOffset);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableComments(long roomId) {
+        return Observable.defer(() -> {
+            flush();
+            return delegate.getObservableComments(roomId);
+        });
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableComments(long roomId, int limit) {
+        return Observable.defer(() -> {
+            flush();
+            return delegate.getObservableComments(roomId, limit);
+        });
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getLiveComments(long roomId, int limit) {
+        return Observable.defer(() -> {
+            flush();
+            return delegate.getLiveComments(roomId, limit);
+        });
+    }
+
+    @Override
+    public Observable<QiscusComment> getCommentStream(long roomId) {
+        return Observable.defer(() -> {
+            flush();
+            return delegate.getCommentStream(roomId);
+        });
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getCommentWindows(long roomId, int windowSize) {
+        return Observable.defer(() -> {
+            flush();
+            return delegate.getCommentWindows(roomId, windowSize);
+        });
+    }
+
+    @Override
+    public long getContiguousCommentsStart(long roomId, long commentId) {
+        flush();
+        return delegate.getContiguousCommentsStart(roomId, commentId);
+    }
+
+    @Override
+    public List<QiscusComment> getOlderCommentsThan(QiscusComment qiscusComment, long roomId, int limit) {
+        flush();
+        return delegate.getOlderCommentsThan(qiscusComment, roomId, limit);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableOlderCommentsThan(QiscusComment qiscusComment, long roomId, int limit) {
+        return Observable.defer(() -> {
+            flush();
+            return delegate.getObservableOlderCommentsThan(qiscusComment, roomId, limit);
+        });
+    }
+
+    @Override
+    public List<QiscusComment> getCommentsAfter(QiscusComment qiscusComment, long roomId) {
+        flush();
+        return delegate.getCommentsAfter(qiscusComment, roomId);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableCommentsAfter(QiscusComment qiscusComment, long roomId) {
+        return Observable.defer(() -> {
+            flush();
+            return delegate.getObservableCommentsAfter(qiscusComment, roomId);
+        });
+    }
+
+    @Override
+    public QiscusComment getLatestComment() {
+        flush();
+        return delegate.getLatestComment();
+    }
+
+    @Override
+    public QiscusComment getLatestComment(long roomId) {
+        flush();
+        return delegate.getLatestComment(roomId);
+    }
+
+    @Override
+    public QiscusComment getLatestDeliveredComment(long roomId) {
+        flush();
+        return delegate.getLatestDeliveredComment(roomId);
+    }
+
+    @Override
+    public QiscusComment getLatestReadComment(long roomId) {
+        flush();
+        return delegate.getLatestReadComment(roomId);
+    }
+
+    @Override
+    public List<QiscusComment> getPendingComments() {
+        flush();
+        return delegate.getPendingComments();
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservablePendingComments() {
+        return Observable.defer(() -> {
+            flush();
+            return delegate.getObservablePendingComments();
+        });
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getLivePendingComments() {
+        return Observable.defer(() -> {
+            flush();
+            return delegate.getLivePendingComments();
+        });
+    }
+
+    @Override
+    public List<QiscusComment> searchComments(String query, long roomId, int limit, int offset) {
+        flush();
+        return delegate.searchComments(query, roomId, limit, offset);
+    }
+
+    @Override
+    public List<QiscusComment> searchComments(String query, int limit, int offset) {
+        flush();
+        return delegate.searchComments(query, limit, offset);
+    }
+
+    @Override
+    public List<QiscusCommentSearchResult> searchComments(String query, long roomId,
+                                                          QiscusCommentSearchResult lastResult, int limit) {
+        flush();
+        return delegate.searchComments(query, roomId, lastResult, limit);
+    }
+
+    @Override
+    public List<QiscusCommentSearchResult> searchComments(String query, QiscusCommentSearchResult lastResult, int limit) {
+        flush();
+        return delegate.searchComments(query, lastResult, limit);
+    }
+
+    @Override
+    public void saveLocalPath(long roomId, long commentId, String localPath) {
+        queueWrite(() -> delegate.saveLocalPath(roomId, commentId, localPath));
+    }
+
+    @Override
+    public boolean isContainsFileOfComment(long commentId) {
+        flush();
+        return delegate.isContainsFileOfComment(commentId);
+    }
+
+    @Override
+    public void updateLocalPath(long roomId, long commentId, String localPath) {
+        queueWrite(() -> delegate.updateLocalPath(roomId, commentId, localPath));
+    }
+
+    @Override
+    public void addOrUpdateLocalPath(long roomId, long commentId, String localPath) {
+        queueWrite(() -> delegate.addOrUpdateLocalPath(roomId, commentId, localPath));
+    }
+
+    @Override
+    public File getLocalPath(long commentId) {
+        flush();
+        return delegate.getLocalPath(commentId);
+    }
+
+    @Override
+    public List<Pair<QiscusComment, File>> getMediaComments(long roomId, QiscusComment.Type mediaType,
+                                                            QiscusComment lastComment, int limit) {
+        flush();
+        return delegate.getMediaComments(roomId, mediaType, lastComment, limit);
+    }
+
+    @Override
+    public void deleteLocalPath(long commentId) {
+        queueWrite(() -> delegate.deleteLocalPath(commentId));
+    }
+
+    @Override
+    public void clear() {
+        // Queued writes belong to the data that going to be cleared
+        synchronized (pendingWrites) {
+            pendingWrites.clear();
+            generation++;
+        }
+        callOnWriter(() -> {
+            delegate.clear();
+            return null;
+        });
+    }
+
+    @Override
+    public void configure(QiscusDatabaseConfig databaseConfig) {
+        setEnabled(databaseConfig.isEnableWriteBehind());
+        delegate.configure(databaseConfig);
+    }
+
+    @Override
+    public QiscusCompactionResult compact(QiscusRetentionPolicy retentionPolicy, Set<Long> exemptRoomIds) {
+        return callOnWriter(() -> delegate.compact(retentionPolicy, exemptRoomIds));
+    }
+
+    private static class PendingWrite {
+        private final int type;
+        private final Object value;
+        private final long roomId;
+        private final String distinctId;
+        private final Runnable action;
+
+        private PendingWrite(int type, Object value, long roomId, String distinctId, Runnable action) {
+            this.type = type;
+            this.value = value;
+            this.roomId = roomId;
+            this.distinctId = distinctId;
+            this.action = action;
+        }
+
+        private boolean canBatchWith(PendingWrite other) {
+            if (type == TYPE_OTHER || type != other.type) {
+                return false;
+            }
+            if (type == TYPE_ROOM_MEMBER) {
+                return roomId == other.roomId
+                        && (distinctId == null ? other.distinctId == null : distinctId.equals(other.distinctId));
+            }
+            return true;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import android.os.Parcelable;
 
 import com.qiscus.sdk.chat.core.util.QiscusNumberUtil;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.List;
@@ -48,6 +49,8 @@ public class QiscusChatRoom implements Parcelable {
     protected String uniqueId;
     protected String name;
     protected JSONObject options;
+    // Options JSON not parsed yet, most screens never read it
+    protected String rawOptions;
     protected boolean group;
     protected boolean channel;
     protected String avatarUrl;
@@ -65,11 +68,7 @@ public class QiscusChatRoom implements Parcelable {
         distinctId = in.readString();
         uniqueId = in.readString();
         name = in.readString();
-        try {
-            options = new JSONObject(in.readString());
-        } catch (Exception ignored) {
-            //Do nothing
-        }
+        rawOptions = in.readString();
         group = in.readByte() != 0;
         channel = in.readByte() != 0;
         avatarUrl = in.readString();
@@ -112,11 +111,38 @@ public class QiscusChatRoom implements Parcelable {
     }
 
     public JSONObject getOptions() {
+        if (rawOptions != null) {
+            try {
+                options = new JSONObject(rawOptions);
+            } catch (JSONException ignored) {
+                //Do nothing
+            }
+            rawOptions = null;
+        }
         return options;
     }
 
     public void setOptions(JSONObject options) {
         this.options = options;
+        rawOptions = null;
+    }
+
+    /**
+     * Set the options JSON string, it's only parsed when {@link #getOptions()} is called
+     */
+    public void setRawOptions(String rawOptions) {
+        this.rawOptions = rawOptions;
+        options = null;
+    }
+
+    /**
+     * @return the options JSON string, without parsing it if it's not parsed yet
+     */
+    public String getRawOptions() {
+        if (rawOptions != null) {
+            return rawOptions;
+        }
+        return options == null ? null : options.toString();
     }
 
     public boolean isGroup() {
@@ -196,10 +222,10 @@ public class QiscusChatRoom implements Parcelable {
         dest.writeString(distinctId);
         dest.writeString(uniqueId);
         dest.writeString(name);
-        if (options == null) {
+        if (options == null && rawOptions == null) {
             options = new JSONObject();
         }
-        dest.writeString(options.toString());
+        dest.writeString(getRawOptions());
         dest.writeByte((byte) (group ? 1 : 0));
         dest.writeByte((byte) (channel ? 1 : 0));
         dest.writeString(avatarUrl);
@@ -216,7 +242,7 @@ public class QiscusChatRoom implements Parcelable {
                 ", distinctId='" + distinctId + '\'' +
                 ", uniqueId='" + uniqueId + '\'' +
                 ", name='" + name + '\'' +
-                ", options=" + options +
+                ", options=" + getRawOptions() +
                 ", group=" + group +
                 ", channel=" + channel +
                 ", avatarUrl='" + avatarUrl + '\'' +
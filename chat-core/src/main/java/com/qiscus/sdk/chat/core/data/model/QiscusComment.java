@@ -100,6 +100,8 @@ public class QiscusComment implements Parcelable {
     private String rawType;
     private String extraPayload;
     private JSONObject extras;
+    // Extras JSON not parsed yet, most comments never read it
+    private String rawExtras;
     private MediaObserver observer;
     private MediaPlayer player;
     private QiscusComment replyTo;
@@ -127,11 +129,7 @@ public class QiscusComment implements Parcelable {
         rawType = in.readString();
         extraPayload = in.readString();
         replyTo = in.readParcelable(QiscusComment.class.getClassLoader());
-        try {
-            extras = new JSONObject(in.readString());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        rawExtras = in.readString();
     }
 
     public static QiscusComment generateMessage(long roomId, String content) {
@@ -405,11 +403,38 @@ public class QiscusComment implements Parcelable {
     }
 
     public JSONObject getExtras() {
+        if (rawExtras != null) {
+            try {
+                extras = new JSONObject(rawExtras);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            rawExtras = null;
+        }
         return extras;
     }
 
     public void setExtras(JSONObject extras) {
         this.extras = extras;
+        rawExtras = null;
+    }
+
+    /**
+     * Set the extras JSON string, it's only parsed when {@link #getExtras()} is called
+     */
+    public void setRawExtras(String rawExtras) {
+        this.rawExtras = rawExtras;
+        extras = null;
+    }
+
+    /**
+     * @return the extras JSON string, without parsing it if it's not parsed yet
+     */
+    public String getRawExtras() {
+        if (rawExtras != null) {
+            return rawExtras;
+        }
+        return extras == null ? null : extras.toString();
     }
 
     public boolean isMyComment() {
@@ -872,14 +897,14 @@ public class QiscusComment implements Parcelable {
         dest.writeString(rawType);
         dest.writeString(extraPayload);
         dest.writeParcelable(replyTo, flags);
-        if (extras == null) {
+        if (extras == null && rawExtras == null) {
             try {
                 extras = new JSONObject("{}");
             } catch (JSONException e) {
                 e.printStackTrace();
             }
         }
-        dest.writeString(extras.toString());
+        dest.writeString(getRawExtras());
     }
 
     public boolean areContentsTheSame(QiscusComment qiscusComment) {
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.model;
+
+/**
+ * Local search result, contains the matched comment, a snippet of matched text where every matched word
+ * is wrapped with &lt;b&gt; tag, and the rank of the match. Pass the last result of a page to get the next page.
+ */
+public class QiscusCommentSearchResult {
+    private QiscusComment comment;
+    private String snippet;
+    private int rank;
+
+    public QiscusCommentSearchResult(QiscusComment comment, String snippet, int rank) {
+        this.comment = comment;
+        this.snippet = snippet;
+        this.rank = rank;
+    }
+
+    public QiscusComment getComment() {
+        return comment;
+    }
+
+    public void setComment(QiscusComment comment) {
+        this.comment = comment;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    public void setSnippet(String snippet) {
+        this.snippet = snippet;
+    }
+
+    public int getRank() {
+        return rank;
+    }
+
+    public void setRank(int rank) {
+        this.rank = rank;
+    }
+
+    @Override
+    public String toString() {
+        return "QiscusCommentSearchResult{" +
+                "comment=" + comment +
+                ", snippet='" + snippet + '\'' +
+                ", rank=" + rank +
+                '}';
+    }
+}
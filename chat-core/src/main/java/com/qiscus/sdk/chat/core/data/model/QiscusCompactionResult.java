@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.model;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * What a compaction deleted, see {@link QiscusRetentionPolicy}
+ */
+public class QiscusCompactionResult {
+    private int deletedComments;
+    private int deletedFiles;
+    private long reclaimedDatabaseBytes;
+    private long reclaimedFileBytes;
+    private Set<Long> compactedRoomIds = new HashSet<>();
+
+    public int getDeletedComments() {
+        return deletedComments;
+    }
+
+    public void addDeletedComments(long roomId, int deletedComments) {
+        if (deletedComments > 0) {
+            this.deletedComments += deletedComments;
+            compactedRoomIds.add(roomId);
+        }
+    }
+
+    public int getDeletedFiles() {
+        return deletedFiles;
+    }
+
+    public void addDeletedFile(long fileBytes) {
+        deletedFiles++;
+        reclaimedFileBytes += fileBytes;
+    }
+
+    /**
+     * @return decrease of the pages used by the database, the file itself only shrinks when it was created with
+     * incremental auto vacuum, otherwise the freed pages are reused by the next writes
+     */
+    public long getReclaimedDatabaseBytes() {
+        return reclaimedDatabaseBytes;
+    }
+
+    public void setReclaimedDatabaseBytes(long reclaimedDatabaseBytes) {
+        this.reclaimedDatabaseBytes = reclaimedDatabaseBytes;
+    }
+
+    public long getReclaimedFileBytes() {
+        return reclaimedFileBytes;
+    }
+
+    public long getReclaimedBytes() {
+        return reclaimedDatabaseBytes + reclaimedFileBytes;
+    }
+
+    /**
+     * @return rooms which comments were deleted
+     */
+    public Set<Long> getCompactedRoomIds() {
+        return compactedRoomIds;
+    }
+
+    @Override
+    public String toString() {
+        return "QiscusCompactionResult{" +
+                "deletedComments=" + deletedComments +
+                ", deletedFiles=" + deletedFiles +
+                ", reclaimedDatabaseBytes=" + reclaimedDatabaseBytes +
+                ", reclaimedFileBytes=" + reclaimedFileBytes +
+                '}';
+    }
+}
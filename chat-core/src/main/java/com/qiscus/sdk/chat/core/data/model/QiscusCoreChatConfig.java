@@ -1,5 +1,8 @@
 package com.qiscus.sdk.chat.core.data.model;
 
+import com.qiscus.sdk.chat.core.QiscusCore;
+import com.qiscus.sdk.chat.core.data.local.QiscusCompactionJob;
+
 /**
  * @author Yuana andhikayuana@gmail.com
  * @since Jul, Thu 26 2018 11.50
@@ -10,6 +13,8 @@ public class QiscusCoreChatConfig {
     private boolean enableFcmPushNotification = false;
     private QiscusCommentSendingInterceptor qiscusCommentSendingInterceptor = qiscusComment -> qiscusComment;
     private QiscusImageCompressionConfig qiscusImageCompressionConfig = new QiscusImageCompressionConfig();
+    private QiscusDatabaseConfig databaseConfig = new QiscusDatabaseConfig();
+    private QiscusRetentionPolicy retentionPolicy = new QiscusRetentionPolicy();
     private NotificationListener notificationListener;
     private DeleteCommentListener deleteCommentListener;
 
@@ -41,6 +46,32 @@ public class QiscusCoreChatConfig {
         return this;
     }
 
+    public QiscusDatabaseConfig getDatabaseConfig() {
+        return databaseConfig;
+    }
+
+    /**
+     * The local database is opened by QiscusCore.init(), so the new config is applied to the opened one
+     */
+    public QiscusCoreChatConfig setDatabaseConfig(QiscusDatabaseConfig databaseConfig) {
+        this.databaseConfig = databaseConfig;
+        QiscusCore.getDataStore().configure(databaseConfig);
+        return this;
+    }
+
+    public QiscusRetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
+    /**
+     * Schedule the background compaction enforcing the policy, a policy without limit stops it
+     */
+    public QiscusCoreChatConfig setRetentionPolicy(QiscusRetentionPolicy retentionPolicy) {
+        this.retentionPolicy = retentionPolicy;
+        QiscusCompactionJob.schedule(retentionPolicy);
+        return this;
+    }
+
     public NotificationListener getNotificationListener() {
         return notificationListener;
     }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.model;
+
+/**
+ * Storage tuning of the local qiscus database. Zero value means keep the SQLite default.
+ * Page size only take effect for a new database file, when write-ahead logging is enabled it can not be changed
+ * for the existing one.
+ */
+public class QiscusDatabaseConfig {
+    private boolean enableWriteAheadLogging = true;
+    private int pageSize = 0;
+    private int cacheSizeInKb = 0;
+    private long mmapSize = 0;
+    private int commentCacheSizeInKb = 0;
+    private boolean enableWriteBehind = false;
+
+    public QiscusDatabaseConfig() {
+
+    }
+
+    public QiscusDatabaseConfig(boolean enableWriteAheadLogging, int pageSize, int cacheSizeInKb, long mmapSize) {
+        this.enableWriteAheadLogging = enableWriteAheadLogging;
+        this.pageSize = pageSize;
+        this.cacheSizeInKb = cacheSizeInKb;
+        this.mmapSize = mmapSize;
+    }
+
+    /**
+     * With write-ahead logging, readers are not blocked by the writer and the other way around
+     */
+    public QiscusDatabaseConfig setEnableWriteAheadLogging(boolean enableWriteAheadLogging) {
+        this.enableWriteAheadLogging = enableWriteAheadLogging;
+        return this;
+    }
+
+    public QiscusDatabaseConfig setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    public QiscusDatabaseConfig setCacheSizeInKb(int cacheSizeInKb) {
+        this.cacheSizeInKb = cacheSizeInKb;
+        return this;
+    }
+
+    /**
+     * Memory mapped I/O size in bytes, ignored by SQLite older than 3.7.17 (Android 5.0)
+     */
+    public QiscusDatabaseConfig setMmapSize(long mmapSize) {
+        this.mmapSize = mmapSize;
+        return this;
+    }
+
+    /**
+     * Memory budget of the recent comments cached in memory, zero value means keep the default budget
+     */
+    public QiscusDatabaseConfig setCommentCacheSizeInKb(int commentCacheSizeInKb) {
+        this.commentCacheSizeInKb = commentCacheSizeInKb;
+        return this;
+    }
+
+    /**
+     * Queue the writes and commit them in batch on one writer thread, the caller doesn't wait for the commit.
+     * Writes queued in the last moment before the process is killed are lost, so only enable it when the data
+     * can be loaded again from the server.
+     */
+    public QiscusDatabaseConfig setEnableWriteBehind(boolean enableWriteBehind) {
+        this.enableWriteBehind = enableWriteBehind;
+        return this;
+    }
+
+    public boolean isEnableWriteAheadLogging() {
+        return enableWriteAheadLogging;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getCacheSizeInKb() {
+        return cacheSizeInKb;
+    }
+
+    public long getMmapSize() {
+        return mmapSize;
+    }
+
+    public int getCommentCacheSizeInKb() {
+        return commentCacheSizeInKb;
+    }
+
+    public boolean isEnableWriteBehind() {
+        return enableWriteBehind;
+    }
+}
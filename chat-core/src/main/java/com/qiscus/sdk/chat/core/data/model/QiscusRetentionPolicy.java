@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.model;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Limits of the local qiscus database and downloaded files, enforced periodically by a background compaction.
+ * Zero value means no limit, every limit is zero by default so nothing is deleted until a limit is set.
+ * Comments not sent yet are never deleted, pinned rooms and rooms opened recently are kept whole.
+ * <p>
+ * Freed database pages are given back to the file system. A database created by an older SDK version is
+ * rewritten once by a full VACUUM on its first compaction to make it possible, that one run takes longer
+ * and needs free storage about the size of the database.
+ */
+public class QiscusRetentionPolicy {
+    private int maxCommentsPerRoom = 0;
+    private long maxCommentAgeInMillis = 0;
+    private long maxDatabaseSizeInKb = 0;
+    private long maxFileCacheSizeInKb = 0;
+    private long recentRoomExemptionInMillis = 7 * 24 * 60 * 60 * 1000L;
+    private long compactionIntervalInMillis = 6 * 60 * 60 * 1000L;
+    private int batchSize = 500;
+    // Replaced on every change, so a running compaction can read it while the user pins a room
+    private volatile Set<Long> pinnedRoomIds = Collections.emptySet();
+
+    public QiscusRetentionPolicy() {
+
+    }
+
+    /**
+     * Only keep the newest comments of every room, older comments are loaded from the server again when needed
+     */
+    public QiscusRetentionPolicy setMaxCommentsPerRoom(int maxCommentsPerRoom) {
+        this.maxCommentsPerRoom = maxCommentsPerRoom;
+        return this;
+    }
+
+    public QiscusRetentionPolicy setMaxCommentAgeInMillis(long maxCommentAgeInMillis) {
+        this.maxCommentAgeInMillis = maxCommentAgeInMillis;
+        return this;
+    }
+
+    /**
+     * Size of the used database pages, the oldest comments of all rooms are deleted until it fits
+     */
+    public QiscusRetentionPolicy setMaxDatabaseSizeInKb(long maxDatabaseSizeInKb) {
+        this.maxDatabaseSizeInKb = maxDatabaseSizeInKb;
+        return this;
+    }
+
+    /**
+     * Size of the downloaded attachments, the attachments of the oldest comments are deleted until it fits.
+     * Attachments of pinned and recently opened rooms are kept and not counted.
+     */
+    public QiscusRetentionPolicy setMaxFileCacheSizeInKb(long maxFileCacheSizeInKb) {
+        this.maxFileCacheSizeInKb = maxFileCacheSizeInKb;
+        return this;
+    }
+
+    /**
+     * Rooms opened within this period are kept whole, zero value means opened rooms are not exempt
+     */
+    public QiscusRetentionPolicy setRecentRoomExemptionInMillis(long recentRoomExemptionInMillis) {
+        this.recentRoomExemptionInMillis = recentRoomExemptionInMillis;
+        return this;
+    }
+
+    public QiscusRetentionPolicy setCompactionIntervalInMillis(long compactionIntervalInMillis) {
+        this.compactionIntervalInMillis = compactionIntervalInMillis;
+        return this;
+    }
+
+    /**
+     * Max comments or files deleted per transaction, so the compaction never holds the database for long
+     */
+    public QiscusRetentionPolicy setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Rooms pinned by the user, they are kept whole. Can be changed after the policy is set, the next compaction
+     * uses the new ones.
+     */
+    public QiscusRetentionPolicy setPinnedRoomIds(Set<Long> pinnedRoomIds) {
+        this.pinnedRoomIds = Collections.unmodifiableSet(new HashSet<>(pinnedRoomIds));
+        return this;
+    }
+
+    public synchronized QiscusRetentionPolicy addPinnedRoomId(long roomId) {
+        Set<Long> roomIds = new HashSet<>(pinnedRoomIds);
+        roomIds.add(roomId);
+        return setPinnedRoomIds(roomIds);
+    }
+
+    public synchronized QiscusRetentionPolicy removePinnedRoomId(long roomId) {
+        Set<Long> roomIds = new HashSet<>(pinnedRoomIds);
+        roomIds.remove(roomId);
+        return setPinnedRoomIds(roomIds);
+    }
+
+    public int getMaxCommentsPerRoom() {
+        return maxCommentsPerRoom;
+    }
+
+    public long getMaxCommentAgeInMillis() {
+        return maxCommentAgeInMillis;
+    }
+
+    public long getMaxDatabaseSizeInKb() {
+        return maxDatabaseSizeInKb;
+    }
+
+    public long getMaxFileCacheSizeInKb() {
+        return maxFileCacheSizeInKb;
+    }
+
+    public long getRecentRoomExemptionInMillis() {
+        return recentRoomExemptionInMillis;
+    }
+
+    public long getCompactionIntervalInMillis() {
+        return compactionIntervalInMillis;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public Set<Long> getPinnedRoomIds() {
+        return pinnedRoomIds;
+    }
+
+    /**
+     * @return true if any limit is set
+     */
+    public boolean isEnabled() {
+        return maxCommentsPerRoom > 0 || maxCommentAgeInMillis > 0 || maxDatabaseSizeInKb > 0 || maxFileCacheSizeInKb > 0;
+    }
+}
@@ -22,6 +22,7 @@ import android.support.annotation.NonNull;
 
 import com.qiscus.manggil.mention.Mentionable;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
 public class QiscusRoomMember implements Parcelable, Mentionable {
@@ -42,6 +43,8 @@ public class QiscusRoomMember implements Parcelable, Mentionable {
     private long lastDeliveredCommentId;
     private long lastReadCommentId;
     private JSONObject extras;
+    // Extras JSON not parsed yet, most screens never read it
+    private String rawExtras;
 
     public QiscusRoomMember() {
 
@@ -53,11 +56,7 @@ public class QiscusRoomMember implements Parcelable, Mentionable {
         avatar = in.readString();
         lastDeliveredCommentId = in.readLong();
         lastReadCommentId = in.readLong();
-        try {
-            extras = new JSONObject(in.readString());
-        } catch (Exception ignored) {
-            //Do nothing
-        }
+        rawExtras = in.readString();
     }
 
     public String getEmail() {
@@ -108,16 +107,43 @@ public class QiscusRoomMember implements Parcelable, Mentionable {
                 ", avatar='" + avatar + '\'' +
                 ", lastDeliveredCommentId=" + lastDeliveredCommentId +
                 ", lastReadCommentId=" + lastReadCommentId +
-                ", extras=" + extras +
+                ", extras=" + getRawExtras() +
                 '}';
     }
 
     public JSONObject getExtras() {
+        if (rawExtras != null) {
+            try {
+                extras = new JSONObject(rawExtras);
+            } catch (JSONException ignored) {
+                //Do nothing
+            }
+            rawExtras = null;
+        }
         return extras;
     }
 
     public void setExtras(JSONObject extras) {
         this.extras = extras;
+        rawExtras = null;
+    }
+
+    /**
+     * Set the extras JSON string, it's only parsed when {@link #getExtras()} is called
+     */
+    public void setRawExtras(String rawExtras) {
+        this.rawExtras = rawExtras;
+        extras = null;
+    }
+
+    /**
+     * @return the extras JSON string, without parsing it if it's not parsed yet
+     */
+    public String getRawExtras() {
+        if (rawExtras != null) {
+            return rawExtras;
+        }
+        return extras == null ? null : extras.toString();
     }
 
     @Override
@@ -142,10 +168,10 @@ public class QiscusRoomMember implements Parcelable, Mentionable {
         dest.writeString(avatar);
         dest.writeLong(lastDeliveredCommentId);
         dest.writeLong(lastReadCommentId);
-        if (extras == null) {
+        if (extras == null && rawExtras == null) {
             extras = new JSONObject();
         }
-        dest.writeString(extras.toString());
+        dest.writeString(getRawExtras());
     }
 
     @NonNull
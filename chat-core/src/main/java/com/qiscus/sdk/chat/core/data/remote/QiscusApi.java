@@ -218,8 +218,7 @@ public enum QiscusApi {
         QiscusCore.getChatConfig().getCommentSendingInterceptor().sendComment(qiscusComment);
         return api.postComment(QiscusCore.getToken(), qiscusComment.getMessage(),
                 qiscusComment.getRoomId(), qiscusComment.getUniqueId(), qiscusComment.getRawType(),
-                qiscusComment.getExtraPayload(), qiscusComment.getExtras() == null ? null :
-                        qiscusComment.getExtras().toString())
+                qiscusComment.getExtraPayload(), qiscusComment.getRawExtras())
                 .map(jsonElement -> {
                     JsonObject jsonComment = jsonElement.getAsJsonObject()
                             .get("results").getAsJsonObject().get("comment").getAsJsonObject();
@@ -394,7 +393,7 @@ public enum QiscusApi {
                 .map(JsonElement::getAsJsonObject)
                 .doOnNext(json -> {
                     long roomId = json.get("id").getAsLong();
-                    if (QiscusCore.getDataStore().deleteCommentsByRoomId(roomId)) {
+                    if (QiscusCore.getDataStore().deleteCommentsByRoomId(roomId) > 0) {
                         EventBus.getDefault().post(new QiscusClearCommentsEvent(roomId));
                     }
                 })
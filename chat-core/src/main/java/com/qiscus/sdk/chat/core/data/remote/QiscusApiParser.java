@@ -87,12 +87,8 @@ final class QiscusApiParser {
             }
 
             qiscusChatRoom.setUniqueId(jsonChatRoom.get("unique_id").getAsString());
-            try {
-                qiscusChatRoom.setOptions(jsonChatRoom.get("options").isJsonNull() ? null :
-                        new JSONObject(jsonChatRoom.get("options").getAsString()));
-            } catch (JSONException ignored) {
-                //Do nothing
-            }
+            qiscusChatRoom.setRawOptions(jsonChatRoom.get("options").isJsonNull() ? null :
+                    jsonChatRoom.get("options").getAsString());
             qiscusChatRoom.setAvatarUrl(jsonChatRoom.get("avatar_url").getAsString());
 
             if (jsonChatRoom.has("is_public_channel")) {
@@ -133,11 +129,7 @@ final class QiscusApiParser {
         member.setAvatar(jsonMember.get("avatar_url").getAsString());
         member.setUsername(jsonMember.get("username").getAsString());
 
-        try {
-            member.setExtras(new JSONObject(jsonMember.get("extras").getAsJsonObject().toString()));
-        } catch (JSONException ignored) {
-            //Do nothing
-        }
+        member.setRawExtras(jsonMember.get("extras").getAsJsonObject().toString());
 
         if (jsonMember.getAsJsonObject().has("last_comment_received_id")) {
             member.setLastDeliveredCommentId(jsonMember.getAsJsonObject().get("last_comment_received_id").getAsInt());
@@ -166,12 +158,8 @@ final class QiscusApiParser {
                 }
 
                 qiscusChatRoom.setUniqueId(jsonChatRoom.get("unique_id").getAsString());
-                try {
-                    qiscusChatRoom.setOptions(jsonChatRoom.get("options").isJsonNull() ? null :
-                            new JSONObject(jsonChatRoom.get("options").getAsString()));
-                } catch (JSONException ignored) {
-                    //Do nothing
-                }
+                qiscusChatRoom.setRawOptions(jsonChatRoom.get("options").isJsonNull() ? null :
+                        jsonChatRoom.get("options").getAsString());
                 qiscusChatRoom.setAvatarUrl(jsonChatRoom.get("avatar_url").getAsString());
                 qiscusChatRoom.setUnreadCount(jsonChatRoom.get("unread_count").getAsInt());
 
@@ -284,11 +272,7 @@ final class QiscusApiParser {
         }
 
         if (jsonComment.has("extras") && !jsonComment.get("extras").isJsonNull()) {
-            try {
-                qiscusComment.setExtras(new JSONObject(jsonComment.get("extras").getAsJsonObject().toString()));
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
+            qiscusComment.setRawExtras(jsonComment.get("extras").getAsJsonObject().toString());
         }
 
         return qiscusComment;
@@ -48,7 +48,7 @@ public final class QiscusClearCommentsHandler {
         if (clearCommentsData.getActor().getEmail().equals(QiscusCore.getQiscusAccount().getEmail())) {
             Observable.from(clearCommentsData.getRoomIds())
                     .doOnNext(roomId -> {
-                        if (QiscusCore.getDataStore().deleteCommentsByRoomId(roomId, clearCommentsData.timestamp)) {
+                        if (QiscusCore.getDataStore().deleteCommentsByRoomId(roomId, clearCommentsData.timestamp) > 0) {
                             EventBus.getDefault().post(new QiscusClearCommentsEvent(roomId, clearCommentsData.timestamp));
                             QiscusPushNotificationUtil.clearPushNotification(QiscusCore.getApps(), roomId);
                         }
@@ -27,7 +27,11 @@ import com.qiscus.sdk.chat.core.util.QiscusErrorLogger;
 
 import org.greenrobot.eventbus.EventBus;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import rx.Observable;
 import rx.android.schedulers.AndroidSchedulers;
@@ -67,13 +71,14 @@ public final class QiscusDeleteCommentHandler {
                     return qiscusComment;
                 })
                 .filter(qiscusComment -> qiscusComment != null)
-                .doOnNext(qiscusComment -> {
-                    QiscusCore.getDataStore().addOrUpdate(qiscusComment);
-                    QiscusCore.getDataStore().deleteLocalPath(qiscusComment.getId());
-
-                    EventBus.getDefault().post(new QiscusCommentDeletedEvent(qiscusComment));
-                })
                 .toList()
+                .doOnNext(qiscusComments -> {
+                    QiscusCore.getDataStore().addOrUpdateComments(qiscusComments);
+                    for (QiscusComment qiscusComment : qiscusComments) {
+                        QiscusCore.getDataStore().deleteLocalPath(qiscusComment.getId());
+                        EventBus.getDefault().post(new QiscusCommentDeletedEvent(qiscusComment));
+                    }
+                })
                 .doOnNext(qiscusComments -> {
                     if (QiscusCore.getChatConfig().getDeleteCommentListener() != null) {
                         QiscusCore.getChatConfig().getDeleteCommentListener()
@@ -102,19 +107,33 @@ public final class QiscusDeleteCommentHandler {
                     return qiscusComment;
                 })
                 .filter(qiscusComment -> qiscusComment != null)
-                .doOnNext(qiscusComment -> {
-                    // Update chaining id and before id
-                    QiscusComment commentAfter = QiscusCore.getDataStore().getCommentByBeforeId(qiscusComment.getId());
-                    if (commentAfter != null) {
-                        commentAfter.setCommentBeforeId(qiscusComment.getCommentBeforeId());
-                        QiscusCore.getDataStore().addOrUpdate(commentAfter);
+                .toList()
+                .doOnNext(qiscusComments -> {
+                    Map<Long, QiscusComment> deletedByBeforeId = new HashMap<>();
+                    for (QiscusComment qiscusComment : qiscusComments) {
+                        deletedByBeforeId.put(qiscusComment.getCommentBeforeId(), qiscusComment);
+                    }
+
+                    Map<String, QiscusComment> updatedComments = new LinkedHashMap<>();
+                    for (QiscusComment qiscusComment : qiscusComments) {
+                        // Update chaining id and before id, the comment after can be one of the deleted comments
+                        QiscusComment commentAfter = deletedByBeforeId.get(qiscusComment.getId());
+                        if (commentAfter == null) {
+                            commentAfter = QiscusCore.getDataStore().getCommentByBeforeId(qiscusComment.getId());
+                        }
+                        if (commentAfter != null) {
+                            commentAfter.setCommentBeforeId(qiscusComment.getCommentBeforeId());
+                            updatedComments.put(commentAfter.getUniqueId(), commentAfter);
+                        }
+                        updatedComments.put(qiscusComment.getUniqueId(), qiscusComment);
                     }
+                    QiscusCore.getDataStore().addOrUpdateComments(new ArrayList<>(updatedComments.values()));
 
-                    QiscusCore.getDataStore().addOrUpdate(qiscusComment);
-                    QiscusCore.getDataStore().deleteLocalPath(qiscusComment.getId());
-                    EventBus.getDefault().post(new QiscusCommentDeletedEvent(qiscusComment, true));
+                    for (QiscusComment qiscusComment : qiscusComments) {
+                        QiscusCore.getDataStore().deleteLocalPath(qiscusComment.getId());
+                        EventBus.getDefault().post(new QiscusCommentDeletedEvent(qiscusComment, true));
+                    }
                 })
-                .toList()
                 .doOnNext(qiscusComments -> {
                     if (QiscusCore.getChatConfig().getDeleteCommentListener() != null) {
                         QiscusCore.getChatConfig().getDeleteCommentListener()
@@ -129,7 +148,7 @@ public final class QiscusDeleteCommentHandler {
     }
 
     private static void setRoomData(QiscusComment qiscusComment) {
-        QiscusChatRoom chatRoom = QiscusCore.getDataStore().getChatRoom(qiscusComment.getRoomId());
+        QiscusChatRoom chatRoom = QiscusCore.getDataStore().getLightChatRoom(qiscusComment.getRoomId());
         if (chatRoom != null) {
             qiscusComment.setRoomName(chatRoom.getName());
             qiscusComment.setRoomAvatar(chatRoom.getAvatarUrl());
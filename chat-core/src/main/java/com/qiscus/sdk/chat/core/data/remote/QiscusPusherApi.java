@@ -254,7 +254,7 @@ public enum QiscusPusherApi implements MqttCallbackExtended, IMqttActionListener
             }
 
             if (jsonObject.has("extras") && !jsonObject.get("extras").isJsonNull()) {
-                qiscusComment.setExtras(new JSONObject(jsonObject.get("extras").getAsJsonObject().toString()));
+                qiscusComment.setRawExtras(jsonObject.get("extras").getAsJsonObject().toString());
             }
 
             return qiscusComment;
@@ -497,7 +497,7 @@ public enum QiscusPusherApi implements MqttCallbackExtended, IMqttActionListener
     }
 
     public void setUserRead(long roomId, long commentId) {
-        Observable.fromCallable(() -> QiscusCore.getDataStore().getChatRoom(roomId))
+        Observable.fromCallable(() -> QiscusCore.getDataStore().getLightChatRoom(roomId))
                 .filter(room -> room != null)
                 .filter(room -> !room.isChannel())
                 .flatMap(room -> QiscusApi.getInstance().updateCommentStatus(roomId, commentId, 0))
@@ -508,7 +508,7 @@ public enum QiscusPusherApi implements MqttCallbackExtended, IMqttActionListener
     }
 
     public void setUserDelivery(long roomId, long commentId) {
-        Observable.fromCallable(() -> QiscusCore.getDataStore().getChatRoom(roomId))
+        Observable.fromCallable(() -> QiscusCore.getDataStore().getLightChatRoom(roomId))
                 .filter(room -> room != null)
                 .filter(room -> !room.isChannel())
                 .flatMap(room -> QiscusApi.getInstance().updateCommentStatus(roomId, 0, commentId))
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.event;
+
+import com.qiscus.sdk.chat.core.data.model.QiscusCompactionResult;
+
+/**
+ * Posted after a compaction deleted something, see {@link com.qiscus.sdk.chat.core.data.model.QiscusRetentionPolicy}
+ */
+public class QiscusCompactionEvent {
+    private QiscusCompactionResult result;
+
+    public QiscusCompactionEvent(QiscusCompactionResult result) {
+        this.result = result;
+    }
+
+    public QiscusCompactionResult getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.presenter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Last delivered and last read comment id of every room member, kept sorted so the smallest one,
+ * the comment already delivered to or read by all members, is known without scanning all members.
+ * Updating a member cost O(log n), the smallest ids are cached so reading them cost O(1).
+ * Safe to be used from multiple threads.
+ */
+final class QiscusMemberWatermarks {
+    private static final int DELIVERED = 0;
+    private static final int READ = 1;
+
+    // email -> {last delivered, last read}
+    private final Map<String, long[]> members = new HashMap<>();
+    private final SortedCounter delivered = new SortedCounter();
+    private final SortedCounter read = new SortedCounter();
+
+    synchronized void clear() {
+        members.clear();
+        delivered.clear();
+        read.clear();
+    }
+
+    synchronized void put(String email, long lastDeliveredCommentId, long lastReadCommentId) {
+        remove(email);
+        members.put(email, new long[]{lastDeliveredCommentId, lastReadCommentId});
+        delivered.increment(lastDeliveredCommentId);
+        read.increment(lastReadCommentId);
+    }
+
+    synchronized boolean remove(String email) {
+        long[] watermark = members.remove(email);
+        if (watermark == null) {
+            return false;
+        }
+        delivered.decrement(watermark[DELIVERED]);
+        read.decrement(watermark[READ]);
+        return true;
+    }
+
+    /**
+     * @return true if the member is known and the comment id is bigger than the last delivered one of the member
+     */
+    synchronized boolean updateLastDelivered(String email, long commentId) {
+        long[] watermark = members.get(email);
+        if (watermark == null || watermark[DELIVERED] >= commentId) {
+            return false;
+        }
+        move(delivered, watermark, DELIVERED, commentId);
+        return true;
+    }
+
+    /**
+     * Read comment is delivered too, so last delivered is moved as well if needed
+     *
+     * @return true if the member is known and the comment id is bigger than the last read one of the member
+     */
+    synchronized boolean updateLastRead(String email, long commentId) {
+        long[] watermark = members.get(email);
+        if (watermark == null || watermark[READ] >= commentId) {
+            return false;
+        }
+        move(read, watermark, READ, commentId);
+        if (watermark[DELIVERED] < commentId) {
+            move(delivered, watermark, DELIVERED, commentId);
+        }
+        return true;
+    }
+
+    /**
+     * @return the smallest last delivered comment id, or Long.MAX_VALUE if there is no member
+     */
+    synchronized long getMinLastDelivered() {
+        return delivered.getMin();
+    }
+
+    /**
+     * @return the smallest last read comment id, or Long.MAX_VALUE if there is no member
+     */
+    synchronized long getMinLastRead() {
+        return read.getMin();
+    }
+
+    private static void move(SortedCounter counter, long[] watermark, int index, long commentId) {
+        counter.decrement(watermark[index]);
+        watermark[index] = commentId;
+        counter.increment(commentId);
+    }
+
+    /**
+     * Sorted multiset of comment ids, comment id -> number of members. The smallest id is cached,
+     * it's only looked up again in the tree when the last member at it moves away.
+     */
+    private static final class SortedCounter {
+        private final TreeMap<Long, Integer> counts = new TreeMap<>();
+        private long min = Long.MAX_VALUE;
+
+        private void clear() {
+            counts.clear();
+            min = Long.MAX_VALUE;
+        }
+
+        private void increment(long commentId) {
+            Integer count = counts.get(commentId);
+            counts.put(commentId, count == null ? 1 : count + 1);
+            if (commentId < min) {
+                min = commentId;
+            }
+        }
+
+        private void decrement(long commentId) {
+            Integer count = counts.get(commentId);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                counts.put(commentId, count - 1);
+                return;
+            }
+            counts.remove(commentId);
+            if (commentId == min) {
+                min = counts.isEmpty() ? Long.MAX_VALUE : counts.firstKey();
+            }
+        }
+
+        private long getMin() {
+            return min;
+        }
+    }
+}
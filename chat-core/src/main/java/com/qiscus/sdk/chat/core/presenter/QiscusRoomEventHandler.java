@@ -31,9 +31,10 @@ import org.greenrobot.eventbus.Subscribe;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -42,6 +43,8 @@ import java.util.concurrent.atomic.AtomicLong;
 public class QiscusRoomEventHandler {
     //status terakhir masing-masing anggota room
     Map<String, QiscusRoomMember> memberState;
+    //lastDeliveredCommentId dan lastReadCommentId semua anggota room yang sudah diurutkan
+    private final QiscusMemberWatermarks memberWatermarks = new QiscusMemberWatermarks();
     private QiscusAccount account;
     private QiscusChatRoom room;
     //comment terakhir yang sudah diterima semua anggota room
@@ -85,46 +88,25 @@ public class QiscusRoomEventHandler {
      */
     private void determineMemberState() {
         if (memberState == null) {
-            memberState = new HashMap<>();
+            memberState = new ConcurrentHashMap<>();
         } else {
             memberState.clear();
         }
+        memberWatermarks.clear();
 
         if (room.getMember().isEmpty()) {
             return;
         }
 
-        long minDelivered = Long.MAX_VALUE;
-        long minRead = Long.MAX_VALUE;
         for (QiscusRoomMember member : room.getMember()) {
             if (!member.getEmail().equals(account.getEmail())) {
-                if (member.getLastDeliveredCommentId() < minDelivered) {
-                    minDelivered = member.getLastDeliveredCommentId();
-                }
-
-                if (member.getLastReadCommentId() < minRead) {
-                    minRead = member.getLastReadCommentId();
-                }
-
                 memberState.put(member.getEmail(), member);
+                memberWatermarks.put(member.getEmail(), member.getLastDeliveredCommentId(),
+                        member.getLastReadCommentId());
             }
         }
 
-        if (minRead > minDelivered) {
-            minDelivered = minRead;
-        }
-
-        if (minDelivered > lastDeliveredCommentId.get()) {
-            lastDeliveredCommentId.set(minDelivered);
-            QiscusAndroidUtil.runOnBackgroundThread(this::updateLocalLastDelivered);
-            listener.onChangeLastDelivered(lastDeliveredCommentId.get());
-        }
-
-        if (minRead > lastReadCommentId.get()) {
-            lastReadCommentId.set(minRead);
-            QiscusAndroidUtil.runOnBackgroundThread(this::updateLocalLastRead);
-            listener.onChangeLastRead(lastReadCommentId.get());
-        }
+        tryUpdateLastState();
     }
 
     private void listenRoomEvent() {
@@ -165,7 +147,7 @@ public class QiscusRoomEventHandler {
      */
     private boolean updateLastDelivered(String email, long commentId) {
         QiscusRoomMember member = memberState.get(email);
-        if (member != null && member.getLastDeliveredCommentId() < commentId) {
+        if (member != null && memberWatermarks.updateLastDelivered(email, commentId)) {
             member.setLastDeliveredCommentId(commentId);
             QiscusAndroidUtil.runOnBackgroundThread(() -> updateLocalMemberState(member));
             return true;
@@ -182,8 +164,8 @@ public class QiscusRoomEventHandler {
      */
     private boolean updateLastRead(String email, long commentId) {
         QiscusRoomMember member = memberState.get(email);
-        if (member != null && member.getLastReadCommentId() < commentId) {
-            member.setLastDeliveredCommentId(commentId);
+        if (member != null && memberWatermarks.updateLastRead(email, commentId)) {
+            member.setLastDeliveredCommentId(Math.max(member.getLastDeliveredCommentId(), commentId));
             member.setLastReadCommentId(commentId);
             QiscusAndroidUtil.runOnBackgroundThread(() -> updateLocalMemberState(member));
             return true;
@@ -196,35 +178,45 @@ public class QiscusRoomEventHandler {
      * jika berhasil di update akan men-trigger listener bahwa comment yg terakhir diterima atau dibaca telah berubah
      */
     private void tryUpdateLastState() {
-        long minDelivered = Long.MAX_VALUE;
-        long minRead = Long.MAX_VALUE;
-        for (Map.Entry<String, QiscusRoomMember> member : memberState.entrySet()) {
-            if (member.getValue().getLastDeliveredCommentId() < minDelivered) {
-                minDelivered = member.getValue().getLastDeliveredCommentId();
-            }
+        long minDelivered = memberWatermarks.getMinLastDelivered();
+        long minRead = memberWatermarks.getMinLastRead();
 
-            if (member.getValue().getLastReadCommentId() < minRead) {
-                minRead = member.getValue().getLastReadCommentId();
-            }
+        //Tidak ada anggota lain di room, tidak ada yang menerima atau membaca comment kita
+        if (minDelivered == Long.MAX_VALUE || minRead == Long.MAX_VALUE) {
+            return;
         }
 
         if (minRead > minDelivered) {
             minDelivered = minRead;
         }
 
-        if (minDelivered > lastDeliveredCommentId.get()) {
-            lastDeliveredCommentId.set(minDelivered);
+        if (advance(lastDeliveredCommentId, minDelivered)) {
             QiscusAndroidUtil.runOnBackgroundThread(this::updateLocalLastDelivered);
-            listener.onChangeLastDelivered(lastDeliveredCommentId.get());
+            listener.onChangeLastDelivered(minDelivered);
         }
 
-        if (minRead > lastReadCommentId.get()) {
-            lastReadCommentId.set(minRead);
+        if (advance(lastReadCommentId, minRead)) {
             QiscusAndroidUtil.runOnBackgroundThread(this::updateLocalLastRead);
-            listener.onChangeLastRead(lastReadCommentId.get());
+            listener.onChangeLastRead(minRead);
         }
     }
 
+    /**
+     * Event dari mqtt di-handle di beberapa thread, jadi nilainya hanya boleh naik
+     *
+     * @return true jika value lebih besar dari nilai sebelumnya
+     */
+    private static boolean advance(AtomicLong commentId, long value) {
+        long current;
+        do {
+            current = commentId.get();
+            if (value <= current) {
+                return false;
+            }
+        } while (!commentId.compareAndSet(current, value));
+        return true;
+    }
+
     /**
      * update local DB
      */
@@ -247,15 +239,34 @@ public class QiscusRoomEventHandler {
     }
 
     public void transformCommentState(List<QiscusComment> comments, boolean fromLocal) {
+        List<QiscusComment> transformedComments = new ArrayList<>(comments.size());
         for (QiscusComment comment : comments) {
-            transformCommentState(comment, fromLocal);
+            if (transformState(comment, fromLocal)) {
+                transformedComments.add(comment);
+            }
+        }
+        if (!transformedComments.isEmpty()) {
+            QiscusCore.getDataStore().addOrUpdateComments(transformedComments);
         }
     }
 
     public void transformCommentState(QiscusComment qiscusComment, boolean fromLocal) {
+        if (transformState(qiscusComment, fromLocal)) {
+            QiscusCore.getDataStore().addOrUpdate(qiscusComment);
+        }
+    }
+
+    /**
+     * Delivered and read state are derived from the room watermarks by the data store,
+     * so only the local send state need to be saved. Comments loaded from the server are not saved here,
+     * the caller must save them before transforming, with the state sent by the server.
+     *
+     * @return true if the comment state has been transformed and need to be saved
+     */
+    private boolean transformState(QiscusComment qiscusComment, boolean fromLocal) {
         if (fromLocal && qiscusComment.getState() == QiscusComment.STATE_SENDING) {
             qiscusComment.setState(QiscusComment.STATE_PENDING);
-            QiscusCore.getDataStore().addOrUpdate(qiscusComment);
+            return true;
         } else if (qiscusComment.getState() != QiscusComment.STATE_FAILED
                 && qiscusComment.getState() != QiscusComment.STATE_PENDING
                 && qiscusComment.getState() != QiscusComment.STATE_SENDING
@@ -268,9 +279,8 @@ public class QiscusRoomEventHandler {
             } else {
                 qiscusComment.setState(QiscusComment.STATE_ON_QISCUS);
             }
-
-            QiscusCore.getDataStore().addOrUpdate(qiscusComment);
         }
+        return false;
     }
 
     public void onGotComment(QiscusComment qiscusComment) {
@@ -321,10 +331,10 @@ public class QiscusRoomEventHandler {
     }
 
     private void handleMemberAdded(QiscusRoomMember member) {
-        if (!memberState.containsKey(member.getEmail())) {
-            member.setLastDeliveredCommentId(lastDeliveredCommentId.get());
-            member.setLastReadCommentId(lastReadCommentId.get());
-            memberState.put(member.getEmail(), member);
+        member.setLastDeliveredCommentId(lastDeliveredCommentId.get());
+        member.setLastReadCommentId(lastReadCommentId.get());
+        if (memberState.putIfAbsent(member.getEmail(), member) == null) {
+            memberWatermarks.put(member.getEmail(), member.getLastDeliveredCommentId(), member.getLastReadCommentId());
 
             listener.onRoomMemberAdded(member);
             QiscusAndroidUtil.runOnBackgroundThread(() ->
@@ -334,6 +344,7 @@ public class QiscusRoomEventHandler {
 
     private void handleMemberRemoved(QiscusRoomMember member) {
         if (memberState.remove(member.getEmail()) != null) {
+            memberWatermarks.remove(member.getEmail());
             tryUpdateLastState();
 
             listener.onRoomMemberRemoved(member);
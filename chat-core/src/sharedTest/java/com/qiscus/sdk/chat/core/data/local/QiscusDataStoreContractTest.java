@@ -0,0 +1,531 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import com.qiscus.sdk.chat.core.data.model.QiscusChatRoom;
+import com.qiscus.sdk.chat.core.data.model.QiscusComment;
+import com.qiscus.sdk.chat.core.data.model.QiscusRetentionPolicy;
+import com.qiscus.sdk.chat.core.data.model.QiscusRoomMember;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Query semantics every {@link QiscusDataStore} must share, so a store can replace another one without changing
+ * what the SDK sees. Run against {@link QiscusMemoryDataStore} as unit test and against
+ * {@link QiscusDataBaseHelper} as instrumentation test.
+ */
+public abstract class QiscusDataStoreContractTest {
+    private static final long ROOM_ID = 1;
+
+    protected QiscusDataStore dataStore;
+
+    protected abstract QiscusDataStore createDataStore();
+
+    protected void destroyDataStore(QiscusDataStore dataStore) {
+    }
+
+    @Before
+    public void setUp() {
+        dataStore = createDataStore();
+    }
+
+    @After
+    public void tearDown() {
+        destroyDataStore(dataStore);
+    }
+
+    @Test
+    public void addedRoomIsFound() {
+        QiscusChatRoom qiscusChatRoom = QiscusTestData.createRoom(ROOM_ID);
+        qiscusChatRoom.setMember(new ArrayList<>(Arrays.asList(
+                QiscusTestData.createMember("sender1@example.com"),
+                QiscusTestData.createMember("sender2@example.com"))));
+        dataStore.addOrUpdate(qiscusChatRoom);
+
+        assertTrue(dataStore.isContains(qiscusChatRoom));
+        assertFalse(dataStore.isContains(QiscusTestData.createRoom(2)));
+        assertNull(dataStore.getChatRoom(2));
+
+        QiscusChatRoom savedRoom = dataStore.getChatRoom(ROOM_ID);
+        assertEquals("Room 1", savedRoom.getName());
+        assertEquals("room-1", savedRoom.getUniqueId());
+        assertEquals("distinct-1", savedRoom.getDistinctId());
+        assertTrue(savedRoom.isGroup());
+        assertEquals(ROOM_ID, dataStore.getChatRoomWithUniqueId("room-1").getId());
+        assertEquals(ROOM_ID, dataStore.getLightChatRoom(ROOM_ID).getId());
+
+        assertEquals(new HashSet<>(Arrays.asList("sender1@example.com", "sender2@example.com")),
+                getEmails(savedRoom.getMember()));
+        assertEquals(getEmails(savedRoom.getMember()), getEmails(dataStore.getRoomMembers(ROOM_ID)));
+        assertEquals(Collections.singletonList(ROOM_ID),
+                getRoomIds(dataStore.getChatRooms(Collections.emptyList(), Collections.singletonList("room-1"))));
+    }
+
+    @Test
+    public void updatedRoomReplacesFields() {
+        dataStore.addOrUpdate(QiscusTestData.createRoom(ROOM_ID));
+        QiscusChatRoom qiscusChatRoom = QiscusTestData.createRoom(ROOM_ID);
+        qiscusChatRoom.setName("Renamed");
+        dataStore.addOrUpdate(qiscusChatRoom);
+
+        assertEquals("Renamed", dataStore.getChatRoom(ROOM_ID).getName());
+        assertEquals(1, dataStore.getChatRooms(10).size());
+    }
+
+    @Test
+    public void roomsSortedByLastCommentTime() {
+        dataStore.addOrUpdateChatRooms(Arrays.asList(QiscusTestData.createRoom(1),
+                QiscusTestData.createRoom(2), QiscusTestData.createRoom(3)));
+        dataStore.addOrUpdateComments(Arrays.asList(
+                QiscusTestData.createComment(1, 10, 0, 3000),
+                QiscusTestData.createComment(2, 20, 0, 1000)));
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), getRoomIds(dataStore.getChatRooms(10)));
+        assertEquals(Arrays.asList(1L, 2L, 3L), getRoomIds(dataStore.getChatRoomListItems(10)));
+        assertEquals("comment-1-10", dataStore.getChatRoom(1).getLastComment().getUniqueId());
+        assertNull(dataStore.getChatRoom(3).getLastComment());
+
+        dataStore.addOrUpdate(QiscusTestData.createComment(2, 21, 20, 5000));
+
+        List<QiscusChatRoom> qiscusChatRooms = dataStore.getChatRooms(2);
+        assertEquals(Arrays.asList(2L, 1L), getRoomIds(qiscusChatRooms));
+        assertEquals("comment-2-21", qiscusChatRooms.get(0).getLastComment().getUniqueId());
+        assertEquals(Arrays.asList(1L, 3L), getRoomIds(dataStore.getChatRooms(qiscusChatRooms.get(0), 10)));
+    }
+
+    @Test
+    public void nextRoomPageUsesStoredLastComment() {
+        dataStore.addOrUpdateChatRooms(Arrays.asList(QiscusTestData.createRoom(1),
+                QiscusTestData.createRoom(2), QiscusTestData.createRoom(3)));
+        dataStore.addOrUpdateComments(Arrays.asList(
+                QiscusTestData.createComment(1, 10, 0, 3000),
+                QiscusTestData.createComment(2, 20, 0, 2000),
+                QiscusTestData.createComment(3, 30, 0, 1000)));
+
+        QiscusChatRoom lastRoom = dataStore.getChatRooms(1).get(0);
+        lastRoom.setLastComment(QiscusTestData.createComment(1, 11, 10, 500));
+        assertEquals(Arrays.asList(2L, 3L), getRoomIds(dataStore.getChatRooms(lastRoom, 10)));
+
+        lastRoom.setLastComment(null);
+        assertEquals(Arrays.asList(2L, 3L), getRoomIds(dataStore.getChatRooms(lastRoom, 10)));
+    }
+
+    @Test
+    public void deletedRoomIsGone() {
+        dataStore.addOrUpdateChatRooms(Arrays.asList(QiscusTestData.createRoom(1), QiscusTestData.createRoom(2)));
+        dataStore.deleteChatRoom(1);
+
+        assertNull(dataStore.getChatRoom(1));
+        assertNull(dataStore.getChatRoomWithUniqueId("room-1"));
+        assertEquals(Collections.singletonList(2L), getRoomIds(dataStore.getChatRooms(10)));
+    }
+
+    @Test
+    public void addKeepsStoredRoomAndUpdateSkipsMissingRoom() {
+        QiscusChatRoom qiscusChatRoom = QiscusTestData.createRoom(1);
+        qiscusChatRoom.setMember(new ArrayList<>(Collections.singletonList(
+                QiscusTestData.createMember("sender1@example.com"))));
+        qiscusChatRoom.setLastComment(QiscusTestData.createComment(1, 10, 0, 1000));
+        dataStore.add(qiscusChatRoom);
+
+        QiscusChatRoom addedAgain = QiscusTestData.createRoom(1);
+        addedAgain.setName("Added again");
+        dataStore.add(addedAgain);
+        QiscusChatRoom storedRoom = dataStore.getChatRoom(1);
+        assertEquals("Room 1", storedRoom.getName());
+        assertEquals(1, storedRoom.getMember().size());
+        assertEquals("comment-1-10", storedRoom.getLastComment().getUniqueId());
+
+        QiscusChatRoom updatedRoom = QiscusTestData.createRoom(1);
+        updatedRoom.setName("Updated");
+        updatedRoom.setLastComment(QiscusTestData.createComment(1, 11, 10, 2000));
+        dataStore.update(updatedRoom);
+        dataStore.update(QiscusTestData.createRoom(2));
+        storedRoom = dataStore.getChatRoom(1);
+        assertEquals("Updated", storedRoom.getName());
+        assertEquals("comment-1-11", storedRoom.getLastComment().getUniqueId());
+        assertNull(dataStore.getChatRoom(2));
+    }
+
+    @Test
+    public void unreadCountIsCounted() {
+        dataStore.addOrUpdateChatRooms(Arrays.asList(QiscusTestData.createRoom(1), QiscusTestData.createRoom(2)));
+        dataStore.incrementUnreadCount(1);
+        dataStore.incrementUnreadCount(1);
+        dataStore.incrementUnreadCount(2);
+
+        assertEquals(2, dataStore.getChatRoom(1).getUnreadCount());
+        assertEquals(3, dataStore.getTotalUnreadCount());
+
+        dataStore.resetUnreadCount(1);
+
+        assertEquals(0, dataStore.getChatRoom(1).getUnreadCount());
+        assertEquals(1, dataStore.getTotalUnreadCount());
+    }
+
+    @Test
+    public void roomMembersAreAddedAndRemoved() {
+        dataStore.addOrUpdate(QiscusTestData.createRoom(ROOM_ID));
+        QiscusRoomMember qiscusRoomMember = QiscusTestData.createMember("sender1@example.com");
+        qiscusRoomMember.setUsername("Alice");
+        dataStore.addOrUpdateRoomMember(ROOM_ID, qiscusRoomMember, "distinct-1");
+
+        assertTrue(dataStore.isContainsRoomMember(ROOM_ID, "sender1@example.com"));
+        assertFalse(dataStore.isContainsRoomMember(ROOM_ID, "sender2@example.com"));
+        assertTrue(dataStore.isContains(qiscusRoomMember));
+        assertEquals("Alice", dataStore.getMember("sender1@example.com").getUsername());
+
+        dataStore.deleteRoomMember(ROOM_ID, "sender1@example.com");
+
+        assertFalse(dataStore.isContainsRoomMember(ROOM_ID, "sender1@example.com"));
+        assertTrue(dataStore.getRoomMembers(ROOM_ID).isEmpty());
+        assertNotNull(dataStore.getMember("sender1@example.com"));
+    }
+
+    @Test
+    public void commentSenderTakenFromMember() {
+        QiscusRoomMember qiscusRoomMember = QiscusTestData.createMember("sender1@example.com");
+        qiscusRoomMember.setUsername("Alice");
+        qiscusRoomMember.setAvatar("https://example.com/alice.png");
+        dataStore.addOrUpdate(qiscusRoomMember);
+        dataStore.addOrUpdateComments(Arrays.asList(
+                QiscusTestData.createComment(ROOM_ID, 1, 0, 1000),
+                QiscusTestData.createComment(ROOM_ID, 2, 1, 2000)));
+
+        QiscusComment fromMember = dataStore.getComment("comment-1-1");
+        assertEquals("Alice", fromMember.getSender());
+        assertEquals("https://example.com/alice.png", fromMember.getSenderAvatar());
+        QiscusComment withoutMember = dataStore.getComment("comment-1-2");
+        assertEquals("Sender 2", withoutMember.getSender());
+        assertEquals("https://example.com/avatar.png", withoutMember.getSenderAvatar());
+    }
+
+    @Test
+    public void commentsNewestFirstWithoutHardDeleted() {
+        List<QiscusComment> qiscusComments = createComments(ROOM_ID, 5);
+        qiscusComments.get(1).setHardDeleted(true);
+        dataStore.addOrUpdateComments(qiscusComments);
+
+        assertEquals(Arrays.asList(5L, 4L, 3L, 1L), getCommentIds(dataStore.getComments(ROOM_ID)));
+        assertEquals(Arrays.asList(5L, 4L), getCommentIds(dataStore.getComments(ROOM_ID, 2)));
+        assertEquals(5, dataStore.getLatestComment(ROOM_ID).getId());
+        assertEquals(5, dataStore.getLatestComment().getId());
+        assertTrue(dataStore.getComments(2).isEmpty());
+
+        QiscusComment savedComment = dataStore.getComment("comment-1-3");
+        assertEquals(3, savedComment.getId());
+        assertEquals(2, savedComment.getCommentBeforeId());
+        assertEquals("Message number 3 of room 1", savedComment.getMessage());
+        assertEquals(3000, savedComment.getTime().getTime());
+        assertEquals(4, dataStore.getCommentByBeforeId(3).getId());
+    }
+
+    @Test
+    public void olderAndNewerCommentsIncludeTheGivenOne() {
+        List<QiscusComment> qiscusComments = createComments(ROOM_ID, 5);
+        dataStore.addOrUpdateComments(qiscusComments);
+        QiscusComment middle = qiscusComments.get(2);
+
+        assertEquals(Arrays.asList(3L, 2L, 1L), getCommentIds(dataStore.getOlderCommentsThan(middle, ROOM_ID, 10)));
+        assertEquals(Arrays.asList(3L, 2L), getCommentIds(dataStore.getOlderCommentsThan(middle, ROOM_ID, 2)));
+        assertEquals(Arrays.asList(5L, 4L, 3L), getCommentIds(dataStore.getCommentsAfter(middle, ROOM_ID)));
+        assertEquals(Arrays.asList(2L, 1L), getCommentIds(dataStore.getComments(ROOM_ID, 2000L)));
+    }
+
+    @Test
+    public void updatedCommentReplacesFields() {
+        dataStore.addOrUpdateComments(createComments(ROOM_ID, 3));
+        QiscusComment qiscusComment = QiscusTestData.createComment(ROOM_ID, 2, 1, 2000);
+        qiscusComment.setMessage("Edited");
+        qiscusComment.setDeleted(true);
+        dataStore.addOrUpdate(qiscusComment);
+
+        QiscusComment savedComment = dataStore.getComment("comment-1-2");
+        assertEquals("Edited", savedComment.getMessage());
+        assertTrue(savedComment.isDeleted());
+        assertEquals(3, dataStore.getComments(ROOM_ID).size());
+    }
+
+    @Test
+    public void stateDerivedFromWatermarks() {
+        dataStore.addOrUpdateComments(createComments(ROOM_ID, 5));
+        dataStore.updateLastDeliveredComment(ROOM_ID, 4);
+        dataStore.updateLastReadComment(ROOM_ID, 2);
+        // Watermarks never move back
+        dataStore.updateLastReadComment(ROOM_ID, 1);
+
+        assertEquals(QiscusComment.STATE_READ, dataStore.getComment("comment-1-1").getState());
+        assertEquals(QiscusComment.STATE_READ, dataStore.getComment("comment-1-2").getState());
+        assertEquals(QiscusComment.STATE_DELIVERED, dataStore.getComment("comment-1-3").getState());
+        assertEquals(QiscusComment.STATE_DELIVERED, dataStore.getComment("comment-1-4").getState());
+        assertEquals(QiscusComment.STATE_ON_QISCUS, dataStore.getComment("comment-1-5").getState());
+        assertEquals(2, dataStore.getLatestReadComment(ROOM_ID).getId());
+        assertEquals(4, dataStore.getLatestDeliveredComment(ROOM_ID).getId());
+        assertNull(dataStore.getLatestReadComment(2));
+    }
+
+    @Test
+    public void noMemberSentinelIsNotSaved() {
+        dataStore.addOrUpdateComments(createComments(ROOM_ID, 2));
+        dataStore.updateLastReadComment(ROOM_ID, 1);
+        dataStore.updateLastDeliveredComment(ROOM_ID, Long.MAX_VALUE);
+        dataStore.updateLastReadComment(ROOM_ID, Long.MAX_VALUE);
+        dataStore.addOrUpdate(QiscusTestData.createComment(ROOM_ID, 3, 2, 3000));
+
+        assertEquals(QiscusComment.STATE_READ, dataStore.getComment("comment-1-1").getState());
+        assertEquals(QiscusComment.STATE_ON_QISCUS, dataStore.getComment("comment-1-2").getState());
+        assertEquals(QiscusComment.STATE_ON_QISCUS, dataStore.getComment("comment-1-3").getState());
+        assertEquals(1, dataStore.getLatestReadComment(ROOM_ID).getId());
+    }
+
+    @Test
+    public void pendingCommentsOldestFirst() {
+        dataStore.addOrUpdateComments(createComments(ROOM_ID, 2));
+        QiscusComment newer = QiscusTestData.createComment(ROOM_ID, -1, 2, 9000);
+        newer.setUniqueId("pending-newer");
+        newer.setState(QiscusComment.STATE_PENDING);
+        QiscusComment older = QiscusTestData.createComment(ROOM_ID, -1, 2, 8000);
+        older.setUniqueId("pending-older");
+        older.setState(QiscusComment.STATE_PENDING);
+        dataStore.addOrUpdate(newer);
+        dataStore.addOrUpdate(older);
+
+        List<QiscusComment> pendingComments = dataStore.getPendingComments();
+        assertEquals(2, pendingComments.size());
+        assertEquals("pending-older", pendingComments.get(0).getUniqueId());
+        assertEquals("pending-newer", pendingComments.get(1).getUniqueId());
+    }
+
+    @Test
+    public void deletedCommentsAreGone() {
+        List<QiscusComment> qiscusComments = createComments(ROOM_ID, 5);
+        dataStore.addOrUpdateComments(qiscusComments);
+
+        dataStore.delete(qiscusComments.get(4));
+        assertNull(dataStore.getComment("comment-1-5"));
+        assertFalse(dataStore.isContains(qiscusComments.get(4)));
+        assertEquals(4, dataStore.getLatestComment(ROOM_ID).getId());
+
+        assertEquals(2, dataStore.deleteCommentsByRoomId(ROOM_ID, 2000));
+        assertEquals(Arrays.asList(4L, 3L), getCommentIds(dataStore.getComments(ROOM_ID)));
+
+        assertEquals(2, dataStore.deleteCommentsByRoomId(ROOM_ID));
+        assertTrue(dataStore.getComments(ROOM_ID).isEmpty());
+        assertNull(dataStore.getLatestComment(ROOM_ID));
+    }
+
+    @Test
+    public void contiguousCommentsFollowBeforeIds() {
+        dataStore.addOrUpdateComments(createComments(ROOM_ID, 5));
+        dataStore.addOrUpdateComments(Arrays.asList(
+                QiscusTestData.createComment(ROOM_ID, 9, 8, 9000),
+                QiscusTestData.createComment(ROOM_ID, 10, 9, 10000)));
+
+        assertEquals(0, dataStore.getContiguousCommentsStart(ROOM_ID, 5));
+        assertEquals(8, dataStore.getContiguousCommentsStart(ROOM_ID, 10));
+        assertEquals(7, dataStore.getContiguousCommentsStart(ROOM_ID, 7));
+        assertEquals(5, dataStore.getContiguousCommentsStart(2, 5));
+
+        // Filling the gap joins both ranges
+        dataStore.addOrUpdateComments(Arrays.asList(
+                QiscusTestData.createComment(ROOM_ID, 6, 5, 6000),
+                QiscusTestData.createComment(ROOM_ID, 8, 6, 8000)));
+
+        assertEquals(0, dataStore.getContiguousCommentsStart(ROOM_ID, 10));
+    }
+
+    @Test
+    public void commentRangesMergeAcrossPages() {
+        // Pages are loaded newest first, the older page overlaps the newer one
+        dataStore.addOrUpdateComments(createComments(ROOM_ID, 6, 10));
+        assertEquals(5, dataStore.getContiguousCommentsStart(ROOM_ID, 10));
+
+        dataStore.addOrUpdateComments(createComments(ROOM_ID, 3, 7));
+        assertEquals(2, dataStore.getContiguousCommentsStart(ROOM_ID, 10));
+        assertEquals(2, dataStore.getContiguousCommentsStart(ROOM_ID, 4));
+
+        dataStore.addOrUpdateComments(createComments(ROOM_ID, 1, 2));
+        assertEquals(0, dataStore.getContiguousCommentsStart(ROOM_ID, 10));
+
+        // Last comment of the room joins the range too
+        QiscusChatRoom qiscusChatRoom = QiscusTestData.createRoom(ROOM_ID);
+        qiscusChatRoom.setLastComment(QiscusTestData.createComment(ROOM_ID, 11, 10, 11000));
+        dataStore.addOrUpdate(qiscusChatRoom);
+        assertEquals(0, dataStore.getContiguousCommentsStart(ROOM_ID, 11));
+    }
+
+    @Test
+    public void localDeleteSplitsCommentRange() {
+        List<QiscusComment> qiscusComments = createComments(ROOM_ID, 10);
+        dataStore.addOrUpdateComments(qiscusComments);
+
+        dataStore.delete(qiscusComments.get(4));
+        assertEquals(5, dataStore.getContiguousCommentsStart(ROOM_ID, 10));
+        assertEquals(5, dataStore.getContiguousCommentsStart(ROOM_ID, 5));
+        assertEquals(0, dataStore.getContiguousCommentsStart(ROOM_ID, 4));
+
+        // Loaded again from qiscus
+        dataStore.addOrUpdate(QiscusTestData.createComment(ROOM_ID, 5, 4, 5000));
+        assertEquals(0, dataStore.getContiguousCommentsStart(ROOM_ID, 10));
+    }
+
+    @Test
+    public void historyDeleteCutsCommentRange() {
+        dataStore.addOrUpdateComments(createComments(ROOM_ID, 10));
+
+        dataStore.deleteCommentsByRoomId(ROOM_ID, 4000);
+        assertEquals(4, dataStore.getContiguousCommentsStart(ROOM_ID, 10));
+        assertEquals(3, dataStore.getContiguousCommentsStart(ROOM_ID, 3));
+
+        // The comments before it are gone, the range must not reach the first comment again
+        dataStore.addOrUpdate(QiscusTestData.createComment(ROOM_ID, 4, 3, 4000));
+        assertEquals(3, dataStore.getContiguousCommentsStart(ROOM_ID, 10));
+
+        dataStore.deleteCommentsByRoomId(ROOM_ID);
+        assertEquals(10, dataStore.getContiguousCommentsStart(ROOM_ID, 10));
+    }
+
+    @Test
+    public void retentionTrimCutsCommentRange() {
+        dataStore.addOrUpdateComments(createComments(ROOM_ID, 10));
+        dataStore.addOrUpdateComments(createComments(2, 10));
+
+        dataStore.compact(new QiscusRetentionPolicy().setMaxCommentsPerRoom(4), Collections.singleton(2L));
+        assertEquals(6, dataStore.getContiguousCommentsStart(ROOM_ID, 10));
+        assertEquals(Arrays.asList(10L, 9L, 8L, 7L), getCommentIds(dataStore.getComments(ROOM_ID)));
+        assertEquals(0, dataStore.getContiguousCommentsStart(2, 10));
+    }
+
+    @Test
+    public void firstCommentEndsCommentRange() {
+        dataStore.addOrUpdateComments(createComments(ROOM_ID, 3));
+        dataStore.addOrUpdateComments(createComments(2, 5, 6));
+
+        assertEquals(0, dataStore.getContiguousCommentsStart(ROOM_ID, 3));
+        assertEquals(4, dataStore.getContiguousCommentsStart(2, 6));
+
+        dataStore.delete(QiscusTestData.createComment(ROOM_ID, 1, 0, 1000));
+        assertEquals(1, dataStore.getContiguousCommentsStart(ROOM_ID, 3));
+        assertEquals(1, dataStore.getContiguousCommentsStart(ROOM_ID, 1));
+    }
+
+    @Test
+    public void searchMatchesWordPrefix() {
+        List<QiscusComment> qiscusComments = createComments(ROOM_ID, 4);
+        qiscusComments.get(0).setMessage("Hello world");
+        qiscusComments.get(1).setMessage("Goodbye");
+        qiscusComments.get(2).setMessage("well, hello there");
+        qiscusComments.get(3).setMessage("Othello");
+        dataStore.addOrUpdateComments(qiscusComments);
+        dataStore.addOrUpdate(QiscusTestData.createComment(2, 10, 0, 10000));
+
+        assertEquals(Arrays.asList(3L, 1L), getCommentIds(dataStore.searchComments("hel", ROOM_ID, 10, 0)));
+        assertEquals(Collections.singletonList(1L), getCommentIds(dataStore.searchComments("hel", ROOM_ID, 10, 1)));
+        assertEquals(Collections.singletonList(1L), getCommentIds(dataStore.searchComments("hello wor", 10, 0)));
+        assertTrue(dataStore.searchComments("missing", 10, 0).isEmpty());
+        assertTrue(dataStore.searchComments("  ", 10, 0).isEmpty());
+    }
+
+    @Test
+    public void localPathIsSavedOnce() {
+        dataStore.addOrUpdateComments(createComments(ROOM_ID, 2));
+        dataStore.saveLocalPath(ROOM_ID, 1, "/sdcard/Qiscus/first.png");
+        dataStore.saveLocalPath(ROOM_ID, 1, "/sdcard/Qiscus/second.png");
+
+        assertTrue(dataStore.isContainsFileOfComment(1));
+        assertFalse(dataStore.isContainsFileOfComment(2));
+        // The file doesn't exist on disk
+        assertNull(dataStore.getLocalPath(1));
+
+        dataStore.deleteLocalPath(1);
+
+        assertFalse(dataStore.isContainsFileOfComment(1));
+    }
+
+    @Test
+    public void clearRemovesEverything() {
+        QiscusChatRoom qiscusChatRoom = QiscusTestData.createRoom(ROOM_ID);
+        qiscusChatRoom.setMember(new ArrayList<>(Collections.singletonList(
+                QiscusTestData.createMember("sender1@example.com"))));
+        dataStore.addOrUpdate(qiscusChatRoom);
+        dataStore.addOrUpdateComments(createComments(ROOM_ID, 3));
+        dataStore.saveLocalPath(ROOM_ID, 1, "/sdcard/Qiscus/image.png");
+        dataStore.incrementUnreadCount(ROOM_ID);
+
+        dataStore.clear();
+
+        assertNull(dataStore.getChatRoom(ROOM_ID));
+        assertTrue(dataStore.getChatRooms(10).isEmpty());
+        assertNull(dataStore.getMember("sender1@example.com"));
+        assertTrue(dataStore.getComments(ROOM_ID).isEmpty());
+        assertNull(dataStore.getLatestComment());
+        assertFalse(dataStore.isContainsFileOfComment(1));
+        assertEquals(0, dataStore.getTotalUnreadCount());
+    }
+
+    // Comments 1 to count chained by their before id, comment n is sent at n seconds
+    private static List<QiscusComment> createComments(long roomId, int count) {
+        return createComments(roomId, 1, count);
+    }
+
+    private static List<QiscusComment> createComments(long roomId, long firstId, long lastId) {
+        List<QiscusComment> qiscusComments = new ArrayList<>();
+        for (long commentId = firstId; commentId <= lastId; commentId++) {
+            qiscusComments.add(QiscusTestData.createComment(roomId, commentId, commentId - 1, commentId * 1000));
+        }
+        return qiscusComments;
+    }
+
+    private static List<Long> getRoomIds(List<QiscusChatRoom> qiscusChatRooms) {
+        List<Long> roomIds = new ArrayList<>(qiscusChatRooms.size());
+        for (QiscusChatRoom qiscusChatRoom : qiscusChatRooms) {
+            roomIds.add(qiscusChatRoom.getId());
+        }
+        return roomIds;
+    }
+
+    private static List<Long> getCommentIds(List<QiscusComment> qiscusComments) {
+        List<Long> commentIds = new ArrayList<>(qiscusComments.size());
+        for (QiscusComment qiscusComment : qiscusComments) {
+            commentIds.add(qiscusComment.getId());
+        }
+        return commentIds;
+    }
+
+    private static Set<String> getEmails(List<QiscusRoomMember> qiscusRoomMembers) {
+        Set<String> emails = new HashSet<>();
+        for (QiscusRoomMember qiscusRoomMember : qiscusRoomMembers) {
+            emails.add(qiscusRoomMember.getEmail());
+        }
+        return emails;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import com.qiscus.sdk.chat.core.data.model.QiscusChatRoom;
+import com.qiscus.sdk.chat.core.data.model.QiscusComment;
+import com.qiscus.sdk.chat.core.data.model.QiscusRoomMember;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Rooms, members and comments with every stored field set, shared by the unit and the instrumentation tests
+ */
+final class QiscusTestData {
+    private QiscusTestData() {
+    }
+
+    static QiscusChatRoom createRoom(long roomId) {
+        QiscusChatRoom qiscusChatRoom = new QiscusChatRoom();
+        qiscusChatRoom.setId(roomId);
+        qiscusChatRoom.setUniqueId("room-" + roomId);
+        qiscusChatRoom.setDistinctId("distinct-" + roomId);
+        qiscusChatRoom.setName("Room " + roomId);
+        qiscusChatRoom.setGroup(true);
+        qiscusChatRoom.setRawOptions("{}");
+        qiscusChatRoom.setMember(new ArrayList<>());
+        return qiscusChatRoom;
+    }
+
+    static QiscusRoomMember createMember(String email) {
+        QiscusRoomMember qiscusRoomMember = new QiscusRoomMember();
+        qiscusRoomMember.setEmail(email);
+        qiscusRoomMember.setUsername(email);
+        qiscusRoomMember.setAvatar("https://example.com/" + email + ".png");
+        qiscusRoomMember.setRawExtras("{}");
+        return qiscusRoomMember;
+    }
+
+    static QiscusComment createComment(long roomId, long commentId, long commentBeforeId, long time) {
+        QiscusComment qiscusComment = new QiscusComment();
+        qiscusComment.setId(commentId);
+        qiscusComment.setRoomId(roomId);
+        qiscusComment.setUniqueId("comment-" + roomId + "-" + commentId);
+        qiscusComment.setCommentBeforeId(commentBeforeId);
+        qiscusComment.setMessage("Message number " + commentId + " of room " + roomId);
+        qiscusComment.setSender("Sender " + commentId % 10);
+        qiscusComment.setSenderEmail("sender" + commentId % 10 + "@example.com");
+        qiscusComment.setSenderAvatar("https://example.com/avatar.png");
+        qiscusComment.setTime(new Date(time));
+        qiscusComment.setState(QiscusComment.STATE_ON_QISCUS);
+        qiscusComment.setRawType("text");
+        qiscusComment.setExtraPayload("{}");
+        qiscusComment.setRawExtras("{}");
+        return qiscusComment;
+    }
+}
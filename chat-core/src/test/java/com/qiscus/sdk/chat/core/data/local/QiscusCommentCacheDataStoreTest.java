@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import com.qiscus.sdk.chat.core.data.model.QiscusComment;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rx.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QiscusCommentCacheDataStoreTest {
+    private QiscusMemoryDataStore delegate;
+
+    @Before
+    public void setUp() {
+        delegate = new QiscusMemoryDataStore(new QiscusDbInvalidationTracker(Schedulers.computation()));
+    }
+
+    @Test
+    public void coveredPageIsAnsweredFromWindow() {
+        QiscusCommentCacheDataStore dataStore = createDataStore(10, 5, Long.MAX_VALUE);
+        addComments(dataStore, 1, 8);
+
+        assertEquals(Arrays.asList(8L, 7L, 6L), getIds(dataStore.getComments(1, 3)));
+        assertEquals(0, dataStore.getHitCount());
+        assertEquals(1, dataStore.getMissCount());
+
+        assertEquals(Arrays.asList(8L, 7L, 6L), getIds(dataStore.getComments(1, 3)));
+        assertEquals(Arrays.asList(8L, 7L, 6L, 5L, 4L), getIds(dataStore.getComments(1, 5)));
+        QiscusComment from = delegate.getComment("comment-1-7");
+        assertEquals(getIds(delegate.getOlderCommentsThan(from, 1, 2)),
+                getIds(dataStore.getOlderCommentsThan(from, 1, 2)));
+        assertEquals(8L, dataStore.getLatestComment(1).getId());
+        assertEquals(4, dataStore.getHitCount());
+        assertEquals(1, dataStore.getMissCount());
+    }
+
+    @Test
+    public void uncoveredPageIsLoadedFromDelegate() {
+        QiscusCommentCacheDataStore dataStore = createDataStore(10, 5, Long.MAX_VALUE);
+        addComments(dataStore, 1, 8);
+        dataStore.getComments(1, 3);
+
+        QiscusComment from = delegate.getComment("comment-1-5");
+        assertEquals(Arrays.asList(5L, 4L, 3L), getIds(dataStore.getOlderCommentsThan(from, 1, 3)));
+        assertEquals(Arrays.asList(8L, 7L, 6L, 5L, 4L, 3L, 2L, 1L), getIds(dataStore.getComments(1)));
+        // Bigger than the window, sent to the delegate without looking at the window
+        assertEquals(Arrays.asList(8L, 7L, 6L, 5L, 4L, 3L), getIds(dataStore.getComments(1, 6)));
+        assertEquals(0, dataStore.getHitCount());
+        assertEquals(3, dataStore.getMissCount());
+    }
+
+    @Test
+    public void writesOutsideWindowAreNotCached() {
+        QiscusCommentCacheDataStore dataStore = createDataStore(10, 5, Long.MAX_VALUE);
+        addComments(dataStore, 1, 8);
+        dataStore.getComments(1, 5);
+
+        dataStore.addOrUpdate(QiscusTestData.createComment(1, 20, 0, 2500));
+        QiscusComment oldComment = QiscusTestData.createComment(1, 2, 1, 2000);
+        oldComment.setMessage("Edited");
+        dataStore.update(oldComment);
+
+        assertEquals(Arrays.asList(8L, 7L, 6L, 5L, 4L), getIds(dataStore.getComments(1, 5)));
+        assertEquals(1, dataStore.getHitCount());
+        QiscusComment from = delegate.getComment("comment-1-3");
+        assertEquals(Arrays.asList(3L, 20L, 2L), getIds(dataStore.getOlderCommentsThan(from, 1, 3)));
+        assertEquals("Edited", delegate.getComment("comment-1-2").getMessage());
+
+        dataStore.addOrUpdate(QiscusTestData.createComment(1, 9, 8, 9000));
+        List<QiscusComment> qiscusComments = dataStore.getComments(1, 5);
+        assertEquals(Arrays.asList(9L, 8L, 7L, 6L, 5L), getIds(qiscusComments));
+        assertEquals(delegate.getComment("comment-1-9").getMessage(), qiscusComments.get(0).getMessage());
+        assertEquals(2, dataStore.getHitCount());
+    }
+
+    @Test
+    public void deleteCommentsByRoomIdWithOffset() {
+        QiscusCommentCacheDataStore dataStore = createDataStore(10, 5, Long.MAX_VALUE);
+        addComments(dataStore, 1, 4);
+        addComments(dataStore, 2, 8);
+        dataStore.getComments(1, 3);
+        dataStore.getComments(2, 3);
+
+        // Covered by the whole window of room 1
+        dataStore.deleteCommentsByRoomId(1, 2000);
+        assertEquals(Arrays.asList(4L, 3L), getIds(dataStore.getComments(1)));
+        assertEquals(getIds(delegate.getComments(1)), getIds(dataStore.getComments(1)));
+
+        // Older than the window of room 2, the window is kept
+        dataStore.deleteCommentsByRoomId(2, 2000);
+        assertEquals(Arrays.asList(8L, 7L, 6L, 5L, 4L), getIds(dataStore.getComments(2, 5)));
+        assertEquals(3, dataStore.getHitCount());
+        assertEquals(Arrays.asList(8L, 7L, 6L, 5L, 4L, 3L), getIds(dataStore.getComments(2)));
+        assertEquals(3, dataStore.getMissCount());
+
+        // Inside the window of room 2, older comments are gone so the window now has every comment
+        dataStore.deleteCommentsByRoomId(2, 5000);
+        assertEquals(Arrays.asList(8L, 7L, 6L), getIds(dataStore.getComments(2)));
+        assertEquals(4, dataStore.getHitCount());
+    }
+
+    @Test
+    public void watermarksUpdateCachedState() {
+        QiscusCommentCacheDataStore dataStore = createDataStore(10, 10, Long.MAX_VALUE);
+        dataStore.addOrUpdate(QiscusTestData.createRoom(1));
+        addComments(dataStore, 1, 5);
+        dataStore.getComments(1, 5);
+
+        dataStore.updateLastDeliveredComment(1, 4);
+        dataStore.updateLastReadComment(1, 2);
+
+        List<QiscusComment> qiscusComments = dataStore.getComments(1, 5);
+        assertEquals(1, dataStore.getHitCount());
+        assertEquals(Arrays.asList(QiscusComment.STATE_ON_QISCUS, QiscusComment.STATE_DELIVERED,
+                QiscusComment.STATE_DELIVERED, QiscusComment.STATE_READ, QiscusComment.STATE_READ),
+                getStates(qiscusComments));
+        assertEquals(getStates(delegate.getComments(1, 5)), getStates(qiscusComments));
+    }
+
+    @Test
+    public void leastRecentlyUsedRoomIsEvicted() {
+        QiscusCommentCacheDataStore dataStore = createDataStore(2, 5, Long.MAX_VALUE);
+        for (long roomId = 1; roomId <= 3; roomId++) {
+            addComments(dataStore, roomId, 3);
+        }
+        dataStore.getComments(1, 3);
+        dataStore.getComments(2, 3);
+        dataStore.getComments(1, 3);
+        dataStore.getComments(3, 3);
+        assertEquals(1, dataStore.getHitCount());
+        assertEquals(3, dataStore.getMissCount());
+
+        dataStore.getComments(1, 3);
+        dataStore.getComments(3, 3);
+        assertEquals(3, dataStore.getHitCount());
+        assertEquals(Arrays.asList(3L, 2L, 1L), getIds(dataStore.getComments(2, 3)));
+        assertEquals(4, dataStore.getMissCount());
+    }
+
+    @Test
+    public void windowsAreEvictedOverMemoryBudget() {
+        QiscusCommentCacheDataStore dataStore = createDataStore(10, 5, Long.MAX_VALUE);
+        addComments(dataStore, 1, 5);
+        addComments(dataStore, 2, 5);
+        dataStore.getComments(1, 5);
+        long roomSize = dataStore.getResidentSize();
+        assertTrue(roomSize > 0);
+
+        dataStore.setMaxBytes(roomSize + roomSize / 2);
+        dataStore.getComments(2, 5);
+        assertEquals(roomSize, dataStore.getResidentSize());
+        dataStore.getComments(2, 5);
+        assertEquals(1, dataStore.getHitCount());
+
+        // The last window left is trimmed instead of evicted
+        dataStore.setMaxBytes(roomSize / 2);
+        assertTrue(dataStore.getResidentSize() <= roomSize / 2);
+        assertEquals(Arrays.asList(5L, 4L), getIds(dataStore.getComments(2, 2)));
+        assertEquals(Arrays.asList(5L, 4L, 3L, 2L, 1L), getIds(dataStore.getComments(2, 5)));
+        assertEquals(2, dataStore.getHitCount());
+    }
+
+    private QiscusCommentCacheDataStore createDataStore(int maxRooms, int windowSize, long maxBytes) {
+        return new QiscusCommentCacheDataStore(delegate, maxRooms, windowSize, maxBytes);
+    }
+
+    private static void addComments(QiscusCommentCacheDataStore dataStore, long roomId, int count) {
+        List<QiscusComment> qiscusComments = new ArrayList<>();
+        for (long commentId = 1; commentId <= count; commentId++) {
+            qiscusComments.add(QiscusTestData.createComment(roomId, commentId, commentId - 1, commentId * 1000));
+        }
+        dataStore.addOrUpdateComments(qiscusComments);
+    }
+
+    private static List<Long> getIds(List<QiscusComment> qiscusComments) {
+        List<Long> ids = new ArrayList<>();
+        for (QiscusComment qiscusComment : qiscusComments) {
+            ids.add(qiscusComment.getId());
+        }
+        return ids;
+    }
+
+    private static List<Integer> getStates(List<QiscusComment> qiscusComments) {
+        List<Integer> states = new ArrayList<>();
+        for (QiscusComment qiscusComment : qiscusComments) {
+            states.add(qiscusComment.getState());
+        }
+        return states;
+    }
+}
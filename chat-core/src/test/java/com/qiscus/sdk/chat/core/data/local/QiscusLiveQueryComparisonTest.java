@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import com.qiscus.sdk.chat.core.data.model.QiscusChatRoom;
+import com.qiscus.sdk.chat.core.data.model.QiscusComment;
+import com.qiscus.sdk.chat.core.data.model.QiscusRoomMember;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QiscusLiveQueryComparisonTest {
+
+    @Test
+    public void sameCommentsAreSame() {
+        assertTrue(QiscusDataBaseHelper.isSameComments(createComments(), createComments()));
+    }
+
+    @Test
+    public void commentTypeOrExtrasChangeIsNotSame() {
+        List<QiscusComment> changedType = createComments();
+        changedType.get(1).setRawType("custom");
+        List<QiscusComment> changedExtras = createComments();
+        changedExtras.get(1).setRawExtras("{\"pinned\":true}");
+        List<QiscusComment> changedPayload = createComments();
+        changedPayload.get(1).setExtraPayload("{\"url\":\"https://example.com/image.png\"}");
+
+        assertFalse(QiscusDataBaseHelper.isSameComments(createComments(), changedType));
+        assertFalse(QiscusDataBaseHelper.isSameComments(createComments(), changedExtras));
+        assertFalse(QiscusDataBaseHelper.isSameComments(createComments(), changedPayload));
+    }
+
+    @Test
+    public void commentStateOrSizeChangeIsNotSame() {
+        List<QiscusComment> changedState = createComments();
+        changedState.get(0).setState(QiscusComment.STATE_READ);
+
+        assertFalse(QiscusDataBaseHelper.isSameComments(createComments(), changedState));
+        assertFalse(QiscusDataBaseHelper.isSameComments(createComments(), createComments().subList(0, 1)));
+    }
+
+    @Test
+    public void sameRoomsAreSame() {
+        assertTrue(QiscusDataBaseHelper.isSameChatRooms(createRooms(), createRooms()));
+
+        QiscusChatRoom withoutLastComment = QiscusTestData.createRoom(3);
+        assertTrue(QiscusDataBaseHelper.isSameChatRooms(Collections.singletonList(withoutLastComment),
+                Collections.singletonList(QiscusTestData.createRoom(3))));
+    }
+
+    @Test
+    public void roomColumnChangeIsNotSame() {
+        List<QiscusChatRoom> changedOptions = createRooms();
+        changedOptions.get(0).setRawOptions("{\"color\":\"red\"}");
+        List<QiscusChatRoom> changedUnreadCount = createRooms();
+        changedUnreadCount.get(1).setUnreadCount(3);
+
+        assertFalse(QiscusDataBaseHelper.isSameChatRooms(createRooms(), changedOptions));
+        assertFalse(QiscusDataBaseHelper.isSameChatRooms(createRooms(), changedUnreadCount));
+    }
+
+    @Test
+    public void lastCommentChangeIsNotSame() {
+        List<QiscusChatRoom> changedExtras = createRooms();
+        changedExtras.get(0).getLastComment().setRawExtras("{\"pinned\":true}");
+        List<QiscusChatRoom> withoutLastComment = createRooms();
+        withoutLastComment.get(0).setLastComment(null);
+
+        assertFalse(QiscusDataBaseHelper.isSameChatRooms(createRooms(), changedExtras));
+        assertFalse(QiscusDataBaseHelper.isSameChatRooms(createRooms(), withoutLastComment));
+    }
+
+    @Test
+    public void memberChangeIsNotSame() {
+        List<QiscusChatRoom> changedWatermark = createRooms();
+        changedWatermark.get(1).getMember().get(0).setLastReadCommentId(20);
+        List<QiscusChatRoom> changedProfile = createRooms();
+        changedProfile.get(1).getMember().get(0).setAvatar("https://example.com/new.png");
+        List<QiscusChatRoom> removedMember = createRooms();
+        removedMember.get(1).getMember().remove(1);
+
+        assertFalse(QiscusDataBaseHelper.isSameChatRooms(createRooms(), changedWatermark));
+        assertFalse(QiscusDataBaseHelper.isSameChatRooms(createRooms(), changedProfile));
+        assertFalse(QiscusDataBaseHelper.isSameChatRooms(createRooms(), removedMember));
+    }
+
+    private static List<QiscusComment> createComments() {
+        return new ArrayList<>(Arrays.asList(
+                QiscusTestData.createComment(1, 2, 1, 2000),
+                QiscusTestData.createComment(1, 1, 0, 1000)));
+    }
+
+    private static List<QiscusChatRoom> createRooms() {
+        List<QiscusChatRoom> qiscusChatRooms = new ArrayList<>();
+        for (long roomId = 1; roomId <= 2; roomId++) {
+            QiscusChatRoom qiscusChatRoom = QiscusTestData.createRoom(roomId);
+            qiscusChatRoom.setLastComment(QiscusTestData.createComment(roomId, roomId, 0, roomId * 1000));
+            List<QiscusRoomMember> qiscusRoomMembers = new ArrayList<>(Arrays.asList(
+                    QiscusTestData.createMember("sender1@example.com"),
+                    QiscusTestData.createMember("sender2@example.com")));
+            qiscusRoomMembers.get(0).setLastReadCommentId(10);
+            qiscusChatRoom.setMember(qiscusRoomMembers);
+            qiscusChatRooms.add(qiscusChatRoom);
+        }
+        return qiscusChatRooms;
+    }
+}
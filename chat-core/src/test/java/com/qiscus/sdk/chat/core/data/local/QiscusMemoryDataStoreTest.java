@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.data.local;
+
+import rx.schedulers.Schedulers;
+
+public class QiscusMemoryDataStoreTest extends QiscusDataStoreContractTest {
+    @Override
+    protected QiscusDataStore createDataStore() {
+        // Live queries are dispatched without QiscusCore, it's not initialized in unit tests
+        return new QiscusMemoryDataStore(new QiscusDbInvalidationTracker(Schedulers.computation()));
+    }
+}
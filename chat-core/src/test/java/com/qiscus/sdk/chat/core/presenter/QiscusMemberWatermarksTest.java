@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.chat.core.presenter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QiscusMemberWatermarksTest {
+    private QiscusMemberWatermarks watermarks;
+
+    @Before
+    public void setUp() {
+        watermarks = new QiscusMemberWatermarks();
+    }
+
+    @Test
+    public void emptyHasNoMin() {
+        assertEquals(Long.MAX_VALUE, watermarks.getMinLastDelivered());
+        assertEquals(Long.MAX_VALUE, watermarks.getMinLastRead());
+    }
+
+    @Test
+    public void minIsSmallestOfMembers() {
+        watermarks.put("a", 30, 20);
+        watermarks.put("b", 10, 5);
+        watermarks.put("c", 20, 15);
+
+        assertEquals(10, watermarks.getMinLastDelivered());
+        assertEquals(5, watermarks.getMinLastRead());
+    }
+
+    @Test
+    public void duplicateMinStaysUntilLastMemberMoves() {
+        watermarks.put("a", 10, 10);
+        watermarks.put("b", 10, 10);
+        watermarks.put("c", 20, 20);
+
+        assertTrue(watermarks.updateLastDelivered("a", 15));
+        assertEquals(10, watermarks.getMinLastDelivered());
+
+        assertTrue(watermarks.updateLastDelivered("b", 25));
+        assertEquals(15, watermarks.getMinLastDelivered());
+    }
+
+    @Test
+    public void putAgainReplacesMember() {
+        watermarks.put("a", 10, 5);
+        watermarks.put("b", 20, 20);
+        watermarks.put("a", 30, 25);
+
+        assertEquals(20, watermarks.getMinLastDelivered());
+        assertEquals(20, watermarks.getMinLastRead());
+    }
+
+    @Test
+    public void watermarksOnlyMoveForward() {
+        watermarks.put("a", 10, 5);
+
+        assertFalse(watermarks.updateLastDelivered("a", 10));
+        assertFalse(watermarks.updateLastDelivered("a", 3));
+        assertFalse(watermarks.updateLastRead("a", 5));
+        assertEquals(10, watermarks.getMinLastDelivered());
+        assertEquals(5, watermarks.getMinLastRead());
+    }
+
+    @Test
+    public void unknownMemberIsIgnored() {
+        watermarks.put("a", 10, 5);
+
+        assertFalse(watermarks.updateLastDelivered("b", 20));
+        assertFalse(watermarks.updateLastRead("b", 20));
+        assertFalse(watermarks.remove("b"));
+        assertEquals(10, watermarks.getMinLastDelivered());
+        assertEquals(5, watermarks.getMinLastRead());
+    }
+
+    @Test
+    public void readMovesDeliveredToo() {
+        watermarks.put("a", 10, 5);
+        watermarks.put("b", 40, 30);
+
+        assertTrue(watermarks.updateLastRead("a", 20));
+        assertEquals(20, watermarks.getMinLastDelivered());
+        assertEquals(20, watermarks.getMinLastRead());
+
+        assertTrue(watermarks.updateLastRead("a", 35));
+        assertEquals(35, watermarks.getMinLastDelivered());
+        assertEquals(30, watermarks.getMinLastRead());
+    }
+
+    @Test
+    public void removeMinMemberFindsNextMin() {
+        watermarks.put("a", 10, 5);
+        watermarks.put("b", 20, 15);
+        watermarks.put("c", 30, 25);
+
+        assertTrue(watermarks.remove("a"));
+        assertEquals(20, watermarks.getMinLastDelivered());
+        assertEquals(15, watermarks.getMinLastRead());
+
+        assertTrue(watermarks.remove("c"));
+        assertEquals(20, watermarks.getMinLastDelivered());
+        assertEquals(15, watermarks.getMinLastRead());
+
+        assertTrue(watermarks.remove("b"));
+        assertEquals(Long.MAX_VALUE, watermarks.getMinLastDelivered());
+        assertEquals(Long.MAX_VALUE, watermarks.getMinLastRead());
+    }
+
+    @Test
+    public void removeDuplicateMinKeepsIt() {
+        watermarks.put("a", 10, 5);
+        watermarks.put("b", 10, 5);
+
+        assertTrue(watermarks.remove("a"));
+        assertEquals(10, watermarks.getMinLastDelivered());
+        assertEquals(5, watermarks.getMinLastRead());
+    }
+
+    @Test
+    public void clearRemovesEveryMember() {
+        watermarks.put("a", 10, 5);
+        watermarks.clear();
+
+        assertEquals(Long.MAX_VALUE, watermarks.getMinLastDelivered());
+        assertFalse(watermarks.remove("a"));
+
+        watermarks.put("b", 20, 15);
+        assertEquals(20, watermarks.getMinLastDelivered());
+        assertEquals(15, watermarks.getMinLastRead());
+    }
+
+    @Test
+    public void minMatchesScanAfterRandomUpdates() {
+        int members = 100;
+        long[] delivered = new long[members];
+        long[] read = new long[members];
+        for (int i = 0; i < members; i++) {
+            watermarks.put("member" + i, 0, 0);
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            int member = random.nextInt(members);
+            long commentId = random.nextInt(5000);
+            if (random.nextBoolean()) {
+                watermarks.updateLastRead("member" + member, commentId);
+                read[member] = Math.max(read[member], commentId);
+            } else {
+                watermarks.updateLastDelivered("member" + member, commentId);
+            }
+            delivered[member] = Math.max(delivered[member], Math.max(read[member], commentId));
+
+            assertEquals(min(delivered), watermarks.getMinLastDelivered());
+            assertEquals(min(read), watermarks.getMinLastRead());
+        }
+    }
+
+    @Test
+    public void tenThousandMembers() {
+        int members = 10000;
+        long start = System.nanoTime();
+        for (int i = 0; i < members; i++) {
+            watermarks.put("member" + i, i, i);
+        }
+        // Every member reads the comment one by one, the smallest is asked after every receipt like the handler does
+        for (long commentId = members; commentId < members + 10; commentId++) {
+            for (int i = 0; i < members; i++) {
+                watermarks.updateLastRead("member" + i, commentId);
+                watermarks.getMinLastDelivered();
+                watermarks.getMinLastRead();
+            }
+            assertEquals(commentId, watermarks.getMinLastRead());
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(members + 9, watermarks.getMinLastDelivered());
+        // 110k updates, a scan of all members per receipt would be 200M reads
+        assertTrue("Took " + elapsedMs + " ms", elapsedMs < 2000);
+    }
+
+    private static long min(long[] values) {
+        long min = Long.MAX_VALUE;
+        for (long value : values) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+}
@@ -357,6 +357,7 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
                 })
                 .doOnNext(roomData -> {
                     roomEventHandler.setRoom(roomData.first);
+                    Qiscus.getDataStore().addOrUpdateComments(roomData.second);
                     roomEventHandler.transformCommentState(roomData.second, false);
 
                     Collections.sort(roomData.second, (lhs, rhs) -> rhs.getTime().compareTo(lhs.getTime()));
@@ -369,11 +370,12 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
 
     private Observable<List<QiscusComment>> getCommentsFromNetwork(long lastCommentId) {
         return QiscusApi.getInstance().getComments(room.getId(), lastCommentId)
-                .doOnNext(qiscusComment -> {
-                    qiscusComment.setRoomId(room.getId());
-                    roomEventHandler.transformCommentState(qiscusComment, false);
-                })
+                .doOnNext(qiscusComment -> qiscusComment.setRoomId(room.getId()))
                 .toSortedList(commentComparator)
+                .doOnNext(comments -> {
+                    Qiscus.getDataStore().addOrUpdateComments(comments);
+                    roomEventHandler.transformCommentState(comments, false);
+                })
                 .subscribeOn(Schedulers.io());
     }
 
@@ -427,28 +429,39 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
         return comments;
     }
 
-    private boolean isValidOlderComments(List<QiscusComment> qiscusComments, QiscusComment lastQiscusComment) {
-        if (qiscusComments.isEmpty()) return false;
-
-        qiscusComments = cleanFailedComments(qiscusComments);
-        boolean containsLastValidComment = qiscusComments.size() <= 0 || lastQiscusComment.getId() == -1;
-        int size = qiscusComments.size();
-
-        if (size == 1) {
-            return qiscusComments.get(0).getCommentBeforeId() == 0
-                    && lastQiscusComment.getCommentBeforeId() == qiscusComments.get(0).getId();
-        }
-
-        for (int i = 0; i < size - 1; i++) {
-            if (!containsLastValidComment && qiscusComments.get(i).getId() == lastQiscusComment.getCommentBeforeId()) {
-                containsLastValidComment = true;
+    /**
+     * Keep the local comments known to have no gap with the last shown comment, the rest are shown by the next load.
+     *
+     * @return null if none of the comments can be shown, so the older comments must be loaded from network
+     */
+    private List<QiscusComment> getContiguousOlderComments(List<QiscusComment> qiscusComments,
+                                                           QiscusComment lastQiscusComment) {
+        long lastCommentId = lastQiscusComment.getId();
+        if (lastCommentId == -1) {
+            // The last shown comment is not sent yet, start from the newest sent comment
+            for (QiscusComment qiscusComment : qiscusComments) {
+                if (qiscusComment.getId() != -1) {
+                    lastCommentId = qiscusComment.getId();
+                    break;
+                }
+            }
+            if (lastCommentId == -1) {
+                return qiscusComments.isEmpty() ? null : qiscusComments;
             }
+        }
 
-            if (qiscusComments.get(i).getCommentBeforeId() != qiscusComments.get(i + 1).getId()) {
-                return false;
+        long start = Qiscus.getDataStore().getContiguousCommentsStart(room.getId(), lastCommentId);
+        List<QiscusComment> comments = new ArrayList<>();
+        boolean containsSentComment = false;
+        for (QiscusComment qiscusComment : qiscusComments) {
+            if (qiscusComment.getId() == -1) {
+                comments.add(qiscusComment);
+            } else if (qiscusComment.getId() > start) {
+                comments.add(qiscusComment);
+                containsSentComment = true;
             }
         }
-        return containsLastValidComment;
+        return containsSentComment || start == 0 ? comments : null;
     }
 
     private boolean isValidChainingComments(List<QiscusComment> qiscusComments) {
@@ -478,16 +491,19 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
                     updateRepliedSender(comments);
                     roomEventHandler.transformCommentState(comments, true);
                 })
-                .flatMap(comments -> isValidOlderComments(comments, qiscusComment) ?
-                        Observable.from(comments).toSortedList(commentComparator) :
-                        getCommentsFromNetwork(qiscusComment.getId()).map(comments1 -> {
-                            for (QiscusComment localComment : comments) {
-                                if (localComment.getState() <= QiscusComment.STATE_SENDING) {
-                                    comments1.add(localComment);
+                .flatMap(comments -> {
+                    List<QiscusComment> contiguousComments = getContiguousOlderComments(comments, qiscusComment);
+                    return contiguousComments != null ?
+                            Observable.from(contiguousComments).toSortedList(commentComparator) :
+                            getCommentsFromNetwork(qiscusComment.getId()).map(comments1 -> {
+                                for (QiscusComment localComment : comments) {
+                                    if (localComment.getState() <= QiscusComment.STATE_SENDING) {
+                                        comments1.add(localComment);
+                                    }
                                 }
-                            }
-                            return comments1;
-                        }))
+                                return comments1;
+                            });
+                })
                 .subscribeOn(Schedulers.newThread())
                 .observeOn(AndroidSchedulers.mainThread())
                 .compose(bindToLifecycle())
@@ -530,11 +546,12 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
 
     public void loadCommentsAfter(QiscusComment comment) {
         QiscusApi.getInstance().getCommentsAfter(room.getId(), comment.getId())
-                .doOnNext(qiscusComment -> {
-                    qiscusComment.setRoomId(room.getId());
-                    roomEventHandler.transformCommentState(qiscusComment, false);
-                })
+                .doOnNext(qiscusComment -> qiscusComment.setRoomId(room.getId()))
                 .toSortedList(commentComparator)
+                .doOnNext(comments -> {
+                    Qiscus.getDataStore().addOrUpdateComments(comments);
+                    roomEventHandler.transformCommentState(comments, false);
+                })
                 .doOnNext(Collections::reverse)
                 .subscribeOn(Schedulers.newThread())
                 .observeOn(AndroidSchedulers.mainThread())
@@ -718,16 +735,13 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
 
     private void clearUnreadCount() {
         room.setUnreadCount(0);
-        room.setLastComment(null);
-        Qiscus.getDataStore().addOrUpdate(room);
+        Qiscus.getDataStore().resetUnreadCount(room.getId());
     }
 
     @Override
     public void detachView() {
         super.detachView();
-        for (Map.Entry<QiscusComment, Subscription> entry : pendingTask.entrySet()) {
-            roomEventHandler.transformCommentState(entry.getKey(), true);
-        }
+        roomEventHandler.transformCommentState(new ArrayList<>(pendingTask.keySet()), true);
         roomEventHandler.detach();
         clearUnreadCount();
         room = null;
@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import rx.Observable;
 import rx.Subscription;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.schedulers.Schedulers;
@@ -42,6 +43,7 @@ import rx.schedulers.Schedulers;
  * GitHub     : https://github.com/zetbaitsu
  */
 public class QiscusPhotoViewerPresenter extends QiscusPresenter<QiscusPhotoViewerPresenter.View> {
+    private static final int PAGE_SIZE = 100;
 
     private Subscription downloadSubscription;
 
@@ -51,21 +53,7 @@ public class QiscusPhotoViewerPresenter extends QiscusPresenter<QiscusPhotoViewe
 
     public void loadQiscusPhotos(long roomId) {
         view.showLoading();
-        Qiscus.getDataStore()
-                .getObservableComments(roomId)
-                .map(qiscusComments -> {
-                    List<Pair<QiscusComment, File>> qiscusPhotos = new ArrayList<>();
-                    for (QiscusComment qiscusComment : qiscusComments) {
-                        if (qiscusComment.isImage()) {
-                            File localPath = Qiscus.getDataStore().getLocalPath(qiscusComment.getId());
-                            if (localPath != null) {
-                                qiscusPhotos.add(Pair.create(qiscusComment, localPath));
-                            }
-                        }
-                    }
-                    Collections.reverse(qiscusPhotos);
-                    return qiscusPhotos;
-                })
+        Observable.fromCallable(() -> loadDownloadedPhotos(roomId))
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(qiscusPhotos -> {
@@ -83,6 +71,25 @@ public class QiscusPhotoViewerPresenter extends QiscusPresenter<QiscusPhotoViewe
                 });
     }
 
+    private List<Pair<QiscusComment, File>> loadDownloadedPhotos(long roomId) {
+        List<Pair<QiscusComment, File>> qiscusPhotos = new ArrayList<>();
+        QiscusComment lastComment = null;
+        List<Pair<QiscusComment, File>> page;
+        do {
+            page = Qiscus.getDataStore().getMediaComments(roomId, QiscusComment.Type.IMAGE, lastComment, PAGE_SIZE);
+            for (Pair<QiscusComment, File> qiscusPhoto : page) {
+                if (qiscusPhoto.second.exists()) {
+                    qiscusPhotos.add(qiscusPhoto);
+                }
+            }
+            if (!page.isEmpty()) {
+                lastComment = page.get(page.size() - 1).first;
+            }
+        } while (page.size() == PAGE_SIZE);
+        Collections.reverse(qiscusPhotos);
+        return qiscusPhotos;
+    }
+
     public void downloadFile(QiscusComment qiscusComment) {
         if (qiscusComment.isDownloading()) {
             return;
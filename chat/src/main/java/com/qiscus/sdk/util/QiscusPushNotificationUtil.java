@@ -110,18 +110,17 @@ public final class QiscusPushNotificationUtil {
     }
 
     private static void updateUnreadCount(QiscusComment qiscusComment) {
-        QiscusChatRoom room = Qiscus.getDataStore().getChatRoom(qiscusComment.getRoomId());
+        QiscusChatRoom room = Qiscus.getDataStore().getLightChatRoom(qiscusComment.getRoomId());
         if (room == null) {
             fetchRoomData(qiscusComment.getRoomId());
             return;
         }
 
         if (qiscusComment.isMyComment()) {
-            room.setUnreadCount(0);
+            Qiscus.getDataStore().resetUnreadCount(room.getId());
         } else {
-            room.setUnreadCount(room.getUnreadCount() + 1);
+            Qiscus.getDataStore().incrementUnreadCount(room.getId());
         }
-        Qiscus.getDataStore().addOrUpdate(room);
     }
 
     private static void fetchRoomData(long roomId) {